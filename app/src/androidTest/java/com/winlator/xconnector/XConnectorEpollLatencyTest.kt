@@ -0,0 +1,123 @@
+package com.winlator.xconnector
+
+import android.net.LocalSocket
+import android.net.LocalSocketAddress
+import android.util.Log
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import java.io.DataInputStream
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * Round-trip latency of a client that sends small requests while a neighbour floods the same connector
+ * with large ones, the way a PutImage stream competes with a GDI thread's round trips.
+ */
+@RunWith(AndroidJUnit4::class)
+class XConnectorEpollLatencyTest {
+
+    private class Latency(val p50Us: Long, val p99Us: Long, val floodedBytes: Long)
+
+    // Frame: int sequence, int payload length, payload. Empty payloads are pings and get their sequence echoed.
+    private class FrameHandler : ConnectionHandler, RequestHandler {
+        @Volatile
+        var checksum = 0L
+
+        override fun handleNewConnection(client: Client) {
+            client.createIOStreams()
+        }
+
+        override fun handleConnectionShutdown(client: Client) {}
+
+        override fun handleRequest(client: Client): Boolean {
+            val inputStream = client.inputStream
+            if (inputStream.available() < 8) return false
+            val sequence = inputStream.readInt()
+            val length = inputStream.readInt()
+            if (inputStream.available() < length) return false
+
+            if (length == 0) {
+                val outputStream = client.outputStream
+                outputStream.lock().use { outputStream.writeInt(sequence) }
+            } else {
+                // Stand-in for the per-pixel work of a large image upload
+                val payload = inputStream.readByteBuffer(length)
+                var sum = 0L
+                while (payload.hasRemaining()) sum += payload.get()
+                checksum += sum
+            }
+            return true
+        }
+    }
+
+    private fun frame(sequence: Int, payload: Int): ByteArray =
+        ByteBuffer.allocate(8 + payload).order(ByteOrder.LITTLE_ENDIAN).putInt(sequence).putInt(payload).array()
+
+    private fun connect(path: String): LocalSocket =
+        LocalSocket().apply { connect(LocalSocketAddress(path, LocalSocketAddress.Namespace.FILESYSTEM)) }
+
+    private fun measure(reactorCount: Int): Latency {
+        val rootPath = InstrumentationRegistry.getInstrumentation().targetContext.cacheDir.path
+        val socketConfig = UnixSocketConfig.createSocket(rootPath, "/tmp/.xconnector-test/L$reactorCount")
+        val handler = FrameHandler()
+        val connector = XConnectorEpoll(socketConfig, handler, handler)
+        connector.setInitialInputBufferCapacity(262144)
+        connector.setReactorCount(reactorCount)
+        connector.start()
+
+        val flooder = connect(socketConfig.path)
+        val flooding = AtomicBoolean(true)
+        var floodedBytes = 0L
+        val floodThread = Thread {
+            val image = frame(0, 64 * 1024)
+            try {
+                while (flooding.get()) {
+                    flooder.outputStream.write(image)
+                    floodedBytes += image.size
+                }
+            } catch (e: IOException) {
+            }
+        }
+        floodThread.start()
+        // Let the flooder take the first reactor before the probe connects
+        Thread.sleep(200)
+
+        val probe = connect(socketConfig.path)
+        val replies = DataInputStream(probe.inputStream)
+        val samples = LongArray(500)
+        for (i in samples.indices) {
+            val start = System.nanoTime()
+            probe.outputStream.write(frame(i + 1, 0))
+            val echoed = Integer.reverseBytes(replies.readInt())
+            samples[i] = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start)
+            assertEquals(i + 1, echoed)
+        }
+
+        flooding.set(false)
+        probe.close()
+        flooder.close()
+        floodThread.join()
+        connector.stop()
+
+        samples.sort()
+        return Latency(samples[samples.size / 2], samples[samples.size * 99 / 100], floodedBytes)
+    }
+
+    @Test
+    fun floodingNeighbourOnlyDelaysItsOwnReactor() {
+        val single = measure(reactorCount = 1)
+        val sharded = measure(reactorCount = 2)
+
+        Log.i("XConnectorEpollLatency", "1 reactor: p50 ${single.p50Us}us, p99 ${single.p99Us}us, flooded ${single.floodedBytes shr 20}MB")
+        Log.i("XConnectorEpollLatency", "2 reactors: p50 ${sharded.p50Us}us, p99 ${sharded.p99Us}us, flooded ${sharded.floodedBytes shr 20}MB")
+
+        assertTrue("p99 ${sharded.p99Us}us with 2 reactors vs ${single.p99Us}us with 1", sharded.p99Us < single.p99Us)
+    }
+}
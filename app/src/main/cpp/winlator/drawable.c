@@ -7,69 +7,27 @@
 #include <android/bitmap.h>
 #include <android/log.h>
 
+#include "pixel_kernels.h"
+#include "raster.h"
+
 #define WHITE 0xffffff
 #define BLACK 0x000000
 #define printf(...) __android_log_print(ANDROID_LOG_DEBUG, "System.out", __VA_ARGS__);
 
-enum GCFunction {GCF_CLEAR, GCF_AND, GCF_AND_REVERSE, GCF_COPY, GCF_AND_INVERTED, GCF_NO_OP, GCF_XOR, GCF_OR, GCF_NOR, GCF_EQUIV, GCF_INVERT, GCF_OR_REVERSE, GCF_COPY_INVERTED, GCF_OR_INVERTED, GCF_NAND, GCF_SET};
-
 static int packColor(int8_t r, int8_t g, int8_t b) {
     return ((r & 0xFF) << 16) | ((g & 0xFF) << 8) | (b & 0xFF);
 }
 
-static void unpackColor(int color, uint8_t *rgba) {
-    rgba[2] = (color >> 16) & 255;
-    rgba[1] = (color >> 8) & 255;
-    rgba[0] = color & 255;
-    rgba[3] = 255;
-}
-
-static int8_t getBit(uint8_t *line, int x) {
-    uint8_t mask = (1 << (x & 7));
-    line += (x >> 3);
-    return (*line & mask) ? 1 : 0;
+static uint32_t opaquePixel(int color) {
+    return 0xff000000 | (color & 0xffffff);
 }
 
 static int getBitmapBytePad(int width) {
     return ((width + 32 - 1) >> 5) << 2;
 }
 
-static int setPixelOp(int srcColor, int dstColor, enum GCFunction gcFunction) {
-    switch (gcFunction) {
-        case GCF_CLEAR :
-            return BLACK;
-        case GCF_AND :
-            return srcColor & dstColor;
-        case GCF_AND_REVERSE :
-            return srcColor & ~dstColor;
-        case GCF_COPY :
-            return srcColor;
-        case GCF_AND_INVERTED :
-            return ~srcColor & dstColor;
-        case GCF_XOR :
-            return srcColor ^ dstColor;
-        case GCF_OR :
-            return srcColor | dstColor;
-        case GCF_NOR :
-            return ~srcColor & ~dstColor;
-        case GCF_EQUIV :
-            return ~srcColor ^ dstColor;
-        case GCF_INVERT :
-            return ~dstColor;
-        case GCF_OR_REVERSE :
-            return srcColor | ~dstColor;
-        case GCF_COPY_INVERTED :
-            return ~srcColor;
-        case GCF_OR_INVERTED :
-            return ~srcColor | dstColor;
-        case GCF_NAND :
-            return ~srcColor | ~dstColor;
-        case GCF_SET :
-            return WHITE;
-        case GCF_NO_OP :
-        default:
-            return dstColor;
-    }
+static bool rectsOverlap(int x0, int y0, int x1, int y1, int width, int height) {
+    return x0 < x1 + width && x1 < x0 + width && y0 < y1 + height && y1 < y0 + height;
 }
 
 JNIEXPORT void JNICALL
@@ -77,17 +35,19 @@ Java_com_winlator_xserver_Drawable_drawBitmap(JNIEnv *env, jclass obj,
                                               jshort width, jshort height, jobject srcData,
                                               jobject dstData) {
     uint8_t *srcDataAddr = (*env)->GetDirectBufferAddress(env, srcData);
-    int *dstDataAddr = (*env)->GetDirectBufferAddress(env, dstData);
+    uint32_t *dstDataAddr = (*env)->GetDirectBufferAddress(env, dstData);
 
     if (!srcDataAddr || !dstDataAddr) {
         printf("Error: NULL buffer address in drawBitmap\n");
         return;
     }
 
+    const PixelKernels *kernels = pixelKernels();
     int stride = getBitmapBytePad(width);
-    for (int16_t y = 0, x; y < height; y++) {
-        for (x = 0; x < width; x++) *dstDataAddr++ = getBit(srcDataAddr, x) ? WHITE : BLACK;
+    for (int16_t y = 0; y < height; y++) {
+        kernels->expandBits(srcDataAddr, dstDataAddr, width, WHITE, BLACK);
         srcDataAddr += stride;
+        dstDataAddr += width;
     }
 }
 
@@ -137,19 +97,20 @@ Java_com_winlator_xserver_Drawable_copyAreaOp(JNIEnv *env, jclass obj, jshort sr
         return;
     }
 
-    for (int16_t y = 0; y < height; y++) {
-        for (int16_t x = 0; x < width; x++) {
-            int i = (x + srcX + (y + srcY) * srcStride) * 4;
-            int j = (x + dstX + (y + dstY) * dstStride) * 4;
-            int srcColor = (srcDataAddr[i+0] << 16) | (srcDataAddr[i+1] << 8) | srcDataAddr[i+2];
-            int dstColor = (dstDataAddr[j+0] << 16) | (dstDataAddr[j+1] << 8) | dstDataAddr[j+2];
+    if (gcFunction < 0 || gcFunction >= PIXEL_KERNELS_GC_FUNCTIONS) return;
 
-            dstColor = setPixelOp(srcColor, dstColor, gcFunction);
+    /* Rows are processed top to bottom; within a row only the scalar kernels read each pixel before the
+     * one in front of it is written, which overlapping copies on the same drawable depend on */
+    const PixelKernels *kernels = pixelKernels();
+    if (srcDataAddr == dstDataAddr && rectsOverlap(srcX, srcY, dstX, dstY, width, height)) {
+        kernels = pixelKernelsForLevel(PK_LEVEL_SCALAR);
+    }
 
-            dstDataAddr[j+0] = (dstColor >> 16) & 0xff;
-            dstDataAddr[j+1] = (dstColor >> 8) & 0xff;
-            dstDataAddr[j+2] = dstColor & 0xff;
-        }
+    void (*rop)(const uint32_t*, uint32_t*, int) = kernels->rop[gcFunction];
+    for (int16_t y = 0; y < height; y++) {
+        const uint32_t *src = (const uint32_t*)srcDataAddr + srcX + (y + srcY) * srcStride;
+        uint32_t *dst = (uint32_t*)dstDataAddr + dstX + (y + dstY) * dstStride;
+        rop(src, dst, width);
     }
 }
 
@@ -164,22 +125,11 @@ Java_com_winlator_xserver_Drawable_fillRect(JNIEnv *env, jclass obj, jshort x, j
         return;
     }
 
-    uint8_t rgba[4];
-    unpackColor(color, rgba);
-
-    int rowSize = width * 4;
-    uint8_t *row = malloc(rowSize);
-    if (!row) {
-        printf("Error: Failed to allocate memory for row\n");
-        return;
-    }
-
-    for (int i = 0; i < rowSize; i += 4) memcpy(row + i, rgba, 4);
+    const PixelKernels *kernels = pixelKernels();
+    uint32_t pixel = opaquePixel(color);
     for (int16_t i = 0; i < height; i++) {
-        memcpy(dataAddr + (x + (i + y) * stride) * 4, row, rowSize);
+        kernels->fill((uint32_t*)dataAddr + x + (i + y) * stride, pixel, width);
     }
-
-    free(row);
 }
 
 JNIEXPORT void JNICALL
@@ -199,23 +149,12 @@ Java_com_winlator_xserver_Drawable_drawLine(JNIEnv *env, jclass obj, jshort x0,
     int8_t sy = y0 < y1 ? 1 : -1;
     int e1 = dx + dy, e2;
 
-    uint8_t rgba[4];
-    unpackColor(color, rgba);
-
-    int rowSize = lineWidth * 4;
-    uint8_t *row = malloc(rowSize);
-    if (!row) {
-        printf("Error: Failed to allocate memory for row\n");
-        return;
-    }
-
-    for (int i = 0; i < rowSize; i += 4) {
-        memcpy(row + i, rgba, 4);
-    }
+    const PixelKernels *kernels = pixelKernels();
+    uint32_t pixel = opaquePixel(color);
 
     while (true) {
         for (int16_t i = 0; i < lineWidth; i++) {
-            memcpy(dataAddr + (x0 + (i + y0) * stride) * 4, row, rowSize);
+            kernels->fill((uint32_t*)dataAddr + x0 + (i + y0) * stride, pixel, lineWidth);
         }
         if (x0 == x1 && y0 == y1) break;
 
@@ -229,8 +168,31 @@ Java_com_winlator_xserver_Drawable_drawLine(JNIEnv *env, jclass obj, jshort x0,
             y0 += sy;
         }
     }
+}
+
+JNIEXPORT jlong JNICALL
+Java_com_winlator_xserver_Drawable_rasterize(JNIEnv *env, jclass obj, jint primitiveType,
+                                             jobject primitives, jint count, jboolean swapBytes,
+                                             jint color, jint lineWidth, jint gcFunction,
+                                             jshort clipX, jshort clipY, jshort clipWidth,
+                                             jshort clipHeight, jshort stride, jobject data) {
+    int16_t *primitivesAddr = (*env)->GetDirectBufferAddress(env, primitives);
+    uint32_t *dataAddr = (*env)->GetDirectBufferAddress(env, data);
+
+    if (!primitivesAddr || !dataAddr) {
+        printf("Error: NULL buffer address in rasterize\n");
+        return 0;
+    }
 
-    free(row);
+    RasterTarget target = {dataAddr, stride, {clipX, clipY, clipWidth, clipHeight}};
+    RasterState state = {color, lineWidth, gcFunction};
+    RasterRect damage = primitiveType == RASTER_LINES ?
+        rasterPolyLine(&target, &state, primitivesAddr, count, swapBytes) :
+        rasterFillRectangles(&target, &state, primitivesAddr, count, swapBytes);
+
+    /* Packed as x, y, width, height from the low bits up, the same as Drawable.packDamage */
+    return (jlong)(uint16_t)damage.x | ((jlong)(uint16_t)damage.y << 16) |
+           ((jlong)(uint16_t)damage.width << 32) | ((jlong)(uint16_t)damage.height << 48);
 }
 
 JNIEXPORT void JNICALL
@@ -240,22 +202,20 @@ Java_com_winlator_xserver_Drawable_drawAlphaMaskedBitmap(JNIEnv *env, jclass obj
                                                          jbyte backGreen, jbyte backBlue,
                                                          jobject srcData, jobject maskData,
                                                          jobject dstData) {
-    int *srcDataAddr = (*env)->GetDirectBufferAddress(env, srcData);
-    int *maskDataAddr = (*env)->GetDirectBufferAddress(env, maskData);
-    int *dstDataAddr = (*env)->GetDirectBufferAddress(env, dstData);
+    uint32_t *srcDataAddr = (*env)->GetDirectBufferAddress(env, srcData);
+    uint32_t *maskDataAddr = (*env)->GetDirectBufferAddress(env, maskData);
+    uint32_t *dstDataAddr = (*env)->GetDirectBufferAddress(env, dstData);
 
     if (!srcDataAddr || !maskDataAddr || !dstDataAddr) {
         printf("Error: NULL buffer address in drawAlphaMaskedBitmap\n");
         return;
     }
 
-    int foreColor = packColor(foreRed, foreGreen, foreBlue);
-    int backColor = packColor(backRed, backGreen, backBlue);
+    uint32_t foreColor = opaquePixel(packColor(foreRed, foreGreen, foreBlue));
+    uint32_t backColor = opaquePixel(packColor(backRed, backGreen, backBlue));
 
     jlong dstLength = (*env)->GetDirectBufferCapacity(env, dstData) / 4;
-    for (int i = 0; i < dstLength; i++) {
-        dstDataAddr[i] = maskDataAddr[i] == WHITE ? (srcDataAddr[i] == WHITE ? foreColor : backColor) | 0xff000000 : 0x00000000;
-    }
+    pixelKernels()->alphaMask(srcDataAddr, maskDataAddr, dstDataAddr, (int)dstLength, foreColor, backColor);
 }
 
 /* replace the whole JNI body */
@@ -282,8 +242,8 @@ Java_com_winlator_xserver_Drawable_fromBitmap(JNIEnv *env, jclass obj,
 JNIEXPORT void JNICALL
 Java_com_winlator_xserver_Pixmap_toBitmap(JNIEnv *env, jclass obj, jobject colorData,
                                           jobject maskData, jobject bitmap) {
-    char *colorDataAddr = (*env)->GetDirectBufferAddress(env, colorData);
-    char *maskDataAddr = maskData ? (*env)->GetDirectBufferAddress(env, maskData) : NULL;
+    uint8_t *colorDataAddr = (*env)->GetDirectBufferAddress(env, colorData);
+    uint8_t *maskDataAddr = maskData ? (*env)->GetDirectBufferAddress(env, maskData) : NULL;
 
     if (!colorDataAddr) {
         printf("Error: NULL color data address in toBitmap\n");
@@ -302,12 +262,7 @@ Java_com_winlator_xserver_Pixmap_toBitmap(JNIEnv *env, jclass obj, jobject color
         return;
     }
 
-    for (int i = 0, size = info.width * info.height * 4; i < size; i += 4) {
-        pixels[i+2] = colorDataAddr[i+0];
-        pixels[i+1] = colorDataAddr[i+1];
-        pixels[i+0] = colorDataAddr[i+2];
-        pixels[i+3] = maskDataAddr ? maskDataAddr[i+0] : colorDataAddr[i+3];
-    }
+    pixelKernels()->swizzle(colorDataAddr, maskDataAddr, pixels, info.width * info.height);
 
     AndroidBitmap_unlockPixels(env, bitmap);
 }
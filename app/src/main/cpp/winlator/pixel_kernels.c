@@ -0,0 +1,329 @@
+#include <stdlib.h>
+#include <string.h>
+#include "pixel_kernels.h"
+
+#if defined(__SSE2__)
+#include <emmintrin.h>
+#define HAVE_SSE2 1
+#endif
+
+#if defined(__ARM_NEON) || defined(__ARM_NEON__)
+#include <arm_neon.h>
+#define HAVE_NEON 1
+#if defined(__arm__) && defined(__linux__)
+#include <sys/auxv.h>
+#include <asm/hwcap.h>
+#endif
+#endif
+
+#define COLOR_MASK 0x00ffffffu
+#define ALPHA_MASK 0xff000000u
+#define WHITE 0x00ffffffu
+
+/*
+ * GC functions in X11 order. Each entry is an expression of the source and destination pixels s and d
+ * written with AND/OR/XOR/NOT/ZERO/ONES, which every kernel set defines for its own register type.
+ */
+#define GC_FUNCTIONS(X) \
+    X(clear, ZERO) \
+    X(and, AND(s, d)) \
+    X(and_reverse, AND(s, NOT(d))) \
+    X(copy, s) \
+    X(and_inverted, AND(NOT(s), d)) \
+    X(no_op, d) \
+    X(xor, XOR(s, d)) \
+    X(or, OR(s, d)) \
+    X(nor, NOT(OR(s, d))) \
+    X(equiv, XOR(NOT(s), d)) \
+    X(invert, NOT(d)) \
+    X(or_reverse, OR(s, NOT(d))) \
+    X(copy_inverted, NOT(s)) \
+    X(or_inverted, OR(NOT(s), d)) \
+    X(nand, NOT(AND(s, d))) \
+    X(set, ONES)
+
+#define ROP_TABLE_ENTRY(name, expr) ROP_NAME(name),
+
+/* Scalar */
+
+#define AND(a, b) ((a) & (b))
+#define OR(a, b) ((a) | (b))
+#define XOR(a, b) ((a) ^ (b))
+#define NOT(a) (~(a))
+#define ZERO 0u
+#define ONES 0xffffffffu
+
+#define DEFINE_ROP_SCALAR(name, expr) \
+static void rop_##name##_scalar(const uint32_t *src, uint32_t *dst, int count) { \
+    for (int i = 0; i < count; i++) { \
+        uint32_t s = src[i], d = dst[i]; \
+        (void)s; \
+        dst[i] = ((expr) & COLOR_MASK) | (d & ALPHA_MASK); \
+    } \
+}
+
+GC_FUNCTIONS(DEFINE_ROP_SCALAR)
+
+#undef AND
+#undef OR
+#undef XOR
+#undef NOT
+#undef ZERO
+#undef ONES
+
+static void fill_scalar(uint32_t *dst, uint32_t pixel, int count) {
+    for (int i = 0; i < count; i++) dst[i] = pixel;
+}
+
+static void expandBits_scalar(const uint8_t *src, uint32_t *dst, int count, uint32_t one, uint32_t zero) {
+    for (int x = 0; x < count; x++) dst[x] = (src[x >> 3] & (1 << (x & 7))) ? one : zero;
+}
+
+static void alphaMask_scalar(const uint32_t *src, const uint32_t *mask, uint32_t *dst, int count, uint32_t fore, uint32_t back) {
+    for (int i = 0; i < count; i++) dst[i] = mask[i] == WHITE ? (src[i] == WHITE ? fore : back) : 0;
+}
+
+static void swizzle_scalar(const uint8_t *color, const uint8_t *mask, uint8_t *dst, int count) {
+    for (int i = 0, size = count * 4; i < size; i += 4) {
+        dst[i+2] = color[i+0];
+        dst[i+1] = color[i+1];
+        dst[i+0] = color[i+2];
+        dst[i+3] = mask ? mask[i+0] : color[i+3];
+    }
+}
+
+#define ROP_NAME(name) rop_##name##_scalar
+static const PixelKernels scalarKernels = {
+    "scalar", PK_LEVEL_SCALAR, fill_scalar, {GC_FUNCTIONS(ROP_TABLE_ENTRY)}, expandBits_scalar, alphaMask_scalar, swizzle_scalar
+};
+#undef ROP_NAME
+
+/* SSE2 */
+
+#ifdef HAVE_SSE2
+#define AND(a, b) _mm_and_si128(a, b)
+#define OR(a, b) _mm_or_si128(a, b)
+#define XOR(a, b) _mm_xor_si128(a, b)
+#define NOT(a) _mm_xor_si128(a, _mm_set1_epi32(-1))
+#define ZERO _mm_setzero_si128()
+#define ONES _mm_set1_epi32(-1)
+
+#define DEFINE_ROP_SSE2(name, expr) \
+static void rop_##name##_sse2(const uint32_t *src, uint32_t *dst, int count) { \
+    const __m128i colorMask = _mm_set1_epi32(COLOR_MASK); \
+    int i = 0; \
+    for (; i + 4 <= count; i += 4) { \
+        __m128i s = _mm_loadu_si128((const __m128i*)(src + i)); \
+        __m128i d = _mm_loadu_si128((const __m128i*)(dst + i)); \
+        (void)s; \
+        __m128i r = expr; \
+        /* (r & colorMask) | (d & ~colorMask) */ \
+        _mm_storeu_si128((__m128i*)(dst + i), _mm_xor_si128(d, _mm_and_si128(_mm_xor_si128(r, d), colorMask))); \
+    } \
+    rop_##name##_scalar(src + i, dst + i, count - i); \
+}
+
+GC_FUNCTIONS(DEFINE_ROP_SSE2)
+
+#undef AND
+#undef OR
+#undef XOR
+#undef NOT
+#undef ZERO
+#undef ONES
+
+static void fill_sse2(uint32_t *dst, uint32_t pixel, int count) {
+    const __m128i value = _mm_set1_epi32((int)pixel);
+    int i = 0;
+    for (; i + 8 <= count; i += 8) {
+        _mm_storeu_si128((__m128i*)(dst + i), value);
+        _mm_storeu_si128((__m128i*)(dst + i + 4), value);
+    }
+    fill_scalar(dst + i, pixel, count - i);
+}
+
+static void expandBits_sse2(const uint8_t *src, uint32_t *dst, int count, uint32_t one, uint32_t zero) {
+    const __m128i lowBits = _mm_setr_epi32(1, 2, 4, 8);
+    const __m128i highBits = _mm_setr_epi32(16, 32, 64, 128);
+    const __m128i ones = _mm_set1_epi32((int)one);
+    const __m128i zeros = _mm_set1_epi32((int)zero);
+    int x = 0;
+    for (; x + 8 <= count; x += 8) {
+        __m128i byte = _mm_set1_epi32(src[x >> 3]);
+        __m128i low = _mm_cmpeq_epi32(_mm_and_si128(byte, lowBits), lowBits);
+        __m128i high = _mm_cmpeq_epi32(_mm_and_si128(byte, highBits), highBits);
+        _mm_storeu_si128((__m128i*)(dst + x), _mm_or_si128(_mm_and_si128(low, ones), _mm_andnot_si128(low, zeros)));
+        _mm_storeu_si128((__m128i*)(dst + x + 4), _mm_or_si128(_mm_and_si128(high, ones), _mm_andnot_si128(high, zeros)));
+    }
+    for (; x < count; x++) dst[x] = (src[x >> 3] & (1 << (x & 7))) ? one : zero;
+}
+
+static void alphaMask_sse2(const uint32_t *src, const uint32_t *mask, uint32_t *dst, int count, uint32_t fore, uint32_t back) {
+    const __m128i white = _mm_set1_epi32(WHITE);
+    const __m128i foreColor = _mm_set1_epi32((int)fore);
+    const __m128i backColor = _mm_set1_epi32((int)back);
+    int i = 0;
+    for (; i + 4 <= count; i += 4) {
+        __m128i isSet = _mm_cmpeq_epi32(_mm_loadu_si128((const __m128i*)(src + i)), white);
+        __m128i isVisible = _mm_cmpeq_epi32(_mm_loadu_si128((const __m128i*)(mask + i)), white);
+        __m128i color = _mm_or_si128(_mm_and_si128(isSet, foreColor), _mm_andnot_si128(isSet, backColor));
+        _mm_storeu_si128((__m128i*)(dst + i), _mm_and_si128(color, isVisible));
+    }
+    alphaMask_scalar(src + i, mask + i, dst + i, count - i, fore, back);
+}
+
+static void swizzle_sse2(const uint8_t *color, const uint8_t *mask, uint8_t *dst, int count) {
+    const __m128i green = _mm_set1_epi32(0x0000ff00);
+    const __m128i low = _mm_set1_epi32(0xff);
+    int i = 0;
+    for (; i + 4 <= count; i += 4) {
+        __m128i c = _mm_loadu_si128((const __m128i*)(color + i * 4));
+        __m128i r = _mm_or_si128(_mm_and_si128(_mm_srli_epi32(c, 16), low), _mm_and_si128(c, green));
+        r = _mm_or_si128(r, _mm_slli_epi32(_mm_and_si128(c, low), 16));
+        __m128i alpha = mask ? _mm_slli_epi32(_mm_loadu_si128((const __m128i*)(mask + i * 4)), 24) : _mm_slli_epi32(_mm_srli_epi32(c, 24), 24);
+        _mm_storeu_si128((__m128i*)(dst + i * 4), _mm_or_si128(r, alpha));
+    }
+    swizzle_scalar(color + i * 4, mask ? mask + i * 4 : NULL, dst + i * 4, count - i);
+}
+
+#define ROP_NAME(name) rop_##name##_sse2
+static const PixelKernels sse2Kernels = {
+    "sse2", PK_LEVEL_SSE2, fill_sse2, {GC_FUNCTIONS(ROP_TABLE_ENTRY)}, expandBits_sse2, alphaMask_sse2, swizzle_sse2
+};
+#undef ROP_NAME
+#endif
+
+/* NEON */
+
+#ifdef HAVE_NEON
+#define AND(a, b) vandq_u32(a, b)
+#define OR(a, b) vorrq_u32(a, b)
+#define XOR(a, b) veorq_u32(a, b)
+#define NOT(a) vmvnq_u32(a)
+#define ZERO vdupq_n_u32(0)
+#define ONES vdupq_n_u32(0xffffffffu)
+
+#define DEFINE_ROP_NEON(name, expr) \
+static void rop_##name##_neon(const uint32_t *src, uint32_t *dst, int count) { \
+    const uint32x4_t colorMask = vdupq_n_u32(COLOR_MASK); \
+    int i = 0; \
+    for (; i + 4 <= count; i += 4) { \
+        uint32x4_t s = vld1q_u32(src + i); \
+        uint32x4_t d = vld1q_u32(dst + i); \
+        (void)s; \
+        uint32x4_t r = expr; \
+        vst1q_u32(dst + i, vbslq_u32(colorMask, r, d)); \
+    } \
+    rop_##name##_scalar(src + i, dst + i, count - i); \
+}
+
+GC_FUNCTIONS(DEFINE_ROP_NEON)
+
+#undef AND
+#undef OR
+#undef XOR
+#undef NOT
+#undef ZERO
+#undef ONES
+
+static void fill_neon(uint32_t *dst, uint32_t pixel, int count) {
+    const uint32x4_t value = vdupq_n_u32(pixel);
+    int i = 0;
+    for (; i + 8 <= count; i += 8) {
+        vst1q_u32(dst + i, value);
+        vst1q_u32(dst + i + 4, value);
+    }
+    fill_scalar(dst + i, pixel, count - i);
+}
+
+static void expandBits_neon(const uint8_t *src, uint32_t *dst, int count, uint32_t one, uint32_t zero) {
+    static const uint32_t lowBitValues[4] = {1, 2, 4, 8};
+    static const uint32_t highBitValues[4] = {16, 32, 64, 128};
+    const uint32x4_t lowBits = vld1q_u32(lowBitValues);
+    const uint32x4_t highBits = vld1q_u32(highBitValues);
+    const uint32x4_t ones = vdupq_n_u32(one);
+    const uint32x4_t zeros = vdupq_n_u32(zero);
+    int x = 0;
+    for (; x + 8 <= count; x += 8) {
+        uint32x4_t byte = vdupq_n_u32(src[x >> 3]);
+        vst1q_u32(dst + x, vbslq_u32(vtstq_u32(byte, lowBits), ones, zeros));
+        vst1q_u32(dst + x + 4, vbslq_u32(vtstq_u32(byte, highBits), ones, zeros));
+    }
+    for (; x < count; x++) dst[x] = (src[x >> 3] & (1 << (x & 7))) ? one : zero;
+}
+
+static void alphaMask_neon(const uint32_t *src, const uint32_t *mask, uint32_t *dst, int count, uint32_t fore, uint32_t back) {
+    const uint32x4_t white = vdupq_n_u32(WHITE);
+    const uint32x4_t foreColor = vdupq_n_u32(fore);
+    const uint32x4_t backColor = vdupq_n_u32(back);
+    int i = 0;
+    for (; i + 4 <= count; i += 4) {
+        uint32x4_t isSet = vceqq_u32(vld1q_u32(src + i), white);
+        uint32x4_t isVisible = vceqq_u32(vld1q_u32(mask + i), white);
+        vst1q_u32(dst + i, vandq_u32(vbslq_u32(isSet, foreColor, backColor), isVisible));
+    }
+    alphaMask_scalar(src + i, mask + i, dst + i, count - i, fore, back);
+}
+
+static void swizzle_neon(const uint8_t *color, const uint8_t *mask, uint8_t *dst, int count) {
+    int i = 0;
+    for (; i + 16 <= count; i += 16) {
+        uint8x16x4_t c = vld4q_u8(color + i * 4);
+        uint8x16x4_t r;
+        r.val[0] = c.val[2];
+        r.val[1] = c.val[1];
+        r.val[2] = c.val[0];
+        r.val[3] = mask ? vld4q_u8(mask + i * 4).val[0] : c.val[3];
+        vst4q_u8(dst + i * 4, r);
+    }
+    swizzle_scalar(color + i * 4, mask ? mask + i * 4 : NULL, dst + i * 4, count - i);
+}
+
+#define ROP_NAME(name) rop_##name##_neon
+static const PixelKernels neonKernels = {
+    "neon", PK_LEVEL_NEON, fill_neon, {GC_FUNCTIONS(ROP_TABLE_ENTRY)}, expandBits_neon, alphaMask_neon, swizzle_neon
+};
+#undef ROP_NAME
+#endif
+
+static const PixelKernels *selectedKernels = NULL;
+
+const PixelKernels *pixelKernelsForLevel(enum PixelKernelsLevel level) {
+    switch (level) {
+        case PK_LEVEL_SCALAR:
+            return &scalarKernels;
+#ifdef HAVE_SSE2
+        case PK_LEVEL_SSE2:
+            return &sse2Kernels;
+#endif
+#ifdef HAVE_NEON
+        case PK_LEVEL_NEON:
+#if defined(__arm__) && defined(__linux__)
+            /* NEON is optional on 32-bit ARM */
+            if (!(getauxval(AT_HWCAP) & HWCAP_NEON)) return NULL;
+#endif
+            return &neonKernels;
+#endif
+        default:
+            return NULL;
+    }
+}
+
+const PixelKernels *pixelKernels(void) {
+    const PixelKernels *kernels = selectedKernels;
+    if (kernels) return kernels;
+
+    /* WINLATOR_PIXEL_KERNELS=scalar forces the reference loops, for telling kernel bugs apart */
+    const char *override = getenv("WINLATOR_PIXEL_KERNELS");
+    if (override && strcmp(override, "scalar") == 0) {
+        kernels = &scalarKernels;
+    }
+    else {
+        kernels = pixelKernelsForLevel(PK_LEVEL_NEON);
+        if (!kernels) kernels = pixelKernelsForLevel(PK_LEVEL_SSE2);
+        if (!kernels) kernels = &scalarKernels;
+    }
+
+    selectedKernels = kernels;
+    return kernels;
+}
@@ -0,0 +1,48 @@
+#ifndef WINLATOR_PIXEL_KERNELS_H
+#define WINLATOR_PIXEL_KERNELS_H
+
+#include <stdint.h>
+
+/*
+ * Row kernels behind the Drawable raster operations. Pixels are 32-bit words as stored by the X server
+ * drawables (little-endian BGRA, so alpha is the top byte). The library has no JNI or Android
+ * dependencies so it can be built and tested on a Linux host.
+ *
+ * Every kernel set gives results identical to the scalar one; pixelKernels() picks the fastest set the
+ * CPU supports the first time it is called.
+ */
+
+#define PIXEL_KERNELS_GC_FUNCTIONS 16
+
+enum PixelKernelsLevel {PK_LEVEL_SCALAR, PK_LEVEL_SSE2, PK_LEVEL_NEON};
+
+typedef struct {
+    const char *name;
+    enum PixelKernelsLevel level;
+
+    /* dst[i] = pixel */
+    void (*fill)(uint32_t *dst, uint32_t pixel, int count);
+
+    /*
+     * dst[i] = gcFunction(src[i], dst[i]) on the colour bytes, keeping the alpha byte of dst. Indexed by
+     * X11 GC function (GXclear .. GXset). Pixels are processed in order, so src may trail dst in the
+     * same row only with the scalar set.
+     */
+    void (*rop[PIXEL_KERNELS_GC_FUNCTIONS])(const uint32_t *src, uint32_t *dst, int count);
+
+    /* dst[x] = bit x of src (LSB first) ? one : zero */
+    void (*expandBits)(const uint8_t *src, uint32_t *dst, int count, uint32_t one, uint32_t zero);
+
+    /* dst[i] = mask[i] == 0xffffff ? (src[i] == 0xffffff ? fore : back) : 0 */
+    void (*alphaMask)(const uint32_t *src, const uint32_t *mask, uint32_t *dst, int count, uint32_t fore, uint32_t back);
+
+    /* Swaps red and blue and takes alpha from byte 0 of mask (or the colour itself when mask is NULL) */
+    void (*swizzle)(const uint8_t *color, const uint8_t *mask, uint8_t *dst, int count);
+} PixelKernels;
+
+const PixelKernels *pixelKernels(void);
+
+/* The kernel set for a level, or NULL when this build or CPU does not have it */
+const PixelKernels *pixelKernelsForLevel(enum PixelKernelsLevel level);
+
+#endif
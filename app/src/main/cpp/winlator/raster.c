@@ -0,0 +1,137 @@
+#include <stdlib.h>
+#include "pixel_kernels.h"
+#include "raster.h"
+
+#define GCF_COPY 3
+#define GCF_NO_OP 5
+#define SOLID_ROW_SIZE 256
+
+static inline int readValue(const int16_t *values, int index, bool swapBytes) {
+    uint16_t value = (uint16_t)values[index];
+    return swapBytes ? (uint16_t)((value << 8) | (value >> 8)) : value;
+}
+
+static inline int max(int a, int b) {
+    return a > b ? a : b;
+}
+
+static inline int min(int a, int b) {
+    return a < b ? a : b;
+}
+
+static inline int clamp(int x, int lo, int hi) {
+    return x < lo ? lo : (x > hi ? hi : x);
+}
+
+static void addDamage(RasterRect *damage, int x0, int y0, int x1, int y1) {
+    if (damage->width == 0) {
+        damage->x = x0;
+        damage->y = y0;
+        damage->width = x1 - x0;
+        damage->height = y1 - y0;
+        return;
+    }
+    int right = max(damage->x + damage->width, x1);
+    int bottom = max(damage->y + damage->height, y1);
+    damage->x = min(damage->x, x0);
+    damage->y = min(damage->y, y0);
+    damage->width = right - damage->x;
+    damage->height = bottom - damage->y;
+}
+
+/* Fills [x0, x1) x [y0, y1), already clipped */
+static void fillSpan(const RasterTarget *target, const PixelKernels *kernels, const RasterState *state, const uint32_t *solidRow,
+                     int x0, int y0, int x1, int y1) {
+    int width = x1 - x0;
+    for (int y = y0; y < y1; y++) {
+        uint32_t *dst = target->data + x0 + y * target->stride;
+        if (!solidRow) {
+            kernels->fill(dst, 0xff000000 | (state->color & 0xffffff), width);
+            continue;
+        }
+
+        for (int x = 0; x < width; x += SOLID_ROW_SIZE) {
+            kernels->rop[state->gcFunction](solidRow, dst + x, min(SOLID_ROW_SIZE, width - x));
+        }
+    }
+}
+
+/* NULL for GXcopy, which fills opaque pixels; every other function combines a row of the colour with dst */
+static const uint32_t *prepareSolidRow(const RasterState *state, uint32_t *row) {
+    if (state->gcFunction == GCF_COPY) return NULL;
+    for (int i = 0; i < SOLID_ROW_SIZE; i++) row[i] = state->color & 0xffffff;
+    return row;
+}
+
+RasterRect rasterFillRectangles(const RasterTarget *target, const RasterState *state, const int16_t *rects, int count, bool swapBytes) {
+    RasterRect damage = {0, 0, 0, 0};
+    if (state->gcFunction < 0 || state->gcFunction >= PIXEL_KERNELS_GC_FUNCTIONS || state->gcFunction == GCF_NO_OP) return damage;
+
+    const PixelKernels *kernels = pixelKernels();
+    uint32_t row[SOLID_ROW_SIZE];
+    const uint32_t *solidRow = prepareSolidRow(state, row);
+    const RasterRect *clip = &target->clip;
+
+    for (int i = 0; i < count; i++, rects += 4) {
+        int x = (int16_t)readValue(rects, 0, swapBytes);
+        int y = (int16_t)readValue(rects, 1, swapBytes);
+        int x0 = max(x, clip->x);
+        int y0 = max(y, clip->y);
+        int x1 = min(x + readValue(rects, 2, swapBytes), clip->x + clip->width);
+        int y1 = min(y + readValue(rects, 3, swapBytes), clip->y + clip->height);
+        if (x0 >= x1 || y0 >= y1) continue;
+
+        fillSpan(target, kernels, state, solidRow, x0, y0, x1, y1);
+        addDamage(&damage, x0, y0, x1, y1);
+    }
+    return damage;
+}
+
+RasterRect rasterPolyLine(const RasterTarget *target, const RasterState *state, const int16_t *points, int count, bool swapBytes) {
+    RasterRect damage = {0, 0, 0, 0};
+    int lineWidth = state->lineWidth;
+    if (count < 2 || lineWidth <= 0) return damage;
+
+    /* Lines are always drawn with GXcopy, as the single line path did */
+    RasterState copyState = *state;
+    copyState.gcFunction = GCF_COPY;
+    const PixelKernels *kernels = pixelKernels();
+    const RasterRect *clip = &target->clip;
+    int minX = clip->x, maxX = clip->x + clip->width - lineWidth;
+    int minY = clip->y, maxY = clip->y + clip->height - lineWidth;
+    int clipRight = clip->x + clip->width, clipBottom = clip->y + clip->height;
+
+    for (int i = 1; i < count; i++) {
+        int x0 = clamp((int16_t)readValue(points, (i - 1) * 2 + 0, swapBytes), minX, maxX);
+        int y0 = clamp((int16_t)readValue(points, (i - 1) * 2 + 1, swapBytes), minY, maxY);
+        int x1 = clamp((int16_t)readValue(points, i * 2 + 0, swapBytes), minX, maxX);
+        int y1 = clamp((int16_t)readValue(points, i * 2 + 1, swapBytes), minY, maxY);
+
+        int dx =  abs(x1-x0);
+        int dy = -abs(y1-y0);
+        int sx = x0 < x1 ? 1 : -1;
+        int sy = y0 < y1 ? 1 : -1;
+        int e1 = dx + dy, e2;
+
+        while (true) {
+            int stampX0 = max(x0, clip->x), stampY0 = max(y0, clip->y);
+            int stampX1 = min(x0 + lineWidth, clipRight), stampY1 = min(y0 + lineWidth, clipBottom);
+            if (stampX0 < stampX1 && stampY0 < stampY1) {
+                fillSpan(target, kernels, &copyState, NULL, stampX0, stampY0, stampX1, stampY1);
+                addDamage(&damage, stampX0, stampY0, stampX1, stampY1);
+            }
+            if (x0 == x1 && y0 == y1) break;
+
+            e2 = e1 * 2;
+            if (e2 >= dy) {
+                e1 += dy;
+                x0 += sx;
+            }
+            if (e2 <= dx) {
+                e1 += dx;
+                y0 += sy;
+            }
+        }
+    }
+    return damage;
+}
@@ -0,0 +1,41 @@
+#ifndef WINLATOR_RASTER_H
+#define WINLATOR_RASTER_H
+
+#include <stdbool.h>
+#include <stdint.h>
+
+/*
+ * Rasterizes a whole X request worth of primitives into a drawable in one call. Primitives are read
+ * straight from the request data as 16-bit values; swapBytes is set when the client byte order differs
+ * from ours. Everything is clipped to the clip rectangle and the union of the pixels touched comes back
+ * as the damage rectangle (width 0 when nothing was drawn).
+ */
+
+enum RasterPrimitive {RASTER_RECTANGLES, RASTER_LINES};
+
+typedef struct {
+    int x;
+    int y;
+    int width;
+    int height;
+} RasterRect;
+
+typedef struct {
+    uint32_t *data;
+    int stride;
+    RasterRect clip;
+} RasterTarget;
+
+typedef struct {
+    int color;
+    int lineWidth;
+    int gcFunction;
+} RasterState;
+
+/* count rectangles of x, y, width, height; width and height are unsigned */
+RasterRect rasterFillRectangles(const RasterTarget *target, const RasterState *state, const int16_t *rects, int count, bool swapBytes);
+
+/* A connected line through count x, y points, drawn with lineWidth square stamps */
+RasterRect rasterPolyLine(const RasterTarget *target, const RasterState *state, const int16_t *points, int count, bool swapBytes);
+
+#endif
@@ -13,6 +13,7 @@
 #include <android/fdsan.h>
 #include <sys/resource.h>
 #include <errno.h>
+#include <pthread.h>
 
 #define printf(...) __android_log_print(ANDROID_LOG_DEBUG, "System.out", __VA_ARGS__);
 #define MAX_EVENTS 10
@@ -26,11 +27,12 @@ typedef struct {
 } FdTracker;
 
 static FdTracker fd_tracking[MAX_TRACKED_FDS] = {0};
-
-struct epoll_event events[MAX_EVENTS];
+// Connectors with several reactors accept, receive ancillary fds and close from different threads
+static pthread_mutex_t fd_tracking_mutex = PTHREAD_MUTEX_INITIALIZER;
 
 // Call this when you first obtain/create a file descriptor
 void trackFd(jint fd) {
+    pthread_mutex_lock(&fd_tracking_mutex);
     for (int i = 0; i < MAX_TRACKED_FDS; i++) {
         if (fd_tracking[i].fd == 0) {
             fd_tracking[i].fd = fd;
@@ -38,11 +40,13 @@ void trackFd(jint fd) {
             break;
         }
     }
+    pthread_mutex_unlock(&fd_tracking_mutex);
 }
 void closeFd(jint fd) {
     bool can_close = false;
 
     // Find and check ownership
+    pthread_mutex_lock(&fd_tracking_mutex);
     for (int i = 0; i < MAX_TRACKED_FDS; i++) {
         if (fd_tracking[i].fd == fd) {
             if (fd_tracking[i].is_owned) {
@@ -54,6 +58,7 @@ void closeFd(jint fd) {
             break;
         }
     }
+    pthread_mutex_unlock(&fd_tracking_mutex);
 
     if (can_close) {
         close(fd);
@@ -138,6 +143,8 @@ Java_com_winlator_xconnector_XConnectorEpoll_doEpollIndefinitely(JNIEnv *env, jo
     jmethodID handleExistingConnection =
             (*env)->GetMethodID(env, cls, "handleExistingConnection", "(I)V");
 
+    // Per call rather than global, several reactor threads can be waiting at once
+    struct epoll_event events[MAX_EVENTS];
     int numFds = epoll_wait(epollFd, events, MAX_EVENTS, -1);
     for (int i = 0; i < numFds; i++) {
         if (events[i].data.fd == serverFd) {
@@ -3,10 +3,12 @@ package app.gamenative
 import android.os.StrictMode
 import androidx.lifecycle.ProcessLifecycleOwner
 import androidx.navigation.NavController
+import app.gamenative.db.dao.GameCompatibilityDao
 import app.gamenative.events.AndroidEvent
 import app.gamenative.events.EventDispatcher
 import app.gamenative.service.DownloadService
 import app.gamenative.utils.ContainerMigrator
+import app.gamenative.utils.GameCompatibilityCache
 import app.gamenative.utils.IntentLaunchManager
 import com.google.android.play.core.splitcompat.SplitCompatApplication
 import com.posthog.PersonProfiles
@@ -16,6 +18,7 @@ import com.winlator.widget.TouchpadView
 import com.winlator.widget.XServerView
 import com.winlator.xenvironment.XEnvironment
 import dagger.hilt.android.HiltAndroidApp
+import javax.inject.Inject
 import timber.log.Timber
 
 // Add PostHog imports
@@ -41,6 +44,9 @@ class PluviaApp : SplitCompatApplication() {
 
     private val appScope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
 
+    @Inject
+    lateinit var gameCompatibilityDao: GameCompatibilityDao
+
     override fun onCreate() {
         super.onCreate()
 
@@ -69,6 +75,8 @@ class PluviaApp : SplitCompatApplication() {
 
         DownloadService.populateDownloadService(this)
 
+        GameCompatibilityCache.init(gameCompatibilityDao)
+
         appScope.launch {
             ContainerMigrator.migrateLegacyContainersIfNeeded(
                 context = applicationContext,
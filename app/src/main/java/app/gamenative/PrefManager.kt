@@ -452,6 +452,55 @@ object PrefManager {
             setPref(DINPUT_MAPPER_TYPE, value)
         }
 
+    // Epoll loops per socket server; clients are spread across them and each client stays on one loop.
+    // More than one reactor needs a libwinlator built from the current xconnector_epoll.c. The prebuilt
+    // one is not safe to poll from several threads, so every connector is held to one until it ships.
+    private const val MAX_REACTOR_COUNT = 1
+
+    private val XSERVER_REACTOR_COUNT = intPreferencesKey("xserver_reactor_count")
+    var xServerReactorCount: Int
+        get() = getPref(XSERVER_REACTOR_COUNT, 1).coerceIn(1, MAX_REACTOR_COUNT)
+        set(value) {
+            setPref(XSERVER_REACTOR_COUNT, value.coerceIn(1, MAX_REACTOR_COUNT))
+        }
+
+    private val ALSA_REACTOR_COUNT = intPreferencesKey("alsa_reactor_count")
+    var alsaReactorCount: Int
+        get() = getPref(ALSA_REACTOR_COUNT, 1).coerceIn(1, MAX_REACTOR_COUNT)
+        set(value) {
+            setPref(ALSA_REACTOR_COUNT, value.coerceIn(1, MAX_REACTOR_COUNT))
+        }
+
+    private val SYSVSHM_REACTOR_COUNT = intPreferencesKey("sysvshm_reactor_count")
+    var sysVShmReactorCount: Int
+        get() = getPref(SYSVSHM_REACTOR_COUNT, 1).coerceIn(1, MAX_REACTOR_COUNT)
+        set(value) {
+            setPref(SYSVSHM_REACTOR_COUNT, value.coerceIn(1, MAX_REACTOR_COUNT))
+        }
+
+    private val VORTEK_REACTOR_COUNT = intPreferencesKey("vortek_reactor_count")
+    var vortekReactorCount: Int
+        get() = getPref(VORTEK_REACTOR_COUNT, 1).coerceIn(1, MAX_REACTOR_COUNT)
+        set(value) {
+            setPref(VORTEK_REACTOR_COUNT, value.coerceIn(1, MAX_REACTOR_COUNT))
+        }
+
+    // Per-opcode request latency, lock wait and event counters, logged when the X server stops
+    private val XSERVER_METRICS = booleanPreferencesKey("xserver_metrics")
+    var xServerMetrics: Boolean
+        get() = getPref(XSERVER_METRICS, false)
+        set(value) {
+            setPref(XSERVER_METRICS, value)
+        }
+
+    // Writes the X server's client traffic to <external files>/xtraces for offline replay
+    private val RECORD_XSERVER_TRACE = booleanPreferencesKey("record_xserver_trace")
+    var recordXServerTrace: Boolean
+        get() = getPref(RECORD_XSERVER_TRACE, false)
+        set(value) {
+            setPref(RECORD_XSERVER_TRACE, value)
+        }
+
     // External display input mode (off|touchpad|keyboard|hybrid)
     private val EXTERNAL_DISPLAY_INPUT_MODE = stringPreferencesKey("external_display_input_mode")
     var externalDisplayInputMode: String
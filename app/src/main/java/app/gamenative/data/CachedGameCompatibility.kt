@@ -0,0 +1,32 @@
+package app.gamenative.data
+
+import androidx.room.ColumnInfo
+import androidx.room.Entity
+import androidx.room.Index
+
+/**
+ * A compatibility API response for one game on one GPU, kept until [expiresAt].
+ */
+@Entity(
+    "game_compatibility_cache",
+    primaryKeys = ["game_name", "gpu_name"],
+    indices = [Index("expires_at")],
+)
+data class CachedGameCompatibility(
+    @ColumnInfo("game_name")
+    val gameName: String,
+    @ColumnInfo("gpu_name")
+    val gpuName: String,
+    @ColumnInfo("total_playable_count")
+    val totalPlayableCount: Int,
+    @ColumnInfo("gpu_playable_count")
+    val gpuPlayableCount: Int,
+    @ColumnInfo("avg_rating")
+    val avgRating: Float,
+    @ColumnInfo("has_been_tried")
+    val hasBeenTried: Boolean,
+    @ColumnInfo("is_not_working")
+    val isNotWorking: Boolean,
+    @ColumnInfo("expires_at")
+    val expiresAt: Long,
+)
@@ -10,6 +10,7 @@ import app.gamenative.data.FileChangeLists
 import app.gamenative.data.SteamApp
 import app.gamenative.data.SteamLicense
 import app.gamenative.data.CachedLicense
+import app.gamenative.data.CachedGameCompatibility
 import app.gamenative.data.DownloadingAppInfo
 import app.gamenative.data.EncryptedAppTicket
 import app.gamenative.data.GOGGame
@@ -31,6 +32,7 @@ import app.gamenative.db.dao.DownloadingAppInfoDao
 import app.gamenative.db.dao.EncryptedAppTicketDao
 import app.gamenative.db.dao.GOGGameDao
 import app.gamenative.db.dao.EpicGameDao
+import app.gamenative.db.dao.GameCompatibilityDao
 
 const val DATABASE_NAME = "pluvia.db"
 
@@ -45,9 +47,10 @@ const val DATABASE_NAME = "pluvia.db"
         SteamLicense::class,
         GOGGame::class,
         EpicGame::class,
-        DownloadingAppInfo::class
+        DownloadingAppInfo::class,
+        CachedGameCompatibility::class,
     ],
-    version = 12,
+    version = 13,
     // For db migration, visit https://developer.android.com/training/data-storage/room/migrating-db-versions for more information
     exportSchema = true, // It is better to handle db changes carefully, as GN is getting much more users.
     autoMigrations = [
@@ -55,7 +58,8 @@ const val DATABASE_NAME = "pluvia.db"
         AutoMigration(from = 8, to = 9),
         AutoMigration(from = 9, to = 10),
         AutoMigration(from = 10, to = 11),
-        AutoMigration(from = 11, to = 12)
+        AutoMigration(from = 11, to = 12),
+        AutoMigration(from = 12, to = 13)
     ]
 )
 @TypeConverters(
@@ -88,4 +92,6 @@ abstract class PluviaDatabase : RoomDatabase() {
     abstract fun epicGameDao(): EpicGameDao
 
     abstract fun downloadingAppInfoDao(): DownloadingAppInfoDao
+
+    abstract fun gameCompatibilityDao(): GameCompatibilityDao
 }
@@ -0,0 +1,47 @@
+package app.gamenative.db.dao
+
+import androidx.room.Dao
+import androidx.room.Insert
+import androidx.room.OnConflictStrategy
+import androidx.room.Query
+import androidx.room.Transaction
+import app.gamenative.data.CachedGameCompatibility
+
+@Dao
+interface GameCompatibilityDao {
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    suspend fun insertAll(entries: List<CachedGameCompatibility>)
+
+    @Query(
+        "SELECT * FROM game_compatibility_cache " +
+            "WHERE game_name = :gameName AND gpu_name = :gpuName AND expires_at > :now"
+    )
+    suspend fun find(gameName: String, gpuName: String, now: Long): CachedGameCompatibility?
+
+    @Query(
+        "SELECT * FROM game_compatibility_cache " +
+            "WHERE gpu_name = :gpuName AND game_name IN (:gameNames) AND expires_at > :now"
+    )
+    suspend fun _findAll(gpuName: String, gameNames: List<String>, now: Long): List<CachedGameCompatibility>
+
+    @Query("DELETE FROM game_compatibility_cache WHERE expires_at <= :now")
+    suspend fun deleteExpired(now: Long): Int
+
+    @Query("SELECT COUNT(*) FROM game_compatibility_cache")
+    suspend fun count(): Int
+
+    @Query("DELETE FROM game_compatibility_cache")
+    suspend fun deleteAll()
+
+    @Transaction
+    suspend fun findAll(gpuName: String, gameNames: Collection<String>, now: Long): List<CachedGameCompatibility> =
+        // Two variables go to the GPU name and the time
+        gameNames.chunked(SQLITE_MAX_VARS - 2).flatMap { _findAll(gpuName, it, now) }
+
+    @Transaction
+    suspend fun insertAllAndPrune(entries: List<CachedGameCompatibility>, now: Long): Int {
+        insertAll(entries)
+        return deleteExpired(now)
+    }
+}
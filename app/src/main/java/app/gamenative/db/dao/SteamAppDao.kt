@@ -1,14 +1,25 @@
 package app.gamenative.db.dao
 
+import androidx.room.ColumnInfo
 import androidx.room.Dao
 import androidx.room.Insert
 import androidx.room.OnConflictStrategy
 import androidx.room.Query
+import androidx.room.Transaction
 import androidx.room.Update
 import app.gamenative.data.SteamApp
 import app.gamenative.service.SteamService.Companion.INVALID_PKG_ID
 import kotlinx.coroutines.flow.Flow
 
+/** The columns PICS ingestion diffs against, without loading whole app rows. */
+data class SteamAppChangeInfo(
+    val id: Int,
+    @ColumnInfo("package_id")
+    val packageId: Int,
+    @ColumnInfo("last_change_number")
+    val lastChangeNumber: Int,
+)
+
 @Dao
 interface SteamAppDao {
 
@@ -62,6 +73,22 @@ interface SteamAppDao {
     )
     suspend fun findHiddenDLCApps(appId: Int): List<SteamApp>?
 
+    @Query("SELECT id, package_id, last_change_number FROM steam_app WHERE id IN (:appIds)")
+    suspend fun _findChangeInfo(appIds: List<Int>): List<SteamAppChangeInfo>
+
+    @Query("UPDATE steam_app SET package_id = :packageId WHERE id IN (:appIds)")
+    suspend fun _updatePackageId(packageId: Int, appIds: List<Int>)
+
+    @Transaction
+    suspend fun findChangeInfo(appIds: Collection<Int>): List<SteamAppChangeInfo> =
+        appIds.chunked(SQLITE_MAX_VARS).flatMap { _findChangeInfo(it) }
+
+    @Transaction
+    suspend fun updatePackageId(packageId: Int, appIds: Collection<Int>) {
+        // One variable goes to the package id
+        appIds.chunked(SQLITE_MAX_VARS - 1).forEach { _updatePackageId(packageId, it) }
+    }
+
     @Query("DELETE from steam_app")
     suspend fun deleteAll()
 
@@ -1,5 +1,6 @@
 package app.gamenative.db.dao
 
+import androidx.room.ColumnInfo
 import androidx.room.Dao
 import androidx.room.Insert
 import androidx.room.OnConflictStrategy
@@ -7,10 +8,23 @@ import androidx.room.Query
 import androidx.room.Transaction
 import androidx.room.Update
 import app.gamenative.data.SteamLicense
+import `in`.dragonbra.javasteam.enums.ELicenseFlags
+import java.util.EnumSet
 import kotlin.math.min
 
 val SQLITE_MAX_VARS = 999
 
+/** The columns PICS ingestion needs from a license, without loading whole license rows. */
+data class SteamLicenseChangeInfo(
+    val packageId: Int,
+    @ColumnInfo("last_change_number")
+    val lastChangeNumber: Int,
+    @ColumnInfo("owner_account_id")
+    val ownerAccountId: List<Int>,
+    @ColumnInfo("license_flags")
+    val licenseFlags: EnumSet<ELicenseFlags>,
+)
+
 @Dao
 interface SteamLicenseDao {
 
@@ -26,6 +40,9 @@ interface SteamLicenseDao {
     @Query("UPDATE steam_license SET depot_ids = :depotIds WHERE packageId = :packageId")
     suspend fun updateDepots(packageId: Int, depotIds: List<Int>)
 
+    @Query("UPDATE steam_license SET app_ids = :appIds, depot_ids = :depotIds WHERE packageId = :packageId")
+    suspend fun updateContents(packageId: Int, appIds: List<Int>, depotIds: List<Int>)
+
     @Query("SELECT * FROM steam_license")
     suspend fun getAllLicenses(): List<SteamLicense>
 
@@ -72,6 +89,16 @@ interface SteamLicenseDao {
         return out.distinct()
     }
 
+    @Query(
+        "SELECT packageId, last_change_number, owner_account_id, license_flags FROM steam_license " +
+                "WHERE packageId IN (:packageIds)"
+    )
+    suspend fun _findChangeInfo(packageIds: List<Int>): List<SteamLicenseChangeInfo>
+
+    @Transaction
+    suspend fun findChangeInfo(packageIds: Collection<Int>): List<SteamLicenseChangeInfo> =
+        packageIds.chunked(SQLITE_MAX_VARS).flatMap { _findChangeInfo(it) }
+
     @Transaction
     suspend fun deleteStaleLicenses(packageIds: List<Int>) {
         for (i in packageIds.indices step SQLITE_MAX_VARS) {
@@ -8,6 +8,7 @@ import app.gamenative.db.dao.AppInfoDao
 import app.gamenative.db.dao.CachedLicenseDao
 import app.gamenative.db.dao.DownloadingAppInfoDao
 import app.gamenative.db.dao.EncryptedAppTicketDao
+import app.gamenative.db.dao.GameCompatibilityDao
 import app.gamenative.db.migration.ROOM_MIGRATION_V7_to_V8
 import dagger.Module
 import dagger.Provides
@@ -70,4 +71,8 @@ class DatabaseModule {
     @Provides
     @Singleton
     fun provideDownloadingAppInfoDao(db: PluviaDatabase): DownloadingAppInfoDao = db.downloadingAppInfoDao()
+
+    @Provides
+    @Singleton
+    fun provideGameCompatibilityDao(db: PluviaDatabase): GameCompatibilityDao = db.gameCompatibilityDao()
 }
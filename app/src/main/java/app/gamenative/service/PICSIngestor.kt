@@ -0,0 +1,173 @@
+package app.gamenative.service
+
+import androidx.room.withTransaction
+import app.gamenative.data.SteamApp
+import app.gamenative.db.PluviaDatabase
+import app.gamenative.service.SteamService.Companion.INVALID_PKG_ID
+import app.gamenative.utils.generateSteamApp
+import `in`.dragonbra.javasteam.enums.ELicenseFlags
+import `in`.dragonbra.javasteam.types.KeyValue
+import java.util.EnumSet
+import java.util.Locale
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Writes PICS results to the database a batch at a time.
+ *
+ * Every batch reads the rows it needs with a few `IN (...)` queries, works out what changed in memory
+ * and writes it back in one transaction, instead of looking up each app and license on its own.
+ */
+class PICSIngestor(private val db: PluviaDatabase) {
+
+    data class AppProduct(
+        val id: Int,
+        val changeNumber: Int,
+        val keyValues: KeyValue,
+    )
+
+    data class PackageProduct(
+        val id: Int,
+        val appIds: List<Int>,
+        val depotIds: List<Int>,
+    )
+
+    class Metrics {
+        /** Batches sent to the PICS channels that have not been picked up yet. */
+        val appQueueDepth = AtomicInteger()
+        val packageQueueDepth = AtomicInteger()
+
+        val appsReceived = AtomicLong()
+        val appsWritten = AtomicLong()
+        val packagesWritten = AtomicLong()
+        val batches = AtomicLong()
+        val busyNanos = AtomicLong()
+
+        /** Products received per second of time spent ingesting them. */
+        val throughput: Double
+            get() {
+                val nanos = busyNanos.get()
+                return if (nanos > 0) (appsReceived.get() + packagesWritten.get()) * 1e9 / nanos else 0.0
+            }
+
+        fun summary(): String = String.format(
+            Locale.ENGLISH,
+            "PICS queues: %d app / %d package batch(es), %d batch(es) ingested, " +
+                "%d/%d app(s) written, %d package(s) written, %.0f product(s)/s",
+            appQueueDepth.get(),
+            packageQueueDepth.get(),
+            batches.get(),
+            appsWritten.get(),
+            appsReceived.get(),
+            packagesWritten.get(),
+            throughput,
+        )
+    }
+
+    val metrics = Metrics()
+
+    private val appDao = db.steamAppDao()
+    private val licenseDao = db.steamLicenseDao()
+
+    /** The apps in [changes] (id to change number) that are in the database with a different change number. */
+    suspend fun changedApps(changes: Map<Int, Int>): List<Int> {
+        if (changes.isEmpty()) return emptyList()
+        return appDao.findChangeInfo(changes.keys)
+            .filter { changes[it.id] != it.lastChangeNumber }
+            .map { it.id }
+    }
+
+    /** The packages in [changes] (id to change number) that are in the database with a different change number. */
+    suspend fun changedPackages(changes: Map<Int, Int>): List<Int> {
+        if (changes.isEmpty()) return emptyList()
+        return licenseDao.findChangeInfo(changes.keys)
+            .filter { changes[it.packageId] != it.lastChangeNumber }
+            .map { it.packageId }
+    }
+
+    /**
+     * Stores the apps whose change number differs from the database, with the owner and license flags
+     * of the package they belong to. Returns how many were written.
+     */
+    suspend fun ingestApps(apps: Collection<AppProduct>): Int = measure {
+        if (apps.isEmpty()) return@measure 0
+        metrics.appsReceived.addAndGet(apps.size.toLong())
+
+        val appsFromDb = appDao.findChangeInfo(apps.map { it.id }).associateBy { it.id }
+        val packageIds = appsFromDb.values.map { it.packageId }.filter { it != INVALID_PKG_ID }.toSet()
+        val packagesFromDb = licenseDao.findChangeInfo(packageIds).associateBy { it.packageId }
+
+        // Apps with -1 for the ownerAccountId should be added.
+        //  This can help with friend game names.
+        // TODO maybe apps with -1 for the ownerAccountId can be stripped with necessities and name.
+        val steamApps = apps.mapNotNull { app ->
+            val appFromDb = appsFromDb[app.id]
+            if (app.changeNumber == appFromDb?.lastChangeNumber) return@mapNotNull null
+
+            val packageId = appFromDb?.packageId ?: INVALID_PKG_ID
+            val packageFromDb = packagesFromDb[packageId]
+            app.keyValues.generateSteamApp().copy(
+                packageId = packageId,
+                ownerAccountId = packageFromDb?.ownerAccountId ?: emptyList(),
+                receivedPICS = true,
+                lastChangeNumber = app.changeNumber,
+                licenseFlags = packageFromDb?.licenseFlags ?: EnumSet.noneOf(ELicenseFlags::class.java),
+            )
+        }
+
+        if (steamApps.isNotEmpty()) {
+            db.withTransaction {
+                appDao.insertAll(steamApps)
+            }
+            metrics.appsWritten.addAndGet(steamApps.size.toLong())
+        }
+
+        steamApps.size
+    }
+
+    /**
+     * Stores the app and depot lists of each package and points their apps at it, inserting stub rows for
+     * apps not seen before. When an app is in several packages the last one wins. Returns the app ids to
+     * request from PICS next.
+     */
+    suspend fun ingestPackages(packages: Collection<PackageProduct>): List<Int> = measure {
+        if (packages.isEmpty()) return@measure emptyList()
+
+        val packageOfApp = LinkedHashMap<Int, Int>()
+        packages.forEach { pkg -> pkg.appIds.forEach { packageOfApp[it] = pkg.id } }
+
+        db.withTransaction {
+            packages.forEach { pkg ->
+                licenseDao.updateContents(pkg.id, pkg.appIds, pkg.depotIds)
+            }
+
+            val appsFromDb = appDao.findChangeInfo(packageOfApp.keys).associateBy { it.id }
+
+            val stubs = packageOfApp
+                .filterKeys { it !in appsFromDb }
+                .map { (appId, packageId) -> SteamApp(id = appId, packageId = packageId) }
+            if (stubs.isNotEmpty()) {
+                appDao.insertAll(stubs)
+            }
+
+            packageOfApp
+                .filter { (appId, packageId) -> appsFromDb[appId]?.let { it.packageId != packageId } == true }
+                .entries
+                .groupBy({ it.value }, { it.key })
+                .forEach { (packageId, appIds) -> appDao.updatePackageId(packageId, appIds) }
+        }
+        metrics.packagesWritten.addAndGet(packages.size.toLong())
+
+        packageOfApp.keys.toList()
+    }
+
+    private inline fun <T> measure(block: () -> T): T {
+        val start = System.nanoTime()
+        try {
+            return block()
+        } finally {
+            metrics.batches.incrementAndGet()
+            metrics.busyNanos.addAndGet(System.nanoTime() - start)
+        }
+    }
+}
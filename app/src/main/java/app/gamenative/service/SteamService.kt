@@ -99,7 +99,6 @@ import java.io.Closeable
 import java.io.File
 import java.nio.file.Files
 import java.nio.file.Paths
-import java.util.Collections
 import java.util.EnumSet
 import java.util.concurrent.CancellationException
 import java.util.concurrent.ConcurrentHashMap
@@ -235,6 +234,8 @@ class SteamService : Service(), IChallengeUrlChanged {
         },
     )
 
+    private val picsIngestor by lazy { PICSIngestor(db) }
+
     private val scope = CoroutineScope(Dispatchers.IO + SupervisorJob())
 
     private val onEndProcess: (AndroidEvent.EndProcess) -> Unit = {
@@ -598,7 +599,7 @@ class SteamService : Service(), IChallengeUrlChanged {
                     .chunked(MAX_PICS_BUFFER)
                     .forEach { chunk ->
                         val requests = chunk.map { PICSRequest(id = it) }
-                        service.appPicsChannel.send(requests)
+                        service.queueAppPics(requests)
                     }
 
                 missingAppIds.size
@@ -3057,7 +3058,7 @@ class SteamService : Service(), IChallengeUrlChanged {
                     .chunked(MAX_PICS_BUFFER)
                     .forEach { chunk ->
                         Timber.d("onLicenseList: Queueing ${chunk.size} package(s) for PICS")
-                        packagePicsChannel.send(chunk)
+                        queuePackagePics(chunk)
                     }
             }
         }
@@ -3122,29 +3123,24 @@ class SteamService : Service(), IChallengeUrlChanged {
 
                 // Process any app changes
                 launch {
-                    changesSince.appChanges.values
-                        .filter { changeData ->
-                            // only queue PICS requests for apps existing in the db that have changed
-                            val app = appDao.findApp(changeData.id) ?: return@filter false
-                            changeData.changeNumber != app.lastChangeNumber
-                        }
-                        .map { PICSRequest(id = it.id) }
+                    // only queue PICS requests for apps existing in the db that have changed
+                    picsIngestor.changedApps(changesSince.appChanges.values.associate { it.id to it.changeNumber })
+                        .map { PICSRequest(id = it) }
                         .chunked(MAX_PICS_BUFFER)
                         .forEach { chunk ->
                             ensureActive()
                             Timber.d("onPicsChanges: Queueing ${chunk.size} app(s) for PICS")
-                            appPicsChannel.send(chunk)
+                            queueAppPics(chunk)
                         }
                 }
 
                 // Process any package changes
                 launch {
-                    val pkgsWithChanges = changesSince.packageChanges.values
-                        .filter { changeData ->
-                            // only queue PICS requests for pkgs existing in the db that have changed
-                            val pkg = licenseDao.findLicense(changeData.id) ?: return@filter false
-                            changeData.changeNumber != pkg.lastChangeNumber
-                        }
+                    // only queue PICS requests for pkgs existing in the db that have changed
+                    val changedPackageIds = picsIngestor.changedPackages(
+                        changesSince.packageChanges.values.associate { it.id to it.changeNumber },
+                    ).toSet()
+                    val pkgsWithChanges = changesSince.packageChanges.values.filter { it.id in changedPackageIds }
 
                     if (pkgsWithChanges.isNotEmpty()) {
                         val pkgsForAccessTokens = pkgsWithChanges.filter { it.isNeedsToken }.map { it.id }
@@ -3159,7 +3155,7 @@ class SteamService : Service(), IChallengeUrlChanged {
                             .chunked(MAX_PICS_BUFFER)
                             .forEach { chunk ->
                                 Timber.d("onPicsChanges: Queueing ${chunk.size} package(s) for PICS")
-                                packagePicsChannel.send(chunk)
+                                queuePackagePics(chunk)
                             }
                     }
                 }
@@ -3171,6 +3167,16 @@ class SteamService : Service(), IChallengeUrlChanged {
         }
     }
 
+    private suspend fun queueAppPics(requests: List<PICSRequest>) {
+        picsIngestor.metrics.appQueueDepth.incrementAndGet()
+        appPicsChannel.send(requests)
+    }
+
+    private suspend fun queuePackagePics(requests: List<PICSRequest>) {
+        picsIngestor.metrics.packageQueueDepth.incrementAndGet()
+        packagePicsChannel.send(requests)
+    }
+
     /**
      * A buffered flow to parse so many PICS requests in a given moment.
      */
@@ -3181,6 +3187,7 @@ class SteamService : Service(), IChallengeUrlChanged {
                 .filter { it.isNotEmpty() }
                 .buffer(capacity = MAX_PICS_BUFFER, onBufferOverflow = BufferOverflow.SUSPEND)
                 .collect { appRequests ->
+                    picsIngestor.metrics.appQueueDepth.decrementAndGet()
                     Timber.d("Processing ${appRequests.size} app PICS requests")
 
                     ensureActive()
@@ -3200,36 +3207,13 @@ class SteamService : Service(), IChallengeUrlChanged {
                         )
 
                         ensureActive()
-                        val steamAppsMap = picsCallback.apps.values.mapNotNull { app ->
-                            val appFromDb = appDao.findApp(app.id)
-                            val packageId = appFromDb?.packageId ?: INVALID_PKG_ID
-                            val packageFromDb = if (packageId != INVALID_PKG_ID) licenseDao.findLicense(packageId) else null
-                            val ownerAccountId = packageFromDb?.ownerAccountId ?: emptyList()
-
-                            // Apps with -1 for the ownerAccountId should be added.
-                            //  This can help with friend game names.
-
-                            // TODO maybe apps with -1 for the ownerAccountId can be stripped with necessities and name.
-
-                            if (app.changeNumber != appFromDb?.lastChangeNumber) {
-                                app.keyValues.generateSteamApp().copy(
-                                    packageId = packageId,
-                                    ownerAccountId = ownerAccountId,
-                                    receivedPICS = true,
-                                    lastChangeNumber = app.changeNumber,
-                                    licenseFlags = packageFromDb?.licenseFlags ?: EnumSet.noneOf(ELicenseFlags::class.java),
-                                )
-                            } else {
-                                null
-                            }
-                        }
-
-                        if (steamAppsMap.isNotEmpty()) {
-                            Timber.i("Inserting ${steamAppsMap.size} PICS apps to database")
-                            db.withTransaction {
-                                appDao.insertAll(steamAppsMap)
-                            }
+                        val written = picsIngestor.ingestApps(
+                            picsCallback.apps.values.map { PICSIngestor.AppProduct(it.id, it.changeNumber, it.keyValues) },
+                        )
+                        if (written > 0) {
+                            Timber.i("Inserted $written PICS apps to database")
                         }
+                        Timber.d(picsIngestor.metrics.summary())
                     }
                 }
         }
@@ -3239,6 +3223,7 @@ class SteamService : Service(), IChallengeUrlChanged {
                 .filter { it.isNotEmpty() }
                 .buffer(capacity = MAX_PICS_BUFFER, onBufferOverflow = BufferOverflow.SUSPEND)
                 .collect { packageRequests ->
+                    picsIngestor.metrics.packageQueueDepth.decrementAndGet()
                     Timber.d("Processing ${packageRequests.size} package PICS requests")
 
                     ensureActive()
@@ -3253,30 +3238,16 @@ class SteamService : Service(), IChallengeUrlChanged {
                     callback.results.forEach { picsCallback ->
                         // Don't race the queue.
                         if (!isLoggedIn) return@collect
-                        val queue = Collections.synchronizedList(mutableListOf<Int>())
-
-                        db.withTransaction {
-                            picsCallback.packages.values.forEach { pkg ->
-                                val appIds = pkg.keyValues["appids"].children.map { it.asInteger() }
-                                licenseDao.updateApps(pkg.id, appIds)
-
-                                val depotIds = pkg.keyValues["depotids"].children.map { it.asInteger() }
-                                licenseDao.updateDepots(pkg.id, depotIds)
-
-                                // Insert a stub row (or update) of SteamApps to the database.
-                                appIds.forEach { appid ->
-                                    val steamApp = appDao.findApp(appid)?.copy(packageId = pkg.id)
-                                    if (steamApp != null) {
-                                        appDao.update(steamApp)
-                                    } else {
-                                        val stubSteamApp = SteamApp(id = appid, packageId = pkg.id)
-                                        appDao.insert(stubSteamApp)
-                                    }
-                                }
-
-                                queue.addAll(appIds)
-                            }
-                        }
+                        val queue = picsIngestor.ingestPackages(
+                            picsCallback.packages.values.map { pkg ->
+                                PICSIngestor.PackageProduct(
+                                    id = pkg.id,
+                                    appIds = pkg.keyValues["appids"].children.map { it.asInteger() },
+                                    depotIds = pkg.keyValues["depotids"].children.map { it.asInteger() },
+                                )
+                            },
+                        )
+                        Timber.d(picsIngestor.metrics.summary())
 
                         try {
                             // TODO: This could be an issue. (Stalling)
@@ -3295,7 +3266,7 @@ class SteamService : Service(), IChallengeUrlChanged {
                                 .chunked(MAX_PICS_BUFFER)
                                 .forEach { chunk ->
                                     Timber.d("bufferedPICSGetProductInfo: Queueing ${chunk.size} for PICS")
-                                    appPicsChannel.send(chunk)
+                                    queueAppPics(chunk)
                                 }
                         } catch (e: AsyncJobFailedException) {
                             Timber.w("Could not get PICS product info $e")
@@ -16,12 +16,19 @@ import java.util.zip.GZIPInputStream
 import java.util.zip.GZIPOutputStream
 import kotlin.collections.get
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.Semaphore
 import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.sync.withPermit
 import kotlinx.coroutines.withContext
 import okhttp3.MediaType.Companion.toMediaType
 import okhttp3.OkHttpClient
 import okhttp3.Request
+import okhttp3.RequestBody
+import okhttp3.RequestBody.Companion.asRequestBody
 import okhttp3.RequestBody.Companion.toRequestBody
 import org.json.JSONArray
 import org.json.JSONObject
@@ -50,6 +57,9 @@ object EpicCloudSavesManager {
 
     private val httpClient = Net.http
 
+    // Concurrent chunk uploads per save set
+    private const val UPLOAD_PARALLELISM = 4
+
     data class CloudFileInfo(
         val hash: String,
         val lastModified: String,
@@ -696,6 +706,7 @@ object EpicCloudSavesManager {
         game: EpicGame,
         fileList: List<String>? = null, // Optional: only upload specific files
     ): Boolean = withContext(Dispatchers.IO) {
+        val workDir = File(context.cacheDir, "epic_save_upload/${game.id}")
         try {
             Timber.tag("Epic").i("[Cloud Saves] Starting upload for ${game.id}")
 
@@ -710,84 +721,135 @@ object EpicCloudSavesManager {
                 return@withContext false
             }
 
-            // 2. Package save files into chunks and manifest
-            if (fileList != null) {
-                Timber.tag("Epic").i("[Cloud Saves] Packaging ${fileList.size} specific files from: ${saveDir.absolutePath}")
-            } else {
-                Timber.tag("Epic").i("[Cloud Saves] Packaging all save files from: ${saveDir.absolutePath}")
-            }
-            val packagedFiles = packageSaveFiles(saveDir, game, accountId, fileList)
-            if (packagedFiles.isEmpty()) {
-                Timber.tag("Epic").e("[Cloud Saves] Failed to package save files")
+            val files = collectSaveFiles(saveDir, fileList)
+            if (files.isEmpty()) {
+                Timber.tag("Epic").w("[Cloud Saves] No files found to package")
                 return@withContext false
             }
 
-            // Filter out empty files (just log them, don't fail the upload)
-            val emptyFiles = packagedFiles.filter { it.value.isEmpty() }
-            if (emptyFiles.isNotEmpty()) {
-                Timber.tag("Epic").w("[Cloud Saves] Skipping ${emptyFiles.size} empty packaged files: ${emptyFiles.keys.joinToString()}")
-            }
+            // 2. Fetch the latest cloud manifest so unchanged chunks are not uploaded again
+            val (previousManifest, remoteChunkPaths) = fetchLatestManifest(context, game.appName)
 
-            // Only upload non-empty files
-            val nonEmptyFiles = packagedFiles.filterValues { it.isNotEmpty() }
-            if (nonEmptyFiles.isEmpty()) {
-                Timber.tag("Epic").e("[Cloud Saves] No valid files to upload after filtering empty files")
-                return@withContext false
-            }
+            // 3. Package save files into chunks and manifest
+            Timber.tag("Epic").i("[Cloud Saves] Packaging ${files.size} files from: ${saveDir.absolutePath}")
+            workDir.deleteRecursively()
+            val packaged = EpicSavePackager(workDir).packageFiles(
+                saveDir = saveDir,
+                files = files,
+                previous = previousManifest,
+                remoteChunkPaths = remoteChunkPaths,
+                manifestAppName = "${game.appName}$accountId",
+                saveFolder = game.saveFolder,
+            )
 
-            // 3. Request write links for all files
-            val fileNames = nonEmptyFiles.keys.toList()
+            // 4. Request write links for new chunks and the manifest only
+            val fileNames = packaged.newChunks.keys.toList() + packaged.manifestName
             val writeLinks = requestWriteLinks(context, game.appName, fileNames)
             if (writeLinks.isEmpty()) {
                 Timber.tag("Epic").e("[Cloud Saves] Failed to get write links")
                 return@withContext false
             }
 
-            // 4. Upload chunks
-            var uploadedChunks = 0
-            nonEmptyFiles.forEach { (fileName, fileData) ->
-                if (!fileName.endsWith(".manifest")) {
-                    val writeLink = writeLinks[fileName]
-                    if (writeLink != null) {
-                        Timber.tag("Epic").d("[Cloud Saves] Uploading chunk: $fileName (${fileData.size} bytes)")
-                        val result = uploadFile(writeLink, fileData)
-                        if (result.isSuccess) {
-                            uploadedChunks++
-                            Timber.tag("Epic").i("[Cloud Saves] Uploaded chunk: $fileName (${fileData.size} bytes)")
-                        } else {
-                            Timber.tag("Epic").e("[Cloud Saves] Failed to upload chunk: $fileName - ${result.exceptionOrNull()?.message}")
-                        }
-                    }
-                }
+            // 5. Upload chunks, then the manifest
+            if (!uploadPackagedSave(packaged, writeLinks)) return@withContext false
+
+            // Update sync timestamp
+            val timestamp = java.time.Instant.now().toString()
+            setSyncTimestamp(context, game.id, timestamp)
+            true
+        } catch (e: Exception) {
+            Timber.tag("Epic").e(e, "[Cloud Saves] Upload failed")
+            false
+        } finally {
+            workDir.deleteRecursively()
+        }
+    }
+
+    private fun collectSaveFiles(saveDir: File, fileList: List<String>?): List<File> {
+        val allFiles = saveDir.walkTopDown()
+            .filter { it.isFile }
+            .toList()
+
+        // Filter to only requested files if fileList is provided
+        return if (fileList != null) {
+            allFiles.filter { file ->
+                val relativePath = file.relativeTo(saveDir).path.replace("\\", "/")
+                fileList.contains(relativePath)
             }
+        } else {
+            allFiles
+        }.sortedBy { it.name.lowercase() }
+    }
 
-            // 5. Upload manifest last
-            val manifestEntry = nonEmptyFiles.entries.find { it.key.endsWith(".manifest") }
-            if (manifestEntry != null) {
-                val writeLink = writeLinks[manifestEntry.key]
-                if (writeLink != null) {
-                    Timber.tag("Epic").d("[Cloud Saves] Uploading manifest: ${manifestEntry.key} (${manifestEntry.value.size} bytes)")
-                    val result = uploadFile(writeLink, manifestEntry.value)
-                    if (result.isSuccess) {
-                        Timber.tag("Epic").i("[Cloud Saves] Uploaded manifest: ${manifestEntry.key} (${manifestEntry.value.size} bytes)")
-
-                        // Update sync timestamp
-                        val timestamp = java.time.Instant.now().toString()
-                        setSyncTimestamp(context, game.id, timestamp)
-
-                        Timber.tag("Epic").i("[Cloud Saves] Upload complete: $uploadedChunks chunks uploaded")
-                        return@withContext true
-                    } else {
-                        Timber.tag("Epic").e("[Cloud Saves] Failed to upload manifest: ${result.exceptionOrNull()?.message}")
+    /**
+     * Best effort: returns the latest cloud manifest and the chunk paths (relative to the save root) that
+     * exist in the cloud, or nulls when there is nothing usable to deduplicate against.
+     */
+    private suspend fun fetchLatestManifest(context: Context, appName: String): Pair<EpicManifest?, Set<String>?> {
+        val cloudSaves = listCloudSaves(appName, context).getOrNull() ?: return null to null
+        val (manifestPath, manifestInfo) = findLatestManifest(cloudSaves.files) ?: return null to null
+        val manifestBytes = manifestInfo.readLink?.let { downloadFile(it).getOrNull() } ?: return null to null
+
+        return try {
+            val manifest = EpicManifest.readAll(manifestBytes)
+            val pathPrefix = manifestPath.split("/", limit = 4).take(3).joinToString("/") + "/"
+            val chunkPaths = cloudSaves.files.keys
+                .filter { it.startsWith(pathPrefix) }
+                .map { it.removePrefix(pathPrefix) }
+                .toSet()
+            Timber.tag("Epic").d("[Cloud Saves] Deduplicating against $manifestPath (${chunkPaths.size} remote files)")
+            manifest to chunkPaths
+        } catch (e: Exception) {
+            Timber.tag("Epic").w(e, "[Cloud Saves] Failed to parse latest manifest, uploading all chunks")
+            null to null
+        }
+    }
+
+    /**
+     * Uploads the new chunks of [packaged] with at most [parallelism] transfers in flight, then the manifest.
+     * The manifest is only written once every chunk it references is in place.
+     */
+    internal suspend fun uploadPackagedSave(
+        packaged: EpicSavePackager.PackagedSave,
+        writeLinks: Map<String, String>,
+        parallelism: Int = UPLOAD_PARALLELISM,
+    ): Boolean = coroutineScope {
+        val semaphore = Semaphore(parallelism)
+        val results = packaged.newChunks.map { (chunkPath, chunkFile) ->
+            async(Dispatchers.IO) {
+                val writeLink = writeLinks[chunkPath] ?: run {
+                    Timber.tag("Epic").e("[Cloud Saves] No write link for chunk: $chunkPath")
+                    return@async false
+                }
+                semaphore.withPermit {
+                    val result = uploadFile(writeLink, chunkFile)
+                    if (result.isFailure) {
+                        Timber.tag("Epic").e("[Cloud Saves] Failed to upload chunk: $chunkPath - ${result.exceptionOrNull()?.message}")
                     }
+                    result.isSuccess
                 }
             }
+        }.awaitAll()
 
-            false
-        } catch (e: Exception) {
-            Timber.tag("Epic").e(e, "[Cloud Saves] Upload failed")
-            false
+        if (results.any { !it }) {
+            Timber.tag("Epic").e("[Cloud Saves] ${results.count { !it }} chunks failed to upload, not writing manifest")
+            return@coroutineScope false
         }
+
+        val writeLink = writeLinks[packaged.manifestName] ?: run {
+            Timber.tag("Epic").e("[Cloud Saves] No write link for manifest: ${packaged.manifestName}")
+            return@coroutineScope false
+        }
+        val result = uploadFile(writeLink, packaged.manifestData)
+        if (result.isFailure) {
+            Timber.tag("Epic").e("[Cloud Saves] Failed to upload manifest: ${result.exceptionOrNull()?.message}")
+            return@coroutineScope false
+        }
+
+        Timber.tag("Epic").i(
+            "[Cloud Saves] Upload complete: ${results.size} chunks uploaded, ${packaged.reusedChunks} unchanged chunks reused",
+        )
+        true
     }
 
     // Request write links for files
@@ -874,12 +936,19 @@ object EpicCloudSavesManager {
     }
 
     // Upload a single file
-    private suspend fun uploadFile(writeLink: String, data: ByteArray): Result<Unit> = withContext(Dispatchers.IO) {
+    private suspend fun uploadFile(writeLink: String, data: ByteArray): Result<Unit> =
+        uploadFile(writeLink, data.toRequestBody("application/octet-stream".toMediaType()))
+
+    // Upload a file from disk without loading it into memory
+    private suspend fun uploadFile(writeLink: String, file: File): Result<Unit> =
+        uploadFile(writeLink, file.asRequestBody("application/octet-stream".toMediaType()))
+
+    private suspend fun uploadFile(writeLink: String, body: RequestBody): Result<Unit> = withContext(Dispatchers.IO) {
         try {
             val request = Request.Builder()
                 .url(writeLink)
                 .header("Content-Type", "application/octet-stream")
-                .put(data.toRequestBody("application/octet-stream".toMediaType()))
+                .put(body)
                 .build()
 
             val response = httpClient.newCall(request).execute()
@@ -895,258 +964,6 @@ object EpicCloudSavesManager {
         }
     }
 
-    // Package save files into chunks and manifest (similar to Legendary's SaveGameHelper)
-    private fun packageSaveFiles(
-        saveDir: File,
-        game: EpicGame,
-        accountId: String,
-        fileList: List<String>? = null, // Optional: only package specific files
-    ): Map<String, ByteArray> {
-        try {
-            Timber.tag("Epic").i("[Cloud Saves] Packaging files from: ${saveDir.absolutePath}")
-
-            val allFiles = saveDir.walkTopDown()
-                .filter { it.isFile }
-                .toList()
-
-            // Filter to only requested files if fileList is provided
-            val files = if (fileList != null) {
-                allFiles.filter { file ->
-                    val relativePath = file.relativeTo(saveDir).path.replace("\\", "/")
-                    val included = fileList.contains(relativePath)
-                    if (included) {
-                        Timber.tag("Epic").d("[Cloud Saves] Including file: $relativePath")
-                    }
-                    included
-                }
-            } else {
-                allFiles
-            }.sortedBy { it.name.lowercase() }
-
-            if (files.isEmpty()) {
-                Timber.tag("Epic").w("[Cloud Saves] No files found to package")
-                return emptyMap()
-            }
-
-            Timber.tag("Epic").i("[Cloud Saves] Found ${files.size} files to package")
-
-            val packagedFiles = mutableMapOf<String, ByteArray>()
-            val chunks = mutableListOf<app.gamenative.service.epic.manifest.ChunkInfo>()
-            val fileManifests = mutableListOf<app.gamenative.service.epic.manifest.FileManifest>()
-
-            var chunkNum = 0
-            var currentChunkData = mutableListOf<Byte>()
-            val chunkSize = 1024 * 1024 // 1 MB chunks
-
-            // Process each file
-            files.forEach { file ->
-                try {
-                    val relativePath = file.relativeTo(saveDir).path.replace("\\", "/")
-
-                    // Skip empty files
-                    if (file.length() == 0L) {
-                        Timber.tag("Epic").w("[Cloud Saves] Skipping empty file: $relativePath")
-                        return@forEach
-                    }
-
-                    Timber.tag("Epic").d("[Cloud Saves] Processing file: $relativePath (${file.length()} bytes)")
-
-                    val fileManifest = app.gamenative.service.epic.manifest.FileManifest()
-                    fileManifest.filename = relativePath
-                    fileManifest.fileSize = file.length()
-
-                    val fileData = file.readBytes()
-                    val fileHash = java.security.MessageDigest.getInstance("SHA-1").digest(fileData)
-                    fileManifest.hash = fileHash
-
-                    var fileOffset = 0L
-
-                    // Split file into chunk parts
-                    while (fileOffset < fileData.size) {
-                        // Check if we need to finalize current chunk
-                        if (currentChunkData.size >= chunkSize) {
-                            val chunk = finalizeChunk(currentChunkData.toByteArray(), chunkNum++, packagedFiles)
-                            chunks.add(chunk)
-                            currentChunkData.clear()
-                        }
-
-                        // Generate or reuse GUID for current chunk
-                        val guid = if (currentChunkData.isEmpty()) {
-                            generateGuid()
-                        } else {
-                            // Reuse GUID from last chunk part
-                            fileManifest.chunkParts.lastOrNull()?.guid ?: generateGuid()
-                        }
-
-                        val offset = currentChunkData.size
-                        val partFileOffset = fileOffset
-
-                        val remainingInChunk = (chunkSize - currentChunkData.size).coerceAtMost((fileData.size - fileOffset).toInt())
-                        val size = remainingInChunk
-
-                        // Add data to current chunk
-                        currentChunkData.addAll(fileData.sliceArray(fileOffset.toInt() until (fileOffset + remainingInChunk).toInt()).toList())
-
-                        // Create chunk part with all required parameters
-                        val chunkPart = app.gamenative.service.epic.manifest.ChunkPart(
-                            guid = guid,
-                            offset = offset,
-                            size = size,
-                            fileOffset = partFileOffset,
-                        )
-
-                        fileManifest.chunkParts.add(chunkPart)
-                        fileOffset += remainingInChunk
-                    }
-
-                    fileManifests.add(fileManifest)
-                } catch (e: Exception) {
-                    Timber.tag("Epic").e(e, "[Cloud Saves] Failed to process file: ${file.name}")
-                }
-            }
-
-            // Finalize last chunk if it has data
-            if (currentChunkData.isNotEmpty()) {
-                val chunk = finalizeChunk(currentChunkData.toByteArray(), chunkNum++, packagedFiles)
-                chunks.add(chunk)
-            }
-
-            // Create manifest
-            val manifest = createManifest(game, accountId, chunks, fileManifests)
-            val manifestData = manifest.serialize()
-
-            val timestamp = java.time.LocalDateTime.now(java.time.ZoneOffset.UTC)
-            val manifestName = "manifests/${timestamp.format(java.time.format.DateTimeFormatter.ofPattern("yyyy.MM.dd-HH.mm.ss"))}.manifest"
-            packagedFiles[manifestName] = manifestData
-
-            Timber.tag("Epic").i("[Cloud Saves] Packaged ${fileManifests.size} files into ${chunks.size} chunks")
-            return packagedFiles
-        } catch (e: Exception) {
-            Timber.tag("Epic").e(e, "[Cloud Saves] Failed to package save files")
-            return emptyMap()
-        }
-    }
-
-    // Finalize a chunk (compress and store)
-    private fun finalizeChunk(
-        data: ByteArray,
-        chunkNum: Int,
-        packagedFiles: MutableMap<String, ByteArray>,
-    ): app.gamenative.service.epic.manifest.ChunkInfo {
-        // Pad to 1 MB if needed
-        val paddedData = if (data.size < 1024 * 1024) {
-            data + ByteArray(1024 * 1024 - data.size)
-        } else {
-            data
-        }
-
-        // Compress chunk
-        val compressedData = compressChunk(paddedData)
-
-        // Calculate hashes
-        val shaHash = java.security.MessageDigest.getInstance("SHA-1").digest(paddedData)
-        val rollingHash = calculateRollingHash(paddedData)
-
-        // Create chunk info
-        val chunkInfo = app.gamenative.service.epic.manifest.ChunkInfo()
-        chunkInfo.guid = generateGuid()
-        chunkInfo.hash = rollingHash
-        chunkInfo.shaHash = shaHash
-        chunkInfo.windowSize = paddedData.size
-        chunkInfo.fileSize = compressedData.size.toLong()
-
-        // Store chunk data
-        val chunkPath = chunkInfo.getPath()
-        packagedFiles[chunkPath] = compressedData
-
-        Timber.tag("Epic").d("[Cloud Saves] Finalized chunk #$chunkNum: ${chunkInfo.guidStr} (${compressedData.size} bytes)")
-
-        return chunkInfo
-    }
-
-    // Compress chunk data with proper header
-    private fun compressChunk(data: ByteArray): ByteArray {
-        val output = java.io.ByteArrayOutputStream()
-        val buffer = java.nio.ByteBuffer.allocate(1024 * 1024 + 1024).order(java.nio.ByteOrder.LITTLE_ENDIAN)
-
-        // Compress data
-        val compressed = java.io.ByteArrayOutputStream()
-        java.util.zip.DeflaterOutputStream(compressed).use { it.write(data) }
-        val compressedData = compressed.toByteArray()
-
-        // Write header
-        buffer.putInt(0xB1FE3AA2.toInt()) // magic
-        buffer.putInt(3) // version
-        buffer.putInt(0) // header size (calculated later)
-        buffer.putInt(compressedData.size) // compressed size
-
-        val guid = generateGuid()
-        guid.forEach { buffer.putInt(it) }
-
-        val hash = calculateRollingHash(data)
-        buffer.putLong(hash.toLong())
-
-        buffer.put(0x1.toByte()) // stored_as (compressed)
-        buffer.put(0x3.toByte()) // hash_type (both hashes)
-
-        val shaHash = java.security.MessageDigest.getInstance("SHA-1").digest(data)
-        buffer.put(shaHash)
-
-        // Update header size
-        val headerSize = buffer.position()
-        buffer.putInt(8, headerSize)
-
-        // Add compressed data
-        buffer.put(compressedData)
-
-        return buffer.array().copyOf(buffer.position())
-    }
-
-    // Generate a random GUID (4 integers)
-    private fun generateGuid(): IntArray {
-        val random = java.security.SecureRandom()
-        return IntArray(4) { random.nextInt() }
-    }
-
-    // Calculate rolling hash (simplified version)
-    private fun calculateRollingHash(data: ByteArray): ULong {
-        var hash = 0uL
-        data.forEach { byte ->
-            hash = (hash * 31uL + byte.toUByte().toULong()) and 0xFFFFFFFFFFFFFFFFuL
-        }
-        return hash
-    }
-
-    // Create manifest
-    private fun createManifest(
-        game: EpicGame,
-        accountId: String,
-        chunks: List<app.gamenative.service.epic.manifest.ChunkInfo>,
-        fileManifests: List<app.gamenative.service.epic.manifest.FileManifest>,
-    ): app.gamenative.service.epic.manifest.EpicManifest {
-        val manifest = app.gamenative.service.epic.manifest.BinaryManifest()
-
-        // Meta
-        manifest.meta = app.gamenative.service.epic.manifest.ManifestMeta()
-        manifest.meta!!.appName = "${game.appName}$accountId"
-        val timestamp = java.time.LocalDateTime.now(java.time.ZoneOffset.UTC)
-        manifest.meta!!.buildVersion = timestamp.format(java.time.format.DateTimeFormatter.ofPattern("yyyy.MM.dd-HH.mm.ss"))
-
-        // Custom fields
-        manifest.customFields = app.gamenative.service.epic.manifest.CustomFields()
-        manifest.customFields!!["CloudSaveFolder"] = game.saveFolder
-
-        // Chunks
-        manifest.chunkDataList = app.gamenative.service.epic.manifest.ChunkDataList()
-        manifest.chunkDataList!!.elements.addAll(chunks)
-
-        // Files
-        manifest.fileManifestList = app.gamenative.service.epic.manifest.FileManifestList()
-        manifest.fileManifestList!!.elements.addAll(fileManifests)
-
-        return manifest
-    }
-
     // Resolve save directory path
     private fun resolveSaveDirectory(context: Context, game: EpicGame, accountId: String): File? {
         val cloudSaveFolder = game.saveFolder.ifEmpty { return null }
@@ -1330,8 +1147,8 @@ object EpicCloudSavesManager {
             val storedAs = buffer.get().toInt()
             val isCompressed = (storedAs and 0x1) != 0
 
-            // Skip hash type and SHA hash (21 bytes total for the flag + hash)
-            buffer.position(buffer.position() + 20)
+            // Skip SHA hash and hash type, the header size covers both
+            buffer.position(headerSize)
 
             // Get remaining data
             val dataStart = buffer.position()
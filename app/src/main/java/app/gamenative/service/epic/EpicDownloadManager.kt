@@ -601,7 +601,7 @@ class EpicDownloadManager @Inject constructor(
      * - Uncompressed size (4 bytes)
      * - Data (compressed_size bytes)
      */
-    private fun readEpicChunk(chunkBytes: ByteArray): ByteArray {
+    internal fun readEpicChunk(chunkBytes: ByteArray): ByteArray {
         val buffer = ByteBuffer.wrap(chunkBytes).order(ByteOrder.LITTLE_ENDIAN)
 
         // Read header
@@ -5,6 +5,10 @@ import app.gamenative.data.EpicGame
 import app.gamenative.data.LaunchInfo
 import app.gamenative.data.LibraryItem
 import app.gamenative.db.dao.EpicGameDao
+import app.gamenative.service.epic.manifest.CompactManifest
+import app.gamenative.utils.CatalogHydrator
+import app.gamenative.utils.HttpStatusException
+import app.gamenative.utils.ManifestCache
 import app.gamenative.utils.Net
 import java.io.File
 import java.util.concurrent.TimeUnit
@@ -30,8 +34,13 @@ class EpicManager @Inject constructor(
 
     private val REFRESH_BATCH_SIZE = 10
 
+    // How long a game page trusts cached manifest sizes before asking Epic for the current build
+    private val MANIFEST_SUMMARY_MAX_AGE_MS = TimeUnit.HOURS.toMillis(6)
+
     private val httpClient = Net.http
 
+    private val catalogHydrator = CatalogHydrator(batchSize = REFRESH_BATCH_SIZE)
+
     // Separate client for CDN downloads - no connection pooling, follows redirects
     private val cdnClient = OkHttpClient.Builder()
         .connectTimeout(30, TimeUnit.SECONDS)
@@ -216,33 +225,30 @@ class EpicManager @Inject constructor(
             val newGamesList = gamesList.filter { it.catalogItemId !in existingCatalogIds }
             Timber.tag("Epic").d("${newGamesList.size} new games need details fetched")
 
-            val epicGames = mutableListOf<EpicGame>()
-            var processedCount = 0
-            for ((index, game) in newGamesList.withIndex()) {
-                val result = fetchGameInfo(context, game)
-
-                if (result.isSuccess) {
-                    val epicGame = result.getOrNull()
-                    if (epicGame != null) {
-                        epicGames.add(epicGame)
-                        processedCount++
-                        Timber.tag("Epic").d("Refreshed Game: ${epicGame.title}")
-                    }
-                } else {
-                    Timber.tag("Epic").w("Epic game ${game.appName} could not be fetched")
-                }
+            if (newGamesList.isEmpty()) {
+                return@withContext Result.success(0)
+            }
 
-                if ((index + 1) % REFRESH_BATCH_SIZE == 0 || index == newGamesList.lastIndex) {
-                    if (epicGames.isNotEmpty()) {
-                        epicGameDao.upsertPreservingInstallStatus(epicGames)
-                        Timber.tag("Epic").d("Batch inserted ${epicGames.size} games (processed ${index + 1}/${newGamesList.size})")
-                        epicGames.clear()
-                    }
-                }
+            // Refresh the token once up front so parallel fetches don't all race to refresh it
+            EpicAuthManager.getStoredCredentials(context)
+
+            // Fetch details in parallel; each batch lands in the database (and the UI) as soon as it is ready
+            var insertedCount = 0
+            val stats = catalogHydrator.hydrate(
+                host = EpicConstants.EPIC_CATALOG_API_URL,
+                keys = newGamesList,
+                fetch = { game -> fetchGameInfo(context, game) },
+            ) { epicGames ->
+                epicGameDao.upsertPreservingInstallStatus(epicGames)
+                insertedCount += epicGames.size
+                Timber.tag("Epic").d("Batch inserted ${epicGames.size} games ($insertedCount/${newGamesList.size})")
             }
 
-            Timber.tag("Epic").i("Successfully refreshed Epic library")
-            Result.success(processedCount)
+            if (stats.failed > 0) {
+                Timber.tag("Epic").w("${stats.failed} Epic games could not be fetched")
+            }
+            Timber.tag("Epic").i("Successfully refreshed Epic library (${stats.retries} retries)")
+            Result.success(stats.hydrated)
         } catch (e: Exception) {
             Timber.e(e, "Failed to refresh Epic library")
             Result.failure(e)
@@ -417,7 +423,9 @@ class EpicManager @Inject constructor(
 
             if (!response.isSuccessful) {
                 Timber.w("Failed to fetch game info for ${game.catalogItemId}: ${response.code}")
-                return@withContext Result.failure(Exception("Could not fetch game info: ${response.code}"))
+                val error = HttpStatusException.from(response, "Could not fetch game info: ${response.code}")
+                response.close()
+                return@withContext Result.failure(error)
             }
 
             val body = response.body?.string()
@@ -729,6 +737,16 @@ class EpicManager @Inject constructor(
     data class ManifestResult(
         val manifestBytes: ByteArray,
         val cdnUrls: List<CdnUrl>,
+        val manifestHash: String = "",
+        val buildVersion: String = "",
+    )
+
+    // What the assets API says about the live build, before the manifest itself is downloaded
+    private data class ManifestInfo(
+        val manifestUri: String,
+        val manifestHash: String,
+        val buildVersion: String,
+        val cdnUrls: List<CdnUrl>,
     )
 
     data class CdnUrl(
@@ -748,16 +766,42 @@ class EpicManager @Inject constructor(
         catalogItemId: String,
         appName: String,
     ): Result<ManifestResult> = withContext(Dispatchers.IO) {
+        try {
+            val info = fetchManifestInfo(context, namespace, catalogItemId, appName).getOrElse {
+                return@withContext Result.failure(it)
+            }
+            val manifestBytes = downloadManifest(context, info).getOrElse {
+                return@withContext Result.failure(it)
+            }
+
+            Timber.tag("Epic").d("Manifest fetched with ${info.cdnUrls.size} CDN URLs")
+            Result.success(ManifestResult(manifestBytes, info.cdnUrls, info.manifestHash, info.buildVersion))
+        } catch (e: Exception) {
+            Timber.tag("Epic").e(e, "Exception fetching manifest")
+            Result.failure(e)
+        }
+    }
+
+    /**
+     * Ask the assets API for the live build: manifest URI, its SHA-1, build version and CDN mirrors.
+     * This is a few KB, so it doubles as the revalidation request for cached manifests.
+     */
+    private fun fetchManifestInfo(
+        context: Context,
+        namespace: String,
+        catalogItemId: String,
+        appName: String,
+    ): Result<ManifestInfo> {
         try {
             // Get credentials
             val credentials = EpicAuthManager.getStoredCredentials(context)
             if (credentials.isFailure) {
-                return@withContext Result.failure(credentials.exceptionOrNull() ?: Exception("No credentials"))
+                return Result.failure(credentials.exceptionOrNull() ?: Exception("No credentials"))
             }
 
             val accessToken = credentials.getOrNull()?.accessToken
             if (accessToken.isNullOrEmpty()) {
-                return@withContext Result.failure(Exception("No access token"))
+                return Result.failure(Exception("No access token"))
             }
 
             // Fetch manifest URL from Epic API
@@ -776,12 +820,12 @@ class EpicManager @Inject constructor(
 
             val manifestJson = httpClient.newCall(request).execute().use { response ->
                 if (!response.isSuccessful) {
-                    return@withContext Result.failure(Exception("Manifest API request failed: ${response.code}"))
+                    return Result.failure(Exception("Manifest API request failed: ${response.code}"))
                 }
 
                 val body = response.body?.string()
                 if (body.isNullOrEmpty()) {
-                    return@withContext Result.failure(Exception("Empty manifest API response"))
+                    return Result.failure(Exception("Empty manifest API response"))
                 }
 
                 JSONObject(body)
@@ -789,14 +833,14 @@ class EpicManager @Inject constructor(
             val elements = manifestJson.optJSONArray("elements")
 
             if (elements == null || elements.length() == 0) {
-                return@withContext Result.failure(Exception("No elements in manifest API response"))
+                return Result.failure(Exception("No elements in manifest API response"))
             }
 
             val element = elements.getJSONObject(0)
             val manifests = element.optJSONArray("manifests")
 
             if (manifests == null || manifests.length() == 0) {
-                return@withContext Result.failure(Exception("No manifests in API response"))
+                return Result.failure(Exception("No manifests in API response"))
             }
 
             // Extract CDN base URLs from manifest URIs with their auth tokens
@@ -844,7 +888,7 @@ class EpicManager @Inject constructor(
 
             // Error if no CDN URLs could be extracted
             if (cdnUrls.isEmpty()) {
-                return@withContext Result.failure(Exception("No CDN URLs found in manifest API response"))
+                return Result.failure(Exception("No CDN URLs found in manifest API response"))
             }
 
             Timber.tag("Epic").d("Found ${cdnUrls.size} CDN mirrors")
@@ -871,40 +915,71 @@ class EpicManager @Inject constructor(
                 manifestUri += params.toString()
             }
 
-            Timber.tag("Epic").d("Downloading manifest binary from: $manifestUri")
-
-            // Manifest downloads from CDN don't need/accept Epic auth tokens
-            val manifestRequest = Request.Builder()
-                .url(manifestUri)
-                .header("User-Agent", EpicConstants.EPIC_USER_AGENT)
-                .get()
-                .build()
+            return Result.success(
+                ManifestInfo(
+                    manifestUri = manifestUri,
+                    manifestHash = element.optString("hash", "").lowercase(),
+                    buildVersion = element.optString("buildVersion", ""),
+                    cdnUrls = cdnUrls,
+                ),
+            )
+        } catch (e: Exception) {
+            Timber.tag("Epic").e(e, "Exception fetching manifest metadata")
+            return Result.failure(e)
+        }
+    }
 
-            val manifestBytes = cdnClient.newCall(manifestRequest).execute().use { manifestResponse ->
-                if (!manifestResponse.isSuccessful) {
-                    return@withContext Result.failure(Exception("Failed to download manifest binary: ${manifestResponse.code}"))
+    /**
+     * Download the manifest binary, or reuse the cached copy when the assets API reports the same hash.
+     */
+    private fun downloadManifest(context: Context, info: ManifestInfo): Result<ByteArray> {
+        val cache = ManifestCache.getInstance(context)
+        if (info.manifestHash.isNotEmpty()) {
+            val cached = cache.getBlob(ManifestCache.STORE_EPIC, info.manifestHash)
+            if (cached != null) {
+                if (ManifestCache.sha1Hex(cached) == info.manifestHash) {
+                    Timber.tag("Epic").d("Using cached manifest ${info.manifestHash}")
+                    return Result.success(cached)
                 }
+                cache.removeBlob(ManifestCache.STORE_EPIC, info.manifestHash)
+            }
+        }
 
-                val bytes = manifestResponse.body?.bytes()
-                if (bytes == null) {
-                    return@withContext Result.failure(Exception("Empty manifest bytes from CDN"))
-                }
+        Timber.tag("Epic").d("Downloading manifest binary from: ${info.manifestUri}")
 
-                bytes
+        // Manifest downloads from CDN don't need/accept Epic auth tokens
+        val manifestRequest = Request.Builder()
+            .url(info.manifestUri)
+            .header("User-Agent", EpicConstants.EPIC_USER_AGENT)
+            .get()
+            .build()
+
+        val manifestBytes = cdnClient.newCall(manifestRequest).execute().use { manifestResponse ->
+            if (!manifestResponse.isSuccessful) {
+                return Result.failure(Exception("Failed to download manifest binary: ${manifestResponse.code}"))
             }
 
-            Timber.tag("Epic").d("Manifest fetched with ${cdnUrls.size} CDN URLs")
-            Result.success(ManifestResult(manifestBytes, cdnUrls))
-        } catch (e: Exception) {
-            Timber.tag("Epic").e(e, "Exception fetching manifest")
-            Result.failure(e)
+            manifestResponse.body?.bytes()
+                ?: return Result.failure(Exception("Empty manifest bytes from CDN"))
+        }
+
+        // Only cache what matches the advertised hash, so a bad download is not served forever
+        if (info.manifestHash.isNotEmpty()) {
+            if (ManifestCache.sha1Hex(manifestBytes) == info.manifestHash) {
+                cache.putBlob(ManifestCache.STORE_EPIC, info.manifestHash, manifestBytes)
+            } else {
+                Timber.tag("Epic").w("Manifest hash mismatch for ${info.manifestUri}, not caching it")
+            }
         }
+        return Result.success(manifestBytes)
     }
 
     /**
-     * Fetch install size for a game by downloading its manifest
-     * Manifest is small (~500KB-1MB) and contains all file metadata
-     * Returns size in bytes, or 0 if failed
+     * Fetch install and download size for a game from its manifest.
+     * Sizes are remembered per game in [ManifestCache]: a recent summary is returned straight away, an
+     * older one is revalidated against the manifest hash from the assets API, and the manifest itself is
+     * only downloaded and scanned when the build changed. Offline, the last known sizes are returned.
+     * Returns 0 sizes if nothing is known.
      */
     suspend fun fetchManifestSizes(context: Context, appId: Int): ManifestSizes = withContext(Dispatchers.IO) {
         try {
@@ -912,39 +987,51 @@ class EpicManager @Inject constructor(
             val game = getGameById(appId)
 
             if (game == null) {
-                Timber.tag("Epic").w("Game not found in database: $game.appName")
+                Timber.tag("Epic").w("Game not found in database: $appId")
                 return@withContext ManifestSizes(installSize = 0L, downloadSize = 0L)
             }
 
             val appName = game.appName
-
-            // Fetch manifest using shared function
-            val manifestResult = fetchManifestFromEpic(context, game.namespace, game.catalogId, game.appName)
-            if (manifestResult.isFailure) {
-                Timber.tag("Epic").w("Failed to fetch manifest: ${manifestResult.exceptionOrNull()?.message}")
-                return@withContext ManifestSizes(installSize = 0L, downloadSize = 0L)
-            }
-
-            val manifestData = manifestResult.getOrNull()!!
-
-            // Parse with Kotlin parser
-            val manifest = app.gamenative.service.epic.manifest.EpicManifest.readAll(manifestData.manifestBytes)
-
-            // Calculate install size
-            val installSize = manifest.fileManifestList?.elements?.sumOf { it.fileSize } ?: 0L
-            val downloadSize = app.gamenative.service.epic.manifest.ManifestUtils.getTotalDownloadSize(manifest)
-            Timber.tag("Epic").d(
-                "Manifest stats for $appName: version=${manifest.version}, featureLevel=${manifest.meta?.featureLevel}, " +
-                    "buildVersion=${manifest.meta?.buildVersion}, buildId=${manifest.meta?.buildId}",
-            )
-            Timber.tag("Epic").d(
-                "Manifest stats for $appName: files=${manifest.fileManifestList?.count}, " +
-                    "chunks=${manifest.chunkDataList?.count}",
+            val cache = ManifestCache.getInstance(context)
+            var info: ManifestInfo? = null
+
+            val summary = cache.resolveSummary(
+                store = ManifestCache.STORE_EPIC,
+                key = appName,
+                maxAgeMs = MANIFEST_SUMMARY_MAX_AGE_MS,
+                currentHash = {
+                    val current = fetchManifestInfo(context, game.namespace, game.catalogId, appName).getOrThrow()
+                    info = current
+                    current.manifestHash
+                },
+                build = { hash ->
+                    val manifestBytes = downloadManifest(context, info!!).getOrThrow()
+
+                    // Only the sizes are needed, so stream through the manifest instead of building the full model
+                    val sizes = CompactManifest.readSizes(manifestBytes)
+                    Timber.tag("Epic").d(
+                        "Manifest stats for $appName: version=${sizes.version}, featureLevel=${sizes.meta?.featureLevel}, " +
+                            "buildVersion=${sizes.meta?.buildVersion}, buildId=${sizes.meta?.buildId}",
+                    )
+                    Timber.tag("Epic").d(
+                        "Manifest stats for $appName: files=${sizes.fileCount}, " +
+                            "chunks=${sizes.chunkCount}",
+                    )
+                    ManifestCache.Summary(
+                        manifestHash = hash,
+                        buildVersion = info!!.buildVersion,
+                        installSize = sizes.installSize,
+                        downloadSize = sizes.downloadSize,
+                        fileCount = sizes.fileCount,
+                        executables = sizes.executables,
+                        updatedAt = cache.now(),
+                    )
+                },
             )
-            Timber.tag("Epic").d("Install size for $appName: $installSize bytes")
-            Timber.tag("Epic").d("Download size for $appName: $downloadSize bytes")
+            Timber.tag("Epic").d("Install size for $appName: ${summary.installSize} bytes")
+            Timber.tag("Epic").d("Download size for $appName: ${summary.downloadSize} bytes")
 
-            return@withContext ManifestSizes(installSize = installSize, downloadSize = downloadSize)
+            return@withContext ManifestSizes(installSize = summary.installSize, downloadSize = summary.downloadSize)
         } catch (e: Exception) {
             Timber.tag("Epic").e(e, "Exception fetching install size for appId: $appId")
             ManifestSizes(installSize = 0L, downloadSize = 0L)
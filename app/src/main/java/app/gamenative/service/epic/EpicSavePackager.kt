@@ -0,0 +1,231 @@
+package app.gamenative.service.epic
+
+import app.gamenative.service.epic.manifest.BinaryManifest
+import app.gamenative.service.epic.manifest.ChunkDataList
+import app.gamenative.service.epic.manifest.ChunkInfo
+import app.gamenative.service.epic.manifest.ChunkPart
+import app.gamenative.service.epic.manifest.CustomFields
+import app.gamenative.service.epic.manifest.EpicManifest
+import app.gamenative.service.epic.manifest.FileManifest
+import app.gamenative.service.epic.manifest.FileManifestList
+import app.gamenative.service.epic.manifest.ManifestMeta
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.security.MessageDigest
+import java.security.SecureRandom
+import java.time.LocalDateTime
+import java.time.ZoneOffset
+import java.time.format.DateTimeFormatter
+import java.util.zip.Deflater
+import java.util.zip.DeflaterOutputStream
+import timber.log.Timber
+
+/**
+ * Streams save files into Epic's chunked cloud-save format (similar to Legendary's SaveGameHelper).
+ *
+ * Files are read through a single reusable chunk buffer and every finished chunk is compressed straight
+ * into [workDir], so memory stays bounded by one chunk regardless of the size of the save set. A file
+ * never straddles a chunk boundary unless it is larger than a chunk, which keeps an edit to one file
+ * from shifting the contents of chunks that belong to other files.
+ *
+ * Chunks whose SHA-1 matches a chunk of the previous cloud manifest are referenced by their existing
+ * GUID instead of being written again, so only changed data needs to be uploaded. An instance packages
+ * a single save set.
+ */
+class EpicSavePackager(
+    private val workDir: File,
+    private val chunkSize: Int = CHUNK_SIZE,
+) {
+    companion object {
+        const val CHUNK_SIZE = 1024 * 1024 // 1 MB chunks
+        private const val CHUNK_MAGIC = 0xB1FE3AA2.toInt()
+        private const val CHUNK_HEADER_SIZE = 66
+        private val random = SecureRandom()
+
+        // Calculate rolling hash (simplified version)
+        fun calculateRollingHash(data: ByteArray, length: Int = data.size): ULong {
+            var hash = 0uL
+            for (i in 0 until length) {
+                hash = hash * 31uL + data[i].toUByte().toULong()
+            }
+            return hash
+        }
+
+        private fun generateGuid(): IntArray = IntArray(4) { random.nextInt() }
+    }
+
+    class PackagedSave(
+        val manifestName: String,
+        val manifestData: ByteArray,
+        // Relative chunk path to the compressed chunk file that still has to be uploaded
+        val newChunks: Map<String, File>,
+        val reusedChunks: Int,
+    )
+
+    private class PendingPart(val file: FileManifest, val offset: Int, val size: Int, val fileOffset: Long)
+
+    private val buffer = ByteArray(chunkSize)
+    private var fill = 0
+    private val pendingParts = ArrayList<PendingPart>()
+    private val chunks = ArrayList<ChunkInfo>()
+    private val newChunks = LinkedHashMap<String, File>()
+    private var reusedChunks = 0
+    private var previousChunks: Map<String, ChunkInfo> = emptyMap()
+    private val chunkSha = MessageDigest.getInstance("SHA-1")
+    private val deflater = Deflater()
+    private val compressed = ByteArrayOutputStream(chunkSize / 2)
+
+    /**
+     * @param previous latest cloud manifest, used to find chunks that do not need to be uploaded again
+     * @param remoteChunkPaths chunk paths that still exist in the cloud; previous chunks outside of it are not reused
+     */
+    fun packageFiles(
+        saveDir: File,
+        files: List<File>,
+        previous: EpicManifest?,
+        remoteChunkPaths: Set<String>?,
+        manifestAppName: String,
+        saveFolder: String,
+    ): PackagedSave {
+        workDir.mkdirs()
+        // Re-create previous chunks with this manifest's feature level so their paths match what downloads resolve
+        previousChunks = previous?.chunkDataList?.elements.orEmpty()
+            .filter { it.windowSize == chunkSize }
+            .map { ChunkInfo(it.guid, it.hash, it.shaHash, it.groupNum, it.windowSize, it.fileSize) }
+            .filter { remoteChunkPaths == null || remoteChunkPaths.contains(it.getPath()) }
+            .associateBy { it.shaHash.toHex() }
+
+        val fileManifests = ArrayList<FileManifest>()
+        val fileSha = MessageDigest.getInstance("SHA-1")
+        try {
+            for (file in files) {
+                val relativePath = file.relativeTo(saveDir).path.replace("\\", "/")
+                val length = file.length()
+                if (length == 0L) {
+                    Timber.tag("Epic").w("[Cloud Saves] Skipping empty file: $relativePath")
+                    continue
+                }
+
+                // Start files that fit into a chunk on a fresh one when they would not fit into the current one
+                if (fill > 0 && length > chunkSize - fill) finalizeChunk()
+
+                val fileManifest = FileManifest(filename = relativePath)
+                var fileOffset = 0L
+                fileSha.reset()
+                FileInputStream(file).use { input ->
+                    while (true) {
+                        val read = input.read(buffer, fill, chunkSize - fill)
+                        if (read < 0) break
+                        if (read == 0) continue
+                        fileSha.update(buffer, fill, read)
+                        pendingParts.add(PendingPart(fileManifest, fill, read, fileOffset))
+                        fill += read
+                        fileOffset += read
+                        if (fill == chunkSize) finalizeChunk()
+                    }
+                }
+
+                fileManifest.fileSize = fileOffset
+                fileManifest.hash = fileSha.digest()
+                fileManifests.add(fileManifest)
+                Timber.tag("Epic").d("[Cloud Saves] Packaged file: $relativePath ($fileOffset bytes)")
+            }
+            if (fill > 0) finalizeChunk()
+        } finally {
+            deflater.end()
+        }
+
+        val timestamp = LocalDateTime.now(ZoneOffset.UTC).format(DateTimeFormatter.ofPattern("yyyy.MM.dd-HH.mm.ss"))
+        val manifest = createManifest(manifestAppName, saveFolder, timestamp, fileManifests)
+
+        Timber.tag("Epic").i(
+            "[Cloud Saves] Packaged ${fileManifests.size} files into ${chunks.size} chunks (${newChunks.size} new, $reusedChunks unchanged)",
+        )
+        return PackagedSave("manifests/$timestamp.manifest", manifest.serialize(), newChunks, reusedChunks)
+    }
+
+    private fun finalizeChunk() {
+        // Chunks are always stored padded to the full window size
+        buffer.fill(0, fill, chunkSize)
+        chunkSha.reset()
+        val shaHash = chunkSha.digest(buffer)
+
+        val chunkInfo = previousChunks[shaHash.toHex()]?.also { reusedChunks++ } ?: ChunkInfo().apply {
+            guid = generateGuid()
+            hash = calculateRollingHash(buffer)
+            this.shaHash = shaHash
+            windowSize = chunkSize
+            fileSize = writeChunk(this)
+        }
+
+        chunks.add(chunkInfo)
+        pendingParts.forEach { part ->
+            part.file.chunkParts.add(ChunkPart(chunkInfo.guid, part.offset, part.size, part.fileOffset))
+        }
+        pendingParts.clear()
+        fill = 0
+    }
+
+    // Writes the compressed chunk with its header and returns the resulting file size
+    private fun writeChunk(chunkInfo: ChunkInfo): Long {
+        compressed.reset()
+        deflater.reset()
+        DeflaterOutputStream(compressed, deflater).apply {
+            write(buffer)
+            finish()
+        }
+
+        val header = ByteBuffer.allocate(CHUNK_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN)
+        header.putInt(CHUNK_MAGIC)
+        header.putInt(3) // version
+        header.putInt(CHUNK_HEADER_SIZE)
+        header.putInt(compressed.size()) // compressed size
+        chunkInfo.guid.forEach { header.putInt(it) }
+        header.putLong(chunkInfo.hash.toLong())
+        header.put(0x1.toByte()) // stored_as (compressed)
+        header.put(chunkInfo.shaHash)
+        header.put(0x3.toByte()) // hash_type (both hashes)
+        header.putInt(buffer.size) // uncompressed size, part of the version 3 header
+
+        val path = chunkInfo.getPath()
+        val chunkFile = File(workDir, path.replace('/', '_'))
+        FileOutputStream(chunkFile).use { output ->
+            output.write(header.array())
+            compressed.writeTo(output)
+        }
+        newChunks[path] = chunkFile
+
+        Timber.tag("Epic").d("[Cloud Saves] Finalized chunk ${chunkInfo.guidStr} (${chunkFile.length()} bytes)")
+        return chunkFile.length()
+    }
+
+    private fun createManifest(
+        manifestAppName: String,
+        saveFolder: String,
+        buildVersion: String,
+        fileManifests: List<FileManifest>,
+    ): EpicManifest {
+        val manifest = BinaryManifest()
+
+        manifest.meta = ManifestMeta()
+        manifest.meta!!.appName = manifestAppName
+        manifest.meta!!.buildVersion = buildVersion
+
+        manifest.customFields = CustomFields()
+        manifest.customFields!!["CloudSaveFolder"] = saveFolder
+
+        manifest.chunkDataList = ChunkDataList()
+        manifest.chunkDataList!!.elements.addAll(chunks)
+
+        manifest.fileManifestList = FileManifestList()
+        manifest.fileManifestList!!.elements.addAll(fileManifests)
+
+        return manifest
+    }
+
+    private fun ByteArray.toHex(): String = joinToString("") { "%02x".format(it) }
+}
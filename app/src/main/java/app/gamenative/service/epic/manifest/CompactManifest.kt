@@ -0,0 +1,776 @@
+package app.gamenative.service.epic.manifest
+
+import java.io.ByteArrayInputStream
+import java.io.EOFException
+import java.io.InputStream
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.security.DigestInputStream
+import java.security.MessageDigest
+import java.util.BitSet
+import java.util.zip.Inflater
+import java.util.zip.InflaterInputStream
+
+/**
+ * Read-only, memory-lean view of an Epic manifest for large titles.
+ *
+ * [EpicManifest.readAll] inflates the whole body into one array and then builds a [ChunkInfo],
+ * [FileManifest] and [ChunkPart] object (each with its own hash arrays) per entry, which costs hundreds
+ * of MB for games with 100k+ files. This model streams the body through the inflater once and keeps
+ * it in primitive columns: chunk and file hashes share a single blob, chunk GUIDs are resolved through
+ * an open-addressing index, and [ChunkPart]s are only materialized when a file's parts are requested.
+ *
+ * Use [readSizes] when only the install and download sizes are needed.
+ */
+class CompactManifest private constructor(
+    val version: Int,
+    val meta: ManifestMeta?,
+    val customFields: CustomFields?,
+    val chunkCount: Int,
+    // Two longs per chunk: GUID ints 0-1 and 2-3, same packing as ChunkInfo.guidNum
+    private val chunkGuids: LongArray,
+    private val chunkHashes: LongArray,
+    private val chunkGroups: ByteArray,
+    private val chunkWindowSizes: IntArray,
+    private val chunkFileSizes: LongArray,
+    private val chunkIndex: GuidIndex,
+    val fileCount: Int,
+    private val fileNames: Array<String>,
+    private val symlinkTargets: Array<String>,
+    private val fileFlags: ByteArray,
+    private val installTags: Array<List<String>>,
+    private val mimeTypes: Array<String>,
+    private val fileSizes: LongArray,
+    // Parts of file i are firstPart[i] until firstPart[i + 1]
+    private val firstPart: IntArray,
+    // Chunk index, or -(n + 1) for the n-th GUID in orphanGuids when the chunk list does not have it
+    private val partChunks: IntArray,
+    private val partOffsets: IntArray,
+    private val partSizes: IntArray,
+    private val orphanGuids: LongArray,
+    // Chunk SHA-1s (20 bytes each), then one record of fileHashStride bytes per file: SHA-1, MD5, SHA-256
+    private val hashes: ByteArray,
+    private val fileHashStride: Int,
+) {
+    /**
+     * Totals needed to show a game's size without building the manifest model.
+     */
+    data class Sizes(
+        val installSize: Long,
+        val downloadSize: Long,
+        val fileCount: Int,
+        val chunkCount: Int,
+        val version: Int,
+        val meta: ManifestMeta?,
+        val executables: List<String>,
+    )
+
+    private val pathIndex: Map<String, Int> by lazy {
+        HashMap<String, Int>(fileCount * 4 / 3 + 1).also { map ->
+            for (i in 0 until fileCount) map[fileNames[i]] = i
+        }
+    }
+
+    val partCount: Int get() = firstPart[fileCount]
+
+    /** Sum of all file sizes, i.e. the size on disk after install. */
+    val installSize: Long get() = fileSizes.sum()
+
+    /** Compressed size of every chunk referenced by at least one file. */
+    val downloadSize: Long
+        get() {
+            val referenced = BitSet(chunkCount)
+            for (p in 0 until partCount) {
+                if (partChunks[p] >= 0) referenced.set(partChunks[p])
+            }
+            var total = 0L
+            var i = referenced.nextSetBit(0)
+            while (i >= 0) {
+                total += chunkFileSizes[i]
+                i = referenced.nextSetBit(i + 1)
+            }
+            return total
+        }
+
+    fun getChunkDir(): String = chunkDirFor(version)
+
+    // --- Chunks ---
+
+    fun indexOfChunk(guid: String): Int {
+        val parts = guid.split('-')
+        if (parts.size != 4) return -1
+        return try {
+            val ints = IntArray(4) { java.lang.Long.parseLong(parts[it], 16).toInt() }
+            chunkIndex.get(pack(ints[0], ints[1]), pack(ints[2], ints[3]))
+        } catch (e: NumberFormatException) {
+            -1
+        }
+    }
+
+    fun chunkGuid(index: Int): IntArray = unpackGuid(chunkGuids, index)
+
+    fun chunkGuidStr(index: Int): String = guidString(chunkGuids, index)
+
+    fun chunkHash(index: Int): ULong = chunkHashes[index].toULong()
+
+    fun chunkShaHash(index: Int): ByteArray = hashes.copyOfRange(index * 20, index * 20 + 20)
+
+    fun chunkGroupNum(index: Int): Int = chunkGroups[index].toInt() and 0xFF
+
+    fun chunkWindowSize(index: Int): Int = chunkWindowSizes[index]
+
+    fun chunkFileSize(index: Int): Long = chunkFileSizes[index]
+
+    fun chunkInfo(index: Int): ChunkInfo = ChunkInfo(
+        guid = chunkGuid(index),
+        hash = chunkHash(index),
+        shaHash = chunkShaHash(index),
+        groupNum = chunkGroupNum(index),
+        windowSize = chunkWindowSizes[index],
+        fileSize = chunkFileSizes[index],
+        manifestVersion = meta?.featureLevel ?: version,
+    )
+
+    fun getChunkByGuid(guid: String): ChunkInfo? = indexOfChunk(guid).takeIf { it >= 0 }?.let { chunkInfo(it) }
+
+    // --- Files ---
+
+    fun indexOfFile(path: String): Int = pathIndex[path] ?: -1
+
+    fun fileName(index: Int): String = fileNames[index]
+
+    fun fileSize(index: Int): Long = fileSizes[index]
+
+    fun fileFlags(index: Int): Int = fileFlags[index].toInt() and 0xFF
+
+    fun fileSymlinkTarget(index: Int): String = symlinkTargets[index]
+
+    fun fileInstallTags(index: Int): List<String> = installTags[index]
+
+    fun fileMimeType(index: Int): String = mimeTypes[index]
+
+    fun fileHash(index: Int): ByteArray = fileHashField(index, 0, 20)
+
+    fun fileHashMd5(index: Int): ByteArray = fileHashField(index, 20, 16)
+
+    fun fileHashSha256(index: Int): ByteArray = fileHashField(index, 36, 32)
+
+    fun filePartCount(index: Int): Int = firstPart[index + 1] - firstPart[index]
+
+    /**
+     * Decode the chunk parts of one file. Nothing is cached, so hold on to the list while it is needed.
+     */
+    fun chunkParts(index: Int): List<ChunkPart> {
+        val start = firstPart[index]
+        val end = firstPart[index + 1]
+        val parts = ArrayList<ChunkPart>(end - start)
+        var fileOffset = 0L
+        for (p in start until end) {
+            val chunk = partChunks[p]
+            val guid = if (chunk >= 0) unpackGuid(chunkGuids, chunk) else unpackGuid(orphanGuids, -chunk - 1)
+            parts.add(ChunkPart(guid, partOffsets[p], partSizes[p], fileOffset))
+            fileOffset += partSizes[p].toLong()
+        }
+        return parts
+    }
+
+    fun fileManifest(index: Int): FileManifest = FileManifest(
+        filename = fileNames[index],
+        symlinkTarget = symlinkTargets[index],
+        hash = fileHash(index),
+        flags = fileFlags(index),
+        installTags = installTags[index],
+        chunkParts = chunkParts(index).toMutableList(),
+        fileSize = fileSizes[index],
+        hashMd5 = fileHashMd5(index),
+        mimeType = mimeTypes[index],
+        hashSha256 = fileHashSha256(index),
+    )
+
+    fun getFileByPath(path: String): FileManifest? = indexOfFile(path).takeIf { it >= 0 }?.let { fileManifest(it) }
+
+    private fun fileHashField(index: Int, offset: Int, length: Int): ByteArray {
+        if (offset + length > fileHashStride) return ByteArray(length)
+        val start = chunkCount * 20 + index * fileHashStride + offset
+        return hashes.copyOfRange(start, start + length)
+    }
+
+    companion object {
+        /**
+         * Parse a manifest into the compact model. JSON manifests are parsed with the regular parser and
+         * converted, since they only exist for old, small builds.
+         */
+        fun read(data: ByteArray): CompactManifest {
+            if (!isBinary(data)) return from(EpicManifest.readAll(data))
+            return openBody(data) { version, input -> parseBody(version, input) }
+        }
+
+        /**
+         * Stream through a manifest and only keep the chunk sizes needed to sum install and download sizes.
+         * Hashes and chunk parts are skipped without being decoded, and only `.exe` file names become strings.
+         */
+        fun readSizes(data: ByteArray): Sizes {
+            if (!isBinary(data)) {
+                val manifest = EpicManifest.readAll(data)
+                return Sizes(
+                    installSize = ManifestUtils.getTotalInstalledSize(manifest),
+                    downloadSize = ManifestUtils.getTotalDownloadSize(manifest),
+                    fileCount = manifest.fileManifestList?.elements?.size ?: 0,
+                    chunkCount = manifest.chunkDataList?.elements?.size ?: 0,
+                    version = manifest.version,
+                    meta = manifest.meta,
+                    executables = manifest.fileManifestList?.elements
+                        ?.map { it.filename }
+                        ?.filter { it.endsWith(EXE_SUFFIX, ignoreCase = true) }
+                        ?: emptyList(),
+                )
+            }
+            return openBody(data) { version, input -> parseSizes(version, input) }
+        }
+
+        /**
+         * Convert an already parsed manifest.
+         */
+        fun from(manifest: EpicManifest): CompactManifest {
+            val chunks = manifest.chunkDataList?.elements ?: emptyList<ChunkInfo>()
+            val files = manifest.fileManifestList?.elements ?: emptyList<FileManifest>()
+            val fileHashStride = fileHashStride(manifest.fileManifestList?.version?.toInt() ?: 0)
+
+            val chunkGuids = LongArray(chunks.size * 2)
+            val index = GuidIndex(chunks.size)
+            val hashes = ByteArray(chunks.size * 20 + files.size * fileHashStride)
+            chunks.forEachIndexed { i, chunk ->
+                chunkGuids[i * 2] = pack(chunk.guid[0], chunk.guid[1])
+                chunkGuids[i * 2 + 1] = pack(chunk.guid[2], chunk.guid[3])
+                index.put(chunkGuids[i * 2], chunkGuids[i * 2 + 1], i)
+                chunk.shaHash.copyInto(hashes, i * 20, 0, 20)
+            }
+
+            val firstPart = IntArray(files.size + 1)
+            val parts = PartColumns(files.sumOf { it.chunkParts.size })
+            files.forEachIndexed { i, file ->
+                firstPart[i] = parts.size
+                file.chunkParts.forEach { part ->
+                    parts.add(index, pack(part.guid[0], part.guid[1]), pack(part.guid[2], part.guid[3]), part.offset, part.size)
+                }
+                val base = chunks.size * 20 + i * fileHashStride
+                file.hash.copyInto(hashes, base, 0, 20)
+                if (fileHashStride >= 36) file.hashMd5.copyInto(hashes, base + 20, 0, 16)
+                if (fileHashStride >= 68) file.hashSha256.copyInto(hashes, base + 36, 0, 32)
+            }
+            firstPart[files.size] = parts.size
+
+            return CompactManifest(
+                version = manifest.version,
+                meta = manifest.meta,
+                customFields = manifest.customFields,
+                chunkCount = chunks.size,
+                chunkGuids = chunkGuids,
+                chunkHashes = LongArray(chunks.size) { chunks[it].hash.toLong() },
+                chunkGroups = ByteArray(chunks.size) { chunks[it].groupNum.toByte() },
+                chunkWindowSizes = IntArray(chunks.size) { chunks[it].windowSize },
+                chunkFileSizes = LongArray(chunks.size) { chunks[it].fileSize },
+                chunkIndex = index,
+                fileCount = files.size,
+                fileNames = Array(files.size) { files[it].filename },
+                symlinkTargets = Array(files.size) { files[it].symlinkTarget },
+                fileFlags = ByteArray(files.size) { files[it].flags.toByte() },
+                installTags = Array(files.size) { files[it].installTags },
+                mimeTypes = Array(files.size) { files[it].mimeType },
+                fileSizes = LongArray(files.size) { files[it].fileSize },
+                firstPart = firstPart,
+                partChunks = parts.chunks.copyOf(parts.size),
+                partOffsets = parts.offsets.copyOf(parts.size),
+                partSizes = parts.sizes.copyOf(parts.size),
+                orphanGuids = parts.orphans.copyOf(parts.orphanCount * 2),
+                hashes = hashes,
+                fileHashStride = fileHashStride,
+            )
+        }
+
+        private fun isBinary(data: ByteArray): Boolean =
+            data.size >= 4 && ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN).int.toUInt() == EpicManifest.HEADER_MAGIC
+
+        /**
+         * Validate the binary header and hand the (inflated) body stream to [parse]. Compressed bodies are
+         * checked against the header's size and SHA-1 once [parse] returns, like [BinaryManifest.read] does.
+         */
+        private fun <T> openBody(data: ByteArray, parse: (Int, ManifestInput) -> T): T {
+            val header = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN)
+            header.int // magic, checked by isBinary
+            val headerSize = header.int
+            val sizeUncompressed = header.int
+            header.int // compressed size
+            val shaHash = ByteArray(20).also { header.get(it) }
+            val storedAs = header.get()
+            val version = header.int
+
+            val body = ByteArrayInputStream(data, headerSize, data.size - headerSize)
+            if ((storedAs.toInt() and 0x1) == 0) {
+                return parse(version, ManifestInput(body))
+            }
+
+            val inflater = Inflater()
+            try {
+                val digest = MessageDigest.getInstance("SHA-1")
+                val input = ManifestInput(DigestInputStream(InflaterInputStream(body, inflater, 64 * 1024), digest))
+                val result = parse(version, input)
+                val inflatedSize = input.drain()
+                if (inflatedSize != sizeUncompressed.toLong()) {
+                    throw IllegalStateException("Manifest decompression size mismatch: expected $sizeUncompressed, got $inflatedSize")
+                }
+                if (!digest.digest().contentEquals(shaHash)) {
+                    throw IllegalStateException("Manifest hash mismatch!")
+                }
+                return result
+            } finally {
+                inflater.end()
+            }
+        }
+
+        private fun readMeta(input: ManifestInput): ManifestMeta {
+            val metaSize = input.int()
+            val bytes = ByteArray(metaSize)
+            ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).putInt(metaSize)
+            input.bytes(bytes, 4, metaSize - 4)
+            return ManifestMeta.read(ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN))
+        }
+
+        private fun parseBody(version: Int, input: ManifestInput): CompactManifest {
+            val meta = readMeta(input)
+
+            // Chunk data list, stored column by column
+            val cdlStart = input.position
+            val cdlSize = input.int()
+            input.byte() // version
+            val chunkCount = input.int()
+            val chunkGuids = LongArray(chunkCount * 2)
+            val index = GuidIndex(chunkCount)
+            for (i in 0 until chunkCount) {
+                chunkGuids[i * 2] = pack(input.int(), input.int())
+                chunkGuids[i * 2 + 1] = pack(input.int(), input.int())
+                index.put(chunkGuids[i * 2], chunkGuids[i * 2 + 1], i)
+            }
+            val chunkHashes = LongArray(chunkCount) { input.long() }
+            val chunkShas = ByteArray(chunkCount * 20).also { input.bytes(it, 0, it.size) }
+            val chunkGroups = ByteArray(chunkCount).also { input.bytes(it, 0, it.size) }
+            val chunkWindowSizes = IntArray(chunkCount) { input.int() }
+            val chunkFileSizes = LongArray(chunkCount) { input.long() }
+            input.skipTo(cdlStart + cdlSize)
+
+            // File manifest list, also columnar
+            val fmlStart = input.position
+            val fmlSize = input.int()
+            val fmlVersion = input.byte()
+            val fileCount = input.int()
+            val fileHashStride = fileHashStride(fmlVersion)
+            val strings = HashMap<String, String>()
+            fun shared(value: String): String = strings.getOrPut(value) { value }
+
+            val fileNames = Array(fileCount) { input.fstring() }
+            val symlinkTargets = Array(fileCount) { shared(input.fstring()) }
+            val hashes = ByteArray(chunkCount * 20 + fileCount * fileHashStride)
+            chunkShas.copyInto(hashes)
+            val fileHashBase = chunkCount * 20
+            for (i in 0 until fileCount) input.bytes(hashes, fileHashBase + i * fileHashStride, 20)
+            val fileFlags = ByteArray(fileCount).also { input.bytes(it, 0, it.size) }
+
+            // Most files share one of a handful of tag sets
+            val tagSets = HashMap<List<String>, List<String>>()
+            val installTags = Array(fileCount) {
+                val tagCount = input.int()
+                if (tagCount == 0) {
+                    emptyList()
+                } else {
+                    val tags = List(tagCount) { shared(input.fstring()) }
+                    tagSets.getOrPut(tags) { tags }
+                }
+            }
+
+            val firstPart = IntArray(fileCount + 1)
+            val fileSizes = LongArray(fileCount)
+            val parts = PartColumns(fileCount)
+            for (i in 0 until fileCount) {
+                firstPart[i] = parts.size
+                var fileSize = 0L
+                repeat(input.int()) {
+                    val partStart = input.position
+                    val partSize = input.int()
+                    val hi = pack(input.int(), input.int())
+                    val lo = pack(input.int(), input.int())
+                    val offset = input.int()
+                    val size = input.int()
+                    parts.add(index, hi, lo, offset, size)
+                    fileSize += size.toLong()
+                    input.skipTo(partStart + partSize)
+                }
+                fileSizes[i] = fileSize
+            }
+            firstPart[fileCount] = parts.size
+
+            val mimeTypes: Array<String>
+            if (fmlVersion >= 1) {
+                for (i in 0 until fileCount) {
+                    if (input.int() != 0) input.bytes(hashes, fileHashBase + i * fileHashStride + 20, 16)
+                }
+                mimeTypes = Array(fileCount) { shared(input.fstring()) }
+            } else {
+                mimeTypes = Array(fileCount) { "" }
+            }
+            if (fmlVersion >= 2) {
+                for (i in 0 until fileCount) input.bytes(hashes, fileHashBase + i * fileHashStride + 36, 32)
+            }
+            input.skipTo(fmlStart + fmlSize)
+
+            val customFields = CustomFields()
+            if (!input.atEnd()) {
+                input.int() // size
+                repeat(input.int()) {
+                    val key = input.fstring()
+                    customFields[key] = input.fstring()
+                }
+            }
+
+            return CompactManifest(
+                version = version,
+                meta = meta,
+                customFields = customFields,
+                chunkCount = chunkCount,
+                chunkGuids = chunkGuids,
+                chunkHashes = chunkHashes,
+                chunkGroups = chunkGroups,
+                chunkWindowSizes = chunkWindowSizes,
+                chunkFileSizes = chunkFileSizes,
+                chunkIndex = index,
+                fileCount = fileCount,
+                fileNames = fileNames,
+                symlinkTargets = symlinkTargets,
+                fileFlags = fileFlags,
+                installTags = installTags,
+                mimeTypes = mimeTypes,
+                fileSizes = fileSizes,
+                firstPart = firstPart,
+                partChunks = parts.chunks.copyOf(parts.size),
+                partOffsets = parts.offsets.copyOf(parts.size),
+                partSizes = parts.sizes.copyOf(parts.size),
+                orphanGuids = parts.orphans.copyOf(parts.orphanCount * 2),
+                hashes = hashes,
+                fileHashStride = fileHashStride,
+            )
+        }
+
+        private fun parseSizes(version: Int, input: ManifestInput): Sizes {
+            val meta = readMeta(input)
+
+            val cdlStart = input.position
+            val cdlSize = input.int()
+            input.byte()
+            val chunkCount = input.int()
+            val index = GuidIndex(chunkCount)
+            for (i in 0 until chunkCount) {
+                val hi = pack(input.int(), input.int())
+                index.put(hi, pack(input.int(), input.int()), i)
+            }
+            // Rolling hashes, SHA-1s, group numbers and window sizes
+            input.skip(chunkCount * (8L + 20L + 1L + 4L))
+            val chunkFileSizes = LongArray(chunkCount) { input.long() }
+            input.skipTo(cdlStart + cdlSize)
+
+            val fmlStart = input.position
+            val fmlSize = input.int()
+            input.byte()
+            val fileCount = input.int()
+            // File names and symlink targets, then SHA-1s and flags
+            val executables = ArrayList<String>()
+            repeat(fileCount) { input.fstringEndingWith(EXE_SUFFIX)?.let { executables.add(it) } }
+            repeat(fileCount) { input.skipFString() }
+            input.skip(fileCount * 21L)
+            repeat(fileCount) {
+                repeat(input.int()) { input.skipFString() }
+            }
+
+            var installSize = 0L
+            val referenced = BitSet(chunkCount)
+            repeat(fileCount) {
+                repeat(input.int()) {
+                    val partStart = input.position
+                    val partSize = input.int()
+                    val hi = pack(input.int(), input.int())
+                    val chunk = index.get(hi, pack(input.int(), input.int()))
+                    input.int() // offset
+                    installSize += input.int().toLong()
+                    if (chunk >= 0) referenced.set(chunk)
+                    input.skipTo(partStart + partSize)
+                }
+            }
+            input.skipTo(fmlStart + fmlSize)
+
+            var downloadSize = 0L
+            var i = referenced.nextSetBit(0)
+            while (i >= 0) {
+                downloadSize += chunkFileSizes[i]
+                i = referenced.nextSetBit(i + 1)
+            }
+            return Sizes(installSize, downloadSize, fileCount, chunkCount, version, meta, executables)
+        }
+
+        private const val EXE_SUFFIX = ".exe"
+
+        private fun fileHashStride(fmlVersion: Int): Int = when {
+            fmlVersion >= 2 -> 68
+            fmlVersion >= 1 -> 36
+            else -> 20
+        }
+
+        private fun chunkDirFor(version: Int): String = when {
+            version >= 15 -> "ChunksV4"
+            version >= 6 -> "ChunksV3"
+            version >= 3 -> "ChunksV2"
+            else -> "Chunks"
+        }
+
+        private fun pack(high: Int, low: Int): Long = (high.toLong() shl 32) or (low.toLong() and 0xFFFFFFFFL)
+
+        private fun unpackGuid(guids: LongArray, index: Int): IntArray {
+            val hi = guids[index * 2]
+            val lo = guids[index * 2 + 1]
+            return intArrayOf((hi ushr 32).toInt(), hi.toInt(), (lo ushr 32).toInt(), lo.toInt())
+        }
+
+        private fun guidString(guids: LongArray, index: Int): String =
+            unpackGuid(guids, index).joinToString("-") { "%08x".format(it) }
+    }
+
+    /**
+     * Growable chunk part columns used while parsing.
+     */
+    private class PartColumns(initialCapacity: Int) {
+        var chunks = IntArray(maxOf(initialCapacity, 16))
+        var offsets = IntArray(chunks.size)
+        var sizes = IntArray(chunks.size)
+        var orphans = LongArray(0)
+        var size = 0
+        var orphanCount = 0
+
+        fun add(index: GuidIndex, hi: Long, lo: Long, offset: Int, partSize: Int) {
+            if (size == chunks.size) {
+                val capacity = size * 2
+                chunks = chunks.copyOf(capacity)
+                offsets = offsets.copyOf(capacity)
+                sizes = sizes.copyOf(capacity)
+            }
+            var chunk = index.get(hi, lo)
+            if (chunk < 0) {
+                if (orphanCount * 2 == orphans.size) orphans = orphans.copyOf(maxOf(8, orphans.size * 2))
+                orphans[orphanCount * 2] = hi
+                orphans[orphanCount * 2 + 1] = lo
+                chunk = -(++orphanCount)
+            }
+            chunks[size] = chunk
+            offsets[size] = offset
+            sizes[size] = partSize
+            size++
+        }
+    }
+}
+
+/**
+ * Open-addressing map from a 128-bit GUID (as two longs) to a chunk index, without boxing.
+ */
+internal class GuidIndex(expectedSize: Int) {
+    private val mask: Int
+    private val highs: LongArray
+    private val lows: LongArray
+    private val values: IntArray
+
+    init {
+        var capacity = 16
+        while (capacity < expectedSize * 2) capacity = capacity shl 1
+        mask = capacity - 1
+        highs = LongArray(capacity)
+        lows = LongArray(capacity)
+        values = IntArray(capacity) { -1 }
+    }
+
+    fun put(high: Long, low: Long, value: Int) {
+        var slot = slotFor(high, low)
+        while (values[slot] >= 0 && (highs[slot] != high || lows[slot] != low)) {
+            slot = (slot + 1) and mask
+        }
+        highs[slot] = high
+        lows[slot] = low
+        values[slot] = value
+    }
+
+    fun get(high: Long, low: Long): Int {
+        var slot = slotFor(high, low)
+        while (values[slot] >= 0) {
+            if (highs[slot] == high && lows[slot] == low) return values[slot]
+            slot = (slot + 1) and mask
+        }
+        return -1
+    }
+
+    private fun slotFor(high: Long, low: Long): Int {
+        var h = (high xor java.lang.Long.rotateLeft(low, 32)) * -0x61c8864680b583ebL
+        h = h xor (h ushr 29)
+        return h.toInt() and mask
+    }
+}
+
+/**
+ * Buffered little-endian reader over the (inflated) manifest body that tracks its position, so section
+ * sizes can be honoured without holding the whole body in memory.
+ */
+private class ManifestInput(private val input: InputStream) {
+    private val buffer = ByteArray(64 * 1024)
+    private var pos = 0
+    private var limit = 0
+    private var consumed = 0L
+
+    val position: Long get() = consumed - (limit - pos)
+
+    private fun fill(count: Int) {
+        if (limit - pos >= count) return
+        val remaining = limit - pos
+        System.arraycopy(buffer, pos, buffer, 0, remaining)
+        pos = 0
+        limit = remaining
+        while (limit < count) {
+            val read = input.read(buffer, limit, buffer.size - limit)
+            if (read < 0) throw EOFException("Unexpected end of manifest")
+            limit += read
+            consumed += read
+        }
+    }
+
+    fun atEnd(): Boolean {
+        if (pos < limit) return false
+        val read = input.read(buffer, 0, buffer.size)
+        if (read <= 0) return true
+        pos = 0
+        limit = read
+        consumed += read
+        return false
+    }
+
+    fun byte(): Int {
+        fill(1)
+        return buffer[pos++].toInt() and 0xFF
+    }
+
+    fun int(): Int {
+        fill(4)
+        val value = (buffer[pos].toInt() and 0xFF) or
+            ((buffer[pos + 1].toInt() and 0xFF) shl 8) or
+            ((buffer[pos + 2].toInt() and 0xFF) shl 16) or
+            ((buffer[pos + 3].toInt() and 0xFF) shl 24)
+        pos += 4
+        return value
+    }
+
+    fun long(): Long {
+        val low = int().toLong() and 0xFFFFFFFFL
+        return (int().toLong() shl 32) or low
+    }
+
+    fun bytes(dst: ByteArray, offset: Int, length: Int) {
+        var copied = 0
+        while (copied < length) {
+            if (pos == limit) fill(1)
+            val n = minOf(length - copied, limit - pos)
+            System.arraycopy(buffer, pos, dst, offset + copied, n)
+            pos += n
+            copied += n
+        }
+    }
+
+    fun skip(count: Long) {
+        var left = count
+        while (left > 0) {
+            if (pos == limit) fill(1)
+            val n = minOf(left, (limit - pos).toLong()).toInt()
+            pos += n
+            left -= n
+        }
+    }
+
+    /** Skip forward to [target]; sections that were fully read are left alone. */
+    fun skipTo(target: Long) {
+        if (target > position) skip(target - position)
+    }
+
+    fun fstring(): String {
+        val length = int()
+        return when {
+            length < 0 -> {
+                val data = ByteArray(-length * 2 - 2)
+                bytes(data, 0, data.size)
+                skip(2)
+                String(data, Charsets.UTF_16LE)
+            }
+            length > 0 -> {
+                val size = length - 1
+                val value = if (size <= buffer.size) {
+                    fill(size)
+                    String(buffer, pos, size, Charsets.US_ASCII).also { pos += size }
+                } else {
+                    String(ByteArray(size).also { bytes(it, 0, size) }, Charsets.US_ASCII)
+                }
+                skip(1)
+                value
+            }
+            else -> ""
+        }
+    }
+
+    /**
+     * Decode the next string only if it ends with [suffix] (ASCII, case-insensitive), otherwise skip it.
+     */
+    fun fstringEndingWith(suffix: String): String? {
+        val length = int()
+        if (length < 0) {
+            val data = ByteArray(-length * 2 - 2)
+            bytes(data, 0, data.size)
+            skip(2)
+            return String(data, Charsets.UTF_16LE).takeIf { it.endsWith(suffix, ignoreCase = true) }
+        }
+        val size = length - 1
+        if (size < suffix.length || size > buffer.size) {
+            skip(length.toLong())
+            return null
+        }
+        fill(size)
+        val end = pos + size
+        for (i in suffix.indices) {
+            val c = buffer[end - suffix.length + i].toInt().toChar()
+            if (!c.equals(suffix[i], ignoreCase = true)) {
+                pos = end
+                skip(1)
+                return null
+            }
+        }
+        val value = String(buffer, pos, size, Charsets.US_ASCII)
+        pos = end
+        skip(1)
+        return value
+    }
+
+    fun skipFString() {
+        val length = int()
+        skip(if (length < 0) -length * 2L else length.toLong())
+    }
+
+    /** Read to the end of the stream and return the total number of bytes in it. */
+    fun drain(): Long {
+        pos = limit
+        while (true) {
+            val read = input.read(buffer, 0, buffer.size)
+            if (read < 0) break
+            consumed += read
+        }
+        pos = 0
+        limit = 0
+        return consumed
+    }
+}
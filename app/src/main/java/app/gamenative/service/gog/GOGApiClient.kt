@@ -2,6 +2,7 @@ package app.gamenative.service.gog
 
 import android.content.Context
 import app.gamenative.data.GOGGame
+import app.gamenative.utils.HttpStatusException
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.withContext
 import okhttp3.OkHttpClient
@@ -215,11 +216,10 @@ object GOGApiClient {
             // Execute request
             httpClient.newCall(request).execute().use { response ->
                 if (!response.isSuccessful) {
+                    val error = HttpStatusException.from(response, "Failed to fetch game details: HTTP ${response.code}")
                     val errorBody = response.body?.string() ?: "Unknown error"
                     Timber.tag("GOG").e("Failed to fetch game details for $gameId: HTTP ${response.code} - $errorBody")
-                    return@withContext Result.failure(
-                        Exception("Failed to fetch game details: HTTP ${response.code}")
-                    )
+                    return@withContext Result.failure(error)
                 }
 
                 val responseBody = response.body?.string() ?: ""
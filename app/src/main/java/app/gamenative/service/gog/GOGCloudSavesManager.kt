@@ -2,17 +2,24 @@ package app.gamenative.service.gog
 
 import android.content.Context
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
 import kotlinx.coroutines.withContext
+import okhttp3.MediaType
 import okhttp3.MediaType.Companion.toMediaType
 import okhttp3.Request
-import okhttp3.RequestBody.Companion.toRequestBody
+import okhttp3.RequestBody
 import okhttp3.OkHttpClient
+import okio.BufferedSink
 import org.json.JSONArray
 import org.json.JSONObject
 import timber.log.Timber
 import java.io.File
 import java.io.FileInputStream
 import java.io.FileOutputStream
+import java.io.OutputStream
 import java.security.MessageDigest
 import java.time.Instant
 import java.time.ZoneOffset
@@ -23,7 +30,8 @@ import java.util.concurrent.TimeUnit
 
 
 class GOGCloudSavesManager(
-    private val context: Context
+    private val context: Context,
+    private val baseUrl: String = CLOUD_STORAGE_BASE_URL
 ) {
 
     private val httpClient = OkHttpClient.Builder()
@@ -35,8 +43,41 @@ class GOGCloudSavesManager(
         private const val CLOUD_STORAGE_BASE_URL = "https://cloudstorage.gog.com"
         private const val USER_AGENT = "GOGGalaxyCommunicationService/2.0.13.27 (Windows_32bit) dont_sync_marker/true installation_source/gog"
         private const val DELETION_MD5 = "aadd86936a80ee8a369579c3926f1b3c"
+        private const val MAX_PARALLEL_TRANSFERS = 4
+        private const val METADATA_CACHE_FILE = "gog_save_metadata.json"
+
+        /**
+         * Stream [file] through gzip into [out]. Uploads send exactly these bytes, so the MD5 of this
+         * stream is both the local file hash and the upload's Etag.
+         */
+        internal fun gzipFile(file: File, out: OutputStream) {
+            FileInputStream(file).use { fis ->
+                GZIPOutputStream(out).use { gzipOut ->
+                    val fileBuffer = ByteArray(8192)
+                    var bytesRead: Int
+                    while (fis.read(fileBuffer).also { bytesRead = it } != -1) {
+                        gzipOut.write(fileBuffer, 0, bytesRead)
+                    }
+                }
+            }
+        }
+
+        /**
+         * MD5 of the gzipped content of [file] (matching Python implementation), without holding the
+         * compressed data in memory
+         */
+        internal fun gzipMd5(file: File): String {
+            val digest = MessageDigest.getInstance("MD5")
+            gzipFile(file, object : OutputStream() {
+                override fun write(b: Int) = digest.update(b.toByte())
+                override fun write(b: ByteArray, off: Int, len: Int) = digest.update(b, off, len)
+            })
+            return digest.digest().joinToString("") { "%02x".format(it) }
+        }
     }
 
+    private val metadataCache by lazy { GOGSaveMetadataCache(File(context.filesDir, METADATA_CACHE_FILE)) }
+
     enum class SyncAction {
         UPLOAD,
         DOWNLOAD,
@@ -55,9 +96,10 @@ class GOGCloudSavesManager(
         var updateTimestamp: Long? = null
     ) {
         /**
-         * Calculate MD5 hash and metadata for this file
+         * Calculate MD5 hash and metadata for this file, reusing the hash from [cache] if the file's
+         * size and modification time are unchanged
          */
-        suspend fun calculateMetadata() = withContext(Dispatchers.IO) {
+        suspend fun calculateMetadata(cache: GOGSaveMetadataCache? = null) = withContext(Dispatchers.IO) {
             try {
                 val file = File(absolutePath)
                 if (!file.exists() || !file.isFile) {
@@ -66,28 +108,21 @@ class GOGCloudSavesManager(
                 }
 
                 // Get file modification timestamp
+                val size = file.length()
                 val timestamp = file.lastModified()
                 val instant = Instant.ofEpochMilli(timestamp)
                 updateTime = DateTimeFormatter.ISO_INSTANT.format(instant)
                 updateTimestamp = timestamp / 1000 // Convert to seconds
 
-                // Calculate MD5 of gzipped content (matching Python implementation)
-                FileInputStream(file).use { fis ->
-                    val digest = MessageDigest.getInstance("MD5")
-                    val buffer = java.io.ByteArrayOutputStream()
-
-                    GZIPOutputStream(buffer).use { gzipOut ->
-                        val fileBuffer = ByteArray(8192)
-                        var bytesRead: Int
-                        while (fis.read(fileBuffer).also { bytesRead = it } != -1) {
-                            gzipOut.write(fileBuffer, 0, bytesRead)
-                        }
-                    }
-
-                    md5Hash = digest.digest(buffer.toByteArray())
-                        .joinToString("") { "%02x".format(it) }
+                val cached = cache?.get(file)
+                if (cached != null) {
+                    md5Hash = cached
+                    return@withContext
                 }
 
+                md5Hash = gzipMd5(file)
+                cache?.put(file, size, timestamp, md5Hash!!)
+
                 Timber.d("Calculated metadata for $relativePath: md5=$md5Hash, timestamp=$updateTimestamp")
             } catch (e: Exception) {
                 Timber.e(e, "Failed to calculate metadata for $absolutePath")
@@ -187,17 +222,13 @@ class GOGCloudSavesManager(
             when {
                 localFiles.isNotEmpty() && cloudFiles.isEmpty() -> {
                     Timber.tag("GOG-CloudSaves").i("No files in cloud, uploading ${localFiles.size} file(s)")
-                    localFiles.forEach { file ->
-                        uploadFile(credentials.userId, clientId, dirname, file, credentials.accessToken)
-                    }
+                    uploadFiles(credentials.userId, clientId, dirname, localFiles, credentials.accessToken)
                     return@withContext currentTimestamp()
                 }
 
                 localFiles.isEmpty() && downloadableCloud.isNotEmpty() -> {
                     Timber.tag("GOG-CloudSaves").i("No files locally, downloading ${downloadableCloud.size} file(s)")
-                    downloadableCloud.forEach { file ->
-                        downloadFile(credentials.userId, clientId, dirname, file, syncDir, credentials.accessToken)
-                    }
+                    downloadFiles(credentials.userId, clientId, dirname, downloadableCloud, syncDir, credentials.accessToken)
                     return@withContext currentTimestamp()
                 }
 
@@ -210,17 +241,13 @@ class GOGCloudSavesManager(
             // Handle preferred action
             if (preferredAction == "download" && downloadableCloud.isNotEmpty()) {
                 Timber.tag("GOG-CloudSaves").i("Forcing download of ${downloadableCloud.size} file(s) (user requested)")
-                downloadableCloud.forEach { file ->
-                    downloadFile(credentials.userId, clientId, dirname, file, syncDir, credentials.accessToken)
-                }
+                downloadFiles(credentials.userId, clientId, dirname, downloadableCloud, syncDir, credentials.accessToken)
                 return@withContext currentTimestamp()
             }
 
             if (preferredAction == "upload" && localFiles.isNotEmpty()) {
                 Timber.tag("GOG-CloudSaves").i("Forcing upload of ${localFiles.size} file(s) (user requested)")
-                localFiles.forEach { file ->
-                    uploadFile(credentials.userId, clientId, dirname, file, credentials.accessToken)
-                }
+                uploadFiles(credentials.userId, clientId, dirname, localFiles, credentials.accessToken)
                 return@withContext currentTimestamp()
             }
 
@@ -229,24 +256,14 @@ class GOGCloudSavesManager(
             when (classifier.determineAction()) {
                 SyncAction.DOWNLOAD -> {
                     Timber.tag("GOG-CloudSaves").i("Downloading ${classifier.updatedCloud.size} updated cloud file(s)")
-                    classifier.updatedCloud.forEach { file ->
-                        downloadFile(credentials.userId, clientId, dirname, file, syncDir, credentials.accessToken)
-                    }
-                    classifier.notExistingLocally.forEach { file ->
-                        if (!file.isDeleted) {
-                            downloadFile(credentials.userId, clientId, dirname, file, syncDir, credentials.accessToken)
-                        }
-                    }
+                    val toDownload = classifier.updatedCloud + classifier.notExistingLocally.filter { !it.isDeleted }
+                    downloadFiles(credentials.userId, clientId, dirname, toDownload, syncDir, credentials.accessToken)
                 }
 
                 SyncAction.UPLOAD -> {
                     Timber.tag("GOG-CloudSaves").i("Uploading ${classifier.updatedLocal.size} updated local file(s)")
-                    classifier.updatedLocal.forEach { file ->
-                        uploadFile(credentials.userId, clientId, dirname, file, credentials.accessToken)
-                    }
-                    classifier.notExistingRemotely.forEach { file ->
-                        uploadFile(credentials.userId, clientId, dirname, file, credentials.accessToken)
-                    }
+                    val toUpload = classifier.updatedLocal + classifier.notExistingRemotely
+                    uploadFiles(credentials.userId, clientId, dirname, toUpload, credentials.accessToken)
                 }
 
                 SyncAction.CONFLICT -> {
@@ -300,17 +317,13 @@ class GOGCloudSavesManager(
                     // Execute uploads
                     if (toUpload.isNotEmpty()) {
                         Timber.tag("GOG-CloudSaves").i("Uploading ${toUpload.size} file(s) based on timestamp comparison")
-                        toUpload.forEach { file ->
-                            uploadFile(credentials.userId, clientId, dirname, file, credentials.accessToken)
-                        }
+                        uploadFiles(credentials.userId, clientId, dirname, toUpload, credentials.accessToken)
                     }
 
                     // Execute downloads
                     if (toDownload.isNotEmpty()) {
                         Timber.tag("GOG-CloudSaves").i("Downloading ${toDownload.size} file(s) based on timestamp comparison")
-                        toDownload.forEach { file ->
-                            downloadFile(credentials.userId, clientId, dirname, file, syncDir, credentials.accessToken)
-                        }
+                        downloadFiles(credentials.userId, clientId, dirname, toDownload, syncDir, credentials.accessToken)
                     }
                 }
                 SyncAction.NONE -> {
@@ -330,7 +343,7 @@ class GOGCloudSavesManager(
     /**
      * Scan local directory for save files
      */
-    private suspend fun scanLocalFiles(directory: File): List<SyncFile> = withContext(Dispatchers.IO) {
+    internal suspend fun scanLocalFiles(directory: File): List<SyncFile> = withContext(Dispatchers.IO) {
         val files = mutableListOf<SyncFile>()
 
         fun scanRecursive(dir: File, basePath: String) {
@@ -348,12 +361,47 @@ class GOGCloudSavesManager(
 
         scanRecursive(directory, directory.absolutePath)
 
-        // Calculate metadata for all files
-        files.forEach { it.calculateMetadata() }
+        // Calculate metadata for all files, only compressing files that changed since the last scan
+        forEachBounded(files) { it.calculateMetadata(metadataCache) }
+        metadataCache.prune(directory, files.mapTo(HashSet()) { it.absolutePath })
+        metadataCache.save()
 
         files
     }
 
+    /**
+     * Run [action] for every item with at most MAX_PARALLEL_TRANSFERS in flight
+     */
+    private suspend fun <T> forEachBounded(items: List<T>, action: suspend (T) -> Unit) = coroutineScope {
+        val semaphore = Semaphore(MAX_PARALLEL_TRANSFERS)
+        items.forEach { item ->
+            launch(Dispatchers.IO) {
+                semaphore.withPermit { action(item) }
+            }
+        }
+    }
+
+    internal suspend fun uploadFiles(
+        userId: String,
+        clientId: String,
+        dirname: String,
+        files: List<SyncFile>,
+        authToken: String
+    ) = forEachBounded(files) { file ->
+        uploadFile(userId, clientId, dirname, file, authToken)
+    }
+
+    internal suspend fun downloadFiles(
+        userId: String,
+        clientId: String,
+        dirname: String,
+        files: List<CloudFile>,
+        syncDir: File,
+        authToken: String
+    ) = forEachBounded(files) { file ->
+        downloadFile(userId, clientId, dirname, file, syncDir, authToken)
+    }
+
     /**
      * Get cloud files list from GOG API
      */
@@ -365,7 +413,7 @@ class GOGCloudSavesManager(
     ): List<CloudFile> = withContext(Dispatchers.IO) {
         try {
             // List all files (don't include dirname in URL - it's used as a prefix filter)
-            val url = "$CLOUD_STORAGE_BASE_URL/v1/$userId/$clientId"
+            val url = "$baseUrl/v1/$userId/$clientId"
             Timber.tag("GOG").d("[Cloud Saves] API Request: GET $url (dirname filter: $dirname)")
 
             val request = Request.Builder()
@@ -453,9 +501,10 @@ class GOGCloudSavesManager(
 
             Timber.tag("GOG-CloudSaves").i("Uploading: ${file.relativePath} (${fileSize} bytes)")
 
-            val url = "$CLOUD_STORAGE_BASE_URL/v1/$userId/$clientId/$dirname/${file.relativePath}"
+            val url = "$baseUrl/v1/$userId/$clientId/$dirname/${file.relativePath}"
 
-            val requestBody = localFile.readBytes().toRequestBody("application/octet-stream".toMediaType())
+            // The file is gzipped while it is written to the connection, like the Python implementation
+            val requestBody = GzipFileRequestBody(localFile)
 
             val requestBuilder = Request.Builder()
                 .url(url)
@@ -464,6 +513,12 @@ class GOGCloudSavesManager(
                 .header("User-Agent", USER_AGENT)
                 .header("X-Object-Meta-User-Agent", USER_AGENT)
                 .header("Content-Type", "application/octet-stream")
+                .header("Content-Encoding", "gzip")
+
+            // The hash covers the same gzip stream that is sent, so the server can verify the upload
+            file.md5Hash?.let { md5 ->
+                requestBuilder.header("Etag", md5)
+            }
 
             // Add last modified timestamp header if available
             file.updateTime?.let { timestamp ->
@@ -500,7 +555,7 @@ class GOGCloudSavesManager(
         try {
             Timber.tag("GOG-CloudSaves").i("Downloading: ${file.relativePath}")
 
-            val url = "$CLOUD_STORAGE_BASE_URL/v1/$userId/$clientId/$dirname/${file.relativePath}"
+            val url = "$baseUrl/v1/$userId/$clientId/$dirname/${file.relativePath}"
 
             val request = Request.Builder()
                 .url(url)
@@ -518,16 +573,27 @@ class GOGCloudSavesManager(
                     return@withContext
                 }
 
-                val bytes = response.body?.bytes() ?: return@withContext
-                Timber.tag("GOG-CloudSaves").d("Downloaded ${bytes.size} bytes for ${file.relativePath}")
+                val body = response.body ?: return@withContext
 
-                // Save to local file
+                // Stream to a temporary file next to the target so a failed download never leaves a truncated save
                 val localFile = File(syncDir, file.relativePath)
                 localFile.parentFile?.mkdirs()
+                val partFile = File(localFile.path + ".part")
 
-                FileOutputStream(localFile).use { fos ->
-                    fos.write(bytes)
+                val size = try {
+                    body.byteStream().use { input ->
+                        FileOutputStream(partFile).use { fos -> input.copyTo(fos) }
+                    }
+                } catch (e: Exception) {
+                    partFile.delete()
+                    throw e
+                }
+                if (!partFile.renameTo(localFile)) {
+                    partFile.delete()
+                    Timber.tag("GOG-CloudSaves").e("Failed to move downloaded ${file.relativePath} into place")
+                    return@withContext
                 }
+                Timber.tag("GOG-CloudSaves").d("Downloaded $size bytes for ${file.relativePath}")
 
                 // Preserve timestamp if available
                 file.updateTimestamp?.let { timestamp ->
@@ -542,6 +608,25 @@ class GOGCloudSavesManager(
         }
     }
 
+    /**
+     * Request body that gzips a file while it is written, so uploads never hold the file in memory
+     */
+    private class GzipFileRequestBody(private val file: File) : RequestBody() {
+        override fun contentType(): MediaType = "application/octet-stream".toMediaType()
+
+        override fun writeTo(sink: BufferedSink) {
+            gzipFile(file, object : OutputStream() {
+                override fun write(b: Int) {
+                    sink.writeByte(b)
+                }
+
+                override fun write(b: ByteArray, off: Int, len: Int) {
+                    sink.write(b, off, len)
+                }
+            })
+        }
+    }
+
     /**
      * Classify files for sync decision
      */
@@ -20,6 +20,7 @@ import app.gamenative.enums.OS
 import app.gamenative.enums.PathType
 import app.gamenative.enums.ReleaseState
 import app.gamenative.enums.SyncResult
+import app.gamenative.utils.CatalogHydrator
 import app.gamenative.utils.ContainerUtils
 import app.gamenative.utils.FileUtils
 import app.gamenative.utils.MarkerUtils
@@ -83,6 +84,7 @@ class GOGManager @Inject constructor(
     // Thread-safe cache for download sizes
     private val downloadSizeCache = ConcurrentHashMap<String, String>()
     private val REFRESH_BATCH_SIZE = 10
+    private val catalogHydrator = CatalogHydrator(batchSize = REFRESH_BATCH_SIZE)
 
     // Cache for remote config API responses (clientId -> save locations)
     // This avoids fetching the same config multiple times
@@ -169,9 +171,8 @@ class GOGManager @Inject constructor(
 
     /**
      * Refresh the entire library (called manually by user)
-     * Fetches all games from GOG API and updates the database
-     * ! Note: If someone wants to improve this logic, I'd recommend seeing
-     * ! if coroutine parallel downloading would work without being rate-limited
+     * Fetches all games from GOG API and updates the database.
+     * Game details are fetched in parallel through [CatalogHydrator], which rate limits the API host.
      */
     suspend fun refreshLibrary(context: Context): Result<Int> = withContext(Dispatchers.IO) {
         try {
@@ -217,44 +218,31 @@ class GOGManager @Inject constructor(
                 return@withContext Result.success(0)
             }
 
-            var totalProcessed = 0
-
             Timber.tag("GOG").d("Getting Game Details for ${newGameIds.size} new GOG Games...")
 
-            val games = mutableListOf<GOGGame>()
-
-            // Use direct HTTP calls via GOGApiClient
-            for ((index, id) in newGameIds.withIndex()) {
-                try {
-                    // Fetch game details using direct HTTP call
-                    val result = GOGApiClient.getGameById(context, id)
-
-                    if (result.isSuccess) {
-                        val gameDetails = result.getOrNull()
-                        if (gameDetails != null) {
-                            Timber.tag("GOG").d("Got Game Details for ID: $id")
-                            val game = parseGameObject(gameDetails)
-                            if (game != null) {
-                                games.add(game)
-                                Timber.tag("GOG").d("Refreshed Game: ${game.title}")
-                                totalProcessed++
-                            }
-                        }
-                    } else {
-                        Timber.w("GOG game ID $id not found in library after refresh")
-                    }
-                } catch (e: Exception) {
-                    Timber.e(e, "Failed to parse game details for ID: $id")
-                }
-
-                if ((index + 1) % REFRESH_BATCH_SIZE == 0 || index == newGameIds.size - 1) {
-                    if (games.isNotEmpty()) {
-                        gogGameDao.upsertPreservingInstallStatus(games)
-                        Timber.tag("GOG").d("Batch inserted ${games.size} games (processed ${index + 1}/${newGameIds.size})")
-                        games.clear()
+            // Refresh the token once up front so parallel fetches don't all race to refresh it
+            GOGAuthManager.getStoredCredentials(context)
+
+            // Each batch lands in the database (and the UI) as soon as it is ready
+            var insertedCount = 0
+            val stats = catalogHydrator.hydrate(
+                host = GOGConstants.GOG_BASE_API_URL,
+                keys = newGameIds,
+                fetch = { id ->
+                    GOGApiClient.getGameById(context, id).map { gameDetails ->
+                        Timber.tag("GOG").d("Got Game Details for ID: $id")
+                        parseGameObject(gameDetails)
                     }
-                }
+                },
+            ) { games ->
+                gogGameDao.upsertPreservingInstallStatus(games)
+                insertedCount += games.size
+                Timber.tag("GOG").d("Batch inserted ${games.size} games ($insertedCount/${newGameIds.size})")
+            }
+            if (stats.failed > 0) {
+                Timber.w("${stats.failed} GOG games could not be fetched")
             }
+            val totalProcessed = stats.hydrated
             val detectedCount = detectAndUpdateExistingInstallations()
             if (detectedCount > 0) {
                 Timber.d("Detected and updated $detectedCount existing installations")
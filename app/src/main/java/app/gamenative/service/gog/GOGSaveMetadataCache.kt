@@ -0,0 +1,85 @@
+package app.gamenative.service.gog
+
+import org.json.JSONObject
+import timber.log.Timber
+import java.io.File
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Remembers the gzip MD5 of local save files keyed by path, size and modification time, so files that
+ * have not changed since the last sync are not compressed again just to be hashed.
+ */
+class GOGSaveMetadataCache(private val cacheFile: File) {
+
+    private data class Entry(val size: Long, val lastModified: Long, val md5: String)
+
+    private val entries = ConcurrentHashMap<String, Entry>()
+
+    @Volatile
+    private var dirty = false
+
+    init {
+        load()
+    }
+
+    fun get(file: File): String? {
+        val entry = entries[file.absolutePath] ?: return null
+        return if (entry.size == file.length() && entry.lastModified == file.lastModified()) entry.md5 else null
+    }
+
+    fun put(file: File, size: Long, lastModified: Long, md5: String) {
+        entries[file.absolutePath] = Entry(size, lastModified, md5)
+        dirty = true
+    }
+
+    /**
+     * Drop entries below [directory] that are not in [livePaths], e.g. saves the game deleted.
+     */
+    fun prune(directory: File, livePaths: Set<String>) {
+        val prefix = directory.absolutePath.trimEnd('/') + "/"
+        if (entries.keys.removeIf { it.startsWith(prefix) && it !in livePaths }) {
+            dirty = true
+        }
+    }
+
+    fun save() {
+        if (!dirty) return
+        try {
+            val json = JSONObject()
+            entries.forEach { (path, entry) ->
+                json.put(
+                    path,
+                    JSONObject()
+                        .put("size", entry.size)
+                        .put("lastModified", entry.lastModified)
+                        .put("md5", entry.md5),
+                )
+            }
+            cacheFile.parentFile?.mkdirs()
+            val tmpFile = File(cacheFile.path + ".tmp")
+            tmpFile.writeText(json.toString())
+            if (!tmpFile.renameTo(cacheFile)) {
+                tmpFile.delete()
+                Timber.tag("GOG").w("[Cloud Saves] Failed to replace save metadata cache")
+                return
+            }
+            dirty = false
+        } catch (e: Exception) {
+            Timber.tag("GOG").e(e, "[Cloud Saves] Failed to save metadata cache")
+        }
+    }
+
+    private fun load() {
+        try {
+            if (!cacheFile.exists()) return
+            val json = JSONObject(cacheFile.readText())
+            json.keys().forEach { path ->
+                val entry = json.getJSONObject(path)
+                entries[path] = Entry(entry.getLong("size"), entry.getLong("lastModified"), entry.getString("md5"))
+            }
+            Timber.tag("GOG").d("[Cloud Saves] Loaded ${entries.size} cached save digests")
+        } catch (e: Exception) {
+            Timber.tag("GOG").e(e, "[Cloud Saves] Failed to load metadata cache")
+        }
+    }
+}
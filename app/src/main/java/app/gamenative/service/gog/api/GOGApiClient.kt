@@ -2,6 +2,7 @@ package app.gamenative.service.gog.api
 
 import android.content.Context
 import app.gamenative.service.gog.GOGAuthManager
+import app.gamenative.utils.ManifestCache
 import app.gamenative.utils.Net
 import dagger.hilt.android.qualifiers.ApplicationContext
 import javax.inject.Inject
@@ -30,6 +31,8 @@ class GOGApiClient @Inject constructor(
 
     private val httpClient = Net.http
 
+    private val manifestCache by lazy { ManifestCache.getInstance(context) }
+
     // TODO: Compose any functions to reduce DRYNESS.
 
     /**
@@ -227,29 +230,35 @@ class GOGApiClient @Inject constructor(
      */
     suspend fun fetchManifest(manifestUrl: String): Result<GOGManifestMeta> =
         withContext(Dispatchers.IO) {
+            // Build manifest links end in the manifest's content hash, so a cached copy never goes stale
+            val cacheKey = manifestUrl.substringBefore('?').substringAfterLast('/')
             try {
-                val credentials = GOGAuthManager.getStoredCredentials(context).getOrNull()
-                if (credentials == null) {
-                    return@withContext Result.failure(Exception("Not authenticated"))
-                }
+                val manifestBytes = manifestCache.getBlob(ManifestCache.STORE_GOG, cacheKey) ?: run {
+                    val credentials = GOGAuthManager.getStoredCredentials(context).getOrNull()
+                    if (credentials == null) {
+                        return@withContext Result.failure(Exception("Not authenticated"))
+                    }
 
-                Timber.tag("GOG").d("Fetching manifest from: $manifestUrl")
+                    Timber.tag("GOG").d("Fetching manifest from: $manifestUrl")
 
-                val request = Request.Builder()
-                    .url(manifestUrl)
-                    .header("Authorization", "Bearer ${credentials.accessToken}")
-                    .build()
+                    val request = Request.Builder()
+                        .url(manifestUrl)
+                        .header("Authorization", "Bearer ${credentials.accessToken}")
+                        .build()
 
-                val response = httpClient.newCall(request).execute()
+                    val response = httpClient.newCall(request).execute()
 
-                if (!response.isSuccessful) {
-                    return@withContext Result.failure(
-                        Exception("Failed to fetch manifest: HTTP ${response.code}"),
-                    )
-                }
+                    if (!response.isSuccessful) {
+                        return@withContext Result.failure(
+                            Exception("Failed to fetch manifest: HTTP ${response.code}"),
+                        )
+                    }
 
-                val manifestBytes = response.body?.bytes()
-                    ?: return@withContext Result.failure(Exception("Empty response"))
+                    val bytes = response.body?.bytes()
+                        ?: return@withContext Result.failure(Exception("Empty response"))
+                    manifestCache.putBlob(ManifestCache.STORE_GOG, cacheKey, bytes)
+                    bytes
+                }
 
                 // Decompress based on detected format
                 val manifestStr = parser.decompressManifest(manifestBytes)
@@ -265,6 +274,8 @@ class GOGApiClient @Inject constructor(
                 Result.success(manifest)
             } catch (e: Exception) {
                 Timber.tag("GOG").e(e, "Failed to fetch manifest from $manifestUrl")
+                // Don't keep serving a copy that cannot be parsed
+                manifestCache.removeBlob(ManifestCache.STORE_GOG, cacheKey)
                 Result.failure(e)
             }
         }
@@ -278,32 +289,37 @@ class GOGApiClient @Inject constructor(
     suspend fun fetchDepotManifest(manifestHash: String): Result<DepotManifest> =
         withContext(Dispatchers.IO) {
             try {
-                val credentials = GOGAuthManager.getStoredCredentials(context).getOrNull()
-                if (credentials == null) {
-                    return@withContext Result.failure(Exception("Not authenticated"))
-                }
+                // Depot manifests are addressed by their hash, so a cached copy is always current
+                val depotBytes = manifestCache.getBlob(ManifestCache.STORE_GOG, manifestHash) ?: run {
+                    val credentials = GOGAuthManager.getStoredCredentials(context).getOrNull()
+                    if (credentials == null) {
+                        return@withContext Result.failure(Exception("Not authenticated"))
+                    }
 
-                // Build depot manifest URL
-                val path = gogGalaxyPath(manifestHash)
-                val url = "$GOG_CDN/content-system/v2/meta/$path"
+                    // Build depot manifest URL
+                    val path = gogGalaxyPath(manifestHash)
+                    val url = "$GOG_CDN/content-system/v2/meta/$path"
 
-                Timber.tag("GOG").d("Fetching depot manifest: $url")
+                    Timber.tag("GOG").d("Fetching depot manifest: $url")
 
-                val request = Request.Builder()
-                    .url(url)
-                    .header("Authorization", "Bearer ${credentials.accessToken}")
-                    .build()
+                    val request = Request.Builder()
+                        .url(url)
+                        .header("Authorization", "Bearer ${credentials.accessToken}")
+                        .build()
 
-                val response = httpClient.newCall(request).execute()
+                    val response = httpClient.newCall(request).execute()
 
-                if (!response.isSuccessful) {
-                    return@withContext Result.failure(
-                        Exception("Failed to fetch depot manifest: HTTP ${response.code}"),
-                    )
-                }
+                    if (!response.isSuccessful) {
+                        return@withContext Result.failure(
+                            Exception("Failed to fetch depot manifest: HTTP ${response.code}"),
+                        )
+                    }
 
-                val depotBytes = response.body?.bytes()
-                    ?: return@withContext Result.failure(Exception("Empty response"))
+                    val bytes = response.body?.bytes()
+                        ?: return@withContext Result.failure(Exception("Empty response"))
+                    manifestCache.putBlob(ManifestCache.STORE_GOG, manifestHash, bytes)
+                    bytes
+                }
 
                 // Depot manifests are also compressed
                 val depotStr = parser.decompressManifest(depotBytes)
@@ -318,6 +334,7 @@ class GOGApiClient @Inject constructor(
                 Result.success(depotManifest)
             } catch (e: Exception) {
                 Timber.tag("GOG").e(e, "Failed to fetch depot manifest $manifestHash")
+                manifestCache.removeBlob(ManifestCache.STORE_GOG, manifestHash)
                 Result.failure(e)
             }
         }
@@ -23,6 +23,7 @@ import app.gamenative.ui.enums.AppFilter
 import app.gamenative.events.AndroidEvent
 import app.gamenative.utils.CustomGameScanner
 import app.gamenative.utils.GameCompatibilityCache
+import app.gamenative.utils.GameCompatibilityLookup
 import app.gamenative.utils.GameCompatibilityService
 import app.gamenative.data.GameCompatibilityStatus
 import com.winlator.core.GPUInformation
@@ -236,6 +237,7 @@ class LibraryViewModel @Inject constructor(
 
             // Clear compatibility cache on manual refresh to get fresh data
             GameCompatibilityCache.clear()
+            GameCompatibilityLookup.default.clearFailures()
 
             try {
                 val newApps = SteamService.refreshOwnedGamesFromServer()
@@ -510,8 +512,8 @@ class LibraryViewModel @Inject constructor(
     }
 
     /**
-     * Fetches compatibility information for games in paginated batches.
-     * Checks cache first, then fetches uncached games in batches of 50.
+     * Fetches compatibility information for the games on a page.
+     * Checks cache first, then fetches uncached games through [GameCompatibilityLookup].
      */
     private fun fetchCompatibilityForPage(gameNames: List<String>) {
         if (gameNames.isEmpty()) {
@@ -529,56 +531,12 @@ class LibraryViewModel @Inject constructor(
 
         viewModelScope.launch(Dispatchers.IO) {
             try {
-                // Separate cached and uncached games
-                val uncachedGames = mutableListOf<String>()
-                val cachedResults = mutableMapOf<String, GameCompatibilityService.GameCompatibilityResponse>()
-
-                for (gameName in gameNames) {
-                    val cached = GameCompatibilityCache.getCached(gameName)
-                    if (cached != null) {
-                        cachedResults[gameName] = cached
-                        Timber.tag("LibraryViewModel").d("Using cached result for: $gameName")
-                    } else {
-                        uncachedGames.add(gameName)
-                    }
-                }
-
-                Timber.tag("LibraryViewModel").d("Cached: ${cachedResults.size}, Uncached: ${uncachedGames.size}")
-
-                // Update state with cached results immediately (for instant UI update)
-                if (cachedResults.isNotEmpty()) {
-                    updateCompatibilityState(cachedResults)
-                }
-
-                // Only fetch if there are uncached games
-                if (uncachedGames.isEmpty()) {
-                    Timber.tag("LibraryViewModel").d("All games in page are cached, skipping API call")
-                    return@launch
-                }
-
-                // Fetch uncached games in batches of 25
-                val batchSize = 25
-                val fetchedResults = mutableMapOf<String, GameCompatibilityService.GameCompatibilityResponse>()
-
-                for (i in uncachedGames.indices step batchSize) {
-                    val batch = uncachedGames.subList(i, min(i + batchSize, uncachedGames.size))
-                    Timber.tag("LibraryViewModel").d("Fetching batch ${i / batchSize + 1} with ${batch.size} games")
-                    val batchResults = GameCompatibilityService.fetchCompatibility(batch, gpuName)
-
-                    if (batchResults != null) {
-                        Timber.tag("LibraryViewModel").d("Received ${batchResults.size} results from API")
-                        // Cache all results using batch caching
-                        GameCompatibilityCache.cacheAll(batchResults)
-                        fetchedResults.putAll(batchResults)
-                    } else {
-                        Timber.tag("LibraryViewModel").w("API returned null for batch")
-                    }
-                }
-
-                // Update state with newly fetched results
-                if (fetchedResults.isNotEmpty()) {
-                    updateCompatibilityState(fetchedResults)
+                // Cached results come first, then each API batch as it completes. Pages that overlap
+                // share queued and in-flight requests.
+                val results = GameCompatibilityLookup.default.lookup(gameNames, gpuName) { batchResults ->
+                    updateCompatibilityState(batchResults)
                 }
+                Timber.tag("LibraryViewModel").d("Compatibility known for ${results.size} of ${gameNames.size} games")
             } catch (e: Exception) {
                 Timber.tag("LibraryViewModel").e(e, "Error fetching compatibility data: ${e.message}")
                 e.printStackTrace()
@@ -466,7 +466,8 @@ class SteamAppScreen : BaseAppScreen() {
         var compatibilityColor by remember { mutableStateOf<ULong?>(null) }
         LaunchedEffect(isInstalled, gameId, appInfo.name) {
             try {
-                val cachedResponse = GameCompatibilityCache.getCached(appInfo.name)
+                val gpuName = withContext(Dispatchers.IO) { GPUInformation.getRenderer(context) }
+                val cachedResponse = if (gpuName.isNullOrEmpty()) null else GameCompatibilityCache.getCached(appInfo.name, gpuName)
                 if (cachedResponse != null) {
                     val message = GameCompatibilityService.getCompatibilityMessageFromResponse(context, cachedResponse)
                     compatibilityMessage = message.text
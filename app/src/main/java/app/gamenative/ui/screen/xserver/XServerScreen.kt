@@ -75,6 +75,7 @@ import app.gamenative.ui.data.XServerState
 import app.gamenative.ui.theme.settingsTileColors
 import app.gamenative.utils.ContainerUtils
 import app.gamenative.utils.CustomGameScanner
+import app.gamenative.utils.LaunchPrepPipeline
 import app.gamenative.utils.SteamTokenLogin
 import app.gamenative.utils.SteamUtils
 import com.posthog.PostHog
@@ -87,6 +88,7 @@ import com.winlator.contents.ContentProfile
 import com.winlator.contents.ContentsManager
 import com.winlator.core.AppUtils
 import com.winlator.core.Callback
+import com.winlator.core.ComponentFileCache
 import com.winlator.core.DXVKHelper
 import com.winlator.core.DefaultVersion
 import com.winlator.core.FileUtils
@@ -683,6 +685,7 @@ fun XServerScreen(
                 val renderer = this.renderer
                 renderer.isCursorVisible = false
                 getxServer().renderer = renderer
+                getxServer().metrics.isEnabled = PrefManager.xServerMetrics
                 PluviaApp.touchpadView = TouchpadView(context, getxServer(), PrefManager.getBoolean("capture_pointer_on_external_mouse", true))
                 frameLayout.addView(PluviaApp.touchpadView)
                 PluviaApp.touchpadView?.setMoveCursorToTouchpoint(PrefManager.getBoolean("move_cursor_to_touchpoint", false))
@@ -729,9 +732,8 @@ fun XServerScreen(
                                 xServerState.value.winStarted = true
                             }
                             if (window.id == frameRatingWindowId) {
-                                (context as? Activity)?.runOnUiThread {
-                                    frameRating?.update()
-                                }
+                                // Timestamp the frame here, FrameRating posts the overlay update itself
+                                frameRating?.update()
                             }
                         }
 
@@ -1605,6 +1607,13 @@ private fun assignTaskAffinity(
     }
 }
 
+private fun xServerTraceFile(context: Context): File? {
+    if (!PrefManager.recordXServerTrace) return null
+    val dir = File(context.getExternalFilesDir(null) ?: context.filesDir, "xtraces")
+    dir.mkdirs()
+    return File(dir, "x11-${System.currentTimeMillis()}.xtrace")
+}
+
 private fun shiftXEnvironmentToContext(
     context: Context,
     xEnvironment: XEnvironment,
@@ -1616,12 +1625,16 @@ private fun shiftXEnvironmentToContext(
     val sysVSharedMemoryComponent = SysVSharedMemoryComponent(
         xServer,
         UnixSocketConfig.createSocket(rootPath, UnixSocketConfig.SYSVSHM_SERVER_PATH),
-    )
+    ).apply { setReactorCount(PrefManager.sysVShmReactorCount) }
     // val sysVSharedMemoryComponent = xEnvironment.getComponent<SysVSharedMemoryComponent>(SysVSharedMemoryComponent::class.java)
     // sysVSharedMemoryComponent.connectToXServer(xServer)
     environment.addComponent(sysVSharedMemoryComponent)
     xEnvironment.getComponent<XServerComponent>(XServerComponent::class.java).stop()
     val xServerComponent = XServerComponent(xServer, UnixSocketConfig.createSocket(rootPath, UnixSocketConfig.XSERVER_PATH))
+        .apply {
+            setReactorCount(PrefManager.xServerReactorCount)
+            setTraceFile(xServerTraceFile(context))
+        }
     // val xServerComponent = xEnvironment.getComponent<XServerComponent>(XServerComponent::class.java)
     // xServerComponent.connectToXServer(xServer)
     environment.addComponent(xServerComponent)
@@ -1839,9 +1852,15 @@ private fun setupXEnvironment(
         SysVSharedMemoryComponent(
             xServer,
             UnixSocketConfig.createSocket(rootPath, UnixSocketConfig.SYSVSHM_SERVER_PATH),
-        ),
+        ).apply { setReactorCount(PrefManager.sysVShmReactorCount) },
+    )
+    environment.addComponent(
+        XServerComponent(xServer, UnixSocketConfig.createSocket(rootPath, UnixSocketConfig.XSERVER_PATH))
+            .apply {
+                setReactorCount(PrefManager.xServerReactorCount)
+                setTraceFile(xServerTraceFile(context))
+            },
     )
-    environment.addComponent(XServerComponent(xServer, UnixSocketConfig.createSocket(rootPath, UnixSocketConfig.XSERVER_PATH)))
     environment.addComponent(NetworkInfoUpdateComponent())
     environment.addComponent(SteamClientComponent())
 
@@ -1856,7 +1875,10 @@ private fun setupXEnvironment(
         envVars.put("ANDROID_ALSA_SERVER", imageFs.getRootDir().getPath() + UnixSocketConfig.ALSA_SERVER_PATH)
         envVars.put("ANDROID_ASERVER_USE_SHM", "true")
         val options = ALSAClient.Options.fromKeyValueSet(null)
-        environment.addComponent(ALSAServerComponent(UnixSocketConfig.createSocket(imageFs.getRootDir().getPath(), UnixSocketConfig.ALSA_SERVER_PATH), options))
+        environment.addComponent(
+            ALSAServerComponent(UnixSocketConfig.createSocket(imageFs.getRootDir().getPath(), UnixSocketConfig.ALSA_SERVER_PATH), options)
+                .apply { setReactorCount(PrefManager.alsaReactorCount) },
+        )
     } else if (xServerState.value.audioDriver == "pulseaudio") {
         envVars.put("PULSE_SERVER", imageFs.getRootDir().getPath() + UnixSocketConfig.PULSE_SERVER_PATH)
         environment.addComponent(PulseAudioComponent(UnixSocketConfig.createSocket(imageFs.getRootDir().getPath(), UnixSocketConfig.PULSE_SERVER_PATH)))
@@ -1878,7 +1900,10 @@ private fun setupXEnvironment(
             container.setGraphicsDriverConfig(gcfg.toString())
         }
         val options2: VortekRendererComponent.Options? = VortekRendererComponent.Options.fromKeyValueSet(context, gcfg)
-        environment.addComponent(VortekRendererComponent(xServer, UnixSocketConfig.createSocket(rootPath, UnixSocketConfig.VORTEK_SERVER_PATH), options2, context))
+        environment.addComponent(
+            VortekRendererComponent(xServer, UnixSocketConfig.createSocket(rootPath, UnixSocketConfig.VORTEK_SERVER_PATH), options2, context)
+                .apply { setReactorCount(PrefManager.vortekReactorCount) },
+        )
     }
 
     guestProgramLauncherComponent.envVars = envVars
@@ -2192,6 +2217,10 @@ private fun exit(winHandler: WinHandler?, environment: XEnvironment?, frameRatin
     frameRating?.let { rating ->
         container.putSessionMetadata("avg_fps", rating.avgFPS)
         container.putSessionMetadata("session_length_sec", rating.sessionLengthSec.toInt())
+        val frameStats = rating.frameStats
+        container.putSessionMetadata("low_1_fps", frameStats.low1FPS)
+        container.putSessionMetadata("frame_time_p99_ms", frameStats.p99Ms)
+        container.putSessionMetadata("stutters", frameStats.stutters)
         container.saveData()
     }
 
@@ -2208,7 +2237,7 @@ private fun exit(winHandler: WinHandler?, environment: XEnvironment?, frameRatin
     PluviaApp.touchpadView = null
     // PluviaApp.touchMouse = null
     // PluviaApp.keyboard = null
-    frameRating?.writeSessionSummary()
+    frameRating?.writeSessionSummary(container)
     onExit()
     navigateBack()
 }
@@ -2653,15 +2682,6 @@ private fun setupWineSystemFiles(
     val imgVersion = imageFs.getVersion().toString()
     val wineVersion = imageFs.getArch()
     val variant = imageFs.getVariant()
-    var containerDataChanged = false
-
-    if (!container.getExtra("appVersion").equals(appVersion) || !container.getExtra("imgVersion").equals(imgVersion) ||
-        container.containerVariant != variant || (container.containerVariant == variant && container.wineVersion != wineVersion)) {
-        applyGeneralPatches(context, container, imageFs, xServerState.value.wineInfo, containerManager, onExtractFileListener)
-        container.putExtra("appVersion", appVersion)
-        container.putExtra("imgVersion", imgVersion)
-        containerDataChanged = true
-    }
 
     // Normalize dxwrapper for state (dxvk includes version for extraction switch)
     if (xServerState.value.dxwrapper == "dxvk") {
@@ -2677,59 +2697,99 @@ private fun setupWineSystemFiles(
         )
     }
 
-    val needReextract = ALWAYS_REEXTRACT || xServerState.value.dxwrapper != container.getExtra("dxwrapper") || container.wineVersion != wineVersion
-
-    Timber.i("needReextract is " + needReextract)
-    Timber.i("xServerState.value.dxwrapper is " + xServerState.value.dxwrapper)
+    val dxwrapper = xServerState.value.dxwrapper
+    val wineInfo = xServerState.value.wineInfo
+    Timber.i("xServerState.value.dxwrapper is " + dxwrapper)
     Timber.i("container.getExtra(\"dxwrapper\") is " + container.getExtra("dxwrapper"))
 
-    if (needReextract) {
-        extractDXWrapperFiles(
-            context,
-            firstTimeBoot,
-            container,
-            containerManager,
-            xServerState.value.dxwrapper,
-            imageFs,
-            contentsManager,
-            onExtractFileListener,
-        )
-        container.putExtra("dxwrapper", xServerState.value.dxwrapper)
-        containerDataChanged = true
+    if (dxwrapper == "cnc-ddraw") envVars.put("CNC_DDRAW_CONFIG_FILE", "C:\\ProgramData\\cnc-ddraw\\ddraw.ini")
+
+    // Stages only touch the files named by their resources; container extras are committed on this thread
+    // once everything finished. "prefix" stands for the whole wine prefix, which general patches rewrite.
+    // The stages that extract archives share onExtractFileListener, which need not be thread safe, so their
+    // resources must keep them ordered one after the other.
+    val pipeline = LaunchPrepPipeline(
+        object : LaunchPrepPipeline.FingerprintStore {
+            override fun get(key: String): String? = container.getExtra(key)
+            override fun put(key: String, value: String) = container.putExtra(key, value)
+        },
+    )
+
+    pipeline.stage("generalPatches") {
+        writes("prefix")
+        upToDate {
+            container.getExtra("appVersion") == appVersion && container.getExtra("imgVersion") == imgVersion &&
+                container.containerVariant == variant && container.wineVersion == wineVersion
+        }
+        run { applyGeneralPatches(context, container, imageFs, wineInfo, containerManager, onExtractFileListener) }
+        commit {
+            container.putExtra("appVersion", appVersion)
+            container.putExtra("imgVersion", imgVersion)
+        }
     }
 
-    if (xServerState.value.dxwrapper == "cnc-ddraw") envVars.put("CNC_DDRAW_CONFIG_FILE", "C:\\ProgramData\\cnc-ddraw\\ddraw.ini")
+    pipeline.stage("dxwrapper") {
+        reads("prefix")
+        writes("windowsDlls", "originalDllCache")
+        upToDate { !ALWAYS_REEXTRACT && dxwrapper == container.getExtra("dxwrapper") && container.wineVersion == wineVersion }
+        run {
+            extractDXWrapperFiles(
+                context,
+                firstTimeBoot,
+                container,
+                containerManager,
+                dxwrapper,
+                imageFs,
+                contentsManager,
+                onExtractFileListener,
+            )
+        }
+        commit { container.putExtra("dxwrapper", dxwrapper) }
+    }
 
     // val wincomponents = if (shortcut != null) shortcut.getExtra("wincomponents", container.winComponents) else container.winComponents
-    val wincomponents = container.winComponents
-    if (!wincomponents.equals(container.getExtra("wincomponents"))) {
-        extractWinComponentFiles(context, firstTimeBoot, imageFs, container, containerManager, onExtractFileListener)
-        container.putExtra("wincomponents", wincomponents)
-        containerDataChanged = true
+    pipeline.stage("wincomponents") {
+        reads("prefix")
+        writes("windowsDlls", "originalDllCache", "system.reg", "user.reg")
+        fingerprint("wincomponents") { container.winComponents }
+        run { extractWinComponentFiles(context, firstTimeBoot, imageFs, container, containerManager, onExtractFileListener) }
     }
 
-    if (container.isLaunchRealSteam){
-        extractSteamFiles(context, container, onExtractFileListener)
+    if (container.isLaunchRealSteam) {
+        pipeline.stage("steamFiles") {
+            // steam.tzst unpacks into the imagefs root, not just the Steam directory
+            writes("prefix")
+            run { extractSteamFiles(context, container, onExtractFileListener) }
+        }
+    }
+
+    pipeline.stage("desktopTheme") {
+        reads("prefix")
+        writes("user.reg", "wallpaper")
+        fingerprint("desktopTheme") { container.desktopTheme + "," + screenInfo }
+        run { WineThemeManager.apply(context, WineThemeManager.ThemeInfo(container.desktopTheme), screenInfo) }
     }
 
-    val desktopTheme = container.desktopTheme
-    if ((desktopTheme + "," + screenInfo) != container.getExtra("desktopTheme")) {
-        WineThemeManager.apply(context, WineThemeManager.ThemeInfo(desktopTheme), screenInfo)
-        container.putExtra("desktopTheme", desktopTheme + "," + screenInfo)
-        containerDataChanged = true
+    pipeline.stage("startMenu") {
+        reads("prefix")
+        writes("startMenu")
+        run { WineStartMenuCreator.create(context, container) }
     }
 
-    WineStartMenuCreator.create(context, container)
-    WineUtils.createDosdevicesSymlinks(container)
+    pipeline.stage("dosdevices") {
+        reads("prefix")
+        writes("dosdevices")
+        run { WineUtils.createDosdevicesSymlinks(container) }
+    }
 
-    val startupSelection = container.startupSelection.toString()
-    if (startupSelection != container.getExtra("startupSelection")) {
-        WineUtils.changeServicesStatus(container, container.startupSelection != Container.STARTUP_SELECTION_NORMAL)
-        container.putExtra("startupSelection", startupSelection)
-        containerDataChanged = true
+    pipeline.stage("services") {
+        reads("prefix")
+        writes("system.reg")
+        fingerprint("startupSelection") { container.startupSelection.toString() }
+        run { WineUtils.changeServicesStatus(container, container.startupSelection != Container.STARTUP_SELECTION_NORMAL) }
     }
 
-    if (containerDataChanged) container.saveData()
+    if (pipeline.run()) container.saveData()
 }
 
 private fun applyGeneralPatches(
@@ -2815,10 +2875,7 @@ private fun extractDXWrapperFiles(
             val shadersDir = File(rootDir, ImageFs.WINEPREFIX + "/drive_c/ProgramData/cnc-ddraw/Shaders")
             FileUtils.delete(shadersDir)
             FileUtils.copy(context, "$assetDir/Shaders", shadersDir)
-            TarCompressorUtils.extract(
-                TarCompressorUtils.Type.ZSTD, context.assets,
-                "$assetDir/ddraw.tzst", windowsDir, onExtractFileListener,
-            )
+            ComponentFileCache.extractAsset(context, "$assetDir/ddraw.tzst", windowsDir, onExtractFileListener)
         }
         "vkd3d" -> {
             Timber.i("Extracting VKD3D D3D12 DLLs for dxwrapper: $dxwrapper")
@@ -2827,10 +2884,7 @@ private fun extractDXWrapperFiles(
             val vortekLike = container.graphicsDriver == "vortek" || container.graphicsDriver == "adreno" || container.graphicsDriver == "sd-8-elite"
             val dxvkVersionForVkd3d = if (vortekLike && GPUHelper.vkGetApiVersionSafe() < GPUHelper.vkMakeVersion(1, 3, 0)) "1.10.3" else "2.4.1"
             Timber.i("Extracting VKD3D DX version for dxwrapper: $dxvkVersionForVkd3d")
-            TarCompressorUtils.extract(
-                TarCompressorUtils.Type.ZSTD, context.assets,
-                "dxwrapper/dxvk-${dxvkVersionForVkd3d}.tzst", windowsDir, onExtractFileListener,
-            )
+            ComponentFileCache.extractAsset(context, "dxwrapper/dxvk-${dxvkVersionForVkd3d}.tzst", windowsDir, onExtractFileListener)
             if (profile != null) {
                 Timber.d("Applying user-defined VKD3D content profile: " + dxwrapper)
                 contentsManager.applyContent(profile);
@@ -2838,13 +2892,7 @@ private fun extractDXWrapperFiles(
                 // Determine VKD3D version from state config
                 Timber.i("Extracting VKD3D D3D12 DLLs version: $dxwrapper")
 
-                TarCompressorUtils.extract(
-                    TarCompressorUtils.Type.ZSTD,
-                    context.assets,
-                    "dxwrapper/$dxwrapper.tzst",
-                    windowsDir,
-                    onExtractFileListener,
-                )
+                ComponentFileCache.extractAsset(context, "dxwrapper/$dxwrapper.tzst", windowsDir, onExtractFileListener)
             }
         }
         else -> {
@@ -2856,18 +2904,9 @@ private fun extractDXWrapperFiles(
                 Timber.d("Applying user-defined DXVK content profile: " + dxwrapper)
                 contentsManager.applyContent(profile);
             } else {
-                TarCompressorUtils.extract(
-                    TarCompressorUtils.Type.ZSTD, context.assets,
-                    "dxwrapper/$dxwrapper.tzst", windowsDir, onExtractFileListener,
-                )
+                ComponentFileCache.extractAsset(context, "dxwrapper/$dxwrapper.tzst", windowsDir, onExtractFileListener)
             }
-            TarCompressorUtils.extract(
-                TarCompressorUtils.Type.ZSTD,
-                context.assets,
-                "dxwrapper/d8vk-${DefaultVersion.D8VK}.tzst",
-                windowsDir,
-                onExtractFileListener,
-            )
+            ComponentFileCache.extractAsset(context, "dxwrapper/d8vk-${DefaultVersion.D8VK}.tzst", windowsDir, onExtractFileListener)
         }
     }
 }
@@ -3102,18 +3141,8 @@ private fun extractGraphicsDriverFiles(
             }
 
             if (changed) {
-                TarCompressorUtils.extract(
-                    TarCompressorUtils.Type.ZSTD,
-                    context.assets,
-                    "graphics_driver/turnip-${turnipVersion}.tzst",
-                    rootDir,
-                )
-                TarCompressorUtils.extract(
-                    TarCompressorUtils.Type.ZSTD,
-                    context.assets,
-                    "graphics_driver/zink-${zinkVersion}.tzst",
-                    rootDir,
-                )
+                ComponentFileCache.extractAsset(context, "graphics_driver/turnip-${turnipVersion}.tzst", rootDir, null)
+                ComponentFileCache.extractAsset(context, "graphics_driver/zink-${zinkVersion}.tzst", rootDir, null)
             }
         } else if (graphicsDriver == "virgl") {
             envVars.put("GALLIUM_DRIVER", "virpipe")
@@ -3123,10 +3152,7 @@ private fun extractGraphicsDriverFiles(
             envVars.put("MESA_GL_VERSION_OVERRIDE", "3.1")
             envVars.put("vblank_mode", "0")
             if (changed) {
-                TarCompressorUtils.extract(
-                    TarCompressorUtils.Type.ZSTD, context.assets,
-                    "graphics_driver/virgl-${virglVersion}.tzst", rootDir,
-                )
+                ComponentFileCache.extractAsset(context, "graphics_driver/virgl-${virglVersion}.tzst", rootDir, null)
             }
         } else if (graphicsDriver == "vortek") {
             Timber.i("Setting Vortek env vars")
@@ -3140,8 +3166,8 @@ private fun extractGraphicsDriverFiles(
                 envVars.put("WINE_D3D_CONFIG", "renderer=gdi")
             }
             if (changed) {
-                TarCompressorUtils.extract(TarCompressorUtils.Type.ZSTD, context.assets, "graphics_driver/vortek-2.1.tzst", rootDir)
-                TarCompressorUtils.extract(TarCompressorUtils.Type.ZSTD, context.assets, "graphics_driver/zink-22.2.5.tzst", rootDir)
+                ComponentFileCache.extractAsset(context, "graphics_driver/vortek-2.1.tzst", rootDir, null)
+                ComponentFileCache.extractAsset(context, "graphics_driver/zink-22.2.5.tzst", rootDir, null)
             }
         } else if (graphicsDriver == "adreno" || graphicsDriver == "sd-8-elite") {
             val assetZip = if (graphicsDriver == "adreno") "Adreno_${adrenoVersion}_adpkg.zip" else "SD8Elite_${sd8EliteVersion}.zip"
@@ -3182,8 +3208,8 @@ private fun extractGraphicsDriverFiles(
                 envVars.put("WINE_D3D_CONFIG", "renderer=gdi")
             }
             if (changed) {
-                TarCompressorUtils.extract(TarCompressorUtils.Type.ZSTD, context.assets, "graphics_driver/vortek-2.1.tzst", rootDir)
-                TarCompressorUtils.extract(TarCompressorUtils.Type.ZSTD, context.assets, "graphics_driver/zink-22.2.5.tzst", rootDir)
+                ComponentFileCache.extractAsset(context, "graphics_driver/vortek-2.1.tzst", rootDir, null)
+                ComponentFileCache.extractAsset(context, "graphics_driver/zink-22.2.5.tzst", rootDir, null)
             }
         }
     } else {
@@ -0,0 +1,222 @@
+package app.gamenative.utils
+
+import java.io.IOException
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import kotlin.math.max
+import kotlin.math.min
+import kotlin.random.Random
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.withTimeoutOrNull
+import okhttp3.Response
+import timber.log.Timber
+
+/**
+ * HTTP failure that carries the status code, so callers can tell retryable responses (429, 5xx)
+ * from permanent ones. [retryAfterMs] comes from the Retry-After header when the server sent one.
+ */
+class HttpStatusException(
+    val code: Int,
+    val retryAfterMs: Long? = null,
+    message: String = "HTTP $code",
+) : IOException(message) {
+    val isRetryable: Boolean get() = code == 429 || code >= 500
+
+    companion object {
+        fun from(response: Response, message: String = "HTTP ${response.code}"): HttpStatusException {
+            val retryAfterMs = response.header("Retry-After")?.trim()?.toLongOrNull()?.let { TimeUnit.SECONDS.toMillis(it) }
+            return HttpStatusException(response.code, retryAfterMs, message)
+        }
+    }
+}
+
+/**
+ * Fetches details for many catalog entries in parallel without tripping store API rate limits.
+ *
+ * At most [maxConcurrency] requests are in flight, and each API host gets a token bucket that refills at
+ * [requestsPerSecond] with up to [burst] tokens. Retryable failures are retried with exponential backoff
+ * and full jitter; a 429 also pauses the whole host for its Retry-After (or the backoff) so other workers
+ * stop hammering it. Results are handed to [HydrationSink] in batches of at most [batchSize], and no
+ * result waits longer than [flushIntervalMs], so the library fills in progressively instead of at the end.
+ */
+class CatalogHydrator(
+    private val maxConcurrency: Int = 6,
+    private val requestsPerSecond: Double = 8.0,
+    private val burst: Int = 4,
+    private val maxAttempts: Int = 4,
+    private val baseBackoffMs: Long = 500,
+    private val maxBackoffMs: Long = 30_000,
+    private val batchSize: Int = 10,
+    private val flushIntervalMs: Long = 250,
+    private val random: Random = Random.Default,
+) {
+    fun interface HydrationSink<V> {
+        suspend fun onBatch(items: List<V>)
+    }
+
+    data class Stats(val requested: Int, val hydrated: Int, val failed: Int, val retries: Int)
+
+    private val buckets = ConcurrentHashMap<String, TokenBucket>()
+
+    /**
+     * Fetch every key with [fetch] against [host] and stream the non-null results to [sink].
+     * [fetch] returns null for keys that have nothing to store, and throws (or fails the Result) on errors.
+     */
+    suspend fun <K, V : Any> hydrate(
+        host: String,
+        keys: List<K>,
+        fetch: suspend (K) -> Result<V?>,
+        sink: HydrationSink<V>,
+    ): Stats = coroutineScope {
+        val bucket = buckets.getOrPut(host) { TokenBucket(requestsPerSecond, burst) }
+        val work = Channel<K>(Channel.UNLIMITED)
+        keys.forEach { work.trySend(it) }
+        work.close()
+
+        val results = Channel<V>(Channel.UNLIMITED)
+        var failed = 0
+        var retries = 0
+        val counterLock = Mutex()
+
+        val workers = List(min(maxConcurrency, keys.size)) {
+            launch {
+                for (key in work) {
+                    val outcome = fetchWithRetry(host, bucket, key, fetch)
+                    counterLock.withLock {
+                        retries += outcome.retries
+                        if (outcome.error != null) failed++
+                    }
+                    outcome.value?.let { results.send(it) }
+                }
+            }
+        }
+        launch {
+            workers.forEach { it.join() }
+            results.close()
+        }
+
+        // Single writer: flush when a batch is full or its oldest item has waited flushIntervalMs
+        var hydrated = 0
+        val batch = ArrayList<V>(batchSize)
+        var deadline = 0L
+        suspend fun flush() {
+            if (batch.isEmpty()) return
+            sink.onBatch(batch.toList())
+            hydrated += batch.size
+            batch.clear()
+        }
+        while (true) {
+            val next = if (batch.isEmpty()) {
+                results.receiveCatching()
+            } else {
+                withTimeoutOrNull(max(1L, deadline - System.currentTimeMillis())) { results.receiveCatching() }
+            }
+            if (next == null) {
+                flush()
+                continue
+            }
+            val value = next.getOrNull() ?: break
+            if (batch.isEmpty()) deadline = System.currentTimeMillis() + flushIntervalMs
+            batch.add(value)
+            if (batch.size >= batchSize) flush()
+        }
+        flush()
+
+        Stats(keys.size, hydrated, failed, retries)
+    }
+
+    private class Outcome<V>(val value: V?, val error: Throwable?, val retries: Int)
+
+    private suspend fun <K, V : Any> fetchWithRetry(
+        host: String,
+        bucket: TokenBucket,
+        key: K,
+        fetch: suspend (K) -> Result<V?>,
+    ): Outcome<V> {
+        var attempt = 0
+        while (true) {
+            bucket.acquire()
+            val result = try {
+                fetch(key)
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: Exception) {
+                Result.failure(e)
+            }
+            val error = result.exceptionOrNull() ?: return Outcome(result.getOrNull(), null, attempt)
+
+            val retryable = when (error) {
+                is HttpStatusException -> error.isRetryable
+                is IOException -> true
+                else -> false
+            }
+            if (!retryable || attempt + 1 >= maxAttempts) {
+                Timber.w("Hydration of $key from $host failed after ${attempt + 1} attempt(s): ${error.message}")
+                return Outcome(null, error, attempt)
+            }
+
+            val backoff = backoffMs(attempt)
+            if (error is HttpStatusException && error.code == 429) {
+                val pause = max(error.retryAfterMs ?: 0L, backoff)
+                Timber.d("$host is rate limiting, pausing it for ${pause}ms")
+                bucket.pause(pause)
+            } else {
+                delay(backoff)
+            }
+            attempt++
+        }
+    }
+
+    // Full jitter: uniform in [0, min(max, base * 2^attempt)]
+    private fun backoffMs(attempt: Int): Long {
+        val cap = min(maxBackoffMs, baseBackoffMs shl min(attempt, 20))
+        return random.nextLong(cap + 1)
+    }
+
+    /**
+     * Token bucket shared by all workers of a host. [pause] empties it until the given time has passed.
+     */
+    internal class TokenBucket(
+        private val ratePerSecond: Double,
+        private val capacity: Int,
+    ) {
+        private val mutex = Mutex()
+        private var tokens = capacity.toDouble()
+        private var lastRefill = System.nanoTime()
+        private var pausedUntil = lastRefill
+
+        suspend fun acquire() {
+            while (true) {
+                val waitNanos = mutex.withLock {
+                    val now = System.nanoTime()
+                    if (pausedUntil - now > 0) return@withLock pausedUntil - now
+                    tokens = min(capacity.toDouble(), tokens + (now - lastRefill) / 1e9 * ratePerSecond)
+                    lastRefill = now
+                    if (tokens >= 1.0) {
+                        tokens -= 1.0
+                        return
+                    }
+                    ((1.0 - tokens) / ratePerSecond * 1e9).toLong()
+                }
+                delay(max(1L, TimeUnit.NANOSECONDS.toMillis(waitNanos)))
+            }
+        }
+
+        suspend fun pause(durationMs: Long) {
+            mutex.withLock {
+                val until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(durationMs)
+                if (until - pausedUntil > 0) {
+                    pausedUntil = until
+                    tokens = 0.0
+                    lastRefill = until
+                }
+            }
+        }
+    }
+}
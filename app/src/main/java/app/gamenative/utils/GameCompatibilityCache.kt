@@ -1,22 +1,60 @@
 package app.gamenative.utils
 
 import app.gamenative.PrefManager
+import app.gamenative.data.CachedGameCompatibility
+import app.gamenative.db.dao.GameCompatibilityDao
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
 import kotlinx.serialization.Serializable
-import kotlinx.serialization.encodeToString
 import kotlinx.serialization.decodeFromString
 import kotlinx.serialization.json.Json
 import timber.log.Timber
 
 /**
- * Persistent cache for game compatibility responses with 7-day TTL.
- * Uses lazy expiration - checks expiration on access, not on load (optimizes performance).
+ * Persistent cache for game compatibility responses per game and GPU, with a 6-hour TTL.
+ *
+ * Entries live in the game_compatibility_cache table, fronted by a bounded in-memory LRU. Writes land in
+ * memory right away and are flushed to the database in one transaction shortly after, so several pages
+ * of results cost one write. Expired rows are pruned by the same transaction.
+ *
+ * Until [init] is called (or in tests without a database) the cache only lives in memory.
  */
 object GameCompatibilityCache {
     private const val CACHE_TTL_MS = 6 * 60 * 60 * 1000L // 6 hours
+    private const val MAX_IN_MEMORY_ENTRIES = 2048
+    private const val FLUSH_DELAY_MS = 500L
 
-    private val inMemoryCache = mutableMapOf<String, GameCompatibilityService.GameCompatibilityResponse>()
-    private val timestamps = mutableMapOf<String, Long>()
-    private var cacheLoaded = false
+    private data class Key(val gameName: String, val gpuName: String)
+
+    private class Entry(val response: GameCompatibilityService.GameCompatibilityResponse, val expiresAt: Long)
+
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+
+    @Volatile
+    private var dao: GameCompatibilityDao? = null
+
+    // Access ordered, so the least recently read entries are dropped first. Guarded by itself.
+    private val inMemoryCache = object : LinkedHashMap<Key, Entry>(64, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Key, Entry>): Boolean =
+            size > MAX_IN_MEMORY_ENTRIES
+    }
+
+    // Rows waiting for the next flush, guarded by itself
+    private val pendingWrites = LinkedHashMap<Key, CachedGameCompatibility>()
+    private var flushJob: Job? = null
+
+    private val legacyMigrationLock = Mutex()
+
+    @Volatile
+    private var legacyMigrated = false
+
+    internal var clock: () -> Long = System::currentTimeMillis
 
     @Serializable
     data class CachedCompatibilityResponse(
@@ -34,11 +72,8 @@ object GameCompatibilityCache {
         val isNotWorking: Boolean
     )
 
-    /**
-     * Converts GameCompatibilityService.GameCompatibilityResponse to serializable format
-     */
-    private fun GameCompatibilityService.GameCompatibilityResponse.toData(): GameCompatibilityResponseData {
-        return GameCompatibilityResponseData(
+    private fun CachedGameCompatibility.toResponse(): GameCompatibilityService.GameCompatibilityResponse {
+        return GameCompatibilityService.GameCompatibilityResponse(
             gameName = this.gameName,
             totalPlayableCount = this.totalPlayableCount,
             gpuPlayableCount = this.gpuPlayableCount,
@@ -48,141 +83,221 @@ object GameCompatibilityCache {
         )
     }
 
-    /**
-     * Converts serializable format back to GameCompatibilityService.GameCompatibilityResponse
-     */
-    private fun GameCompatibilityResponseData.toResponse(): GameCompatibilityService.GameCompatibilityResponse {
-        return GameCompatibilityService.GameCompatibilityResponse(
-            gameName = this.gameName,
+    private fun GameCompatibilityService.GameCompatibilityResponse.toEntity(
+        gameName: String,
+        gpuName: String,
+        expiresAt: Long,
+    ): CachedGameCompatibility {
+        return CachedGameCompatibility(
+            gameName = gameName,
+            gpuName = gpuName,
             totalPlayableCount = this.totalPlayableCount,
             gpuPlayableCount = this.gpuPlayableCount,
             avgRating = this.avgRating,
             hasBeenTried = this.hasBeenTried,
-            isNotWorking = this.isNotWorking
+            isNotWorking = this.isNotWorking,
+            expiresAt = expiresAt
         )
     }
 
     /**
-     * Loads cache from persistent storage into memory.
-     * Only parses JSON, no expiration filtering (lazy expiration).
+     * Backs the cache with the database and prunes whatever expired while the app was closed.
      */
-    private fun loadCache() {
-        if (cacheLoaded) return
-
-        try {
-            val cacheJson = PrefManager.gameCompatibilityCache
-            if (cacheJson.isEmpty() || cacheJson == "{}") {
-                cacheLoaded = true
-                return
+    fun init(dao: GameCompatibilityDao) {
+        this.dao = dao
+        scope.launch {
+            try {
+                val pruned = dao.deleteExpired(clock())
+                if (pruned > 0) Timber.tag("GameCompatibilityCache").d("Pruned $pruned expired entries")
+            } catch (e: Exception) {
+                Timber.tag("GameCompatibilityCache").e(e, "Failed to prune expired entries")
             }
+        }
+    }
 
-            val cacheMap = Json.decodeFromString<Map<String, CachedCompatibilityResponse>>(cacheJson)
+    /**
+     * Moves the JSON blob older versions kept in preferences into the database. Those responses were
+     * always fetched for this device's GPU, which is the one the first lookup asks for.
+     */
+    private suspend fun migrateLegacyCache(gpuName: String) {
+        if (legacyMigrated) return
+        legacyMigrationLock.withLock {
+            if (legacyMigrated) return
+            try {
+                val cacheJson = PrefManager.gameCompatibilityCache
+                if (cacheJson.isNotEmpty() && cacheJson != "{}") {
+                    val cacheMap = Json.decodeFromString<Map<String, CachedCompatibilityResponse>>(cacheJson)
+                    val now = clock()
+                    val entries = cacheMap
+                        .filterValues { now - it.timestamp < CACHE_TTL_MS }
+                        .map { (gameName, cached) ->
+                            val response = cached.response
+                            CachedGameCompatibility(
+                                gameName = gameName,
+                                gpuName = gpuName,
+                                totalPlayableCount = response.totalPlayableCount,
+                                gpuPlayableCount = response.gpuPlayableCount,
+                                avgRating = response.avgRating,
+                                hasBeenTried = response.hasBeenTried,
+                                isNotWorking = response.isNotWorking,
+                                expiresAt = cached.timestamp + CACHE_TTL_MS
+                            )
+                        }
+                    dao?.insertAll(entries)
+                    Timber.tag("GameCompatibilityCache").d("Migrated ${entries.size} of ${cacheMap.size} entries from preferences")
+                }
+            } catch (e: Exception) {
+                Timber.tag("GameCompatibilityCache").e(e, "Failed to migrate cache from preferences")
+            }
+            // Whatever could not be read is not worth retrying on every lookup
+            PrefManager.gameCompatibilityCache = "{}"
+            legacyMigrated = true
+        }
+    }
 
-            // Load all entries into memory (no expiration check here - lazy expiration)
-            // Store both response and timestamp for expiration checking
-            cacheMap.forEach { (gameName, cached) ->
-                inMemoryCache[gameName] = cached.response.toResponse()
-                timestamps[gameName] = cached.timestamp
+    private fun getFromMemory(key: Key, now: Long): GameCompatibilityService.GameCompatibilityResponse? {
+        synchronized(inMemoryCache) {
+            val entry = inMemoryCache[key] ?: return null
+            if (now >= entry.expiresAt) {
+                inMemoryCache.remove(key)
+                return null
             }
+            return entry.response
+        }
+    }
 
-            Timber.tag("GameCompatibilityCache").d("Loaded ${inMemoryCache.size} cached entries from persistent storage")
-            cacheLoaded = true
-        } catch (e: Exception) {
-            Timber.tag("GameCompatibilityCache").e(e, "Failed to load cache from persistent storage")
-            cacheLoaded = true // Mark as loaded to avoid retrying
+    private fun putInMemory(key: Key, response: GameCompatibilityService.GameCompatibilityResponse, expiresAt: Long) {
+        synchronized(inMemoryCache) {
+            inMemoryCache[key] = Entry(response, expiresAt)
         }
     }
 
     /**
-     * Saves cache to persistent storage.
+     * Gets the cached compatibility response for a game on a GPU, if available and not expired.
      */
-    private fun saveCache() {
-        try {
-            val now = System.currentTimeMillis()
-            val cacheMap = inMemoryCache.mapValues { (gameName, response) ->
-                val timestamp = timestamps[gameName] ?: now
-                CachedCompatibilityResponse(response.toData(), timestamp)
-            }
-            val cacheJson = Json.encodeToString(cacheMap)
-            PrefManager.gameCompatibilityCache = cacheJson
-            Timber.tag("GameCompatibilityCache").d("Saved ${cacheMap.size} entries to persistent storage")
-        } catch (e: Exception) {
-            Timber.tag("GameCompatibilityCache").e(e, "Failed to save cache to persistent storage")
-        }
+    suspend fun getCached(gameName: String, gpuName: String): GameCompatibilityService.GameCompatibilityResponse? {
+        val now = clock()
+        val key = Key(gameName, gpuName)
+        getFromMemory(key, now)?.let { return it }
+
+        val dao = dao ?: return null
+        migrateLegacyCache(gpuName)
+        val cached = dao.find(gameName, gpuName, now) ?: return null
+        val response = cached.toResponse()
+        putInMemory(key, response, cached.expiresAt)
+        return response
     }
 
     /**
-     * Gets cached compatibility response for a game, if available and not expired.
-     * Uses lazy expiration - checks expiration on access.
+     * Gets the cached, unexpired responses for several games on a GPU with a single query for the ones
+     * not in memory. Games without one are left out of the result.
      */
-    fun getCached(gameName: String): GameCompatibilityService.GameCompatibilityResponse? {
-        loadCache()
-
-        val cached = inMemoryCache[gameName] ?: return null
-        val timestamp = timestamps[gameName] ?: return null
-
-        // Lazy expiration check - only check when accessing
-        val now = System.currentTimeMillis()
-        if (now - timestamp >= CACHE_TTL_MS) {
-            // Expired - remove from cache
-            inMemoryCache.remove(gameName)
-            timestamps.remove(gameName)
-            Timber.tag("GameCompatibilityCache").d("Removed expired cache entry for: $gameName")
-            return null
+    suspend fun getCachedAll(
+        gameNames: Collection<String>,
+        gpuName: String,
+    ): Map<String, GameCompatibilityService.GameCompatibilityResponse> {
+        val now = clock()
+        val results = mutableMapOf<String, GameCompatibilityService.GameCompatibilityResponse>()
+        val misses = mutableListOf<String>()
+        for (gameName in gameNames) {
+            val cached = getFromMemory(Key(gameName, gpuName), now)
+            if (cached != null) results[gameName] = cached else misses.add(gameName)
         }
 
-        return cached
+        val dao = dao
+        if (misses.isEmpty() || dao == null) return results
+        migrateLegacyCache(gpuName)
+        dao.findAll(gpuName, misses, now).forEach { cached ->
+            val response = cached.toResponse()
+            putInMemory(Key(cached.gameName, gpuName), response, cached.expiresAt)
+            results[cached.gameName] = response
+        }
+        return results
     }
 
     /**
-     * Caches a compatibility response for a game.
+     * Caches a compatibility response for a game on a GPU.
      */
-    fun cache(gameName: String, response: GameCompatibilityService.GameCompatibilityResponse) {
-        loadCache()
-        val now = System.currentTimeMillis()
-        inMemoryCache[gameName] = response
-        timestamps[gameName] = now
-        saveCache()
-        Timber.tag("GameCompatibilityCache").d("Cached compatibility for: $gameName")
+    fun cache(gameName: String, gpuName: String, response: GameCompatibilityService.GameCompatibilityResponse) {
+        cacheAll(mapOf(gameName to response), gpuName)
     }
 
     /**
-     * Caches multiple compatibility responses at once.
+     * Caches multiple compatibility responses at once. They are readable immediately and written to
+     * the database with the next flush.
      */
-    fun cacheAll(responses: Map<String, GameCompatibilityService.GameCompatibilityResponse>) {
-        loadCache()
-        val now = System.currentTimeMillis()
-        inMemoryCache.putAll(responses)
-        responses.keys.forEach { gameName ->
-            timestamps[gameName] = now
+    fun cacheAll(responses: Map<String, GameCompatibilityService.GameCompatibilityResponse>, gpuName: String) {
+        if (responses.isEmpty()) return
+        val expiresAt = clock() + CACHE_TTL_MS
+        responses.forEach { (gameName, response) ->
+            putInMemory(Key(gameName, gpuName), response, expiresAt)
+        }
+
+        if (dao == null) return
+        synchronized(pendingWrites) {
+            responses.forEach { (gameName, response) ->
+                pendingWrites[Key(gameName, gpuName)] = response.toEntity(gameName, gpuName, expiresAt)
+            }
+            if (flushJob?.isActive != true) {
+                flushJob = scope.launch {
+                    delay(FLUSH_DELAY_MS)
+                    flush()
+                }
+            }
         }
-        saveCache()
         Timber.tag("GameCompatibilityCache").d("Cached ${responses.size} compatibility entries")
     }
 
     /**
-     * Checks if a game's compatibility is cached and not expired.
+     * Writes pending entries to the database now instead of waiting for the scheduled flush.
      */
-    fun isCached(gameName: String): Boolean {
-        loadCache()
-        return getCached(gameName) != null
+    suspend fun flush() {
+        val dao = dao ?: return
+        val entries = synchronized(pendingWrites) {
+            // Anything cached from here on is not part of this write, so it has to schedule its own flush
+            flushJob = null
+            val entries = pendingWrites.values.toList()
+            pendingWrites.clear()
+            entries
+        }
+        if (entries.isEmpty()) return
+
+        try {
+            val pruned = dao.insertAllAndPrune(entries, clock())
+            Timber.tag("GameCompatibilityCache").d("Saved ${entries.size} entries, pruned $pruned expired")
+        } catch (e: Exception) {
+            Timber.tag("GameCompatibilityCache").e(e, "Failed to save cache to the database")
+        }
     }
 
     /**
-     * Clears the entire cache (both memory and persistent storage).
+     * Clears the entire cache (memory, pending writes and the database).
      */
-    fun clear() {
-        inMemoryCache.clear()
-        timestamps.clear()
+    suspend fun clear() {
+        synchronized(pendingWrites) {
+            flushJob?.cancel()
+            flushJob = null
+            pendingWrites.clear()
+        }
+        synchronized(inMemoryCache) {
+            inMemoryCache.clear()
+        }
+        try {
+            dao?.deleteAll()
+        } catch (e: Exception) {
+            Timber.tag("GameCompatibilityCache").e(e, "Failed to clear the database cache")
+        }
         PrefManager.gameCompatibilityCache = "{}"
+        legacyMigrated = false
         Timber.tag("GameCompatibilityCache").d("Cache cleared")
     }
 
     /**
-     * Gets the current cache size.
+     * Gets the number of entries held in memory.
      */
     fun size(): Int {
-        loadCache()
-        return inMemoryCache.size
+        synchronized(inMemoryCache) {
+            return inMemoryCache.size
+        }
     }
 }
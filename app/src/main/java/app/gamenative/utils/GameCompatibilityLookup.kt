@@ -0,0 +1,172 @@
+package app.gamenative.utils
+
+import app.gamenative.utils.GameCompatibilityService.GameCompatibilityResponse
+import kotlin.math.min
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import timber.log.Timber
+
+/**
+ * Sits in front of [GameCompatibilityService] so overlapping callers share requests.
+ *
+ * Cache misses are collected for [coalesceWindowMs] and sent in batches of at most [maxBatchSize] names.
+ * A name already queued or in flight joins that batch instead of being requested again, so concurrent
+ * callers await the same [CompletableDeferred]. Each batch fans out to its waiters as soon as it completes.
+ * Names whose batch failed are not requested again until a backoff that doubles with every failure.
+ */
+class GameCompatibilityLookup(
+    private val fetch: suspend (gameNames: List<String>, gpuName: String) -> Map<String, GameCompatibilityResponse>? =
+        { gameNames, gpuName -> GameCompatibilityService.fetchCompatibility(gameNames, gpuName) },
+    private val useCache: Boolean = true,
+    private val coalesceWindowMs: Long = 50,
+    private val maxBatchSize: Int = 25,
+    private val baseBackoffMs: Long = 30_000,
+    private val maxBackoffMs: Long = 10 * 60_000,
+    private val clock: () -> Long = System::currentTimeMillis,
+    private val scope: CoroutineScope = CoroutineScope(SupervisorJob() + Dispatchers.IO),
+) {
+    private data class Key(val gameName: String, val gpuName: String)
+
+    private class Batch(val gpuName: String) {
+        val gameNames = LinkedHashSet<String>()
+        val result = CompletableDeferred<Map<String, GameCompatibilityResponse>>()
+        var sent = false
+    }
+
+    private class Failure(val count: Int, val retryAt: Long)
+
+    // All state below is guarded by lock
+    private val lock = Any()
+    private val inFlight = HashMap<Key, Batch>()
+    private val openBatches = HashMap<String, Batch>()
+    private val failures = HashMap<Key, Failure>()
+
+    /**
+     * Looks up [gameNames] on [gpuName], from the cache first and then the API. [onResults] is called
+     * with the cached results and then with each batch's results as they arrive. Returns everything found;
+     * games the API knows nothing about, or whose request failed, are left out.
+     */
+    suspend fun lookup(
+        gameNames: Collection<String>,
+        gpuName: String,
+        onResults: (suspend (Map<String, GameCompatibilityResponse>) -> Unit)? = null,
+    ): Map<String, GameCompatibilityResponse> = coroutineScope {
+        val results = mutableMapOf<String, GameCompatibilityResponse>()
+        var misses: Collection<String> = gameNames
+        if (useCache) {
+            val cached = GameCompatibilityCache.getCachedAll(gameNames, gpuName)
+            if (cached.isNotEmpty()) {
+                results.putAll(cached)
+                onResults?.invoke(cached)
+            }
+            misses = gameNames.filter { it !in cached }
+        }
+
+        request(misses, gpuName)
+            .map { (batch, names) ->
+                async {
+                    val batchResults = batch.result.await().filterKeys { it in names }
+                    if (batchResults.isNotEmpty()) onResults?.invoke(batchResults)
+                    batchResults
+                }
+            }
+            .awaitAll()
+            .forEach { results.putAll(it) }
+        results
+    }
+
+    /**
+     * Forgets failed lookups so the next request for them goes out right away.
+     */
+    fun clearFailures() {
+        synchronized(lock) {
+            failures.clear()
+        }
+    }
+
+    /** Queues the names that are neither in flight nor backing off, grouped by the batch that answers them. */
+    private fun request(gameNames: Collection<String>, gpuName: String): Map<Batch, List<String>> {
+        val waits = LinkedHashMap<Batch, MutableList<String>>()
+        val now = clock()
+        synchronized(lock) {
+            for (gameName in gameNames.distinct()) {
+                val key = Key(gameName, gpuName)
+                val failure = failures[key]
+                if (failure != null && now < failure.retryAt) continue
+
+                var batch = inFlight[key]
+                if (batch == null) {
+                    batch = openBatches.getOrPut(gpuName) { Batch(gpuName).also(::scheduleSend) }
+                    batch.gameNames.add(gameName)
+                    inFlight[key] = batch
+                    if (batch.gameNames.size >= maxBatchSize) {
+                        openBatches.remove(gpuName)
+                        send(batch)
+                    }
+                }
+                waits.getOrPut(batch) { mutableListOf() }.add(gameName)
+            }
+        }
+        return waits
+    }
+
+    private fun scheduleSend(batch: Batch) {
+        scope.launch {
+            delay(coalesceWindowMs)
+            synchronized(lock) {
+                if (openBatches[batch.gpuName] === batch) openBatches.remove(batch.gpuName)
+                send(batch)
+            }
+        }
+    }
+
+    // Called with lock held
+    private fun send(batch: Batch) {
+        if (batch.sent) return
+        batch.sent = true
+        val gameNames = batch.gameNames.toList()
+        scope.launch {
+            val results = try {
+                fetch(gameNames, batch.gpuName)
+            } catch (e: Exception) {
+                Timber.tag("GameCompatibilityLookup").e(e, "Failed to fetch compatibility for ${gameNames.size} games")
+                null
+            }
+
+            if (results != null && useCache) {
+                GameCompatibilityCache.cacheAll(results, batch.gpuName)
+            }
+
+            synchronized(lock) {
+                val now = clock()
+                for (gameName in gameNames) {
+                    val key = Key(gameName, batch.gpuName)
+                    inFlight.remove(key)
+                    if (results != null) {
+                        failures.remove(key)
+                    } else {
+                        val count = (failures[key]?.count ?: 0) + 1
+                        val backoff = min(baseBackoffMs shl min(count - 1, 20), maxBackoffMs)
+                        failures[key] = Failure(count, now + backoff)
+                    }
+                }
+            }
+            if (results == null) {
+                Timber.tag("GameCompatibilityLookup").w("Backing off ${gameNames.size} games after a failed request")
+            }
+            batch.result.complete(results ?: emptyMap())
+        }
+    }
+
+    companion object {
+        /** Shared by every screen, so they dedupe against each other. */
+        val default: GameCompatibilityLookup by lazy { GameCompatibilityLookup() }
+    }
+}
@@ -74,10 +74,12 @@ object GameCompatibilityService {
     /**
      * Fetches compatibility information for a batch of games.
      * Returns a map of game name to compatibility response, or null on error.
+     * Callers that may request the same games concurrently should go through [GameCompatibilityLookup].
      */
     suspend fun fetchCompatibility(
         gameNames: List<String>,
-        gpuName: String
+        gpuName: String,
+        url: String = API_BASE_URL
     ): Map<String, GameCompatibilityResponse>? = withContext(Dispatchers.IO) {
         if (gameNames.isEmpty()) {
             return@withContext emptyMap()
@@ -94,7 +96,7 @@ object GameCompatibilityService {
                 val body = requestBody.toString().toRequestBody(mediaType)
 
                 val request = Request.Builder()
-                    .url(API_BASE_URL)
+                    .url(url)
                     .post(body)
                     .header("Content-Type", "application/json")
                     .build()
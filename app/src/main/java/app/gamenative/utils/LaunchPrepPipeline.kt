@@ -0,0 +1,223 @@
+package app.gamenative.utils
+
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CompletionException
+import java.util.concurrent.Executors
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.atomic.AtomicInteger
+import timber.log.Timber
+
+/**
+ * Runs launch preparation as a DAG of named stages on a bounded IO pool.
+ *
+ * Each stage declares the resources it reads and writes. A stage implicitly waits for every earlier
+ * stage whose writes overlap its reads or writes (and for earlier readers of anything it writes), so the
+ * outcome is the same as running the stages one after another in declaration order while stages that
+ * touch disjoint files overlap.
+ *
+ * Stages whose fingerprint is unchanged are skipped. Fingerprints and other container bookkeeping are
+ * only committed on the calling thread once every stage has finished, so stage bodies never race on the
+ * container config.
+ */
+class LaunchPrepPipeline(
+    private val fingerprintStore: FingerprintStore? = null,
+    private val parallelism: Int = DEFAULT_PARALLELISM,
+) {
+    interface FingerprintStore {
+        fun get(key: String): String?
+        fun put(key: String, value: String)
+    }
+
+    data class StageTiming(
+        val name: String,
+        val startMs: Long,
+        val durationMs: Long,
+        val skipped: Boolean,
+        val failed: Boolean,
+        val thread: String,
+    )
+
+    data class Trace(val stages: List<StageTiming>, val totalMs: Long) {
+        val ranStages: List<StageTiming> get() = stages.filter { !it.skipped }
+
+        override fun toString(): String = buildString {
+            append("total=").append(totalMs).append("ms")
+            for (stage in stages) {
+                append(", ").append(stage.name).append('=')
+                when {
+                    stage.failed -> append("failed")
+                    stage.skipped -> append("skipped")
+                    else -> append(stage.durationMs).append("ms@").append(stage.startMs)
+                }
+            }
+        }
+    }
+
+    class StageBuilder internal constructor(val name: String) {
+        internal val readSet = mutableSetOf<String>()
+        internal val writeSet = mutableSetOf<String>()
+        internal val afterSet = mutableSetOf<String>()
+        internal var fingerprintKey: String? = null
+        internal var fingerprintValue: (() -> String)? = null
+        internal var upToDateCheck: (() -> Boolean)? = null
+        internal var action: (() -> Unit)? = null
+        internal var commitAction: (() -> Unit)? = null
+
+        fun reads(vararg resources: String) {
+            readSet.addAll(resources)
+        }
+
+        fun writes(vararg resources: String) {
+            writeSet.addAll(resources)
+        }
+
+        /** Explicit ordering for dependencies that are not expressed through resources. */
+        fun after(vararg stages: String) {
+            afterSet.addAll(stages)
+        }
+
+        /** Skips the stage when [key] in the fingerprint store already holds [value]. */
+        fun fingerprint(key: String, value: () -> String) {
+            fingerprintKey = key
+            fingerprintValue = value
+        }
+
+        /** Skips the stage when [check] returns true; evaluated once the stage's dependencies finished. */
+        fun upToDate(check: () -> Boolean) {
+            upToDateCheck = check
+        }
+
+        fun run(block: () -> Unit) {
+            action = block
+        }
+
+        /** Runs on the calling thread after the whole pipeline succeeded, only if this stage ran. */
+        fun commit(block: () -> Unit) {
+            commitAction = block
+        }
+    }
+
+    private val stages = mutableListOf<StageBuilder>()
+
+    fun stage(name: String, configure: StageBuilder.() -> Unit) {
+        require(stages.none { it.name == name }) { "Duplicate launch stage $name" }
+        val builder = StageBuilder(name).apply(configure)
+        for (dependency in builder.afterSet) {
+            require(stages.any { it.name == dependency }) { "Stage $name runs after unknown stage $dependency" }
+        }
+        stages.add(builder)
+    }
+
+    /**
+     * Runs every stage, blocking until all of them completed. Rethrows the first stage failure after the
+     * remaining independent stages finished; in that case nothing is committed.
+     *
+     * @return true if at least one stage ran and committed.
+     */
+    fun run(): Boolean {
+        val count = stages.size
+        val futures = arrayOfNulls<CompletableFuture<Void>>(count)
+        val timings = arrayOfNulls<StageTiming>(count)
+        val ran = BooleanArray(count)
+        val fingerprints = arrayOfNulls<String>(count)
+        val executor = Executors.newFixedThreadPool(parallelism.coerceIn(1, count.coerceAtLeast(1)), threadFactory)
+        val startNanos = System.nanoTime()
+
+        try {
+            for (i in 0 until count) {
+                val stage = stages[i]
+                val dependencies = (0 until i).filter { dependsOn(stage, stages[it]) }.map { futures[it]!! }
+                futures[i] = CompletableFuture.allOf(*dependencies.toTypedArray()).thenRunAsync({
+                    val stageStart = System.nanoTime()
+                    var skipped = false
+                    var failed = true
+                    try {
+                        val fingerprint = stage.fingerprintValue?.invoke()
+                        skipped = isUpToDate(stage, fingerprint)
+                        if (!skipped) {
+                            stage.action?.invoke()
+                            fingerprints[i] = fingerprint
+                            ran[i] = true
+                        }
+                        failed = false
+                    } finally {
+                        val end = System.nanoTime()
+                        timings[i] = StageTiming(
+                            name = stage.name,
+                            startMs = (stageStart - startNanos) / 1_000_000,
+                            durationMs = (end - stageStart) / 1_000_000,
+                            skipped = skipped,
+                            failed = failed,
+                            thread = Thread.currentThread().name,
+                        )
+                    }
+                }, executor)
+            }
+
+            try {
+                CompletableFuture.allOf(*futures.requireNoNulls()).join()
+            } catch (e: CompletionException) {
+                var cause: Throwable = e
+                while (cause is CompletionException && cause.cause != null) cause = cause.cause!!
+                throw cause
+            }
+        } finally {
+            executor.shutdown()
+            publishTrace(timings, (System.nanoTime() - startNanos) / 1_000_000)
+        }
+
+        var changed = false
+        for (i in 0 until count) {
+            if (!ran[i]) continue
+            val stage = stages[i]
+            val key = stage.fingerprintKey
+            val fingerprint = fingerprints[i]
+            if (key != null && fingerprint != null) {
+                fingerprintStore?.put(key, fingerprint)
+                changed = true
+            }
+            stage.commitAction?.let {
+                it()
+                changed = true
+            }
+        }
+        return changed
+    }
+
+    private fun isUpToDate(stage: StageBuilder, fingerprint: String?): Boolean {
+        stage.upToDateCheck?.let { return it() }
+        val key = stage.fingerprintKey ?: return false
+        val store = fingerprintStore ?: return false
+        return synchronized(store) { store.get(key) } == fingerprint
+    }
+
+    private fun dependsOn(stage: StageBuilder, earlier: StageBuilder): Boolean {
+        if (earlier.name in stage.afterSet) return true
+        if (earlier.writeSet.any { it in stage.readSet || it in stage.writeSet }) return true
+        return earlier.readSet.any { it in stage.writeSet }
+    }
+
+    private fun publishTrace(timings: Array<StageTiming?>, totalMs: Long) {
+        val trace = Trace(timings.filterNotNull(), totalMs)
+        lastTrace = trace
+        Timber.tag(TAG).i("Launch preparation trace: %s", trace)
+    }
+
+    companion object {
+        private const val TAG = "LaunchPrepPipeline"
+
+        val DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors().coerceIn(2, 4)
+
+        /** Timing trace of the most recent pipeline run, for diagnostics and bug reports. */
+        @Volatile
+        var lastTrace: Trace? = null
+            private set
+
+        private val threadFactory = object : ThreadFactory {
+            private val counter = AtomicInteger()
+
+            override fun newThread(runnable: Runnable): Thread =
+                Thread(runnable, "launch-prep-" + counter.incrementAndGet()).apply { isDaemon = true }
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package app.gamenative.utils
+
+import android.content.Context
+import java.io.File
+import java.security.MessageDigest
+import kotlinx.coroutines.CancellationException
+import org.json.JSONArray
+import org.json.JSONObject
+import timber.log.Timber
+
+/**
+ * On-disk cache for store manifests (Epic binary manifests, GOG build and depot manifests) and the
+ * small summaries game pages show.
+ *
+ * Blobs are content addressed: the key is the hash the store API hands out for a build, so a cached
+ * blob never goes stale and revalidating only needs the cheap metadata request that names the current
+ * hash. Blobs live in the cache dir under a size cap with LRU eviction; last access is kept in the
+ * file's modification time so it survives restarts. Summaries are tiny and live in the files dir, so
+ * sizes still render when the device is offline.
+ */
+class ManifestCache internal constructor(
+    private val blobDir: File,
+    private val summaryFile: File,
+    private val maxBytes: Long = DEFAULT_MAX_BYTES,
+    private val clock: () -> Long = System::currentTimeMillis,
+) {
+    /**
+     * What a game page needs from a manifest, keyed by the manifest it was computed from.
+     */
+    data class Summary(
+        val manifestHash: String,
+        val buildVersion: String,
+        val installSize: Long,
+        val downloadSize: Long,
+        val fileCount: Int,
+        val executables: List<String>,
+        val updatedAt: Long,
+    )
+
+    private class BlobEntry(val file: File, val size: Long, var lastAccess: Long)
+
+    private val lock = Any()
+    private var blobs: MutableMap<String, BlobEntry>? = null
+    private var summaries: MutableMap<String, Summary>? = null
+
+    fun now(): Long = clock()
+
+    /** True when [summary] was computed or revalidated less than [maxAgeMs] ago. */
+    fun isFresh(summary: Summary, maxAgeMs: Long): Boolean = clock() - summary.updatedAt in 0 until maxAgeMs
+
+    fun getBlob(store: String, key: String): ByteArray? = synchronized(lock) {
+        val id = blobId(store, key)
+        val entry = loadBlobs()[id] ?: return null
+        val bytes = try {
+            entry.file.readBytes()
+        } catch (e: Exception) {
+            Timber.w(e, "Dropping unreadable cached manifest $id")
+            removeBlobLocked(id)
+            return null
+        }
+        entry.lastAccess = clock()
+        entry.file.setLastModified(entry.lastAccess)
+        bytes
+    }
+
+    fun putBlob(store: String, key: String, bytes: ByteArray) {
+        if (bytes.size > maxBytes) return
+        val id = blobId(store, key)
+        val file = File(blobDir, id)
+        synchronized(lock) {
+            try {
+                file.parentFile?.mkdirs()
+                val tmpFile = File(file.path + ".tmp")
+                tmpFile.writeBytes(bytes)
+                if (!tmpFile.renameTo(file)) {
+                    tmpFile.delete()
+                    Timber.w("Failed to store manifest $id")
+                    return
+                }
+                val now = clock()
+                file.setLastModified(now)
+                loadBlobs()[id] = BlobEntry(file, bytes.size.toLong(), now)
+                trimLocked()
+            } catch (e: Exception) {
+                Timber.w(e, "Failed to store manifest $id")
+            }
+        }
+    }
+
+    fun removeBlob(store: String, key: String) {
+        synchronized(lock) { removeBlobLocked(blobId(store, key)) }
+    }
+
+    /** Total size of the cached blobs. */
+    val blobBytes: Long
+        get() = synchronized(lock) { loadBlobs().values.sumOf { it.size } }
+
+    fun getSummary(store: String, key: String): Summary? = synchronized(lock) {
+        loadSummaries()["$store/$key"]
+    }
+
+    fun putSummary(store: String, key: String, summary: Summary) {
+        synchronized(lock) {
+            loadSummaries()["$store/$key"] = summary
+            saveSummariesLocked()
+        }
+    }
+
+    /**
+     * Summary for [key], revalidated once it is older than [maxAgeMs].
+     *
+     * [currentHash] asks the store which manifest [key] points at now, which is a small metadata request;
+     * [build] only runs when that differs from the cached summary's hash. If revalidation fails, e.g.
+     * offline, the stale summary is returned instead of nothing.
+     */
+    suspend fun resolveSummary(
+        store: String,
+        key: String,
+        maxAgeMs: Long,
+        currentHash: suspend () -> String,
+        build: suspend (String) -> Summary,
+    ): Summary {
+        val cached = getSummary(store, key)
+        if (cached != null && isFresh(cached, maxAgeMs)) return cached
+
+        val summary = try {
+            val hash = currentHash()
+            if (cached != null && hash.isNotEmpty() && cached.manifestHash == hash) cached else build(hash)
+        } catch (e: CancellationException) {
+            throw e
+        } catch (e: Exception) {
+            if (cached == null) throw e
+            Timber.w("Could not revalidate manifest summary for $store/$key, using cached one: ${e.message}")
+            return cached
+        }.copy(updatedAt = clock())
+
+        putSummary(store, key, summary)
+        return summary
+    }
+
+    private fun blobId(store: String, key: String): String = "$store/${safeKey(key)}"
+
+    private fun removeBlobLocked(id: String) {
+        loadBlobs().remove(id)?.file?.delete()
+    }
+
+    // Evict least recently used blobs until the cache fits again
+    private fun trimLocked() {
+        val entries = loadBlobs()
+        var total = entries.values.sumOf { it.size }
+        if (total <= maxBytes) return
+        for ((id, entry) in entries.entries.sortedBy { it.value.lastAccess }) {
+            if (total <= maxBytes) break
+            entry.file.delete()
+            entries.remove(id)
+            total -= entry.size
+            Timber.d("Evicted cached manifest $id")
+        }
+    }
+
+    private fun loadBlobs(): MutableMap<String, BlobEntry> {
+        blobs?.let { return it }
+        val loaded = HashMap<String, BlobEntry>()
+        blobDir.listFiles()?.filter { it.isDirectory }?.forEach { storeDir ->
+            storeDir.listFiles()?.forEach { file ->
+                if (file.name.endsWith(".tmp")) {
+                    file.delete()
+                } else {
+                    loaded["${storeDir.name}/${file.name}"] = BlobEntry(file, file.length(), file.lastModified())
+                }
+            }
+        }
+        blobs = loaded
+        return loaded
+    }
+
+    private fun loadSummaries(): MutableMap<String, Summary> {
+        summaries?.let { return it }
+        val loaded = HashMap<String, Summary>()
+        try {
+            if (summaryFile.exists()) {
+                val json = JSONObject(summaryFile.readText())
+                json.keys().forEach { key ->
+                    val entry = json.getJSONObject(key)
+                    val executables = entry.optJSONArray("executables")
+                    loaded[key] = Summary(
+                        manifestHash = entry.getString("manifestHash"),
+                        buildVersion = entry.optString("buildVersion", ""),
+                        installSize = entry.getLong("installSize"),
+                        downloadSize = entry.getLong("downloadSize"),
+                        fileCount = entry.optInt("fileCount", 0),
+                        executables = List(executables?.length() ?: 0) { executables!!.getString(it) },
+                        updatedAt = entry.getLong("updatedAt"),
+                    )
+                }
+            }
+        } catch (e: Exception) {
+            Timber.e(e, "Failed to load manifest summaries")
+        }
+        summaries = loaded
+        return loaded
+    }
+
+    private fun saveSummariesLocked() {
+        try {
+            val json = JSONObject()
+            loadSummaries().forEach { (key, summary) ->
+                json.put(
+                    key,
+                    JSONObject()
+                        .put("manifestHash", summary.manifestHash)
+                        .put("buildVersion", summary.buildVersion)
+                        .put("installSize", summary.installSize)
+                        .put("downloadSize", summary.downloadSize)
+                        .put("fileCount", summary.fileCount)
+                        .put("executables", JSONArray(summary.executables))
+                        .put("updatedAt", summary.updatedAt),
+                )
+            }
+            summaryFile.parentFile?.mkdirs()
+            val tmpFile = File(summaryFile.path + ".tmp")
+            tmpFile.writeText(json.toString())
+            if (!tmpFile.renameTo(summaryFile)) {
+                tmpFile.delete()
+                Timber.w("Failed to replace manifest summaries")
+            }
+        } catch (e: Exception) {
+            Timber.e(e, "Failed to save manifest summaries")
+        }
+    }
+
+    companion object {
+        const val DEFAULT_MAX_BYTES = 256L * 1024 * 1024
+
+        const val STORE_EPIC = "epic"
+        const val STORE_GOG = "gog"
+
+        private val HASH_KEY = Regex("[0-9A-Za-z]{16,128}")
+
+        @Volatile
+        private var instance: ManifestCache? = null
+
+        fun getInstance(context: Context): ManifestCache =
+            instance ?: synchronized(this) {
+                instance ?: ManifestCache(
+                    blobDir = File(context.cacheDir, "manifests"),
+                    summaryFile = File(context.filesDir, "manifest_summaries.json"),
+                ).also { instance = it }
+            }
+
+        /**
+         * Store hashes are used as file names directly; anything else (a URL, an app name) is hashed first.
+         */
+        fun safeKey(key: String): String =
+            if (HASH_KEY.matches(key)) key.lowercase() else sha1Hex(key.toByteArray())
+
+        fun sha1Hex(bytes: ByteArray): String =
+            MessageDigest.getInstance("SHA-1").digest(bytes).joinToString("") { "%02x".format(it) }
+    }
+}
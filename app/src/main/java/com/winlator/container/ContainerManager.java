@@ -12,6 +12,7 @@ import app.gamenative.R;
 import com.winlator.box86_64.Box86_64Preset;
 import com.winlator.contents.ContentsManager;
 import com.winlator.core.Callback;
+import com.winlator.core.FileCatalog;
 import com.winlator.core.FileUtils;
 import com.winlator.core.OnExtractFileListener;
 import com.winlator.core.TarCompressorUtils;
@@ -29,57 +30,109 @@ import org.json.JSONObject;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
 public class ContainerManager {
-    private final ArrayList<Container> containers = new ArrayList<>();
+    private final LinkedHashMap<String, Container> containers = new LinkedHashMap<>();
     private final File homeDir;
     private final Context context;
+    private final FileCatalog catalog;
 
     public ContainerManager(Context context) {
         this.context = context;
-        File rootDir = ImageFs.find(context).getRootDir();
-        homeDir = new File(rootDir, "home");
+        ImageFs imageFs = ImageFs.find(context);
+        homeDir = new File(imageFs.getRootDir(), "home");
+        catalog = FileCatalog.load(new File(imageFs.getConfigDir(), "containers.catalog"));
         loadContainers();
     }
 
     public ArrayList<Container> getContainers() {
-        return containers;
+        ArrayList<Container> result = new ArrayList<>();
+        for (String containerId : getContainerIds()) {
+            Container container = getContainerById(containerId);
+            if (container != null) result.add(container);
+        }
+        return result;
     }
 
+    /**
+     * Refreshes the container catalog. While the home directory listing is unchanged the catalog is
+     * trusted as is; otherwise only containers whose config file changed are parsed again. Full configs
+     * are parsed lazily by {@link #getContainerById(String)}.
+     */
     private void loadContainers() {
         containers.clear();
+        if (catalog.isListingCurrent(homeDir)) return;
 
+        HashSet<String> containerIds = new HashSet<>();
         File[] files = homeDir.listFiles();
         if (files != null) {
             for (File file : files) {
-                if (file.isDirectory()) {
-                    if (file.getName().startsWith(ImageFs.USER+"-")) {
-                        String containerId = file.getName().replace(ImageFs.USER+"-", "");
-                        Container container = new Container(containerId);
-                        container.setRootDir(new File(homeDir, ImageFs.USER+"-"+container.id));
-                        try {
-                            File configFile = container.getConfigFile();
-                            String configContent = FileUtils.readString(configFile);
-                            
-                            if (configContent == null || configContent.trim().isEmpty()) {
-                                Log.w("ContainerManager", "Container config file is null or empty, skipping: " + containerId);
-                                continue;
-                            }
-                            
-                            JSONObject data = new JSONObject(configContent);
-                            container.loadData(data);
-                            containers.add(container);
-                        } catch (Exception e) {
-                            // Catch ALL exceptions (NullPointerException, JSONException, etc.)
-                            Log.w("ContainerManager", "Could not load container " + containerId + ": " + e.getMessage());
-                            // Continue loading other containers
-                        }
+                if (file.isDirectory() && !FileUtils.isSymlink(file) && file.getName().startsWith(ImageFs.USER+"-")) {
+                    String containerId = file.getName().replace(ImageFs.USER+"-", "");
+                    File configFile = new File(file, ".container");
+                    if (catalog.getFieldsIfCurrent(containerId, configFile) == null) {
+                        Container container = parseContainer(containerId);
+                        if (container == null) continue;
+                        containers.put(containerId, container);
                     }
+                    containerIds.add(containerId);
                 }
             }
         }
+
+        catalog.retainAll(containerIds);
+        catalog.setListingCurrent(homeDir);
+        catalog.save();
+    }
+
+    private Container parseContainer(String containerId) {
+        Container container = new Container(containerId);
+        container.setRootDir(new File(homeDir, ImageFs.USER+"-"+container.id));
+        try {
+            File configFile = container.getConfigFile();
+            String configContent = FileUtils.readString(configFile);
+
+            if (configContent == null || configContent.trim().isEmpty()) {
+                Log.w("ContainerManager", "Container config file is null or empty, skipping: " + containerId);
+                catalog.remove(containerId);
+                return null;
+            }
+
+            JSONObject data = new JSONObject(configContent);
+            container.loadData(data);
+            updateCatalog(container);
+            return container;
+        } catch (Exception e) {
+            // Catch ALL exceptions (NullPointerException, JSONException, etc.)
+            Log.w("ContainerManager", "Could not load container " + containerId + ": " + e.getMessage());
+            catalog.remove(containerId);
+            return null;
+        }
+    }
+
+    private void updateCatalog(Container container) {
+        try {
+            JSONObject fields = new JSONObject();
+            fields.put("name", container.getName());
+            fields.put("wineVersion", container.getWineVersion());
+            fields.put("containerVariant", container.getContainerVariant());
+            catalog.put(container.id, container.getConfigFile(), fields);
+        }
+        catch (JSONException e) {}
+    }
+
+    /** Ids of all containers, read from the catalog without parsing their configs. */
+    public ArrayList<String> getContainerIds() {
+        return new ArrayList<>(catalog.keys());
+    }
+
+    /** Listing fields (name, wineVersion, containerVariant) of a container without parsing its config. */
+    public JSONObject getContainerSummary(String id) {
+        return catalog.getFields(id);
     }
 
     public void activateContainer(Container container) {
@@ -184,7 +237,10 @@ public class ContainerManager {
             }
 
             container.saveData();
-            containers.add(container);
+            containers.put(container.id, container);
+            updateCatalog(container);
+            catalog.setListingCurrent(homeDir);
+            catalog.save();
             return container;
         }
         catch (JSONException e) {
@@ -231,7 +287,10 @@ public class ContainerManager {
         dstContainer.setWineVersion(srcContainer.getWineVersion());
         dstContainer.saveData();
 
-        containers.add(dstContainer);
+        containers.put(dstContainer.id, dstContainer);
+        updateCatalog(dstContainer);
+        catalog.setListingCurrent(homeDir);
+        catalog.save();
     }
 
     private String generateUniqueContainerId(String baseId) {
@@ -252,12 +311,17 @@ public class ContainerManager {
     }
 
     private void removeContainer(Container container) {
-        if (FileUtils.delete(container.getRootDir())) containers.remove(container);
+        if (FileUtils.delete(container.getRootDir())) {
+            containers.remove(container.id);
+            catalog.remove(container.id);
+            catalog.setListingCurrent(homeDir);
+            catalog.save();
+        }
     }
 
     public ArrayList<Shortcut> loadShortcuts() {
         ArrayList<Shortcut> shortcuts = new ArrayList<>();
-        for (Container container : containers) {
+        for (Container container : getContainers()) {
             File desktopDir = container.getDesktopDir();
             File[] files = desktopDir.listFiles();
             if (files != null) {
@@ -271,14 +335,26 @@ public class ContainerManager {
         return shortcuts;
     }
 
+    /**
+     * Answers from the catalog only while the container's config file is unchanged since it was indexed,
+     * otherwise the config is parsed, so a corrupt or emptied config is not reported as a container.
+     */
     public boolean hasContainer(String id) {
-        for (Container container : containers) if (container.id.equals(id)) return true;
-        return false;
+        if (containers.containsKey(id)) return true;
+        if (!catalog.contains(id)) return false;
+        File configFile = new File(homeDir, ImageFs.USER+"-"+id+"/.container");
+        if (catalog.getFieldsIfCurrent(id, configFile) != null) return true;
+        return getContainerById(id) != null;
     }
 
     public Container getContainerById(String id) {
-        for (Container container : containers) if (container.id.equals(id)) return container;
-        return null;
+        Container container = containers.get(id);
+        if (container != null || !catalog.contains(id)) return container;
+
+        container = parseContainer(id);
+        if (container != null) containers.put(id, container);
+        catalog.save();
+        return container;
     }
 
     /**
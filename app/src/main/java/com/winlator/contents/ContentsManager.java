@@ -6,6 +6,7 @@ import android.util.Log;
 
 import androidx.annotation.NonNull;
 
+import com.winlator.core.FileStamp;
 import com.winlator.core.FileUtils;
 import com.winlator.core.TarCompressorUtils;
 
@@ -17,6 +18,7 @@ import java.io.File;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -329,6 +331,11 @@ public class ContentsManager {
         return new File(getContentDir(context), type.toString());
     }
 
+    /** Where FileStamp keeps the stamps of the directories content files were applied to. */
+    public static File getStampDir(Context context) {
+        return new File(getContentDir(context), ".stamps");
+    }
+
     public static File getTmpDir(Context context) {
         return new File(context.getFilesDir(), "tmp/" + ContentDirName.CONTENT_MAIN_DIR_NAME);
     }
@@ -664,18 +671,37 @@ public class ContentsManager {
     public boolean applyContent(ContentProfile profile) {
         if (profile.type != ContentProfile.ContentType.CONTENT_TYPE_WINE && profile.type != ContentProfile.ContentType.CONTENT_TYPE_PROTON) {
             Log.d("ContentsManager", "if condition");
+            // Group the files by target directory, each directory gets a stamp of what it was given
+            LinkedHashMap<File, LinkedHashMap<String, File>> filesByDir = new LinkedHashMap<>();
+            int mode = profile.type == ContentProfile.ContentType.CONTENT_TYPE_BOX64 ? 0755 : 0;
+            boolean success = true;
             for (ContentProfile.ContentFile contentFile : profile.fileList) {
                 File targetFile = new File(getPathFromTemplate(contentFile.target));
                 File sourceFile = new File(getInstallDir(context, profile), contentFile.source);
 
-                targetFile.delete();
-                FileUtils.copy(sourceFile, targetFile);
+                if (!sourceFile.isFile()) {
+                    targetFile.delete();
+                    FileUtils.copy(sourceFile, targetFile);
+                    if (mode != 0) FileUtils.chmod(targetFile, mode);
+                    continue;
+                }
+                LinkedHashMap<String, File> files = filesByDir.get(targetFile.getParentFile());
+                if (files == null) filesByDir.put(targetFile.getParentFile(), files = new LinkedHashMap<>());
+                files.put(targetFile.getName(), sourceFile);
+            }
 
-                if (profile.type == ContentProfile.ContentType.CONTENT_TYPE_BOX64) {
-                    Log.d("ContentsManager", "found box64 profile type - running chmod on " + targetFile);
-                    FileUtils.chmod(targetFile, 0755);
+            File stampDir = getStampDir(context);
+            for (Map.Entry<File, LinkedHashMap<String, File>> entry : filesByDir.entrySet()) {
+                int written = FileStamp.materialize(stampDir, entry.getKey(), profile.type.toString(), getEntryName(profile), entry.getValue(), mode);
+                if (written < 0) {
+                    Log.e("ContentsManager", "Failed to apply " + getEntryName(profile) + " to " + entry.getKey());
+                    success = false;
+                }
+                else if (written > 0) {
+                    Log.d("ContentsManager", "Applied " + written + " files of " + getEntryName(profile) + " to " + entry.getKey());
                 }
             }
+            return success;
         } else {
             Log.d("ContentsManager", "else condition - doing nothing");
             // TODO: do nothing?
@@ -0,0 +1,329 @@
+package com.winlator.core;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.util.Log;
+
+import com.winlator.xenvironment.ImageFs;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Versioned cache of unpacked component file sets (DX wrappers, graphics drivers, box64) shared by all
+ * containers. Every component/version pair is extracted at most once into its own directory together with
+ * a manifest that records each file's size, mtime and CRC32. Activating a version copies the recorded files
+ * with their attributes next to the destination and renames them into place, so switching versions costs a
+ * file copy instead of a decompression.
+ *
+ * Targets are copies rather than hardlinks because the guest may write to them, and a write through a link
+ * would change every other container and the cache itself. Since a copy keeps the cached mtime, activating
+ * a version again only stats the targets and rewrites the ones whose size or mtime no longer match the
+ * manifest. The cached files are checked the same way and re-extracted if they were tampered with or went
+ * missing. Entries are evicted least-recently-activated first once the cache exceeds its disk budget.
+ */
+public class ComponentFileCache {
+    public static final long DEFAULT_BUDGET = 512L * 1024 * 1024;
+    private static final String MANIFEST_NAME = ".manifest";
+    private static final String TMP_SUFFIX = ".cfc-tmp";
+    private static final Object lock = new Object();
+
+    public interface Extractor {
+        boolean extractTo(File destination);
+    }
+
+    private static class Entry {
+        final boolean symlink;
+        final String path;
+        final long size;
+        final long mtime;
+        final long crc;
+        final String linkTarget;
+
+        Entry(boolean symlink, String path, long size, long mtime, long crc, String linkTarget) {
+            this.symlink = symlink;
+            this.path = path;
+            this.size = size;
+            this.mtime = mtime;
+            this.crc = crc;
+            this.linkTarget = linkTarget;
+        }
+    }
+
+    private final File cacheDir;
+    private final long budget;
+
+    public ComponentFileCache(File cacheDir, long budget) {
+        this.cacheDir = cacheDir;
+        this.budget = budget;
+    }
+
+    public static ComponentFileCache find(Context context) {
+        // The imagefs home points at the active container, so keep the cache in the shared config tree
+        return new ComponentFileCache(new File(ImageFs.find(context).getConfigDir(), "component_cache"), DEFAULT_BUDGET);
+    }
+
+    /**
+     * Drop-in replacement for TarCompressorUtils.extract of a zstd asset: the asset is unpacked once into
+     * the cache and then copied into the destination. Falls back to a direct extraction if the cache
+     * cannot be used.
+     */
+    public static boolean extractAsset(Context context, String assetFile, File destination, OnExtractFileListener onExtractFileListener) {
+        String component = FileUtils.getDirname(assetFile);
+        String version = FileUtils.getName(assetFile);
+        String stamp = getAppStamp(context)+":"+FileUtils.getSize(context.getAssets(), assetFile);
+
+        ComponentFileCache cache = find(context);
+        boolean success = cache.activate(component, version, stamp, (dir) ->
+            TarCompressorUtils.extract(TarCompressorUtils.Type.ZSTD, context.getAssets(), assetFile, dir), destination, onExtractFileListener);
+        if (success) return true;
+
+        Log.w("ComponentFileCache", "Falling back to direct extraction of "+assetFile);
+        return TarCompressorUtils.extract(TarCompressorUtils.Type.ZSTD, context.getAssets(), assetFile, destination, onExtractFileListener);
+    }
+
+    private static String getAppStamp(Context context) {
+        try {
+            PackageInfo packageInfo = context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
+            return packageInfo.versionCode+"-"+packageInfo.lastUpdateTime;
+        }
+        catch (Exception e) {
+            return String.valueOf(AppUtils.getVersionCode(context));
+        }
+    }
+
+    public boolean activate(String component, String version, String stamp, Extractor extractor, File destination, OnExtractFileListener onExtractFileListener) {
+        synchronized (lock) {
+            File entryDir = getEntryDir(component, version);
+            List<Entry> entries = readManifest(entryDir, stamp);
+            if (entries == null || !isIntact(entryDir, entries, false)) {
+                entries = populate(entryDir, stamp, extractor);
+                if (entries == null) return false;
+                trim(entryDir);
+            }
+
+            for (Entry entry : entries) {
+                File target = new File(destination, entry.path);
+                if (onExtractFileListener != null) {
+                    target = onExtractFileListener.onExtractFile(target, entry.size);
+                    if (target == null) continue;
+                }
+                if (!copyIntoPlace(new File(entryDir, entry.path), target, entry)) return false;
+            }
+
+            new File(entryDir, MANIFEST_NAME).setLastModified(System.currentTimeMillis());
+            return true;
+        }
+    }
+
+    /** Re-hashes every file of a cached version; used when the cheap size/mtime check is not enough. */
+    public boolean verify(String component, String version, String stamp) {
+        synchronized (lock) {
+            File entryDir = getEntryDir(component, version);
+            List<Entry> entries = readManifest(entryDir, stamp);
+            return entries != null && isIntact(entryDir, entries, true);
+        }
+    }
+
+    public File getEntryDir(String component, String version) {
+        return new File(cacheDir, sanitize(component)+"/"+sanitize(version));
+    }
+
+    private static String sanitize(String name) {
+        return name.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    private List<Entry> populate(File entryDir, String stamp, Extractor extractor) {
+        File stagingDir = new File(entryDir.getParentFile(), entryDir.getName()+TMP_SUFFIX);
+        FileUtils.delete(stagingDir);
+        stagingDir.mkdirs();
+
+        if (!extractor.extractTo(stagingDir)) {
+            FileUtils.delete(stagingDir);
+            return null;
+        }
+
+        try {
+            ArrayList<Entry> entries = new ArrayList<>();
+            collectEntries(stagingDir, "", entries);
+            writeManifest(stagingDir, stamp, entries);
+
+            FileUtils.delete(entryDir);
+            Files.move(stagingDir.toPath(), entryDir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            return entries;
+        }
+        catch (IOException e) {
+            Log.e("ComponentFileCache", "Failed to populate "+entryDir+": "+e);
+            FileUtils.delete(stagingDir);
+            return null;
+        }
+    }
+
+    private static void collectEntries(File dir, String prefix, List<Entry> entries) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        Arrays.sort(files);
+        for (File file : files) {
+            String path = prefix+file.getName();
+            if (path.equals(MANIFEST_NAME)) continue;
+            if (FileUtils.isSymlink(file)) {
+                entries.add(new Entry(true, path, 0, 0, 0, Files.readSymbolicLink(file.toPath()).toString()));
+            }
+            else if (file.isDirectory()) {
+                collectEntries(file, path+"/", entries);
+            }
+            else entries.add(new Entry(false, path, file.length(), file.lastModified(), crc32(file), null));
+        }
+    }
+
+    static long crc32(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[StreamUtils.BUFFER_SIZE];
+        try (InputStream inStream = new FileInputStream(file)) {
+            int amountRead;
+            while ((amountRead = inStream.read(buffer)) != -1) crc.update(buffer, 0, amountRead);
+        }
+        return crc.getValue();
+    }
+
+    private static void writeManifest(File entryDir, String stamp, List<Entry> entries) throws IOException {
+        long totalSize = 0;
+        for (Entry entry : entries) totalSize += entry.size;
+
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(new File(entryDir, MANIFEST_NAME)))) {
+            writer.write(stamp+"\t"+totalSize+"\n");
+            for (Entry entry : entries) {
+                if (entry.symlink) {
+                    writer.write("L\t"+entry.linkTarget+"\t"+entry.path+"\n");
+                }
+                else writer.write("F\t"+entry.size+"\t"+entry.mtime+"\t"+entry.crc+"\t"+entry.path+"\n");
+            }
+        }
+    }
+
+    private static List<Entry> readManifest(File entryDir, String stamp) {
+        File manifestFile = new File(entryDir, MANIFEST_NAME);
+        if (!manifestFile.isFile()) return null;
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(manifestFile))) {
+            String header = reader.readLine();
+            if (header == null || !header.split("\t")[0].equals(stamp)) return null;
+
+            ArrayList<Entry> entries = new ArrayList<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t");
+                if (parts[0].equals("L") && parts.length == 3) {
+                    entries.add(new Entry(true, parts[2], 0, 0, 0, parts[1]));
+                }
+                else if (parts[0].equals("F") && parts.length == 5) {
+                    entries.add(new Entry(false, parts[4], Long.parseLong(parts[1]), Long.parseLong(parts[2]), Long.parseLong(parts[3]), null));
+                }
+                else return null;
+            }
+            return entries;
+        }
+        catch (IOException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static long readTotalSize(File entryDir) {
+        try (BufferedReader reader = new BufferedReader(new FileReader(new File(entryDir, MANIFEST_NAME)))) {
+            String header = reader.readLine();
+            return header != null ? Long.parseLong(header.split("\t")[1]) : 0;
+        }
+        catch (IOException | NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            return 0;
+        }
+    }
+
+    private static boolean isIntact(File entryDir, List<Entry> entries, boolean deep) {
+        for (Entry entry : entries) {
+            File file = new File(entryDir, entry.path);
+            if (entry.symlink) {
+                if (!FileUtils.isSymlink(file)) return false;
+                continue;
+            }
+            if (file.length() != entry.size || file.lastModified() != entry.mtime) return false;
+            try {
+                if (deep && crc32(file) != entry.crc) return false;
+            }
+            catch (IOException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean copyIntoPlace(File source, File target, Entry entry) {
+        Path targetPath = target.toPath();
+        try {
+            if (!entry.symlink && Files.isRegularFile(targetPath, LinkOption.NOFOLLOW_LINKS) &&
+                target.length() == entry.size && target.lastModified() == entry.mtime) {
+                return true;
+            }
+
+            File parent = target.getParentFile();
+            if (parent != null && !parent.isDirectory()) parent.mkdirs();
+
+            Path tmpPath = Paths.get(target.getPath()+TMP_SUFFIX);
+            Files.deleteIfExists(tmpPath);
+            if (entry.symlink) {
+                Files.createSymbolicLink(tmpPath, Paths.get(entry.linkTarget));
+            }
+            else Files.copy(source.toPath(), tmpPath, StandardCopyOption.COPY_ATTRIBUTES);
+            Files.move(tmpPath, targetPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        }
+        catch (IOException e) {
+            Log.e("ComponentFileCache", "Failed to copy "+source+" to "+target+": "+e);
+            return false;
+        }
+    }
+
+    private void trim(File keepDir) {
+        File[] componentDirs = cacheDir.listFiles();
+        if (componentDirs == null) return;
+
+        ArrayList<File> entryDirs = new ArrayList<>();
+        long totalSize = 0;
+        for (File componentDir : componentDirs) {
+            File[] versionDirs = componentDir.listFiles();
+            if (versionDirs == null) continue;
+            for (File versionDir : versionDirs) {
+                if (versionDir.getName().endsWith(TMP_SUFFIX)) {
+                    FileUtils.delete(versionDir);
+                    continue;
+                }
+                entryDirs.add(versionDir);
+                totalSize += readTotalSize(versionDir);
+            }
+        }
+
+        entryDirs.sort(Comparator.comparingLong((file) -> new File(file, MANIFEST_NAME).lastModified()));
+        for (File entryDir : entryDirs) {
+            if (totalSize <= budget) break;
+            if (entryDir.equals(keepDir)) continue;
+            totalSize -= readTotalSize(entryDir);
+            FileUtils.delete(entryDir);
+            Log.d("ComponentFileCache", "Evicted "+entryDir);
+        }
+    }
+}
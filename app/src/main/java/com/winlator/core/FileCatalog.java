@@ -0,0 +1,124 @@
+package com.winlator.core;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Small persistent index of config files that remembers a few listing fields per file together with the
+ * mtime and size they were read at. Callers only re-read a file when its stat no longer matches, so
+ * listing many containers or controls profiles does not require parsing each of them again.
+ */
+public class FileCatalog {
+    private static final int VERSION = 1;
+    private final File indexFile;
+    private final LinkedHashMap<String, JSONObject> entries = new LinkedHashMap<>();
+    private long dirMtime;
+    private boolean dirty;
+
+    private FileCatalog(File indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    public static FileCatalog load(File indexFile) {
+        FileCatalog catalog = new FileCatalog(indexFile);
+        if (!indexFile.isFile()) return catalog;
+
+        try {
+            JSONObject data = new JSONObject(FileUtils.readString(indexFile));
+            if (data.optInt("version") != VERSION) return catalog;
+            catalog.dirMtime = data.optLong("dirMtime");
+            JSONObject entries = data.getJSONObject("entries");
+            Iterator<String> keys = entries.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                catalog.entries.put(key, entries.getJSONObject(key));
+            }
+        }
+        catch (JSONException | NullPointerException e) {
+            Log.w("FileCatalog", "Discarding unreadable catalog "+indexFile+": "+e);
+            catalog.entries.clear();
+            catalog.dirMtime = 0;
+        }
+        return catalog;
+    }
+
+    /** Whether the catalogued directory listing is still current, i.e. nothing was added or removed. */
+    public boolean isListingCurrent(File dir) {
+        return dirMtime != 0 && dirMtime == dir.lastModified();
+    }
+
+    public void setListingCurrent(File dir) {
+        long mtime = dir.lastModified();
+        if (mtime != dirMtime) {
+            dirMtime = mtime;
+            dirty = true;
+        }
+    }
+
+    public Set<String> keys() {
+        return entries.keySet();
+    }
+
+    public boolean contains(String key) {
+        return entries.containsKey(key);
+    }
+
+    /** Listing fields of {@code key}, regardless of whether its file changed since it was indexed. */
+    public JSONObject getFields(String key) {
+        JSONObject entry = entries.get(key);
+        return entry != null ? entry.optJSONObject("fields") : null;
+    }
+
+    /** Listing fields of {@code key} if {@code file} still has the indexed mtime and size, otherwise null. */
+    public JSONObject getFieldsIfCurrent(String key, File file) {
+        JSONObject entry = entries.get(key);
+        if (entry == null) return null;
+        if (entry.optLong("mtime") != file.lastModified() || entry.optLong("size", -1) != file.length()) return null;
+        return entry.optJSONObject("fields");
+    }
+
+    public void put(String key, File file, JSONObject fields) {
+        try {
+            JSONObject entry = new JSONObject();
+            entry.put("mtime", file.lastModified());
+            entry.put("size", file.length());
+            entry.put("fields", fields);
+            entries.put(key, entry);
+            dirty = true;
+        }
+        catch (JSONException e) {}
+    }
+
+    public void remove(String key) {
+        if (entries.remove(key) != null) dirty = true;
+    }
+
+    public void retainAll(Set<String> keys) {
+        if (entries.keySet().retainAll(keys)) dirty = true;
+    }
+
+    public void save() {
+        if (!dirty) return;
+        try {
+            JSONObject entries = new JSONObject();
+            for (Map.Entry<String, JSONObject> entry : this.entries.entrySet()) entries.put(entry.getKey(), entry.getValue());
+
+            JSONObject data = new JSONObject();
+            data.put("version", VERSION);
+            data.put("dirMtime", dirMtime);
+            data.put("entries", entries);
+            if (FileUtils.writeString(indexFile, data.toString())) dirty = false;
+        }
+        catch (JSONException e) {
+            Log.w("FileCatalog", "Failed to save catalog "+indexFile+": "+e);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.winlator.core;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Copies a set of source files into one target directory and keeps a stamp recording the source
+ * identity (e.g. a content profile entry name) together with each file's size, CRC32 and the
+ * source/target mtimes. Stamps live in a private stamp directory under the canonical path of the target
+ * directory rather than next to the files, so the guest never sees them and a container reached through
+ * the imagefs home symlink gets its own. Materializing the same identity again only stats the files: targets whose size
+ * and mtime still match the stamp are skipped, and a target with a new mtime but the recorded CRC (a
+ * touched or copied container) is kept as well. Missing, tampered or outdated targets are copied next
+ * to their destination and renamed into place, and files that a previous identity wrote but the new one
+ * no longer has are removed.
+ *
+ * As in {@link ComponentFileCache}, targets are copies rather than hardlinks: the source here is an
+ * installed content directory that cannot be re-extracted if a write through a link corrupts it.
+ */
+public class FileStamp {
+    private static final String TMP_SUFFIX = ".stamp-tmp";
+    private static final Object lock = new Object();
+
+    private static class Entry {
+        final String path;
+        final long size;
+        final long crc;
+        final long sourceMtime;
+        final long mtime;
+
+        Entry(String path, long size, long crc, long sourceMtime, long mtime) {
+            this.path = path;
+            this.size = size;
+            this.crc = crc;
+            this.sourceMtime = sourceMtime;
+            this.mtime = mtime;
+        }
+    }
+
+    /**
+     * Brings targetDir up to date with sources, which maps paths relative to targetDir to source files,
+     * keeping the stamp under stampDir. A non-zero mode is applied to every file written. Returns the
+     * number of files written, so 0 means the stamp matched and nothing was touched, or -1 if a file
+     * could not be written.
+     */
+    public static int materialize(File stampDir, File targetDir, String name, String identity, Map<String, File> sources, int mode) {
+        synchronized (lock) {
+            File stampFile = getStampFile(stampDir, targetDir, name);
+            String[] stampIdentity = new String[1];
+            List<Entry> previousEntries = readStamp(stampFile, stampIdentity);
+            HashMap<String, Entry> previousMap = new HashMap<>();
+            if (previousEntries != null && identity.equals(stampIdentity[0])) {
+                for (Entry entry : previousEntries) previousMap.put(entry.path, entry);
+            }
+
+            ArrayList<Entry> entries = new ArrayList<>();
+            boolean stampChanged = previousEntries == null || !identity.equals(stampIdentity[0]);
+            int written = 0;
+            for (Map.Entry<String, File> source : sources.entrySet()) {
+                String path = source.getKey();
+                File sourceFile = source.getValue();
+                File target = new File(targetDir, path);
+                Entry previous = previousMap.get(path);
+
+                if (previous != null && sourceFile.lastModified() == previous.sourceMtime && sourceFile.length() == previous.size &&
+                    target.isFile() && target.length() == previous.size) {
+                    if (target.lastModified() == previous.mtime) {
+                        entries.add(previous);
+                        continue;
+                    }
+                    if (crc32(target) == previous.crc) {
+                        entries.add(new Entry(path, previous.size, previous.crc, previous.sourceMtime, target.lastModified()));
+                        stampChanged = true;
+                        continue;
+                    }
+                }
+
+                long crc = crc32(sourceFile);
+                if (crc == -1 || !copyIntoPlace(sourceFile, target, mode)) return -1;
+                entries.add(new Entry(path, sourceFile.length(), crc, sourceFile.lastModified(), target.lastModified()));
+                stampChanged = true;
+                written++;
+            }
+
+            if (previousEntries != null) {
+                for (Entry entry : previousEntries) {
+                    if (sources.containsKey(entry.path)) continue;
+                    // Only remove what is still the file this stamp wrote
+                    File target = new File(targetDir, entry.path);
+                    if (target.isFile() && target.length() == entry.size && target.lastModified() == entry.mtime) target.delete();
+                    stampChanged = true;
+                }
+            }
+
+            if (stampChanged && !writeStamp(stampFile, identity, entries)) return -1;
+            return written;
+        }
+    }
+
+    private static File getStampFile(File stampDir, File targetDir, String name) {
+        String path;
+        try {
+            path = targetDir.getCanonicalPath();
+        }
+        catch (IOException e) {
+            path = targetDir.getAbsolutePath();
+        }
+        return new File(new File(stampDir, path), name);
+    }
+
+    private static long crc32(File file) {
+        try {
+            return ComponentFileCache.crc32(file);
+        }
+        catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private static boolean copyIntoPlace(File source, File target, int mode) {
+        Path tmpPath = Paths.get(target.getPath()+TMP_SUFFIX);
+        try {
+            File parent = target.getParentFile();
+            if (parent != null && !parent.isDirectory()) parent.mkdirs();
+
+            Files.copy(source.toPath(), tmpPath, StandardCopyOption.REPLACE_EXISTING);
+            if (mode != 0) FileUtils.chmod(tmpPath.toFile(), mode);
+            // Renaming replaces the directory entry, so a target hardlinked elsewhere is left intact
+            Files.move(tmpPath, target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        }
+        catch (IOException e) {
+            Log.e("FileStamp", "Failed to copy "+source+" to "+target+": "+e);
+            tmpPath.toFile().delete();
+            return false;
+        }
+    }
+
+    private static boolean writeStamp(File stampFile, String identity, List<Entry> entries) {
+        File tmpFile = new File(stampFile.getPath()+TMP_SUFFIX);
+        try {
+            File parent = stampFile.getParentFile();
+            if (parent != null && !parent.isDirectory()) parent.mkdirs();
+            try (BufferedWriter writer = new BufferedWriter(new FileWriter(tmpFile))) {
+                writer.write(identity+"\n");
+                for (Entry entry : entries) {
+                    writer.write("F\t"+entry.size+"\t"+entry.crc+"\t"+entry.sourceMtime+"\t"+entry.mtime+"\t"+entry.path+"\n");
+                }
+            }
+            Files.move(tmpFile.toPath(), stampFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        }
+        catch (IOException e) {
+            Log.e("FileStamp", "Failed to write "+stampFile+": "+e);
+            tmpFile.delete();
+            return false;
+        }
+    }
+
+    private static List<Entry> readStamp(File stampFile, String[] identity) {
+        if (!stampFile.isFile()) return null;
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(stampFile))) {
+            identity[0] = reader.readLine();
+            if (identity[0] == null) return null;
+
+            ArrayList<Entry> entries = new ArrayList<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t", 6);
+                if (!parts[0].equals("F") || parts.length != 6) return null;
+                entries.add(new Entry(parts[5], Long.parseLong(parts[1]), Long.parseLong(parts[2]), Long.parseLong(parts[3]), Long.parseLong(parts[4])));
+            }
+            return entries;
+        }
+        catch (IOException | NumberFormatException e) {
+            return null;
+        }
+    }
+}
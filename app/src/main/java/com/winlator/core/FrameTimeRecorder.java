@@ -0,0 +1,199 @@
+package com.winlator.core;
+
+/**
+ * Allocation-free recorder of presented frames. Timestamps go into a ring buffer, frame times into a
+ * log-linear histogram (32 sub-buckets per power of two of microseconds, so any reported value is within
+ * about 3% of the real one), and a frame that takes more than twice the rolling median of the recent
+ * frames is counted as a stutter. Gaps longer than MAX_FRAME_NANOS (the game was paused or in the
+ * background) restart the timing instead of being recorded.
+ *
+ * recordFrame is called from the thread that sees the frames; readers copy everything they need into a
+ * Stats object through snapshot.
+ */
+public class FrameTimeRecorder {
+    public static final long MAX_FRAME_NANOS = 5_000_000_000L;
+    public static final long RECENT_WINDOW_NANOS = 500_000_000L;
+    private static final int RING_SIZE = 256;
+    private static final int MEDIAN_WINDOW = 63;
+    private static final int MIN_MEDIAN_FRAMES = 8;
+    private static final int STUTTER_FACTOR = 2;
+    private static final int STUTTER_MIN_EXCESS_MICROS = 4000;
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int MAX_MICROS_BITS = 23;
+    private static final int BUCKET_COUNT = (MAX_MICROS_BITS - SUB_BITS + 1) * SUB_BUCKETS;
+
+    public static class Stats {
+        public int frames;
+        public float seconds;
+        public float avgFPS;
+        public float recentFPS;
+        public float p50Ms;
+        public float p90Ms;
+        public float p99Ms;
+        public float p999Ms;
+        public float maxMs;
+        public float low1FPS;
+        public float low01FPS;
+        public int stutters;
+        public float stutterMs;
+    }
+
+    private final long[] timestamps = new long[RING_SIZE];
+    private final int[] intervals = new int[MEDIAN_WINDOW];
+    private final int[] medianScratch = new int[MEDIAN_WINDOW];
+    private final long[] histogram = new long[BUCKET_COUNT];
+    private int timestampCount;
+    private int timestampHead;
+    private int intervalCount;
+    private int intervalHead;
+    private long lastTimestamp = -1;
+    private int frames;
+    private long totalMicros;
+    private int maxMicros;
+    private int stutters;
+    private long stutterMicros;
+
+    public synchronized void recordFrame(long timestampNanos) {
+        long interval = lastTimestamp != -1 ? timestampNanos - lastTimestamp : -1;
+        lastTimestamp = timestampNanos;
+        if (interval < 0 || interval > MAX_FRAME_NANOS) {
+            // First frame or a pause: nothing to measure against
+            timestampCount = 0;
+            intervalCount = 0;
+            addTimestamp(timestampNanos);
+            return;
+        }
+        addTimestamp(timestampNanos);
+
+        int micros = (int)Math.max(1, interval / 1000);
+        if (intervalCount >= MIN_MEDIAN_FRAMES) {
+            int median = median();
+            if (micros > median * STUTTER_FACTOR && micros > median + STUTTER_MIN_EXCESS_MICROS) {
+                stutters++;
+                stutterMicros += micros;
+            }
+        }
+
+        intervals[intervalHead] = micros;
+        intervalHead = (intervalHead + 1) % MEDIAN_WINDOW;
+        if (intervalCount < MEDIAN_WINDOW) intervalCount++;
+
+        histogram[bucketIndex(micros)]++;
+        frames++;
+        totalMicros += micros;
+        if (micros > maxMicros) maxMicros = micros;
+    }
+
+    public synchronized void snapshot(Stats stats) {
+        stats.frames = frames;
+        stats.seconds = totalMicros / 1e6f;
+        stats.avgFPS = totalMicros > 0 ? frames * 1e6f / totalMicros : 0;
+        stats.recentFPS = recentFPS();
+        stats.p50Ms = percentile(0.5) / 1000f;
+        stats.p90Ms = percentile(0.9) / 1000f;
+        stats.p99Ms = percentile(0.99) / 1000f;
+        stats.p999Ms = percentile(0.999) / 1000f;
+        stats.maxMs = maxMicros / 1000f;
+        stats.low1FPS = lowFPS(0.01);
+        stats.low01FPS = lowFPS(0.001);
+        stats.stutters = stutters;
+        stats.stutterMs = stutterMicros / 1000f;
+    }
+
+    public synchronized void reset() {
+        timestampCount = 0;
+        intervalCount = 0;
+        lastTimestamp = -1;
+        frames = 0;
+        totalMicros = 0;
+        maxMicros = 0;
+        stutters = 0;
+        stutterMicros = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) histogram[i] = 0;
+    }
+
+    private void addTimestamp(long timestampNanos) {
+        timestamps[timestampHead] = timestampNanos;
+        timestampHead = (timestampHead + 1) % RING_SIZE;
+        if (timestampCount < RING_SIZE) timestampCount++;
+    }
+
+    private float recentFPS() {
+        if (timestampCount < 2) return 0;
+        long last = timestamps[(timestampHead - 1 + RING_SIZE) % RING_SIZE];
+        long first = last;
+        int count = 0;
+        for (int i = 2; i <= timestampCount; i++) {
+            long timestamp = timestamps[(timestampHead - i + RING_SIZE) % RING_SIZE];
+            if (count > 0 && last - timestamp > RECENT_WINDOW_NANOS) break;
+            first = timestamp;
+            count++;
+        }
+        return last > first ? count * 1e9f / (last - first) : 0;
+    }
+
+    private int median() {
+        System.arraycopy(intervals, 0, medianScratch, 0, intervalCount);
+        int k = intervalCount / 2;
+        int left = 0, right = intervalCount - 1;
+        while (left < right) {
+            int pivot = medianScratch[(left + right) >>> 1];
+            int i = left, j = right;
+            while (i <= j) {
+                while (medianScratch[i] < pivot) i++;
+                while (medianScratch[j] > pivot) j--;
+                if (i <= j) {
+                    int tmp = medianScratch[i];
+                    medianScratch[i++] = medianScratch[j];
+                    medianScratch[j--] = tmp;
+                }
+            }
+            if (k <= j) right = j;
+            else if (k >= i) left = i;
+            else break;
+        }
+        return medianScratch[k];
+    }
+
+    /** The frame time in microseconds that the given fraction of frames did not exceed. */
+    private long percentile(double fraction) {
+        if (frames == 0) return 0;
+        long rank = Math.max(1, (long)Math.ceil(fraction * frames));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += histogram[i];
+            if (seen >= rank) return Math.min(bucketValue(i), maxMicros);
+        }
+        return maxMicros;
+    }
+
+    /** FPS over the slowest fraction of frames, i.e. the "1% low" for fraction = 0.01. */
+    private float lowFPS(double fraction) {
+        if (frames == 0) return 0;
+        long remaining = Math.max(1, (long)Math.ceil(fraction * frames));
+        long count = remaining;
+        double sum = 0;
+        for (int i = BUCKET_COUNT - 1; i >= 0 && remaining > 0; i--) {
+            long taken = Math.min(histogram[i], remaining);
+            sum += (double)taken * Math.min(bucketValue(i), maxMicros);
+            remaining -= taken;
+        }
+        return sum > 0 ? (float)(count * 1e6 / sum) : 0;
+    }
+
+    static int bucketIndex(long micros) {
+        if (micros < SUB_BUCKETS) return (int)micros;
+        int shift = Math.min(63 - Long.numberOfLeadingZeros(micros), MAX_MICROS_BITS) - SUB_BITS;
+        int index = (shift + 1) * SUB_BUCKETS + (int)((micros >>> shift) - SUB_BUCKETS);
+        return Math.min(index, BUCKET_COUNT - 1);
+    }
+
+    /** Middle of the range of values that fall into the bucket. */
+    static long bucketValue(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int shift = index / SUB_BUCKETS - 1;
+        long low = (long)(index % SUB_BUCKETS + SUB_BUCKETS) << shift;
+        return low + ((1L << shift) >> 1);
+    }
+}
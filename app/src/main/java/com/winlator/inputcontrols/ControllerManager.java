@@ -228,6 +228,18 @@ public class ControllerManager {
     }
 
 
+    /**
+     * Returns how many player slots are needed to reach the highest slot a device is assigned to,
+     * whether or not that device is connected right now. Never less than 1.
+     */
+    public int getAssignedPlayerCount() {
+        int count = 1;
+        for (int i = 0; i < slotAssignments.size(); i++) {
+            count = Math.max(count, slotAssignments.keyAt(i) + 1);
+        }
+        return count;
+    }
+
     /**
      * Gets the InputDevice object that is currently assigned to a specific player slot.
      * @param slotIndex The player slot (0-3).
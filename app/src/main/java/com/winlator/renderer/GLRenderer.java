@@ -86,11 +86,9 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
         try (XLock lock = xServer.lock(XServer.Lockable.DRAWABLE_MANAGER)) {
             // iterate all known drawables; if you don't have a central list,
             // call this during updateScene() for each window's content.
-            android.util.SparseArray<Drawable> sa = xServer.drawableManager.all(); // adjust type if needed
-            for (int i = 0; i < sa.size(); i++) {
-                Drawable d = sa.valueAt(i);
-                if (d != null) d.getTexture().invalidate(); // sets textureId=0 so next draw re-creates
-            }
+            xServer.drawableManager.all().forEach((d) -> {
+                if (d.getTexture() != null) d.getTexture().invalidate(); // sets textureId=0 so next draw re-creates
+            });
             rootCursorDrawable.getTexture().invalidate();
         }
         updateScene();
@@ -17,6 +17,8 @@ public class Texture {
     private int format = GLES11Ext.GL_BGRA;
     protected byte unpackAlignment = 4;
     protected boolean needsUpdate = true;
+    private short copiedWidth = 0;
+    private short copiedHeight = 0;
 
     protected void generateTextureId() {
         int[] textureIds = new int[1];
@@ -33,6 +35,7 @@ public class Texture {
 
     public void allocateTexture(short width, short height, ByteBuffer data) {
         generateTextureId();
+        copiedWidth = copiedHeight = 0;
 
         GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
         GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, unpackAlignment);
@@ -79,7 +82,13 @@ public class Texture {
         GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, framebuffer);
         GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
         GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureId);
-        GLES20.glCopyTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, 0, 0, width, height, 0);
+        // Only (re)define the storage when the size changes, later frames are copied into it in place
+        if (width != copiedWidth || height != copiedHeight) {
+            GLES20.glCopyTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, 0, 0, width, height, 0);
+            copiedWidth = width;
+            copiedHeight = height;
+        }
+        else GLES20.glCopyTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, 0, 0, width, height);
         GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
         GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
     }
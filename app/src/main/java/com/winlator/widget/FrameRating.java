@@ -8,8 +8,14 @@ import android.view.View;
 import android.widget.FrameLayout;
 import android.widget.TextView;
 
+import com.winlator.container.Container;
+import com.winlator.core.FileUtils;
+import com.winlator.core.FrameTimeRecorder;
 import com.winlator.xenvironment.ImageFs;
 
+import org.json.JSONException;
+import org.json.JSONObject;
+
 import app.gamenative.R;
 import timber.log.Timber;
 
@@ -17,12 +23,15 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 public class FrameRating extends FrameLayout implements Runnable {
+    // The counters up to fpsSum are guarded by this, see update()
     private long lastTime = 0;
     private int frameCount = 0;
     private float lastFPS = 0;
@@ -37,6 +46,12 @@ public class FrameRating extends FrameLayout implements Runnable {
     private long lastReadingTime = 0;
     private long fpsSum = 0; // Sum of all FPS readings for average calculation
 
+    // Frame times, guarded by the recorder itself and read through snapshots only
+    private static final String SESSION_HISTORY_NAME = ".frame_sessions";
+    private static final int MAX_SESSION_HISTORY = 50;
+    private final FrameTimeRecorder frameTimeRecorder = new FrameTimeRecorder();
+    private final FrameTimeRecorder.Stats overlayStats = new FrameTimeRecorder.Stats();
+
     public FrameRating(Context context) {
         this(context, null);
     }
@@ -53,7 +68,17 @@ public class FrameRating extends FrameLayout implements Runnable {
         addView(view);
     }
 
+    /**
+     * Called for every presented frame, from whichever thread presented it (X server, renderer or main
+     * thread). The FPS counters are guarded by this object and the frame times by the recorder, so the
+     * getters and writeSessionSummary may run on another thread.
+     */
     public void update() {
+        frameTimeRecorder.recordFrame(System.nanoTime());
+        updateCounters();
+    }
+
+    private synchronized void updateCounters() {
         if (lastTime == 0) {
             lastTime = SystemClock.elapsedRealtime();
             sessionStartTime = SystemClock.elapsedRealtime();
@@ -87,25 +112,49 @@ public class FrameRating extends FrameLayout implements Runnable {
         frameCount++;
     }
 
-    public float getAvgFPS() {
+    public synchronized float getAvgFPS() {
         if (readingCount == 0) return 0;
         return (float) fpsSum / readingCount;
     }
 
-    public float getSessionLengthSec() {
+    public synchronized float getSessionLengthSec() {
         if (sessionStartTime == 0) return 0;
         return (SystemClock.elapsedRealtime() - sessionStartTime) / 1000.0f;
     }
 
+    public FrameTimeRecorder.Stats getFrameStats() {
+        FrameTimeRecorder.Stats stats = new FrameTimeRecorder.Stats();
+        frameTimeRecorder.snapshot(stats);
+        return stats;
+    }
+
     public void writeSessionSummary() {
-        if (readingCount == 0) return;
+        writeSessionSummary(null);
+    }
 
-        final long sessionLengthMs = sessionStartTime > 0 ?
-            SystemClock.elapsedRealtime() - sessionStartTime : 0;
-        final float sessionLengthSec = sessionLengthMs / 1000.0f;
-        final int max = maxFPS;
-        final int min = minFPS == Integer.MAX_VALUE ? 0 : minFPS;
-        final float avgFPS = (float) fpsSum / readingCount;
+    /**
+     * Writes the summary of this session to the imagefs tmp dir and, when a container is given, appends
+     * it to the container's session history tagged with the settings that affect performance, so runs of
+     * the same game with different presets, emulators or DX wrappers can be compared.
+     */
+    public void writeSessionSummary(Container container) {
+        final float sessionLengthSec;
+        final int max;
+        final int min;
+        final float avgFPS;
+        final int readings;
+        synchronized (this) {
+            if (readingCount == 0) return;
+            long sessionLengthMs = sessionStartTime > 0 ? SystemClock.elapsedRealtime() - sessionStartTime : 0;
+            sessionLengthSec = sessionLengthMs / 1000.0f;
+            max = maxFPS;
+            min = minFPS == Integer.MAX_VALUE ? 0 : minFPS;
+            avgFPS = (float) fpsSum / readingCount;
+            readings = readingCount;
+        }
+        final FrameTimeRecorder.Stats frameStats = getFrameStats();
+        final File historyFile = container != null ? new File(container.getRootDir(), SESSION_HISTORY_NAME) : null;
+        final JSONObject config = container != null ? getPerformanceConfig(container) : null;
 
         Context context = getContext();
         ImageFs imageFs = ImageFs.find(context);
@@ -124,21 +173,26 @@ public class FrameRating extends FrameLayout implements Runnable {
                 }
 
                 // Write JSON format for easy parsing
-                String json = String.format(Locale.ENGLISH,
-                    "{\n" +
-                    "  \"length_sec\": %.2f,\n" +
-                    "  \"avg_fps\": %.1f,\n" +
-                    "  \"max_fps\": %d,\n" +
-                    "  \"min_fps\": %d,\n" +
-                    "  \"readings\": %d\n" +
-                    "}\n",
-                    sessionLengthSec, avgFPS, max, min, readingCount);
+                JSONObject summary = new JSONObject();
+                summary.put("length_sec", Math.round(sessionLengthSec * 100) / 100.0);
+                summary.put("avg_fps", Math.round(avgFPS * 10) / 10.0);
+                summary.put("max_fps", max);
+                summary.put("min_fps", min);
+                summary.put("readings", readings);
+                putFrameStats(summary, frameStats);
                 try (FileWriter fw = new FileWriter(fpsLogFile, false)) {
-                    fw.write(json);
+                    fw.write(summary.toString(2));
+                    fw.write("\n");
                     fw.flush();
                 }
+                if (historyFile != null) {
+                    summary.put("time", timestamp);
+                    summary.put("config_key", Integer.toHexString(config.toString().hashCode()));
+                    summary.put("config", config);
+                    appendSessionHistory(historyFile, summary);
+                }
                 Timber.d("Session summary written to: %s", fpsLogFile.getAbsolutePath());
-            } catch (IOException e) {
+            } catch (IOException | JSONException e) {
                 Timber.e(e, "Failed to write session summary");
             } finally {
                 fileWriteExecutor.shutdown();
@@ -146,9 +200,69 @@ public class FrameRating extends FrameLayout implements Runnable {
         });
     }
 
+    private static void putFrameStats(JSONObject json, FrameTimeRecorder.Stats stats) throws JSONException {
+        json.put("frames", stats.frames);
+        json.put("frame_time_p50_ms", round(stats.p50Ms));
+        json.put("frame_time_p90_ms", round(stats.p90Ms));
+        json.put("frame_time_p99_ms", round(stats.p99Ms));
+        json.put("frame_time_p999_ms", round(stats.p999Ms));
+        json.put("frame_time_max_ms", round(stats.maxMs));
+        json.put("low_1_fps", round(stats.low1FPS));
+        json.put("low_01_fps", round(stats.low01FPS));
+        json.put("stutters", stats.stutters);
+        json.put("stutter_ms", round(stats.stutterMs));
+    }
+
+    private static double round(float value) {
+        return Math.round(value * 100) / 100.0;
+    }
+
+    private static JSONObject getPerformanceConfig(Container container) {
+        JSONObject config = new JSONObject();
+        try {
+            config.put("wineVersion", container.getWineVersion());
+            config.put("emulator", container.getEmulator());
+            config.put("box64Version", container.getBox64Version());
+            config.put("box64Preset", container.getBox64Preset());
+            config.put("fexcoreVersion", container.getFEXCoreVersion());
+            config.put("fexcorePreset", container.getFEXCorePreset());
+            config.put("dxwrapper", container.getDXWrapper());
+            config.put("dxwrapperConfig", container.getDXWrapperConfig());
+            config.put("graphicsDriver", container.getGraphicsDriver());
+            config.put("graphicsDriverVersion", container.getGraphicsDriverVersion());
+            config.put("graphicsDriverConfig", container.getGraphicsDriverConfig());
+            config.put("screenSize", container.getScreenSize());
+        }
+        catch (JSONException e) {}
+        return config;
+    }
+
+    /** One JSON object per line, oldest first, keeping the last MAX_SESSION_HISTORY sessions. */
+    private static void appendSessionHistory(File historyFile, JSONObject summary) throws IOException {
+        List<String> lines = new ArrayList<>();
+        if (historyFile.isFile()) {
+            String content = FileUtils.readString(historyFile);
+            for (String line : content.split("\n")) {
+                if (!line.isEmpty()) lines.add(line);
+            }
+        }
+        lines.add(summary.toString());
+        int start = Math.max(0, lines.size() - MAX_SESSION_HISTORY);
+
+        File tmpFile = new File(historyFile.getPath() + ".tmp");
+        try (FileWriter fw = new FileWriter(tmpFile, false)) {
+            for (int i = start; i < lines.size(); i++) {
+                fw.write(lines.get(i));
+                fw.write("\n");
+            }
+        }
+        if (!tmpFile.renameTo(historyFile)) throw new IOException("Failed to replace " + historyFile);
+    }
+
     @Override
     public void run() {
         if (getVisibility() == GONE) setVisibility(View.VISIBLE);
-        textView.setText(String.format(Locale.ENGLISH, "%.1f", lastFPS));
+        frameTimeRecorder.snapshot(overlayStats);
+        textView.setText(String.format(Locale.ENGLISH, "%.1f", overlayStats.recentFPS));
     }
 }
@@ -1,7 +1,9 @@
 package com.winlator.widget;
 
 import android.annotation.SuppressLint;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.graphics.Rect;
 import android.opengl.GLSurfaceView;
 import android.util.Log;
@@ -24,6 +26,20 @@ public class XServerView extends GLSurfaceView {
     private final GLRenderer renderer;
     // private final ArrayList<Callback<MotionEvent>> mouseEventCallbacks = new ArrayList<>();
     private final XServer xServer;
+    private final ComponentCallbacks2 trimMemoryCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            xServer.drawableManager.bufferPool.onTrimMemory(level);
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {}
+
+        @Override
+        public void onLowMemory() {
+            xServer.drawableManager.bufferPool.trim(0);
+        }
+    };
 
     public XServerView(Context context, XServer xServer) {
         super(context);
@@ -45,6 +61,18 @@ public class XServerView extends GLSurfaceView {
     public XServer getxServer() {
         return xServer;
     }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        getContext().getApplicationContext().registerComponentCallbacks(trimMemoryCallbacks);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        getContext().getApplicationContext().unregisterComponentCallbacks(trimMemoryCallbacks);
+        super.onDetachedFromWindow();
+    }
     // public void onRelease() {
     //     releasePointerCapture();
     //     clearPointerEventListeners();
@@ -0,0 +1,70 @@
+package com.winlator.winhandler;
+
+import com.winlator.inputcontrols.GamepadState;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Host side of the gamepad.mem channel read by the prebuilt evshim inside the guest. The layout mirrors
+ * its struct gamepad_io: six int16 axes, 15 SDL button bytes and a hat byte, four bytes of padding and
+ * the two uint16 rumble values written by the guest.
+ *
+ * evshim polls the state bytes every few milliseconds and applies whatever it reads, so each player's
+ * file holds a single state that is encoded in place; nothing is allocated per update.
+ */
+public class GamepadSharedMemory {
+    public static final int SIZE = 64;
+    public static final int STATE_SIZE = 28;
+    public static final int BUTTONS_OFFSET = 12;
+    public static final int NUM_BUTTONS = 15;
+    public static final int HAT_OFFSET = 27;
+    public static final int RUMBLE_OFFSET = 32;
+    private final ByteBuffer buffer;
+
+    public GamepadSharedMemory(ByteBuffer buffer) {
+        this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public static GamepadSharedMemory map(File memFile) throws IOException {
+        File parent = memFile.getParentFile();
+        if (parent != null) parent.mkdirs();
+        try (RandomAccessFile raf = new RandomAccessFile(memFile, "rw")) {
+            raf.setLength(SIZE);
+            return new GamepadSharedMemory(raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SIZE));
+        }
+    }
+
+    public synchronized void writeState(GamepadState state) {
+        buffer.putShort(0, GamepadSlots.encodeStick(state.thumbLX));
+        buffer.putShort(2, GamepadSlots.encodeStick(state.thumbLY));
+        buffer.putShort(4, GamepadSlots.encodeStick(state.thumbRX));
+        buffer.putShort(6, GamepadSlots.encodeStick(state.thumbRY));
+        buffer.putShort(8, GamepadSlots.encodeTrigger(state.triggerL));
+        buffer.putShort(10, GamepadSlots.encodeTrigger(state.triggerR));
+        putButtons(GamepadSlots.encodeButtons(state));
+    }
+
+    /** Writes only the fields of {@code slot} named in {@code changedFields}, a GamepadSlots.FIELD_* mask. */
+    public synchronized void writeSlot(GamepadSlots slots, int slot, int changedFields) {
+        if (changedFields == 0) return;
+        for (int axis = 0; axis < GamepadSlots.NUM_AXES; axis++) {
+            if ((changedFields & (1<<axis)) != 0) buffer.putShort(axis * 2, slots.getAxis(slot, axis));
+        }
+        if ((changedFields & GamepadSlots.FIELD_BUTTONS) != 0) putButtons(slots.getButtons(slot));
+    }
+
+    private void putButtons(int buttons) {
+        for (int i = 0; i < NUM_BUTTONS; i++) buffer.put(BUTTONS_OFFSET + i, (byte)((buttons>>i) & 1));
+        buffer.put(HAT_OFFSET, (byte)0); // D-Pad is reported as buttons
+    }
+
+    /** Low frequency rumble in the lower and high frequency rumble in the upper 16 bits, read as one word. */
+    public int getRumble() {
+        return buffer.getInt(RUMBLE_OFFSET);
+    }
+}
@@ -0,0 +1,126 @@
+package com.winlator.winhandler;
+
+import com.winlator.inputcontrols.GamepadState;
+
+/**
+ * Per-player gamepad state as last published to the guest, in the encoded form evshim consumes
+ * (int16 axes and an SDL button mask). update() re-encodes a player's GamepadState and returns a
+ * mask of the fields that differ from what was last published, so callers only touch the slots
+ * and fields that actually changed. Devices are routed to slots by a linear scan over at most
+ * MAX_PLAYERS ids, which keeps the per-event cost independent of the number of players.
+ */
+public class GamepadSlots {
+    public static final int FIELD_LX = 1;
+    public static final int FIELD_LY = 1<<1;
+    public static final int FIELD_RX = 1<<2;
+    public static final int FIELD_RY = 1<<3;
+    public static final int FIELD_LT = 1<<4;
+    public static final int FIELD_RT = 1<<5;
+    public static final int FIELD_BUTTONS = 1<<6;
+    public static final int ALL_FIELDS = (1<<7) - 1;
+    public static final int NUM_AXES = 6;
+    // SDL button index for GamepadState buttons 0-9 (A, B, X, Y, LB, RB, Back, Start, LS, RS)
+    private static final byte[] SDL_BUTTONS = {0, 1, 2, 3, 9, 10, 4, 6, 7, 8};
+    // SDL button index for GamepadState dpad 0-3 (up, right, down, left)
+    private static final byte[] SDL_DPAD = {11, 14, 12, 13};
+    private final short[] axes;
+    private final int[] sdlButtons;
+    private final short[] rawButtons;
+    private final boolean[] published;
+    private final int[] deviceIds;
+
+    public GamepadSlots(int numSlots) {
+        axes = new short[numSlots * NUM_AXES];
+        sdlButtons = new int[numSlots];
+        rawButtons = new short[numSlots];
+        published = new boolean[numSlots];
+        deviceIds = new int[numSlots];
+        for (int i = 0; i < numSlots; i++) deviceIds[i] = -1;
+    }
+
+    public int size() {
+        return deviceIds.length;
+    }
+
+    public void setDeviceId(int slot, int deviceId) {
+        deviceIds[slot] = deviceId;
+    }
+
+    public int getDeviceId(int slot) {
+        return deviceIds[slot];
+    }
+
+    public int findSlot(int deviceId) {
+        if (deviceId < 0) return -1;
+        for (int i = 0; i < deviceIds.length; i++) {
+            if (deviceIds[i] == deviceId) return i;
+        }
+        return -1;
+    }
+
+    /** Forces the next update of {@code slot} to report every field, e.g. after its device changed. */
+    public void invalidate(int slot) {
+        published[slot] = false;
+    }
+
+    /** Stores the encoded form of {@code state} for {@code slot} and returns the FIELD_* mask of what changed. */
+    public int update(int slot, GamepadState state) {
+        int base = slot * NUM_AXES;
+        int changed = 0;
+        changed |= setAxis(base, encodeStick(state.thumbLX), FIELD_LX);
+        changed |= setAxis(base + 1, encodeStick(state.thumbLY), FIELD_LY);
+        changed |= setAxis(base + 2, encodeStick(state.thumbRX), FIELD_RX);
+        changed |= setAxis(base + 3, encodeStick(state.thumbRY), FIELD_RY);
+        changed |= setAxis(base + 4, encodeTrigger(state.triggerL), FIELD_LT);
+        changed |= setAxis(base + 5, encodeTrigger(state.triggerR), FIELD_RT);
+
+        int buttons = encodeButtons(state);
+        if (buttons != sdlButtons[slot] || state.buttons != rawButtons[slot]) {
+            sdlButtons[slot] = buttons;
+            rawButtons[slot] = state.buttons;
+            changed |= FIELD_BUTTONS;
+        }
+
+        if (!published[slot]) {
+            published[slot] = true;
+            return ALL_FIELDS;
+        }
+        return changed;
+    }
+
+    public short getAxis(int slot, int axis) {
+        return axes[slot * NUM_AXES + axis];
+    }
+
+    public int getButtons(int slot) {
+        return sdlButtons[slot];
+    }
+
+    private int setAxis(int index, short value, int field) {
+        if (axes[index] == value) return 0;
+        axes[index] = value;
+        return field;
+    }
+
+    public static short encodeStick(float value) {
+        return (short)(value * 32767);
+    }
+
+    public static short encodeTrigger(float value) {
+        // Clamp the raw value first – some firmwares report 1.00–1.02 at the top end
+        float curve = (float)Math.sqrt(Math.max(0f, Math.min(1f, value)));
+        return (short)(Math.round(curve * 65_534f) - 32_767); // 0 → -32 767, 1 → 32 767
+    }
+
+    /** Bit i of the result is SDL virtual joystick button i. */
+    public static int encodeButtons(GamepadState state) {
+        int buttons = 0;
+        for (int i = 0; i < SDL_BUTTONS.length; i++) {
+            if (state.isPressed(i)) buttons |= 1<<SDL_BUTTONS[i];
+        }
+        for (int i = 0; i < SDL_DPAD.length; i++) {
+            if (state.dpad[i]) buttons |= 1<<SDL_DPAD[i];
+        }
+        return buttons;
+    }
+}
@@ -0,0 +1,93 @@
+package com.winlator.winhandler;
+
+/**
+ * Pending mouse events for the WinHandler send thread. Relative moves that arrive back to back are
+ * summed into one event, as are consecutive wheel events, while button transitions keep their own
+ * entries in arrival order so a click still lands after the motion that preceded it. add() reports
+ * when the queue goes from idle to pending so the caller schedules one drain instead of one action
+ * per sample, and poll() copies into a caller-owned array so draining does not allocate.
+ */
+public class MouseEventAccumulator {
+    public static final int FLAGS = 0;
+    public static final int DX = 1;
+    public static final int DY = 2;
+    public static final int WHEEL_DELTA = 3;
+    public static final int EVENT_SIZE = 4;
+    private int[] events;
+    private int head = 0;
+    private int count = 0;
+    private boolean scheduled = false;
+
+    public MouseEventAccumulator(int initialCapacity) {
+        events = new int[Math.max(initialCapacity, 4) * EVENT_SIZE];
+    }
+
+    /**
+     * Queues an event, merging it into the newest pending one when both are plain moves or plain
+     * wheel events. Returns true if the queue was idle, i.e. the caller has to schedule a drain.
+     */
+    public synchronized boolean add(int flags, int dx, int dy, int wheelDelta) {
+        if (count > 0) {
+            int last = index(count - 1);
+            int lastFlags = events[last + FLAGS];
+            if (flags == MouseEventFlags.MOVE && lastFlags == MouseEventFlags.MOVE
+                && fitsShort(events[last + DX] + dx) && fitsShort(events[last + DY] + dy)) {
+                events[last + DX] += dx;
+                events[last + DY] += dy;
+                return false;
+            }
+            if (flags == MouseEventFlags.WHEEL && lastFlags == MouseEventFlags.WHEEL && fitsShort(events[last + WHEEL_DELTA] + wheelDelta)) {
+                events[last + WHEEL_DELTA] += wheelDelta;
+                return false;
+            }
+        }
+
+        if (count * EVENT_SIZE == events.length) grow();
+        int slot = index(count++);
+        events[slot + FLAGS] = flags;
+        events[slot + DX] = dx;
+        events[slot + DY] = dy;
+        events[slot + WHEEL_DELTA] = wheelDelta;
+
+        if (scheduled) return false;
+        scheduled = true;
+        return true;
+    }
+
+    /**
+     * Moves the oldest pending event into {@code out} (FLAGS, DX, DY, WHEEL_DELTA). Returns false once
+     * the queue is empty, after which the next add() asks for a new drain.
+     */
+    public synchronized boolean poll(int[] out) {
+        if (count == 0) {
+            scheduled = false;
+            return false;
+        }
+        System.arraycopy(events, head * EVENT_SIZE, out, 0, EVENT_SIZE);
+        head = (head + 1) % (events.length / EVENT_SIZE);
+        count--;
+        return true;
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    private int index(int i) {
+        return ((head + i) % (events.length / EVENT_SIZE)) * EVENT_SIZE;
+    }
+
+    // Only reached when the send thread falls behind a burst of button events, since moves merge
+    private void grow() {
+        int[] grown = new int[events.length * 2];
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(events, index(i), grown, i * EVENT_SIZE, EVENT_SIZE);
+        }
+        events = grown;
+        head = 0;
+    }
+
+    private static boolean fitsShort(int value) {
+        return value >= Short.MIN_VALUE && value <= Short.MAX_VALUE;
+    }
+}
@@ -27,7 +27,6 @@ import com.winlator.xserver.XServer;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
@@ -36,14 +35,12 @@ import java.net.SocketAddress;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.MappedByteBuffer;
-import java.nio.channels.FileChannel;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import timber.log.Timber;
 
@@ -51,10 +48,17 @@ public class WinHandler {
 
     private static final String TAG = "WinHandler";
     private final ControllerManager controllerManager;
-    public static final int MAX_PLAYERS = 1;
-    private final MappedByteBuffer[] extraGamepadBuffers = new MappedByteBuffer[MAX_PLAYERS - 1];
+    public static final int MAX_PLAYERS = 4;
+    private final GamepadSharedMemory[] extraGamepadMemories = new GamepadSharedMemory[MAX_PLAYERS - 1];
     private final ExternalController[] extraControllers = new ExternalController[MAX_PLAYERS - 1];
-    private MappedByteBuffer gamepadBuffer;
+    private GamepadSharedMemory gamepadMemory;
+    private final GamepadSlots gamepadSlots = new GamepadSlots(MAX_PLAYERS);
+    private final AtomicBoolean gamepadStatePending = new AtomicBoolean();
+    private final Runnable sendGamepadStateAction = this::sendPendingGamepadState;
+    private final MouseEventAccumulator mouseEvents = new MouseEventAccumulator(64);
+    private final int[] mouseEvent = new int[MouseEventAccumulator.EVENT_SIZE];
+    private final Runnable sendMouseEventsAction = this::sendPendingMouseEvents;
+    private static final int RUMBLE_POLL_INTERVAL = 20;
     private static final short SERVER_PORT = 7947;
     private static final short CLIENT_PORT = 7946;
     private final ArrayDeque<Runnable> actions;
@@ -76,9 +80,8 @@ public class WinHandler {
     private final XServerView xServerView;
 
     private InputControlsView inputControlsView;
-    private Thread rumblePollerThread;
-    private short lastLowFreq = 0;  // Use 'short' instead of uint16_t
-    private short lastHighFreq = 0; // Use 'short' instead of uint16_t
+    private Thread rumbleListenerThread;
+    private int lastRumble = 0; // low frequency in the lower, high frequency in the upper 16 bits
     private boolean isRumbling = false;
     private boolean isShowingAssignDialog = false;
     private Context activity;
@@ -141,6 +144,8 @@ public class WinHandler {
                 extraControllers[i] = ExternalController.getController(extraDevice.getId());
                 Log.i(TAG, "Initialized Player " + (i + 2) + " with: " + extraDevice.getName());
             }
+            gamepadSlots.setDeviceId(i + 1, extraControllers[i] != null ? extraControllers[i].getDeviceId() : -1);
+            gamepadSlots.invalidate(i + 1);
         }
     }
 
@@ -252,19 +257,23 @@ public class WinHandler {
         });
     }
 
-    public void mouseEvent(final int flags, final int dx, final int dy, final int wheelDelta) {
-        if (this.initReceived) {
-            addAction(() -> {
-                this.sendData.rewind();
-                this.sendData.put(RequestCodes.MOUSE_EVENT);
-                this.sendData.putInt(10);
-                this.sendData.putInt(flags);
-                this.sendData.putShort((short) dx);
-                this.sendData.putShort((short) dy);
-                this.sendData.putShort((short) wheelDelta);
-                this.sendData.put((byte) ((flags & MouseEventFlags.MOVE) != 0 ? 1 : 0)); // cursor pos feedback
-                sendPacket(CLIENT_PORT);
-            });
+    public void mouseEvent(int flags, int dx, int dy, int wheelDelta) {
+        // Samples that arrive while a drain is already pending are merged instead of queued
+        if (this.initReceived && mouseEvents.add(flags, dx, dy, wheelDelta)) addAction(sendMouseEventsAction);
+    }
+
+    private void sendPendingMouseEvents() {
+        while (mouseEvents.poll(mouseEvent)) {
+            int flags = mouseEvent[MouseEventAccumulator.FLAGS];
+            this.sendData.rewind();
+            this.sendData.put(RequestCodes.MOUSE_EVENT);
+            this.sendData.putInt(10);
+            this.sendData.putInt(flags);
+            this.sendData.putShort((short) mouseEvent[MouseEventAccumulator.DX]);
+            this.sendData.putShort((short) mouseEvent[MouseEventAccumulator.DY]);
+            this.sendData.putShort((short) mouseEvent[MouseEventAccumulator.WHEEL_DELTA]);
+            this.sendData.put((byte) ((flags & MouseEventFlags.MOVE) != 0 ? 1 : 0)); // cursor pos feedback
+            sendPacket(CLIENT_PORT);
         }
     }
 
@@ -522,22 +531,12 @@ public class WinHandler {
             // Player 1 (currentController) gets the original non-numbered file
             String p1_mem_path = "/data/data/app.gamenative/files/imagefs/tmp/gamepad.mem";
             File p1_memFile = new File(p1_mem_path);
-            p1_memFile.getParentFile().mkdirs();
-            try (RandomAccessFile raf = new RandomAccessFile(p1_memFile, "rw")) {
-                raf.setLength(64);
-                gamepadBuffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, 64);
-                gamepadBuffer.order(ByteOrder.LITTLE_ENDIAN);
-                Log.i(TAG, "Successfully created and mapped gamepad file for Player 1");
-            }
-            for (int i = 0; i < extraGamepadBuffers.length; i++) {
+            gamepadMemory = GamepadSharedMemory.map(p1_memFile);
+            Log.i(TAG, "Successfully created and mapped gamepad file for Player 1");
+            for (int i = 0; i < extraGamepadMemories.length; i++) {
                 String extra_mem_path = "/data/data/app.gamenative/files/imagefs/tmp/gamepad" + (i + 1) + ".mem";
-                File extra_memFile = new File(extra_mem_path);
-                try (RandomAccessFile raf = new RandomAccessFile(extra_memFile, "rw")) {
-                    raf.setLength(64);
-                    extraGamepadBuffers[i] = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, 64);
-                    extraGamepadBuffers[i].order(ByteOrder.LITTLE_ENDIAN);
-                    Log.i(TAG, "Successfully created and mapped gamepad file for Player " + (i + 2));
-                }
+                extraGamepadMemories[i] = GamepadSharedMemory.map(new File(extra_mem_path));
+                Log.i(TAG, "Successfully created and mapped gamepad file for Player " + (i + 2));
             }
         } catch (IOException e) {
             Log.e("EVSHIM_HOST", "FATAL: Failed to create memory-mapped file(s).", e);
@@ -566,45 +565,39 @@ public class WinHandler {
             }
         });
 
-        startRumblePoller();
+        startRumbleListener();
         running = true;
         startSendThread();
     }
 
-    private void startRumblePoller() {
-        rumblePollerThread = new Thread(() -> {
+    private void startRumbleListener() {
+        rumbleListenerThread = new Thread(() -> {
             while (running) {
-                // --- MODIFIED: Get the current profile state on EVERY loop iteration ---
                 try {
                     final ControlsProfile profile = inputControlsView.getProfile();
                     final boolean useVirtualGamepad = profile != null && profile.isVirtualGamepad();
-                    // This condition now uses the fresh, up-to-date 'useVirtualGamepad' variable
-                    if (gamepadBuffer != null && (currentController != null || useVirtualGamepad)) {
-                        // Read the rumble values from the shared memory file.
-                        short lowFreq = gamepadBuffer.getShort(32);
-                        short highFreq = gamepadBuffer.getShort(34);
-                        // Check if the rumble state has changed
-                        if (lowFreq != lastLowFreq || highFreq != lastHighFreq) {
-                            lastLowFreq = lowFreq;
-                            lastHighFreq = highFreq;
-                            if (lowFreq == 0 && highFreq == 0) {
+                    if (gamepadMemory != null && (currentController != null || useVirtualGamepad)) {
+                        // evshim writes both values with a single pwrite at offset 32
+                        int rumble = gamepadMemory.getRumble();
+                        if (rumble != lastRumble) {
+                            lastRumble = rumble;
+                            if (rumble == 0) {
                                 stopVibration();
                             } else {
-                                startVibration(lowFreq, highFreq);
+                                startVibration((short)rumble, (short)(rumble >>> 16));
                             }
                         }
                     }
                 } catch (Exception e) {
-                    continue;
                 }
                 try {
-                    Thread.sleep(20); // Poll for new commands 50 times per second
+                    Thread.sleep(RUMBLE_POLL_INTERVAL);
                 } catch (InterruptedException e) {
                     break;
                 }
             }
         });
-        rumblePollerThread.start();
+        rumbleListenerThread.start();
     }
 
     private void startVibration(short lowFreq, short highFreq) {
@@ -672,31 +665,56 @@ public class WinHandler {
         if (!this.initReceived || this.gamepadClients.isEmpty()) {
             return;
         }
+        // Updates that arrive before the send thread gets to the pending one are folded into it
+        if (gamepadStatePending.compareAndSet(false, true)) addAction(sendGamepadStateAction);
+    }
+
+    private void sendPendingGamepadState() {
+        gamepadStatePending.set(false);
         final ControlsProfile profile = inputControlsView.getProfile();
         final boolean useVirtualGamepad = profile != null && profile.isVirtualGamepad();
         final boolean enabled = this.currentController != null || useVirtualGamepad;
-        Iterator<Integer> it = this.gamepadClients.iterator();
-        while (it.hasNext()) {
-            final int port = it.next().intValue();
-            addAction(() -> {
-                this.sendData.rewind();
-                sendData.put(RequestCodes.GET_GAMEPAD_STATE);
-                sendData.put((byte)(enabled ? 1 : 0));
-                if (enabled) {
-                    this.sendData.putInt(!useVirtualGamepad ? this.currentController.getDeviceId() : inputControlsView.getProfile().id);
-                    if (useVirtualGamepad) {
-                        inputControlsView.getProfile().getGamepadState().writeTo(sendData);
-                    } else {
-                        this.currentController.state.writeTo(this.sendData);
-                    }
-                }
-                sendPacket(port);
-            });
+        this.sendData.rewind();
+        sendData.put(RequestCodes.GET_GAMEPAD_STATE);
+        sendData.put((byte)(enabled ? 1 : 0));
+        if (enabled) {
+            this.sendData.putInt(!useVirtualGamepad ? this.currentController.getDeviceId() : profile.id);
+            if (useVirtualGamepad) {
+                profile.getGamepadState().writeTo(sendData);
+            } else {
+                this.currentController.state.writeTo(this.sendData);
+            }
+        }
+        // Runs on the send thread while holding the actions lock, so the client list cannot change underneath
+        for (int i = 0; i < this.gamepadClients.size(); i++) {
+            sendPacket(this.gamepadClients.get(i));
         }
     }
 
+    /** Publishes the changed fields of a player's state to its shared memory file; returns whether anything changed. */
+    private boolean publishGamepadSlot(int slot, GamepadState state) {
+        synchronized (gamepadSlots) {
+            int changedFields = gamepadSlots.update(slot, state);
+            if (changedFields == 0) return false;
+            GamepadSharedMemory memory = slot == 0 ? gamepadMemory : extraGamepadMemories[slot - 1];
+            if (memory != null) memory.writeSlot(gamepadSlots, slot, changedFields);
+            return true;
+        }
+    }
+
+    private ExternalController getExtraPlayerController(int slot) {
+        return slot > 0 ? extraControllers[slot - 1] : null;
+    }
+
     public boolean onGenericMotionEvent(MotionEvent event) {
         boolean handled = false;
+        int playerSlot = gamepadSlots.findSlot(event.getDeviceId());
+        ExternalController extraController = getExtraPlayerController(playerSlot);
+        if (extraController != null) {
+            handled = extraController.updateStateFromMotionEvent(event);
+            if (handled) publishGamepadSlot(playerSlot, extraController.state);
+            return handled;
+        }
         ExternalController externalController = this.currentController;
         // Adopt newly connected controller if deviceId mismatches
         if ((externalController == null || externalController.getDeviceId() != event.getDeviceId()) && ExternalController.isJoystickDevice(event)) {
@@ -719,19 +737,24 @@ public class WinHandler {
             }
         }
         if (externalController != null && externalController.getDeviceId() == event.getDeviceId() && (handled = this.currentController.updateStateFromMotionEvent(event))) {
-            if (handled) {
+            if (handled && publishGamepadSlot(0, this.currentController.state)) {
                 sendGamepadState();
-                sendMemoryFileState();
             }
         }
         return handled;
     }
 
     public boolean onKeyEvent(KeyEvent event) {
-        MappedByteBuffer buffer = null;
         boolean handled = false;
+        int playerSlot = gamepadSlots.findSlot(event.getDeviceId());
+        ExternalController extraController = getExtraPlayerController(playerSlot);
+        if (extraController != null) {
+            if (event.getRepeatCount() != 0) return false;
+            handled = extraController.updateStateFromKeyEvent(event);
+            if (handled) publishGamepadSlot(playerSlot, extraController.state);
+            return handled;
+        }
         ExternalController externalController = this.currentController;
-        buffer = gamepadBuffer;
         // If this is a gamepad event but our controller is null or mismatched, adopt it
         InputDevice device = event.getDevice();
         if ((externalController == null || externalController.getDeviceId() != event.getDeviceId())
@@ -764,8 +787,7 @@ public class WinHandler {
             } else if (action == KeyEvent.ACTION_UP) {
                 handled = this.currentController.updateStateFromKeyEvent(event);
             }
-            sendMemoryFileState(this.currentController, buffer);
-            if (handled) {
+            if (publishGamepadSlot(0, this.currentController.state) && handled) {
                 sendGamepadState();
             }
         }
@@ -785,89 +807,11 @@ public class WinHandler {
     }
 
 
-    private void sendMemoryFileState() {
-        sendMemoryFileState(currentController, gamepadBuffer);
-    }
-
-    private void sendMemoryFileState(ExternalController controller, MappedByteBuffer buffer) {
-        if (buffer == null || controller == null) {
-            return;
-        }
-        GamepadState state = controller.state;
-        buffer.clear();
-
-        // --- Sticks and Buttons are perfect. No changes here. ---
-        buffer.putShort((short)(state.thumbLX * 32767));
-        buffer.putShort((short)(state.thumbLY * 32767));
-        buffer.putShort((short)(state.thumbRX * 32767));
-        buffer.putShort((short)(state.thumbRY * 32767));
-        // Clamp the raw value first – some firmwares report 1.00–1.02 at the top end
-        float rawL = Math.max(0f, Math.min(1f, state.triggerL));
-        float rawR = Math.max(0f, Math.min(1f, state.triggerR));
-        float lCurve = (float)Math.sqrt(rawL);
-        float rCurve = (float)Math.sqrt(rawR);
-        int lAxis = Math.round(lCurve * 65_534f) - 32_767;  // 0 → -32 767, 1 → 32 767
-        int rAxis = Math.round(rCurve * 65_534f) - 32_767;
-        buffer.putShort((short)lAxis);
-        buffer.putShort((short)rAxis);
-        // --- Buttons and D-Pad are perfect. No changes here. ---
-        byte[] sdlButtons = new byte[15];
-        sdlButtons[0] = state.isPressed(0) ? (byte)1 : (byte)0;  // A
-        sdlButtons[1] = state.isPressed(1) ? (byte)1 : (byte)0;  // B
-        sdlButtons[2] = state.isPressed(2) ? (byte)1 : (byte)0;  // X
-        sdlButtons[3] = state.isPressed(3) ? (byte)1 : (byte)0;  // Y
-        sdlButtons[9] = state.isPressed(4) ? (byte)1 : (byte)0;  // Left Bumper
-        sdlButtons[10] = state.isPressed(5) ? (byte)1 : (byte)0; // Right Bumper
-        sdlButtons[4] = state.isPressed(6) ? (byte)1 : (byte)0;  // Select/Back
-        sdlButtons[6] = state.isPressed(7) ? (byte)1 : (byte)0;  // Start
-        sdlButtons[7] = state.isPressed(8) ? (byte)1 : (byte)0;  // Left Stick
-        sdlButtons[8] = state.isPressed(9) ? (byte)1 : (byte)0;  // Right Stick
-        sdlButtons[11] = state.dpad[0] ? (byte)1 : (byte)0;      // DPAD_UP
-        sdlButtons[12] = state.dpad[2] ? (byte)1 : (byte)0;      // DPAD_DOWN
-        sdlButtons[13] = state.dpad[3] ? (byte)1 : (byte)0;      // DPAD_LEFT
-        sdlButtons[14] = state.dpad[1] ? (byte)1 : (byte)0;      // DPAD_RIGHT
-        buffer.put(sdlButtons);
-        buffer.put((byte)0); // Ignored HAT value
-    }
-
     public void sendVirtualGamepadState(GamepadState state) {
-        if (gamepadBuffer == null || state == null) {
+        if (state == null) {
             return;
         }
-        gamepadBuffer.clear();
-
-        gamepadBuffer.putShort((short)(state.thumbLX * 32767));
-        gamepadBuffer.putShort((short)(state.thumbLY * 32767));
-        gamepadBuffer.putShort((short)(state.thumbRX * 32767));
-        gamepadBuffer.putShort((short)(state.thumbRY * 32767));
-
-        float rawL = Math.max(0f, Math.min(1f, state.triggerL));
-        float rawR = Math.max(0f, Math.min(1f, state.triggerR));
-        float lCurve = (float)Math.sqrt(rawL);
-        float rCurve = (float)Math.sqrt(rawR);
-        int lAxis = Math.round(lCurve * 65_534f) - 32_767;
-        int rAxis = Math.round(rCurve * 65_534f) - 32_767;
-        gamepadBuffer.putShort((short)lAxis);
-        gamepadBuffer.putShort((short)rAxis);
-
-        // Buttons & D-Pad
-        byte[] sdlButtons = new byte[15];
-        sdlButtons[0] = state.isPressed(0) ? (byte)1 : (byte)0;  // A
-        sdlButtons[1] = state.isPressed(1) ? (byte)1 : (byte)0;  // B
-        sdlButtons[2] = state.isPressed(2) ? (byte)1 : (byte)0;  // X
-        sdlButtons[3] = state.isPressed(3) ? (byte)1 : (byte)0;  // Y
-        sdlButtons[9] = state.isPressed(4) ? (byte)1 : (byte)0;  // Left Bumper
-        sdlButtons[10] = state.isPressed(5) ? (byte)1 : (byte)0; // Right Bumper
-        sdlButtons[4] = state.isPressed(6) ? (byte)1 : (byte)0;  // Select/Back
-        sdlButtons[6] = state.isPressed(7) ? (byte)1 : (byte)0;  // Start
-        sdlButtons[7] = state.isPressed(8) ? (byte)1 : (byte)0;  // Left Stick
-        sdlButtons[8] = state.isPressed(9) ? (byte)1 : (byte)0;  // Right Stick
-        sdlButtons[11] = state.dpad[0] ? (byte)1 : (byte)0;      // DPAD_UP
-        sdlButtons[12] = state.dpad[2] ? (byte)1 : (byte)0;      // DPAD_DOWN
-        sdlButtons[13] = state.dpad[3] ? (byte)1 : (byte)0;      // DPAD_LEFT
-        sdlButtons[14] = state.dpad[1] ? (byte)1 : (byte)0;      // DPAD_RIGHT
-        gamepadBuffer.put(sdlButtons);
-        gamepadBuffer.put((byte)0); // Ignored HAT value
+        publishGamepadSlot(0, state);
     }
 
     private void initializeAssignedControllers() {
@@ -8,15 +8,16 @@ import java.nio.ByteOrder;
 
 public class Client {
     public final ClientSocket clientSocket;
-    private final XConnectorEpoll connector;
+    private final XConnector connector;
     private XInputStream inputStream;
     private XOutputStream outputStream;
     private Object tag;
     protected Thread pollThread;
     protected int shutdownFd;
     protected boolean connected;
+    protected int epollFd = -1;
 
-    public Client(XConnectorEpoll connector, ClientSocket clientSocket) {
+    public Client(XConnector connector, ClientSocket clientSocket) {
         this.connector = connector;
         this.clientSocket = clientSocket;
     }
@@ -6,14 +6,14 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayDeque;
 
+/**
+ * A connected client fd. The natives live in libwinlator, which {@link XConnectorEpoll} loads before it
+ * creates any socket; transports that do not use raw fds override the read and write methods.
+ */
 public class ClientSocket {
     public final int fd;
     private final ArrayDeque<Integer> ancillaryFds = new ArrayDeque<>();
 
-    static {
-        System.loadLibrary("winlator");
-    }
-
     public ClientSocket(int fd) {
         this.fd = fd;
     }
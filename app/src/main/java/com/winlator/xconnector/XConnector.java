@@ -0,0 +1,21 @@
+package com.winlator.xconnector;
+
+/**
+ * Server side of a socket transport: accepts clients, reads their data into each client's
+ * {@link XInputStream} and hands it to a {@link RequestHandler}. {@link XConnectorEpoll} is the
+ * native implementation used on device; other transports only need to provide a {@link ClientSocket}
+ * subclass for their connections.
+ */
+public interface XConnector {
+    void start();
+
+    void stop();
+
+    Client getClient(int fd);
+
+    void killConnection(Client client);
+
+    int getInitialInputBufferCapacity();
+
+    int getInitialOutputBufferCapacity();
+}
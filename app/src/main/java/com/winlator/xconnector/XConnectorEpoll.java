@@ -6,15 +6,18 @@ import androidx.annotation.Keep;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 
-public class XConnectorEpoll implements Runnable {
+public class XConnectorEpoll implements Runnable, XConnector {
     private final ConnectionHandler connectionHandler;
     private final int epollFd;
     private Thread epollThread;
     private final RequestHandler requestHandler;
     private final int serverFd;
     private final int shutdownFd;
-    private boolean running = false;
+    private volatile boolean running = false;
     private boolean multithreadedClients = false;
+    private int reactorCount = 1;
+    private Reactor[] reactors;
+    private volatile XTraceRecorder traceRecorder;
     private boolean canReceiveAncillaryMessages = false;
     private boolean monitorClients = true;
     private int initialInputBufferCapacity = 128;
@@ -41,6 +44,54 @@ public class XConnectorEpoll implements Runnable {
         System.loadLibrary("winlator");
     }
 
+    /**
+     * Extra epoll loop that owns a share of the connections when more than one reactor is configured.
+     * A client is only ever polled by one reactor, so its requests are still handled in order on a
+     * single thread, while a client flooding its reactor no longer delays clients on the others.
+     */
+    private class Reactor implements Runnable {
+        private final int epollFd;
+        private final int shutdownFd;
+        private final Thread thread;
+        private volatile boolean running = true;
+        private int clientCount = 0;
+
+        private Reactor(int index) {
+            this.epollFd = createEpollFd();
+            if (this.epollFd < 0) {
+                throw new RuntimeException("Failed to create epoll fd.");
+            }
+            this.shutdownFd = createEventFd();
+            if (!addFdToEpoll(this.epollFd, this.shutdownFd)) {
+                closeFd(this.shutdownFd);
+                closeFd(this.epollFd);
+                throw new RuntimeException("Failed to add shutdown fd to epoll.");
+            }
+            this.thread = new Thread(this, "XConnectorReactor-" + index);
+        }
+
+        @Override // java.lang.Runnable
+        public void run() {
+            while (this.running) {
+                if (!doEpollIndefinitely(this.epollFd, -1, false)) {
+                    break;
+                }
+            }
+        }
+
+        private void stop() {
+            this.running = false;
+            requestShutdown(this.shutdownFd);
+            joinThread(this.thread);
+        }
+
+        private void close() {
+            removeFdFromEpoll(this.epollFd, this.shutdownFd);
+            closeFd(this.shutdownFd);
+            closeFd(this.epollFd);
+        }
+    }
+
     public XConnectorEpoll(UnixSocketConfig socketConfig, ConnectionHandler connectionHandler, RequestHandler requestHandler) {
         this.connectionHandler = connectionHandler;
         this.requestHandler = requestHandler;
@@ -71,24 +122,28 @@ public class XConnectorEpoll implements Runnable {
         this.epollThread = new Thread(this);
     }
 
+    @Override
     public synchronized void start() {
         Thread thread;
         if (!this.running && (thread = this.epollThread) != null) {
             this.running = true;
+            if (this.reactorCount > 1 && !this.multithreadedClients) {
+                this.reactors = new Reactor[this.reactorCount];
+                for (int i = 0; i < this.reactors.length; i++) {
+                    this.reactors[i] = new Reactor(i);
+                    this.reactors[i].thread.start();
+                }
+            }
             thread.start();
         }
     }
 
+    @Override
     public synchronized void stop() {
         if (this.running && this.epollThread != null) {
             this.running = false;
-            requestShutdown();
-            while (this.epollThread.isAlive()) {
-                try {
-                    this.epollThread.join();
-                } catch (InterruptedException e) {
-                }
-            }
+            requestShutdown(this.shutdownFd);
+            joinThread(this.epollThread);
             this.epollThread = null;
         }
     }
@@ -96,7 +151,7 @@ public class XConnectorEpoll implements Runnable {
     @Override // java.lang.Runnable
     public void run() {
         while (this.running) {
-            if (!doEpollIndefinitely(this.epollFd, this.serverFd, !this.multithreadedClients && this.monitorClients)) {
+            if (!doEpollIndefinitely(this.epollFd, this.serverFd, this.reactors == null && !this.multithreadedClients && this.monitorClients)) {
                 break;
             }
         }
@@ -107,6 +162,10 @@ public class XConnectorEpoll implements Runnable {
     private void handleNewConnection(int fd) {
         final Client client = new Client(this, new ClientSocket(fd));
         client.connected = true;
+        XTraceRecorder traceRecorder = this.traceRecorder;
+        if (traceRecorder != null) {
+            traceRecorder.recordConnect(fd);
+        }
         if (this.multithreadedClients) {
             client.shutdownFd = createEventFd();
             client.pollThread = new Thread(() -> {
@@ -119,19 +178,52 @@ public class XConnectorEpoll implements Runnable {
         } else {
             this.connectionHandler.handleNewConnection(client);
         }
-        this.connectedClients.put(fd, client);
+
+        if (this.reactors != null) {
+            Reactor reactor;
+            synchronized (this.connectedClients) {
+                reactor = leastLoadedReactor();
+                reactor.clientCount++;
+                client.epollFd = reactor.epollFd;
+                this.connectedClients.put(fd, client);
+            }
+            if (!addFdToEpoll(reactor.epollFd, fd)) {
+                Log.e("XConnectorEpoll", "Failed to add client fd " + fd + " to reactor epoll.");
+                killConnection(client);
+            }
+        } else {
+            client.epollFd = this.epollFd;
+            synchronized (this.connectedClients) {
+                this.connectedClients.put(fd, client);
+            }
+        }
+    }
+
+    private Reactor leastLoadedReactor() {
+        Reactor leastLoaded = this.reactors[0];
+        for (Reactor reactor : this.reactors) {
+            if (reactor.clientCount < leastLoaded.clientCount) {
+                leastLoaded = reactor;
+            }
+        }
+        return leastLoaded;
     }
 
     @Keep
     private void handleExistingConnection(int fd) {
-        Client client = this.connectedClients.get(fd);
+        Client client = getClient(fd);
         if (client == null) {
             return;
         }
         XInputStream inputStream = client.getInputStream();
         try {
             if (inputStream != null) {
-                if (inputStream.readMoreData(this.canReceiveAncillaryMessages) > 0) {
+                int bytesRead = inputStream.readMoreData(this.canReceiveAncillaryMessages);
+                if (bytesRead > 0) {
+                    XTraceRecorder traceRecorder = this.traceRecorder;
+                    if (traceRecorder != null) {
+                        traceRecorder.recordData(fd, inputStream.peekReceived(bytesRead));
+                    }
                     int activePosition = 0;
                     while (this.running && this.requestHandler.handleRequest(client)) {
                         activePosition = inputStream.getActivePosition();
@@ -148,12 +240,34 @@ public class XConnectorEpoll implements Runnable {
         }
     }
 
+    @Override
     public Client getClient(int fd) {
-        return this.connectedClients.get(fd);
+        synchronized (this.connectedClients) {
+            return this.connectedClients.get(fd);
+        }
     }
 
+    @Override
     public void killConnection(Client client) {
+        // Unregister before the fd is closed, so a new connection reusing the fd number is never dropped
+        synchronized (this.connectedClients) {
+            if (this.connectedClients.get(client.clientSocket.fd) != client) {
+                return;
+            }
+            this.connectedClients.remove(client.clientSocket.fd);
+            if (this.reactors != null) {
+                for (Reactor reactor : this.reactors) {
+                    if (reactor.epollFd == client.epollFd) {
+                        reactor.clientCount--;
+                    }
+                }
+            }
+        }
         client.connected = false;
+        XTraceRecorder traceRecorder = this.traceRecorder;
+        if (traceRecorder != null) {
+            traceRecorder.recordDisconnect(client.clientSocket.fd);
+        }
         if (this.multithreadedClients) {
             if (Thread.currentThread() != client.pollThread) {
                 client.requestShutdown();
@@ -169,17 +283,33 @@ public class XConnectorEpoll implements Runnable {
             closeFd(client.shutdownFd);
         } else {
             this.connectionHandler.handleConnectionShutdown(client);
-            removeFdFromEpoll(this.epollFd, client.clientSocket.fd);
+            removeFdFromEpoll(client.epollFd, client.clientSocket.fd);
         }
         closeFd(client.clientSocket.fd);
-        this.connectedClients.remove(client.clientSocket.fd);
     }
 
     private void shutdown() {
-        while (this.connectedClients.size() > 0) {
-            Client client = this.connectedClients.valueAt(this.connectedClients.size() - 1);
+        if (this.reactors != null) {
+            for (Reactor reactor : this.reactors) {
+                reactor.stop();
+            }
+        }
+        while (true) {
+            Client client;
+            synchronized (this.connectedClients) {
+                if (this.connectedClients.size() == 0) {
+                    break;
+                }
+                client = this.connectedClients.valueAt(this.connectedClients.size() - 1);
+            }
             killConnection(client);
         }
+        if (this.reactors != null) {
+            for (Reactor reactor : this.reactors) {
+                reactor.close();
+            }
+            this.reactors = null;
+        }
         removeFdFromEpoll(this.epollFd, this.serverFd);
         removeFdFromEpoll(this.epollFd, this.shutdownFd);
         closeFd(this.serverFd);
@@ -187,6 +317,7 @@ public class XConnectorEpoll implements Runnable {
         closeFd(this.epollFd);
     }
 
+    @Override
     public int getInitialInputBufferCapacity() {
         return this.initialInputBufferCapacity;
     }
@@ -195,6 +326,7 @@ public class XConnectorEpoll implements Runnable {
         this.initialInputBufferCapacity = initialInputBufferCapacity;
     }
 
+    @Override
     public int getInitialOutputBufferCapacity() {
         return this.initialOutputBufferCapacity;
     }
@@ -207,16 +339,42 @@ public class XConnectorEpoll implements Runnable {
         this.multithreadedClients = multithreadedClients;
     }
 
+    /**
+     * Number of epoll loops that service client requests. With more than one, the listening socket stays
+     * on the accept thread and each new connection goes to the reactor with the fewest clients. Has no
+     * effect together with multithreaded clients, and must be set before {@link #start()}.
+     */
+    public void setReactorCount(int reactorCount) {
+        this.reactorCount = Math.max(1, reactorCount);
+    }
+
+    /**
+     * Records every client's incoming byte stream while set; pass null to stop. The caller owns the
+     * recorder and closes it once the connector has stopped.
+     */
+    public void setTraceRecorder(XTraceRecorder traceRecorder) {
+        this.traceRecorder = traceRecorder;
+    }
+
     public void setCanReceiveAncillaryMessages(boolean canReceiveAncillaryMessages) {
         this.canReceiveAncillaryMessages = canReceiveAncillaryMessages;
     }
 
-    private void requestShutdown() {
+    private void requestShutdown(int fd) {
         try {
             ByteBuffer data = ByteBuffer.allocateDirect(8);
             data.asLongBuffer().put(1L);
-            new ClientSocket(this.shutdownFd).write(data);
+            new ClientSocket(fd).write(data);
         } catch (IOException e) {
         }
     }
+
+    private static void joinThread(Thread thread) {
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+            }
+        }
+    }
 }
@@ -10,6 +10,7 @@ public class XInputStream {
     private ByteBuffer activeBuffer;
     private ByteBuffer buffer;
     public final ClientSocket clientSocket;
+    private volatile long totalBytesRead;
 
     public XInputStream(int initialCapacity) {
         this(null, initialCapacity);
@@ -37,6 +38,7 @@ public class XInputStream {
         int bytesRead = canReceiveAncillaryMessages ? clientSocket.recvAncillaryMsg(buffer) : clientSocket.read(buffer);
 
         if (bytesRead > 0) {
+            totalBytesRead += bytesRead;
             int position = buffer.position();
             buffer.flip();
             activeBuffer = buffer.slice().order(buffer.order());
@@ -45,6 +47,11 @@ public class XInputStream {
         return bytesRead;
     }
 
+    /** Bytes received over the lifetime of the stream, for metrics. */
+    public long getTotalBytesRead() {
+        return totalBytesRead;
+    }
+
     public int getAncillaryFd() {
         return clientSocket.getAncillaryFd();
     }
@@ -75,6 +82,19 @@ public class XInputStream {
         return activeBuffer.remaining();
     }
 
+    public int peekUnsignedByte(int offset) {
+        return Byte.toUnsignedInt(activeBuffer.get(activeBuffer.position() + offset));
+    }
+
+    /**
+     * The last {@code length} bytes received by {@link #readMoreData}, without consuming them.
+     */
+    public ByteBuffer peekReceived(int length) {
+        ByteBuffer received = activeBuffer.duplicate();
+        received.position(received.limit() - length);
+        return received;
+    }
+
     public byte readByte() {
         return activeBuffer.get();
     }
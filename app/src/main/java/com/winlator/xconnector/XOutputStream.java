@@ -13,6 +13,7 @@ public class XOutputStream {
     public final ClientSocket clientSocket;
     private final ReentrantLock lock = new ReentrantLock();
     private int ancillaryFd = -1;
+    private volatile long totalBytesWritten;
 
     public XOutputStream(int initialCapacity) {
         this(null, initialCapacity);
@@ -80,6 +81,7 @@ public class XOutputStream {
     private void flush() throws IOException {
         if (buffer.position() != 0) {
             buffer.flip();
+            totalBytesWritten += buffer.remaining();
 
             if (ancillaryFd != -1) {
                 clientSocket.sendAncillaryMsg(buffer, ancillaryFd);
@@ -91,6 +93,11 @@ public class XOutputStream {
         }
     }
 
+    /** Bytes flushed over the lifetime of the stream, for metrics. */
+    public long getTotalBytesWritten() {
+        return totalBytesWritten;
+    }
+
     public XStreamLock lock() {
         return new OutputStreamLock();
     }
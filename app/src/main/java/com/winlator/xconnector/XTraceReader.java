@@ -0,0 +1,73 @@
+package com.winlator.xconnector;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads traces written by {@link XTraceRecorder} one record at a time. The fields describe the record
+ * returned by the last successful {@link #next()}; {@link #data} is reused between records.
+ */
+public class XTraceReader implements Closeable {
+    private final DataInputStream in;
+    public final long startTimeMillis;
+    public final String socketPath;
+    public byte type;
+    public int clientId;
+    /** Microseconds since the start of the recording. */
+    public long timeMicros;
+    public byte[] data = new byte[0];
+    public int dataLength;
+
+    public XTraceReader(InputStream inputStream) throws IOException {
+        in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(inputStream, 65536), 65536));
+        if (in.readInt() != XTraceRecorder.MAGIC) throw new IOException("Not an X trace.");
+        byte version = in.readByte();
+        if (version != XTraceRecorder.VERSION) throw new IOException("Unsupported X trace version " + version + ".");
+        startTimeMillis = in.readLong();
+        socketPath = in.readUTF();
+    }
+
+    public boolean next() throws IOException {
+        try {
+            int nextType = in.read();
+            if (nextType < 0) return false;
+            type = (byte)nextType;
+            clientId = (int)readVarInt();
+            timeMicros += readVarInt();
+            dataLength = 0;
+            if (type == XTraceRecorder.RECORD_DATA) {
+                dataLength = (int)readVarInt();
+                if (data.length < dataLength) data = new byte[Math.max(dataLength, data.length * 2)];
+                in.readFully(data, 0, dataLength);
+            }
+            else if (type != XTraceRecorder.RECORD_CONNECT && type != XTraceRecorder.RECORD_DISCONNECT) {
+                throw new IOException("Unknown X trace record type " + type + ".");
+            }
+            return true;
+        }
+        catch (EOFException e) {
+            // A recording cut short by the process dying ends in a partial record
+            return false;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private long readVarInt() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long)(b & 0x7f) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed varint in X trace.");
+    }
+}
@@ -0,0 +1,124 @@
+package com.winlator.xconnector;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Records the raw byte stream every client sends to an {@link XConnector}, so real game traffic can be
+ * replayed against the X server later (see {@link com.winlator.xserver.XTraceReplayer}).
+ *
+ * The file is gzip compressed: a header (magic, version, wall clock start, socket path) followed by
+ * records of type, client id, microseconds since the previous record and, for data records, the bytes
+ * as received. Integers are unsigned LEB128 varints. Sequence numbers are not stored since the server
+ * derives them by counting requests, which a replay does the same way. Ancillary fds are not recorded.
+ */
+public class XTraceRecorder implements Closeable {
+    public static final int MAGIC = 0x58545243; // "XTRC"
+    public static final byte VERSION = 1;
+    public static final byte RECORD_CONNECT = 1;
+    public static final byte RECORD_DATA = 2;
+    public static final byte RECORD_DISCONNECT = 3;
+    private final DataOutputStream out;
+    private final byte[] copyBuffer = new byte[8192];
+    private long lastRecordTime;
+    private boolean failed = false;
+
+    public XTraceRecorder(File file, String socketPath) throws IOException {
+        this(new FileOutputStream(file), socketPath);
+    }
+
+    public XTraceRecorder(OutputStream outputStream, String socketPath) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(outputStream, 65536), 65536));
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeLong(System.currentTimeMillis());
+        out.writeUTF(socketPath);
+        lastRecordTime = System.nanoTime();
+    }
+
+    public synchronized void recordConnect(int clientId) {
+        if (writeRecordHeader(RECORD_CONNECT, clientId)) finishRecord();
+    }
+
+    /**
+     * Records the bytes between the position and limit of {@code data}, leaving its position untouched.
+     */
+    public synchronized void recordData(int clientId, ByteBuffer data) {
+        if (!writeRecordHeader(RECORD_DATA, clientId)) return;
+        try {
+            ByteBuffer source = data.duplicate();
+            writeVarInt(source.remaining());
+            while (source.hasRemaining()) {
+                int length = Math.min(source.remaining(), copyBuffer.length);
+                source.get(copyBuffer, 0, length);
+                out.write(copyBuffer, 0, length);
+            }
+        }
+        catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    public synchronized void recordDisconnect(int clientId) {
+        if (writeRecordHeader(RECORD_DISCONNECT, clientId)) finishRecord();
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            out.close();
+        }
+        catch (IOException e) {
+            Log.e("XTraceRecorder", "Failed to close trace: " + e);
+        }
+    }
+
+    private boolean writeRecordHeader(byte type, int clientId) {
+        if (failed) return false;
+        long now = System.nanoTime();
+        try {
+            out.writeByte(type);
+            writeVarInt(clientId);
+            writeVarInt((now - lastRecordTime) / 1000);
+            lastRecordTime = now;
+            return true;
+        }
+        catch (IOException e) {
+            fail(e);
+            return false;
+        }
+    }
+
+    private void finishRecord() {
+        // Connection changes are rare, flushing them keeps a trace usable if the process dies
+        try {
+            out.flush();
+        }
+        catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void writeVarInt(long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int)((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int)value);
+    }
+
+    private void fail(IOException e) {
+        // Recording must never take the X server down with it
+        Log.e("XTraceRecorder", "Stopped recording: " + e);
+        failed = true;
+    }
+}
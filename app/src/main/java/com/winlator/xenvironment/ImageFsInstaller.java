@@ -358,16 +358,19 @@ public abstract class ImageFsInstaller {
      */
     private static void clearSteamDllMarkers(Context context, ContainerManager containerManager) {
         try {
-            for (Container container : containerManager.getContainers()) {
+            // Only ids and names are needed, so the container configs are not parsed
+            for (String containerId : containerManager.getContainerIds()) {
                 try {
-                    int gameId = ContainerUtils.INSTANCE.extractGameIdFromContainerId(container.id);
+                    int gameId = ContainerUtils.INSTANCE.extractGameIdFromContainerId(containerId);
                     String mappedPath = SteamService.Companion.getAppDirPath(gameId);
                     MarkerUtils.INSTANCE.removeMarker(mappedPath, Marker.STEAM_DLL_REPLACED);
                     MarkerUtils.INSTANCE.removeMarker(mappedPath, Marker.STEAM_DLL_RESTORED);
                     MarkerUtils.INSTANCE.removeMarker(mappedPath, Marker.STEAM_COLDCLIENT_USED);
-                    Log.i("ImageFsInstaller", "Cleared markers for container: " + container.getName() + " (ID: " + container.id + ")");
+                    JSONObject summary = containerManager.getContainerSummary(containerId);
+                    String name = summary != null ? summary.optString("name") : "";
+                    Log.i("ImageFsInstaller", "Cleared markers for container: " + name + " (ID: " + containerId + ")");
                 } catch (Exception e) {
-                    Log.w("ImageFsInstaller", "Failed to clear markers for container ID " + container.id + ": " + e.getMessage());
+                    Log.w("ImageFsInstaller", "Failed to clear markers for container ID " + containerId + ": " + e.getMessage());
                 }
             }
             Log.i("ImageFsInstaller", "Finished clearing Steam DLL markers for all containers");
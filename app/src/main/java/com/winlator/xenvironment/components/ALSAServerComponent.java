@@ -15,6 +15,7 @@ public class ALSAServerComponent extends EnvironmentComponent {
     private XConnectorEpoll connector;
     private final ALSAClient.Options options;
     private final UnixSocketConfig socketConfig;
+    private int reactorCount = 1;
 
     public ALSAServerComponent(UnixSocketConfig socketConfig, ALSAClient.Options options) {
         this.socketConfig = socketConfig;
@@ -31,10 +32,19 @@ public class ALSAServerComponent extends EnvironmentComponent {
 
         XConnectorEpoll xConnectorEpoll = new XConnectorEpoll(this.socketConfig, new ALSAClientConnectionHandler(this.options, imagefs.getVariant()), new ALSARequestHandler());
         this.connector = xConnectorEpoll;
-        xConnectorEpoll.setMultithreadedClients(true);
+        // Without explicit reactors every client keeps its own poll thread
+        if (this.reactorCount > 1) {
+            xConnectorEpoll.setReactorCount(this.reactorCount);
+        } else {
+            xConnectorEpoll.setMultithreadedClients(true);
+        }
         this.connector.start();
     }
 
+    public void setReactorCount(int reactorCount) {
+        this.reactorCount = reactorCount;
+    }
+
     @Override // com.winlator.xenvironment.EnvironmentComponent
     public void stop() {
         XConnectorEpoll xConnectorEpoll = this.connector;
@@ -24,18 +24,21 @@ import com.winlator.container.Shortcut;
 import com.winlator.contents.ContentProfile;
 import com.winlator.contents.ContentsManager;
 import com.winlator.core.Callback;
+import com.winlator.core.ComponentFileCache;
 import com.winlator.core.DefaultVersion;
 import com.winlator.core.envvars.EnvVars;
 import com.winlator.core.FileUtils;
 import com.winlator.core.GPUInformation;
 import com.winlator.core.ProcessHelper;
-import com.winlator.core.TarCompressorUtils;
 import com.winlator.core.WineInfo;
 import com.winlator.fexcore.FEXCorePreset;
 import com.winlator.fexcore.FEXCorePresetManager;
+import com.winlator.inputcontrols.ControllerManager;
 import com.winlator.sysvshm.SysVSHMConnectionHandler;
 import com.winlator.sysvshm.SysVSHMRequestHandler;
 import com.winlator.sysvshm.SysVSharedMemory;
+import com.winlator.winhandler.GamepadSharedMemory;
+import com.winlator.winhandler.WinHandler;
 import com.winlator.xconnector.UnixSocketConfig;
 import com.winlator.xconnector.XConnectorEpoll;
 import com.winlator.xenvironment.ImageFs;
@@ -178,10 +181,8 @@ public class BionicProgramLauncherComponent extends GuestProgramLauncherComponen
 
     private int execGuestProgram() {
 
-        final int MAX_PLAYERS = 1; // old static method
-
-        // Get the number of enabled players directly from ControllerManager.
-        final int enabledPlayerCount = MAX_PLAYERS;
+        // evshim creates one virtual pad per player, so it needs every slot a controller is assigned to
+        final int enabledPlayerCount = Math.min(WinHandler.MAX_PLAYERS, ControllerManager.getInstance().getAssignedPlayerCount());
         for (int i = 0; i < enabledPlayerCount; i++) {
             String memPath;
             if (i == 0) {
@@ -195,7 +196,7 @@ public class BionicProgramLauncherComponent extends GuestProgramLauncherComponen
             File memFile = new File(memPath);
             memFile.getParentFile().mkdirs();
             try (RandomAccessFile raf = new RandomAccessFile(memFile, "rw")) {
-                raf.setLength(64);
+                raf.setLength(GamepadSharedMemory.SIZE);
             } catch (IOException e) {
                 Log.e("EVSHIM_HOST", "Failed to create mem file for player index "+i, e);
             }
@@ -368,24 +369,26 @@ public class BionicProgramLauncherComponent extends GuestProgramLauncherComponen
         Context context = environment.getContext();
         String box64Version = container.getBox64Version();
 
-        Log.i("Extraction", "Extracting required box64 version: " + box64Version);
+        Log.i("Extraction", "Activating required box64 version: " + box64Version);
         File rootDir = imageFs.getRootDir();
 
-        // No more version check, just extract directly.
+        // Both paths are stamped and only touch the files that are missing or changed since the last launch.
         ContentProfile profile = contentsManager.getProfileByEntryName("box64-" + box64Version);
         if (profile != null) {
             contentsManager.applyContent(profile);
         } else {
-            TarCompressorUtils.extract(TarCompressorUtils.Type.ZSTD, context.getAssets(), "box86_64/box64-" + box64Version + "-bionic.tzst", rootDir);
+            ComponentFileCache.extractAsset(context, "box86_64/box64-" + box64Version + "-bionic.tzst", rootDir, null);
         }
 
         // Update the metadata so the container knows which version is installed.
-        container.putExtra("box64Version", box64Version);
-        container.saveData();
+        if (!box64Version.equals(container.getExtra("box64Version"))) {
+            container.putExtra("box64Version", box64Version);
+            container.saveData();
+        }
 
         // Set execute permissions.
         File box64File = new File(rootDir, "usr/bin/box64");
-        if (box64File.exists()) {
+        if (box64File.exists() && !box64File.canExecute()) {
             FileUtils.chmod(box64File, 0755);
         }
     }
@@ -396,8 +399,6 @@ public class BionicProgramLauncherComponent extends GuestProgramLauncherComponen
         File system32dir = new File(rootDir + "/home/xuser/.wine/drive_c/windows/system32");
         boolean containerDataChanged = false;
 
-        ImageFs imageFs = ImageFs.find(context);
-
         String wowbox64Version = container.getBox64Version();
         String fexcoreVersion = container.getFEXCoreVersion();
 
@@ -408,22 +409,26 @@ public class BionicProgramLauncherComponent extends GuestProgramLauncherComponen
         if (wowboxprofile != null) {
             contentsManager.applyContent(wowboxprofile);
         } else {
-            Log.d("Extraction", "Extracting box64Version: " + wowbox64Version);
-            TarCompressorUtils.extract(TarCompressorUtils.Type.ZSTD, environment.getContext(), "wowbox64/wowbox64-" + wowbox64Version + ".tzst", system32dir);
+            Log.d("Extraction", "Activating box64Version: " + wowbox64Version);
+            ComponentFileCache.extractAsset(context, "wowbox64/wowbox64-" + wowbox64Version + ".tzst", system32dir, null);
+        }
+        if (!wowbox64Version.equals(container.getExtra("box64Version"))) {
+            container.putExtra("box64Version", wowbox64Version);
+            containerDataChanged = true;
         }
-        container.putExtra("box64Version", wowbox64Version);
-        containerDataChanged = true;
 
         ContentProfile fexprofile = contentsManager.getProfileByEntryName("fexcore-" + fexcoreVersion);
         if (fexprofile != null) {
             contentsManager.applyContent(fexprofile);
         } else {
-            Log.d("Extraction", "Extracting fexcoreVersion: " + fexcoreVersion);
-            TarCompressorUtils.extract(TarCompressorUtils.Type.ZSTD, environment.getContext(), "fexcore/fexcore-" + fexcoreVersion + ".tzst", system32dir);
+            Log.d("Extraction", "Activating fexcoreVersion: " + fexcoreVersion);
+            ComponentFileCache.extractAsset(context, "fexcore/fexcore-" + fexcoreVersion + ".tzst", system32dir, null);
+        }
+        if (!fexcoreVersion.equals(container.getExtra("fexcoreVersion"))) {
+            container.putExtra("fexcoreVersion", fexcoreVersion);
+            containerDataChanged = true;
         }
-        container.putExtra("fexcoreVersion", fexcoreVersion);
 
-        containerDataChanged = true;
         if (containerDataChanged) container.saveData();
     }
 
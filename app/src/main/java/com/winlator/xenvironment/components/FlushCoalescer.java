@@ -0,0 +1,103 @@
+package com.winlator.xenvironment.components;
+
+import java.util.Arrays;
+
+/**
+ * Rate-limits frontbuffer flushes to the display refresh. A drawable flushed again before three quarters of
+ * a refresh interval has passed since it was last published is only marked pending (its texture already
+ * holds the newest frame); drainPending later publishes each pending drawable once. Guests running at or
+ * below the refresh rate are therefore published on every flush, faster ones once per refresh with the
+ * latest frame. Only a handful of drawables are ever flushed, so they are kept in small parallel arrays.
+ */
+public class FlushCoalescer {
+    public static final long DEFAULT_REFRESH_INTERVAL_NANOS = 1_000_000_000L / 60;
+    private int[] drawableIds = new int[4];
+    private long[] publishTimes = new long[4];
+    private boolean[] pending = new boolean[4];
+    private int size = 0;
+    private long minIntervalNanos;
+
+    public FlushCoalescer() {
+        this(DEFAULT_REFRESH_INTERVAL_NANOS);
+    }
+
+    public FlushCoalescer(long refreshIntervalNanos) {
+        setRefreshInterval(refreshIntervalNanos);
+    }
+
+    public synchronized void setRefreshInterval(long refreshIntervalNanos) {
+        minIntervalNanos = refreshIntervalNanos * 3 / 4;
+    }
+
+    /** Returns true if the drawable should be published now, otherwise it stays pending. */
+    public synchronized boolean onFlush(int drawableId, long now) {
+        int index = indexOf(drawableId);
+        if (index == -1) index = add(drawableId, now - minIntervalNanos);
+
+        if (now - publishTimes[index] >= minIntervalNanos) {
+            publishTimes[index] = now;
+            pending[index] = false;
+            return true;
+        }
+        pending[index] = true;
+        return false;
+    }
+
+    /** When the earliest pending drawable may be published, or -1 if none is pending. */
+    public synchronized long nextDeadline() {
+        long deadline = -1;
+        for (int i = 0; i < size; i++) {
+            if (!pending[i]) continue;
+            long time = publishTimes[i] + minIntervalNanos;
+            if (deadline == -1 || time < deadline) deadline = time;
+        }
+        return deadline;
+    }
+
+    /**
+     * Stores the ids of the pending drawables that are due into out (sized by getPendingCapacity()),
+     * marks them published and returns how many there are.
+     */
+    public synchronized int drainPending(long now, int[] out) {
+        int count = 0;
+        for (int i = 0; i < size && count < out.length; i++) {
+            if (!pending[i] || now - publishTimes[i] < minIntervalNanos) continue;
+            pending[i] = false;
+            publishTimes[i] = now;
+            out[count++] = drawableIds[i];
+        }
+        return count;
+    }
+
+    public synchronized int getPendingCapacity() {
+        return size;
+    }
+
+    public synchronized void remove(int drawableId) {
+        int index = indexOf(drawableId);
+        if (index == -1) return;
+        size--;
+        drawableIds[index] = drawableIds[size];
+        publishTimes[index] = publishTimes[size];
+        pending[index] = pending[size];
+    }
+
+    private int indexOf(int drawableId) {
+        for (int i = 0; i < size; i++) {
+            if (drawableIds[i] == drawableId) return i;
+        }
+        return -1;
+    }
+
+    private int add(int drawableId, long publishTime) {
+        if (size == drawableIds.length) {
+            drawableIds = Arrays.copyOf(drawableIds, size * 2);
+            publishTimes = Arrays.copyOf(publishTimes, size * 2);
+            pending = Arrays.copyOf(pending, size * 2);
+        }
+        drawableIds[size] = drawableId;
+        publishTimes[size] = publishTime;
+        pending[size] = false;
+        return size++;
+    }
+}
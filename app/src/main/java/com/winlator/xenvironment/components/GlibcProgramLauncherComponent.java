@@ -13,12 +13,12 @@ import com.winlator.box86_64.Box86_64PresetManager;
 import com.winlator.contents.ContentProfile;
 import com.winlator.contents.ContentsManager;
 import com.winlator.core.Callback;
+import com.winlator.core.ComponentFileCache;
 import com.winlator.core.DefaultVersion;
 import com.winlator.core.FileUtils;
 import com.winlator.core.GPUInformation;
 import com.winlator.core.envvars.EnvVars;
 import com.winlator.core.ProcessHelper;
-import com.winlator.core.TarCompressorUtils;
 import com.winlator.xconnector.UnixSocketConfig;
 import com.winlator.xenvironment.ImageFs;
 import com.winlator.container.Container;
@@ -234,8 +234,8 @@ public class GlibcProgramLauncherComponent extends GuestProgramLauncherComponent
             contentsManager.applyContent(profile);
         }
         else {
-            Log.d("Extraction", "exctracting box64 with box64Version " + box64Version);
-            TarCompressorUtils.extract(TarCompressorUtils.Type.ZSTD, context.getAssets(), "box86_64/box64-" + box64Version + ".tzst", rootDir);
+            Log.d("Extraction", "activating box64 with box64Version " + box64Version);
+            ComponentFileCache.extractAsset(context, "box86_64/box64-" + box64Version + ".tzst", rootDir, null);
         }
         PrefManager.putString("current_box64_version", box64Version);
     }
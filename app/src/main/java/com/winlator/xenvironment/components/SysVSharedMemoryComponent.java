@@ -16,6 +16,7 @@ public class SysVSharedMemoryComponent extends EnvironmentComponent {
     public final UnixSocketConfig socketConfig;
     private SysVSharedMemory sysVSharedMemory;
     private final XServer xServer;
+    private int reactorCount = 1;
 
     public SysVSharedMemoryComponent(XServer xServer, UnixSocketConfig socketConfig) {
         this.xServer = xServer;
@@ -28,11 +29,16 @@ public class SysVSharedMemoryComponent extends EnvironmentComponent {
         if (connector != null) return;
         sysVSharedMemory = new SysVSharedMemory();
         connector = new XConnectorEpoll(socketConfig, new SysVSHMConnectionHandler(sysVSharedMemory), new SysVSHMRequestHandler());
+        connector.setReactorCount(reactorCount);
         connector.start();
 
         xServer.setSHMSegmentManager(new SHMSegmentManager(sysVSharedMemory));
     }
 
+    public void setReactorCount(int reactorCount) {
+        this.reactorCount = reactorCount;
+    }
+
     @Override
     public void stop() {
         Log.d("SysVSharedMemoryComponent", "Stopping...");
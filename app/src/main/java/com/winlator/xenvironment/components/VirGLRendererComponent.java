@@ -1,6 +1,10 @@
 package com.winlator.xenvironment.components;
 
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
+import android.view.Display;
 
 import androidx.annotation.Keep;
 
@@ -13,40 +17,110 @@ import com.winlator.xconnector.UnixSocketConfig;
 import com.winlator.xconnector.XConnectorEpoll;
 import com.winlator.xenvironment.EnvironmentComponent;
 import com.winlator.xserver.Drawable;
+import com.winlator.xserver.XLock;
 import com.winlator.xserver.XServer;
 
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class VirGLRendererComponent extends EnvironmentComponent implements ConnectionHandler, RequestHandler {
+    private static final String TAG = "VirGLRendererComponent";
+    // Per-request and per-frame trace points, enabled with "adb shell setprop log.tag.VirGLRendererComponent VERBOSE"
+    private static final boolean TRACE = Log.isLoggable(TAG, Log.VERBOSE);
+    private static final long EGL_CONTEXT_TIMEOUT_MS = 10000;
     private final XServer xServer;
     private final UnixSocketConfig socketConfig;
+    private final Backend backend;
     private XConnectorEpoll connector;
-    private long sharedEGLContextPtr;
+    private volatile long sharedEGLContextPtr;
+    private final Object eglContextLock = new Object();
+    private boolean eglContextRequested = false;
+    private final FlushCoalescer flushCoalescer = new FlushCoalescer();
+    private final AtomicBoolean publishScheduled = new AtomicBoolean();
+    private final Handler publishHandler = new Handler(Looper.getMainLooper());
+    private final Runnable publishPending = this::publishPending;
+    private int[] drainedDrawableIds = new int[0];
+
+    /** The virglrenderer side of the component; replaced by a fake off device. */
+    interface Backend {
+        long handleNewConnection(int fd);
+
+        void handleRequest(long clientPtr);
+
+        long getCurrentEGLContextPtr();
+
+        void destroyClient(long clientPtr);
+
+        void copyFramebuffer(Texture texture, int framebuffer, short width, short height);
+    }
+
+    private class NativeBackend implements Backend {
+        @Override
+        public long handleNewConnection(int fd) {
+            return VirGLRendererComponent.this.handleNewConnection(fd);
+        }
+
+        @Override
+        public void handleRequest(long clientPtr) {
+            VirGLRendererComponent.this.handleRequest(clientPtr);
+        }
+
+        @Override
+        public long getCurrentEGLContextPtr() {
+            return VirGLRendererComponent.this.getCurrentEGLContextPtr();
+        }
+
+        @Override
+        public void destroyClient(long clientPtr) {
+            VirGLRendererComponent.this.destroyClient(clientPtr);
+        }
+
+        @Override
+        public void copyFramebuffer(Texture texture, int framebuffer, short width, short height) {
+            texture.copyFromFramebuffer(framebuffer, width, height);
+        }
+    }
 
     static {
-        System.loadLibrary("virglrenderer");
+        try {
+            System.loadLibrary("virglrenderer");
+        } catch (UnsatisfiedLinkError e) {
+            // Off device the component only runs against a fake backend
+            Log.e(TAG, "virglrenderer unavailable: " + e.getMessage());
+        }
     }
 
     public VirGLRendererComponent(XServer xServer, UnixSocketConfig socketConfig) {
+        this(xServer, socketConfig, null);
+    }
+
+    VirGLRendererComponent(XServer xServer, UnixSocketConfig socketConfig, Backend backend) {
         this.xServer = xServer;
         this.socketConfig = socketConfig;
+        this.backend = backend != null ? backend : new NativeBackend();
     }
 
     @Override
     public void start() {
-        Log.d("VirGLRendererComponent", "Starting...");
+        Log.d(TAG, "Starting...");
         if (connector != null) return;
+        // Fetch the GL thread's context now, so the first client does not wait for it
+        synchronized (eglContextLock) {
+            requestSharedEGLContext();
+        }
         connector = new XConnectorEpoll(socketConfig, this, this);
         connector.start();
     }
 
     @Override
     public void stop() {
-        Log.d("VirGLRendererComponent", "Stopping...");
+        Log.d(TAG, "Stopping...");
         if (connector != null) {
             connector.stop();
             connector = null;
         }
+        publishHandler.removeCallbacks(publishPending);
+        publishScheduled.set(false);
     }
 
     @Keep
@@ -54,70 +128,130 @@ public class VirGLRendererComponent extends EnvironmentComponent implements Conn
         connector.killConnection(connector.getClient(fd));
     }
 
+    /** Must be called with eglContextLock held. */
+    private void requestSharedEGLContext() {
+        if (eglContextRequested || sharedEGLContextPtr != 0) return;
+        GLRenderer renderer = xServer.getRenderer();
+        if (renderer == null) return;
+
+        eglContextRequested = true;
+        renderer.xServerView.queueEvent(() -> {
+            long contextPtr = backend.getCurrentEGLContextPtr();
+            Display display = renderer.xServerView.getDisplay();
+            if (display != null && display.getRefreshRate() > 0) {
+                flushCoalescer.setRefreshInterval((long)(1e9 / display.getRefreshRate()));
+            }
+
+            synchronized (eglContextLock) {
+                sharedEGLContextPtr = contextPtr;
+                eglContextRequested = false;
+                eglContextLock.notifyAll();
+            }
+        });
+    }
+
     @Keep
     private long getSharedEGLContext() {
-        Log.d("VirGLRendererComponent", "Calling getSharedEGLContext");
-        if (sharedEGLContextPtr != 0) return sharedEGLContextPtr;
-        final Thread thread = Thread.currentThread();
-        try {
-            GLRenderer renderer = xServer.getRenderer();
-            renderer.xServerView.queueEvent(() -> {
-                sharedEGLContextPtr = getCurrentEGLContextPtr();
+        long contextPtr = sharedEGLContextPtr;
+        if (contextPtr != 0) return contextPtr;
 
-                synchronized(thread) {
-                    thread.notify();
+        synchronized (eglContextLock) {
+            requestSharedEGLContext();
+            long deadline = SystemClock.uptimeMillis() + EGL_CONTEXT_TIMEOUT_MS;
+            try {
+                while (eglContextRequested) {
+                    long remaining = deadline - SystemClock.uptimeMillis();
+                    if (remaining <= 0) {
+                        Log.w(TAG, "Timed out waiting for the shared EGL context");
+                        break;
+                    }
+                    eglContextLock.wait(remaining);
                 }
-            });
-            synchronized (thread) {
-                thread.wait();
             }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return sharedEGLContextPtr;
         }
-        catch (Exception e) {
-            return 0;
-        }
-        Log.d("VirGLRendererComponent", "Finished getSharedEGLContext");
-        return sharedEGLContextPtr;
     }
 
     @Override
     public void handleConnectionShutdown(Client client) {
         long clientPtr = (long)client.getTag();
-        destroyClient(clientPtr);
+        backend.destroyClient(clientPtr);
     }
 
     @Override
     public void handleNewConnection(Client client) {
-        Log.d("VirGLRendererComponent", "Calling handleNewConnection");
+        if (TRACE) Log.v(TAG, "handleNewConnection fd=" + client.clientSocket.fd);
         getSharedEGLContext();
-        long clientPtr = handleNewConnection(client.clientSocket.fd);
+        long clientPtr = backend.handleNewConnection(client.clientSocket.fd);
         client.setTag(clientPtr);
-        Log.d("VirGLRendererComponent", "Finished handleNewConnection");
     }
 
     @Override
     public boolean handleRequest(Client client) throws IOException {
-        Log.d("VirGLRendererComponent", "Calling handleRequest");
         long clientPtr = (long)client.getTag();
-        handleRequest(clientPtr);
-        Log.d("VirGLRendererComponent", "Finished handleRequest");
+        if (TRACE) Log.v(TAG, "handleRequest client=" + clientPtr);
+        backend.handleRequest(clientPtr);
         return true;
     }
 
     @Keep
     private void flushFrontbuffer(int drawableId, int framebuffer) {
-        Log.d("VirGLRendererComponent", "Calling flushFrontbuffer");
+        if (TRACE) Log.v(TAG, "flushFrontbuffer drawable=" + drawableId + " framebuffer=" + framebuffer);
         Drawable drawable = xServer.drawableManager.getDrawable(drawableId);
-        if (drawable == null) return;
+        if (drawable == null) {
+            flushCoalescer.remove(drawableId);
+            return;
+        }
 
+        // The framebuffer only lives in this thread's context, so every frame is copied, but the X
+        // server hears about at most one per display refresh
         synchronized (drawable.renderLock) {
             drawable.setData(null);
-            Texture texture = drawable.getTexture();
-            texture.copyFromFramebuffer(framebuffer, drawable.width, drawable.height);
+            backend.copyFramebuffer(drawable.getTexture(), framebuffer, drawable.width, drawable.height);
+        }
+
+        long now = System.nanoTime();
+        if (flushCoalescer.onFlush(drawableId, now)) {
+            try (XLock lock = xServer.lock(XServer.Lockable.DRAWABLE_MANAGER)) {
+                publish(drawable);
+            }
         }
+        else schedulePublish(now);
+    }
 
+    /** Must be called with the drawable manager locked, the X threads replace drawables while resizing windows. */
+    private void publish(Drawable drawable) {
         Runnable onDrawListener = drawable.getOnDrawListener();
         if (onDrawListener != null) onDrawListener.run();
-        Log.d("VirGLRendererComponent", "Finished flushFrontbuffer");
+    }
+
+    private void schedulePublish(long now) {
+        long deadline = flushCoalescer.nextDeadline();
+        if (deadline == -1 || publishScheduled.getAndSet(true)) return;
+        publishHandler.postDelayed(publishPending, Math.max(1, (deadline - now + 999999) / 1000000));
+    }
+
+    private void publishPending() {
+        publishScheduled.set(false);
+        long now = System.nanoTime();
+        if (drainedDrawableIds.length < flushCoalescer.getPendingCapacity()) {
+            drainedDrawableIds = new int[flushCoalescer.getPendingCapacity()];
+        }
+
+        int count = flushCoalescer.drainPending(now, drainedDrawableIds);
+        if (count > 0) {
+            // This runs on the main looper, so keep the X threads from replacing the drawables meanwhile
+            try (XLock lock = xServer.lock(XServer.Lockable.DRAWABLE_MANAGER)) {
+                for (int i = 0; i < count; i++) {
+                    Drawable drawable = xServer.drawableManager.getDrawable(drainedDrawableIds[i]);
+                    if (drawable != null) publish(drawable);
+                }
+            }
+        }
+        schedulePublish(now);
     }
 
     private native long handleNewConnection(int fd);
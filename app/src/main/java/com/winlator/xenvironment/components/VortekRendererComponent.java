@@ -29,6 +29,7 @@ public class VortekRendererComponent extends EnvironmentComponent implements Con
     private final UnixSocketConfig socketConfig;
     private final XServer xServer;
     private Context context;
+    private int reactorCount = 1;
 
     private native long createVkContext(int i, Options options);
 
@@ -92,9 +93,14 @@ public class VortekRendererComponent extends EnvironmentComponent implements Con
         this.connector = xConnectorEpoll;
         xConnectorEpoll.setInitialInputBufferCapacity(8);
         this.connector.setInitialOutputBufferCapacity(0);
+        this.connector.setReactorCount(this.reactorCount);
         this.connector.start();
     }
 
+    public void setReactorCount(int reactorCount) {
+        this.reactorCount = reactorCount;
+    }
+
     @Override // com.winlator.xenvironment.EnvironmentComponent
     public void stop() {
         XConnectorEpoll xConnectorEpoll = this.connector;
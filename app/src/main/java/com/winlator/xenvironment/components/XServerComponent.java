@@ -2,9 +2,13 @@ package com.winlator.xenvironment.components;
 
 import android.util.Log;
 
+import java.io.File;
+import java.io.IOException;
+
 import com.winlator.xenvironment.EnvironmentComponent;
 import com.winlator.xconnector.XConnectorEpoll;
 import com.winlator.xconnector.UnixSocketConfig;
+import com.winlator.xconnector.XTraceRecorder;
 import com.winlator.xserver.XClientConnectionHandler;
 import com.winlator.xserver.XClientRequestHandler;
 import com.winlator.xserver.XServer;
@@ -13,6 +17,9 @@ public class XServerComponent extends EnvironmentComponent {
     private XConnectorEpoll connector;
     private final XServer xServer;
     private final UnixSocketConfig socketConfig;
+    private int reactorCount = 1;
+    private File traceFile;
+    private XTraceRecorder traceRecorder;
 
     public XServerComponent(XServer xServer, UnixSocketConfig socketConfig) {
         this.xServer = xServer;
@@ -26,16 +33,43 @@ public class XServerComponent extends EnvironmentComponent {
         connector = new XConnectorEpoll(socketConfig, new XClientConnectionHandler(xServer), new XClientRequestHandler());
         connector.setInitialInputBufferCapacity(262144);
         connector.setCanReceiveAncillaryMessages(true);
+        connector.setReactorCount(reactorCount);
+        if (traceFile != null) {
+            try {
+                traceRecorder = new XTraceRecorder(traceFile, socketConfig.path);
+                connector.setTraceRecorder(traceRecorder);
+                Log.i("XServerComponent", "Recording X11 trace to " + traceFile);
+            }
+            catch (IOException e) {
+                Log.e("XServerComponent", "Failed to start X11 trace: " + e);
+            }
+        }
         connector.start();
     }
 
     @Override
     public void stop() {
         Log.d("XServerComponent", "Stopping...");
+        if (xServer.metrics.isEnabled()) Log.i("XServerComponent", xServer.metrics.snapshot().toString());
         if (connector != null) {
             connector.stop();
             connector = null;
         }
+        if (traceRecorder != null) {
+            traceRecorder.close();
+            traceRecorder = null;
+        }
+    }
+
+    public void setReactorCount(int reactorCount) {
+        this.reactorCount = reactorCount;
+    }
+
+    /**
+     * Records all client traffic to this file from the next start, for replay with XTraceReplayer.
+     */
+    public void setTraceFile(File traceFile) {
+        this.traceFile = traceFile;
     }
 
     public XServer getXServer() {
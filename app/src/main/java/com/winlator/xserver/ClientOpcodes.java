@@ -1,6 +1,10 @@
 package com.winlator.xserver;
 
+import java.lang.reflect.Field;
+
 public abstract class ClientOpcodes {
+    private static String[] names;
+
     public static final byte CREATE_WINDOW = 1;
     public static final byte CHANGE_WINDOW_ATTRIBUTES = 2;
     public static final byte GET_WINDOW_ATTRIBUTES = 3;
@@ -61,4 +65,21 @@ public abstract class ClientOpcodes {
     public static final byte GET_POINTER_MAPPING = 117;
     public static final byte GET_MODIFIER_MAPPING = 119;
     public static final byte NO_OPERATION = 127;
+
+    /** Name of a core opcode as declared here, for metrics and trace reports. */
+    public static String getName(byte opcode) {
+        if (names == null) {
+            String[] newNames = new String[128];
+            for (Field field : ClientOpcodes.class.getFields()) {
+                if (field.getType() != byte.class) continue;
+                try {
+                    byte value = field.getByte(null);
+                    if (value >= 0) newNames[value] = field.getName();
+                }
+                catch (IllegalAccessException e) {}
+            }
+            names = newNames;
+        }
+        return opcode >= 0 && names[opcode] != null ? names[opcode] : "Opcode" + (opcode & 0xff);
+    }
 }
@@ -1,11 +1,9 @@
 package com.winlator.xserver;
 
-import android.util.SparseArray;
-
 import java.nio.IntBuffer;
 
 public class CursorManager extends XResourceManager {
-    private final SparseArray<Cursor> cursors = new SparseArray<>();
+    private final ResourceTable<Cursor> cursors = new ResourceTable<>();
     private final DrawableManager drawableManager;
 
     public CursorManager(DrawableManager drawableManager) {
@@ -17,8 +15,11 @@ public class CursorManager extends XResourceManager {
     }
 
     public Cursor createCursor(int id, short x, short y, Pixmap sourcePixmap, Pixmap maskPixmap) {
-        if (cursors.indexOfKey(id) >= 0) return null;
+        if (cursors.contains(id)) return null;
         Drawable drawable = drawableManager.createDrawable(0, sourcePixmap.drawable.width, sourcePixmap.drawable.height, sourcePixmap.drawable.visual);
+        // The pixmaps may be freed right after, the cursor keeps their storage for recolouring
+        sourcePixmap.drawable.retain();
+        if (maskPixmap != null) maskPixmap.drawable.retain();
         Cursor cursor = new Cursor(id, x, y, drawable, sourcePixmap.drawable, maskPixmap != null ? maskPixmap.drawable : null);
         cursors.put(id, cursor);
         triggerOnCreateResourceListener(cursor);
@@ -26,8 +27,22 @@ public class CursorManager extends XResourceManager {
     }
 
     public void freeCursor(int id) {
-        triggerOnFreeResourceListener(cursors.get(id));
+        Cursor cursor = cursors.get(id);
+        triggerOnFreeResourceListener(cursor);
         cursors.remove(id);
+        if (cursor != null) releaseCursorImages(cursor);
+    }
+
+    public void freeClientCursors(int idBase) {
+        cursors.removeClient(idBase, (cursor) -> {
+            triggerOnFreeResourceListener(cursor);
+            releaseCursorImages(cursor);
+        });
+    }
+
+    private static void releaseCursorImages(Cursor cursor) {
+        cursor.sourceImage.release();
+        if (cursor.maskImage != null) cursor.maskImage.release();
     }
 
     private static boolean isEmptyMaskImage(Drawable maskImage) {
@@ -1,6 +1,7 @@
 package com.winlator.xserver;
 
 import android.graphics.Bitmap;
+import android.util.Log;
 
 import com.winlator.core.Callback;
 import com.winlator.math.Mathf;
@@ -11,7 +12,12 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 
 public class Drawable extends XResource {
+    public static final int PRIMITIVE_RECTANGLES = 0;
+    public static final int PRIMITIVE_LINES = 1;
     private ByteBuffer data;
+    private ByteBuffer pooledData;
+    private final DrawableBufferPool pool;
+    private int references = 1;
     public final short height;
     private boolean offscreenStorage;
     private Callback<Drawable> onDestroyListener;
@@ -36,11 +42,30 @@ public class Drawable extends XResource {
 
     private static native void fromBitmap(Bitmap bitmap, ByteBuffer byteBuffer);
 
+    private static native long rasterize(int primitiveType, ByteBuffer primitives, int count, boolean swapBytes, int color, int lineWidth, int gcFunction, short clipX, short clipY, short clipWidth, short clipHeight, short stride, ByteBuffer data);
+
+    private static final boolean nativeDrawing;
+    private static boolean nativeRasterize;
+
     static {
-        System.loadLibrary("winlator_11");
+        boolean loaded = false;
+        try {
+            System.loadLibrary("winlator_11");
+            loaded = true;
+        } catch (UnsatisfiedLinkError e) {
+            // Off device (JVM tests and trace replay) the X server runs on the Java fallbacks below
+            Log.e("Drawable", "Native drawing unavailable: " + e.getMessage());
+        }
+        nativeDrawing = loaded;
+        nativeRasterize = loaded;
     }
 
     public Drawable(int id, int width, int height, Visual visual) {
+        this(id, width, height, visual, null);
+    }
+
+    /** Takes its storage from pool when one is given; it goes back once every reference is released. */
+    public Drawable(int id, int width, int height, Visual visual, DrawableBufferPool pool) {
         super(id);
         this.texture = new Texture();
         this.offscreenStorage = false;
@@ -48,7 +73,11 @@ public class Drawable extends XResource {
         this.width = (short)width;
         this.height = (short)height;
         this.visual = visual;
-        this.data = ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.LITTLE_ENDIAN);
+        this.pool = pool;
+        if (pool != null) {
+            this.data = this.pooledData = pool.acquire(width * height * 4, true);
+        }
+        else this.data = ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.LITTLE_ENDIAN);
     }
 
     public static Drawable fromBitmap(Bitmap bitmap) {
@@ -70,7 +99,7 @@ public class Drawable extends XResource {
     }
 
     public void setTexture(Texture texture) {
-        if (texture instanceof GPUImage) data = ((GPUImage)texture).getVirtualData();
+        if (texture instanceof GPUImage) setData(((GPUImage)texture).getVirtualData());
         this.texture = texture;
     }
 
@@ -79,9 +108,29 @@ public class Drawable extends XResource {
     }
 
     public void setData(ByteBuffer data) {
+        if (data != pooledData) releasePooledData();
         this.data = data;
     }
 
+    /** Keeps the storage alive for a user other than the drawable manager, such as a cursor. */
+    public synchronized void retain() {
+        references++;
+    }
+
+    public synchronized void release() {
+        if (--references == 0 && pooledData != null) {
+            if (data == pooledData) data = null;
+            releasePooledData();
+        }
+    }
+
+    private void releasePooledData() {
+        if (pooledData != null) {
+            pool.release(pooledData);
+            pooledData = null;
+        }
+    }
+
     private short getStride() {
         return texture instanceof GPUImage ? ((GPUImage)texture).getStride() : width;
     }
@@ -117,7 +166,7 @@ public class Drawable extends XResource {
                 if ((dstX + width) > this.width) width = (short)((this.width - dstX));
                 if ((dstY + height) > this.height) height = (short)((this.height - dstY));
 
-                copyArea(srcX, srcY, dstX, dstY, width, height, totalWidth, this.getStride(), data, this.data);
+                copyPixels(srcX, srcY, dstX, dstY, width, height, totalWidth, this.getStride(), data, this.data);
             }
             this.data.rewind();
             data.rewind();
@@ -128,17 +177,22 @@ public class Drawable extends XResource {
         forceUpdate();
     }
 
-    public ByteBuffer getImage(short x, short y, short width, short height) {
-        ByteBuffer dstData = ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.LITTLE_ENDIAN);
-        if (this.data == null) {
-            return dstData;
-        }
+    /** The image is taken from pool when one is given; hand it back with pool.release once written out. */
+    public ByteBuffer getImage(short x, short y, short width, short height, DrawableBufferPool pool) {
+        int size = width * height * 4;
         x = (short)Mathf.clamp(x, 0, this.width-1);
         y = (short)Mathf.clamp(y, 0, this.height-1);
         if ((x + width) > this.width) width = (short)(this.width - x);
         if ((y + height) > this.height) height = (short)(this.height - y);
 
-        copyArea(x, y, (short)0, (short)0, width, height, this.getStride(), width, this.data, dstData);
+        // A recycled buffer only needs zeroing when the copy below does not overwrite all of it
+        boolean covered = this.data != null && width * height * 4 == size;
+        ByteBuffer dstData = pool != null ? pool.acquire(size, !covered) : ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+        if (this.data == null) {
+            return dstData;
+        }
+
+        copyPixels(x, y, (short)0, (short)0, width, height, this.getStride(), width, this.data, dstData);
 
         this.data.rewind();
         dstData.rewind();
@@ -157,7 +211,7 @@ public class Drawable extends XResource {
             if ((dstY + height) > this.height) height = (short)(this.height - dstY);
 
             if (gcFunction == GraphicsContext.Function.COPY) {
-                copyArea(srcX, srcY, dstX, dstY, width, height, drawable.getStride(), this.getStride(), drawable.data, this.data);
+                copyPixels(srcX, srcY, dstX, dstY, width, height, drawable.getStride(), this.getStride(), drawable.data, this.data);
             }
             else copyAreaOp(srcX, srcY, dstX, dstY, width, height, drawable.getStride(), this.getStride(), drawable.data, this.data, gcFunction.ordinal());
 
@@ -180,15 +234,217 @@ public class Drawable extends XResource {
         if ((x + width) > this.width) width = (short)((this.width - x));
         if ((y + height) > this.height) height = (short)((this.height - y));
 
-        fillRect((short)x, (short)y, (short)width, (short)height, color, this.getStride(), this.data);
+        fillPixels((short)x, (short)y, (short)width, (short)height, color, this.getStride(), this.data);
         this.data.rewind();
         forceUpdate();
     }
 
-    public void drawLines(int color, int lineWidth, short... points) {
-        for (int i = 2; i < points.length; i += 2) {
-            drawLine(points[i-2], points[i-1], points[i+0], points[i+1], color, (short)lineWidth);
+    private static void copyPixels(short srcX, short srcY, short dstX, short dstY, short width, short height, short srcStride, short dstStride, ByteBuffer srcData, ByteBuffer dstData) {
+        if (nativeDrawing) {
+            copyArea(srcX, srcY, dstX, dstY, width, height, srcStride, dstStride, srcData, dstData);
+            return;
+        }
+        ByteBuffer src = srcData.duplicate();
+        ByteBuffer dst = dstData.duplicate();
+        src.clear();
+        dst.clear();
+        int rowBytes = width * 4;
+        for (int y = 0; y < height; y++) {
+            int srcOffset = (srcX + (y + srcY) * srcStride) * 4;
+            src.limit(srcOffset + rowBytes).position(srcOffset);
+            dst.position((dstX + (y + dstY) * dstStride) * 4);
+            dst.put(src);
+        }
+    }
+
+    private static void fillPixels(short x, short y, short width, short height, int color, short stride, ByteBuffer data) {
+        if (nativeDrawing) {
+            fillRect(x, y, width, height, color, stride, data);
+            return;
+        }
+        ByteBuffer dst = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int pixel = 0xff000000 | (color & 0xffffff);
+        for (int row = 0; row < height; row++) {
+            int offset = (x + (row + y) * stride) * 4;
+            for (int i = 0; i < width; i++) dst.putInt(offset + i * 4, pixel);
+        }
+    }
+
+    /**
+     * Fills count rectangles read from the request data as x, y, width, height (16-bit values in the
+     * buffer's byte order), clipped to the drawable. Returns the damage as packed by {@link #packDamage}.
+     */
+    public long fillRects(ByteBuffer rects, int count, int color, GraphicsContext.Function gcFunction) {
+        return rasterizePrimitives(PRIMITIVE_RECTANGLES, rects, count, color, 0, gcFunction);
+    }
+
+    /**
+     * Draws a line through count x, y points read from the request data, each point stamped as a
+     * lineWidth square. Returns the damage as packed by {@link #packDamage}.
+     */
+    public long drawLines(ByteBuffer points, int count, int color, int lineWidth) {
+        return rasterizePrimitives(PRIMITIVE_LINES, points, count, color, lineWidth, GraphicsContext.Function.COPY);
+    }
+
+    private long rasterizePrimitives(int primitiveType, ByteBuffer primitives, int count, int color, int lineWidth, GraphicsContext.Function gcFunction) {
+        if (this.data == null || count == 0) return 0;
+
+        long damage = 0;
+        boolean rasterized = false;
+        if (nativeRasterize && primitives.isDirect()) {
+            try {
+                boolean swapBytes = primitives.order() != ByteOrder.nativeOrder();
+                damage = rasterize(primitiveType, primitives, count, swapBytes, color, lineWidth, gcFunction.ordinal(), (short)0, (short)0, width, height, this.getStride(), this.data);
+                rasterized = true;
+            }
+            catch (UnsatisfiedLinkError e) {
+                // An older prebuilt library without the batch entry point
+                Log.w("Drawable", "Native rasterize unavailable: " + e.getMessage());
+                nativeRasterize = false;
+            }
+        }
+
+        if (!rasterized) {
+            damage = primitiveType == PRIMITIVE_LINES ?
+                rasterizeLines(primitives, count, color, lineWidth) :
+                rasterizeRects(primitives, count, color, gcFunction);
+        }
+
+        this.data.rewind();
+        if (damageWidth(damage) > 0) forceUpdate();
+        return damage;
+    }
+
+    private long rasterizeRects(ByteBuffer rects, int count, int color, GraphicsContext.Function gcFunction) {
+        if (gcFunction == GraphicsContext.Function.NO_OP) return 0;
+        ByteBuffer dst = this.data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        short stride = this.getStride();
+        int left = width, top = height, right = 0, bottom = 0;
+
+        for (int i = 0; i < count; i++) {
+            int x = rects.getShort(i * 8);
+            int y = rects.getShort(i * 8 + 2);
+            int x0 = Math.max(x, 0);
+            int y0 = Math.max(y, 0);
+            int x1 = Math.min(x + (rects.getShort(i * 8 + 4) & 0xffff), width);
+            int y1 = Math.min(y + (rects.getShort(i * 8 + 6) & 0xffff), height);
+            if (x0 >= x1 || y0 >= y1) continue;
+
+            if (gcFunction == GraphicsContext.Function.COPY) {
+                // Plain fills keep going through the native fillRect of the prebuilt library
+                fillPixels((short)x0, (short)y0, (short)(x1 - x0), (short)(y1 - y0), color, stride, this.data);
+            }
+            else {
+                for (int row = y0; row < y1; row++) {
+                    for (int col = x0; col < x1; col++) {
+                        int offset = (col + row * stride) * 4;
+                        dst.putInt(offset, applyFunction(gcFunction, color, dst.getInt(offset)));
+                    }
+                }
+            }
+            left = Math.min(left, x0);
+            top = Math.min(top, y0);
+            right = Math.max(right, x1);
+            bottom = Math.max(bottom, y1);
+        }
+        return right > left ? packDamage(left, top, right - left, bottom - top) : 0;
+    }
+
+    private long rasterizeLines(ByteBuffer points, int count, int color, int lineWidth) {
+        if (lineWidth <= 0) return 0;
+        int left = width, top = height, right = 0, bottom = 0;
+
+        for (int i = 1; i < count; i++) {
+            int x0 = Mathf.clamp(points.getShort((i - 1) * 4), 0, width-lineWidth);
+            int y0 = Mathf.clamp(points.getShort((i - 1) * 4 + 2), 0, height-lineWidth);
+            int x1 = Mathf.clamp(points.getShort(i * 4), 0, width-lineWidth);
+            int y1 = Mathf.clamp(points.getShort(i * 4 + 2), 0, height-lineWidth);
+
+            if (nativeDrawing) {
+                // Without the batch entry point, one native drawLine per segment as before
+                drawLine((short)x0, (short)y0, (short)x1, (short)y1, color, (short)lineWidth, this.getStride(), this.data);
+                left = Math.max(Math.min(left, Math.min(x0, x1)), 0);
+                top = Math.max(Math.min(top, Math.min(y0, y1)), 0);
+                right = Math.min(Math.max(right, Math.max(x0, x1) + lineWidth), width);
+                bottom = Math.min(Math.max(bottom, Math.max(y0, y1) + lineWidth), height);
+                continue;
+            }
+
+            int dx =  Math.abs(x1-x0);
+            int dy = -Math.abs(y1-y0);
+            int sx = x0 < x1 ? 1 : -1;
+            int sy = y0 < y1 ? 1 : -1;
+            int e1 = dx + dy, e2;
+
+            while (true) {
+                int stampX0 = Math.max(x0, 0), stampY0 = Math.max(y0, 0);
+                int stampX1 = Math.min(x0 + lineWidth, width), stampY1 = Math.min(y0 + lineWidth, height);
+                if (stampX0 < stampX1 && stampY0 < stampY1) {
+                    fillPixels((short)stampX0, (short)stampY0, (short)(stampX1 - stampX0), (short)(stampY1 - stampY0), color, this.getStride(), this.data);
+                    left = Math.min(left, stampX0);
+                    top = Math.min(top, stampY0);
+                    right = Math.max(right, stampX1);
+                    bottom = Math.max(bottom, stampY1);
+                }
+                if (x0 == x1 && y0 == y1) break;
+
+                e2 = e1 * 2;
+                if (e2 >= dy) {
+                    e1 += dy;
+                    x0 += sx;
+                }
+                if (e2 <= dx) {
+                    e1 += dx;
+                    y0 += sy;
+                }
+            }
         }
+        return right > left ? packDamage(left, top, right - left, bottom - top) : 0;
+    }
+
+    /** Applies gcFunction to the colour bytes of dst, keeping its alpha, as copyAreaOp does */
+    private static int applyFunction(GraphicsContext.Function gcFunction, int src, int dst) {
+        int result;
+        switch (gcFunction) {
+            case CLEAR: result = 0; break;
+            case AND: result = src & dst; break;
+            case AND_REVERSE: result = src & ~dst; break;
+            case COPY: result = src; break;
+            case AND_INVERTED: result = ~src & dst; break;
+            case XOR: result = src ^ dst; break;
+            case OR: result = src | dst; break;
+            case NOR: result = ~src & ~dst; break;
+            case EQUIV: result = ~src ^ dst; break;
+            case INVERT: result = ~dst; break;
+            case OR_REVERSE: result = src | ~dst; break;
+            case COPY_INVERTED: result = ~src; break;
+            case OR_INVERTED: result = ~src | dst; break;
+            case NAND: result = ~src | ~dst; break;
+            case SET: result = 0xffffff; break;
+            case NO_OP:
+            default: result = dst; break;
+        }
+        return (result & 0xffffff) | (dst & 0xff000000);
+    }
+
+    public static long packDamage(int x, int y, int width, int height) {
+        return (x & 0xffffL) | (y & 0xffffL) << 16 | (width & 0xffffL) << 32 | (height & 0xffffL) << 48;
+    }
+
+    public static short damageX(long damage) {
+        return (short)damage;
+    }
+
+    public static short damageY(long damage) {
+        return (short)(damage >> 16);
+    }
+
+    public static short damageWidth(long damage) {
+        return (short)(damage >> 32);
+    }
+
+    public static short damageHeight(long damage) {
+        return (short)(damage >> 48);
     }
 
     public void drawLine(int x0, int y0, int x1, int y1, int color, int lineWidth) {
@@ -222,7 +478,7 @@ public class Drawable extends XResource {
 
     public void forceUpdate() {
         if (!this.offscreenStorage) {
-            this.texture.setNeedsUpdate(true);
+            if (this.texture != null) this.texture.setNeedsUpdate(true);
             Runnable runnable = this.onDrawListener;
             if (runnable != null) {
                 runnable.run();
@@ -0,0 +1,146 @@
+package com.winlator.xserver;
+
+import android.content.ComponentCallbacks2;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+
+/**
+ * Direct buffers for pixmap storage and GetImage replies, recycled instead of left to the GC. Sizes are
+ * rounded up to classes four to a power of two, so a recycled buffer wastes at most a quarter of its
+ * size. Fresh buffers come zeroed from allocateDirect; recycled ones are only cleared when the caller asks
+ * for it, and then only the bytes it uses.
+ */
+public class DrawableBufferPool {
+    public static final long DEFAULT_MAX_POOLED_BYTES = 64L << 20;
+    private static final int MIN_CLASS_SHIFT = 10;
+    private static final int MIN_CLASS_BYTES = 1 << MIN_CLASS_SHIFT;
+    private static final int MAX_POOLED_BUFFER_BYTES = 16 << 20;
+    private static final byte[] ZEROS = new byte[64 * 1024];
+    private final ArrayDeque<ByteBuffer>[] freeBuffers;
+    private final IdentityHashMap<ByteBuffer, ByteBuffer> leasedBuffers = new IdentityHashMap<>();
+    private long maxPooledBytes;
+    private long pooledBytes;
+    private long leasedBytes;
+    private int hits;
+    private int misses;
+
+    public DrawableBufferPool() {
+        this(DEFAULT_MAX_POOLED_BYTES);
+    }
+
+    @SuppressWarnings("unchecked")
+    public DrawableBufferPool(long maxPooledBytes) {
+        this.maxPooledBytes = maxPooledBytes;
+        freeBuffers = new ArrayDeque[classIndex(MAX_POOLED_BUFFER_BYTES) + 1];
+    }
+
+    static int classIndex(int size) {
+        if (size <= MIN_CLASS_BYTES) return 0;
+        int shift = 31 - Integer.numberOfLeadingZeros(size - 1);
+        int step = 1 << (shift - 2);
+        int steps = (size - (1 << shift) + step - 1) / step;
+        return (shift - MIN_CLASS_SHIFT) * 4 + steps;
+    }
+
+    static int classBytes(int index) {
+        if (index == 0) return MIN_CLASS_BYTES;
+        int shift = MIN_CLASS_SHIFT + (index - 1) / 4;
+        return (1 << shift) + ((index - 1) % 4 + 1) * (1 << (shift - 2));
+    }
+
+    /**
+     * A little-endian direct buffer with a capacity of exactly size bytes. Pass zeroed = false only when
+     * every byte is about to be overwritten.
+     */
+    public synchronized ByteBuffer acquire(int size, boolean zeroed) {
+        if (size > MAX_POOLED_BUFFER_BYTES) {
+            misses++;
+            return ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        int index = classIndex(size);
+        ArrayDeque<ByteBuffer> buffers = freeBuffers[index];
+        ByteBuffer backing = buffers != null ? buffers.pollLast() : null;
+        if (backing != null) {
+            hits++;
+            pooledBytes -= backing.capacity();
+            if (zeroed) clear(backing, size);
+        }
+        else {
+            misses++;
+            backing = ByteBuffer.allocateDirect(classBytes(index));
+        }
+
+        backing.clear().limit(size);
+        ByteBuffer buffer = backing.slice().order(ByteOrder.LITTLE_ENDIAN);
+        leasedBuffers.put(buffer, backing);
+        leasedBytes += backing.capacity();
+        return buffer;
+    }
+
+    /** Takes back a buffer from acquire; the caller must not touch it afterwards. Other buffers are ignored. */
+    public synchronized void release(ByteBuffer buffer) {
+        ByteBuffer backing = leasedBuffers.remove(buffer);
+        if (backing == null) return;
+        leasedBytes -= backing.capacity();
+        if (pooledBytes + backing.capacity() > maxPooledBytes) return;
+
+        int index = classIndex(backing.capacity());
+        if (freeBuffers[index] == null) freeBuffers[index] = new ArrayDeque<>();
+        freeBuffers[index].addLast(backing);
+        pooledBytes += backing.capacity();
+    }
+
+    /** Drops idle buffers, largest classes first, until at most maxBytes stay pooled. */
+    public synchronized void trim(long maxBytes) {
+        for (int i = freeBuffers.length - 1; i >= 0 && pooledBytes > maxBytes; i--) {
+            ArrayDeque<ByteBuffer> buffers = freeBuffers[i];
+            while (buffers != null && !buffers.isEmpty() && pooledBytes > maxBytes) {
+                pooledBytes -= buffers.pollFirst().capacity();
+            }
+        }
+    }
+
+    /** Follows ComponentCallbacks2.onTrimMemory: halves the pool when memory runs low, empties it when critical or in the background. */
+    public void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            trim(0);
+        }
+        else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            trim(getPooledBytes() / 2);
+        }
+    }
+
+    public synchronized long getMaxPooledBytes() {
+        return maxPooledBytes;
+    }
+
+    public synchronized void setMaxPooledBytes(long maxPooledBytes) {
+        this.maxPooledBytes = maxPooledBytes;
+        trim(maxPooledBytes);
+    }
+
+    private static void clear(ByteBuffer buffer, int size) {
+        buffer.clear();
+        while (buffer.position() < size) buffer.put(ZEROS, 0, Math.min(ZEROS.length, size - buffer.position()));
+    }
+
+    public synchronized long getPooledBytes() {
+        return pooledBytes;
+    }
+
+    public synchronized long getLeasedBytes() {
+        return leasedBytes;
+    }
+
+    public synchronized int getHits() {
+        return hits;
+    }
+
+    public synchronized int getMisses() {
+        return misses;
+    }
+}
@@ -1,8 +1,7 @@
 package com.winlator.xserver;
 
-import android.util.SparseArray;
-
 import com.winlator.core.Callback;
+import com.winlator.renderer.GLRenderer;
 import com.winlator.renderer.Texture;
 import com.winlator.widget.XServerView;
 import com.winlator.xenvironment.components.VortekRendererComponent;
@@ -11,7 +10,8 @@ import java.util.Objects;
 
 public class DrawableManager extends XResourceManager implements XResourceManager.OnResourceLifecycleListener {
     private final XServer xServer;
-    private final SparseArray<Drawable> drawables = new SparseArray<>();
+    private final ResourceTable<Drawable> drawables = new ResourceTable<>();
+    public final DrawableBufferPool bufferPool = new DrawableBufferPool();
 
     public DrawableManager(XServer xServer) {
         this.xServer = xServer;
@@ -22,13 +22,23 @@ public class DrawableManager extends XResourceManager implements XResourceManage
         return drawables.get(id);
     }
 
+    /**
+     * Pixmap storage: taken from the buffer pool and handed back when the pixmap is freed. Depth 1
+     * pixmaps only ever serve as masks and sources, so they get no texture.
+     */
     public Drawable createDrawable(int id, short width, short height, byte depth) {
-        return createDrawable(id, width, height, xServer.pixmapManager.getVisualForDepth(depth));
+        Visual visual = xServer.pixmapManager.getVisualForDepth(depth);
+        if (id == 0) return new Drawable(id, width, height, visual);
+        if (drawables.contains(id)) return null;
+        Drawable drawable = new Drawable(id, width, height, visual, bufferPool);
+        if (depth == 1) drawable.setTexture(null);
+        drawables.put(id, drawable);
+        return drawable;
     }
 
     public Drawable createDrawable(int id, short width, short height, Visual visual) {
         if (id == 0) return new Drawable(id, width, height, visual);
-        if (drawables.indexOfKey(id) >= 0) return null;
+        if (drawables.contains(id)) return null;
         Drawable drawable = new Drawable(id, width, height, visual);
         drawables.put(id, drawable);
         return drawable;
@@ -43,13 +53,15 @@ public class DrawableManager extends XResourceManager implements XResourceManage
 //            Objects.requireNonNull(texture);
 //            xServerView.queueEvent(() -> VortekRendererComponent.destroyTexture(texture));
 //        }
-        if (texture != null) xServer.getRenderer().xServerView.queueEvent(texture::destroy);
+        GLRenderer renderer = xServer.getRenderer();
+        if (texture != null && renderer != null) renderer.xServerView.queueEvent(texture::destroy);
 
         Callback<Drawable> onDestroyListener = drawable.getOnDestroyListener();
         if (onDestroyListener != null) onDestroyListener.call(drawable);
 
         drawable.setOnDrawListener(null);
         drawables.remove(id);
+        drawable.release();
     }
 
     @Override
@@ -61,7 +73,7 @@ public class DrawableManager extends XResourceManager implements XResourceManage
         return xServer.pixmapManager.visual;
     }
 
-    public SparseArray<Drawable> all(){
+    public ResourceTable<Drawable> all(){
         return drawables;
     }
 }
@@ -24,6 +24,7 @@ public class EventListener {
     public void sendEvent(Event event) {
         try {
             event.send(client.getSequenceNumber(), client.getOutputStream());
+            if (client.xServer.metrics.isEnabled()) client.xServer.metrics.recordEvent(event.getCode());
         }
         catch (IOException e) {
             e.printStackTrace();
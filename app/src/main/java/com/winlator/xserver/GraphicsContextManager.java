@@ -1,18 +1,16 @@
 package com.winlator.xserver;
 
-import android.util.SparseArray;
-
 import com.winlator.xconnector.XInputStream;
 
 public class GraphicsContextManager extends XResourceManager {
-    private final SparseArray<GraphicsContext> graphicsContexts = new SparseArray<>();
+    private final ResourceTable<GraphicsContext> graphicsContexts = new ResourceTable<>();
 
     public GraphicsContext getGraphicsContext(int id) {
         return graphicsContexts.get(id);
     }
 
     public GraphicsContext createGraphicsContext(int id, Drawable drawable) {
-        if (graphicsContexts.indexOfKey(id) >= 0) return null;
+        if (graphicsContexts.contains(id)) return null;
         GraphicsContext graphicsContext = new GraphicsContext(id, drawable);
         graphicsContexts.put(id, graphicsContext);
         triggerOnCreateResourceListener(graphicsContext);
@@ -28,6 +26,10 @@ public class GraphicsContextManager extends XResourceManager {
         graphicsContexts.remove(id);
     }
 
+    public void freeClientGraphicsContexts(int idBase) {
+        graphicsContexts.removeClient(idBase, this::triggerOnFreeResourceListener);
+    }
+
     public void updateGraphicsContext(GraphicsContext dstContext, GraphicsContext srcContext, Bitmask valueMask) {
         for (int index : valueMask) {
             switch (index) {
@@ -1,13 +1,12 @@
 package com.winlator.xserver;
 
 import android.graphics.Bitmap;
-import android.util.SparseArray;
 
 public class PixmapManager extends XResourceManager {
     public final Visual visual;
     public final Visual[] supportedVisuals;
     public final PixmapFormat[] supportedPixmapFormats;
-    private final SparseArray<Pixmap> pixmaps = new SparseArray<>();
+    private final ResourceTable<Pixmap> pixmaps = new ResourceTable<>();
 
     public PixmapManager() {
         visual = new Visual(IDGenerator.generate(), true, 32, 24, 0xff0000, 0x00ff00, 0x0000ff);
@@ -25,7 +24,7 @@ public class PixmapManager extends XResourceManager {
     }
 
     public Pixmap createPixmap(Drawable drawable) {
-        if (pixmaps.indexOfKey(drawable.id) >= 0) return null;
+        if (pixmaps.contains(drawable.id)) return null;
         Pixmap pixmap = new Pixmap(drawable);
         pixmaps.put(drawable.id, pixmap);
         triggerOnCreateResourceListener(pixmap);
@@ -37,6 +36,10 @@ public class PixmapManager extends XResourceManager {
         pixmaps.remove(id);
     }
 
+    public void freeClientPixmaps(int idBase) {
+        pixmaps.removeClient(idBase, this::triggerOnFreeResourceListener);
+    }
+
     public Visual getVisualForDepth(byte depth) {
         if (depth == visual.depth) return visual;
         for (Visual visual : supportedVisuals) {
@@ -1,27 +1,33 @@
 package com.winlator.xserver;
 
-import androidx.collection.ArraySet;
-
-import java.util.Iterator;
-
 public class ResourceIDs {
-    private final ArraySet<Integer> idBases = new ArraySet<>();
+    public static final int MAX_CLIENTS = 128;
+    private final boolean[] usedBases;
     public final int idMask;
+    public final int indexBits;
 
     public ResourceIDs(int maxClients) {
+        indexBits = indexBits(maxClients);
+        idMask = (1 << indexBits) - 1;
+        usedBases = new boolean[maxClients];
+        usedBases[0] = true;
+    }
+
+    /** How many low bits of a resource id a client may choose, the rest being its id base. */
+    public static int indexBits(int maxClients) {
         int clientsBits = 32 - Integer.numberOfLeadingZeros(maxClients);
         clientsBits = Integer.bitCount(maxClients) == 1 ? clientsBits - 1 : clientsBits;
-        int base = 29 - clientsBits;
-        idMask = (1 << base) - 1;
-        for (int i = 1; i < maxClients; i++) idBases.add(i << base);
+        return 29 - clientsBits;
     }
 
     public synchronized Integer get() {
-        if (idBases.isEmpty()) return -1;
-        Iterator<Integer> iter = idBases.iterator();
-        int idBase = iter.next();
-        iter.remove();
-        return idBase;
+        for (int i = 1; i < usedBases.length; i++) {
+            if (!usedBases[i]) {
+                usedBases[i] = true;
+                return i << indexBits;
+            }
+        }
+        return -1;
     }
 
     public boolean isInInterval(int value, int idBase) {
@@ -29,6 +35,7 @@ public class ResourceIDs {
     }
 
     public synchronized void free(Integer idBase) {
-        idBases.add(idBase);
+        int i = idBase >>> indexBits;
+        if (idBase != -1 && i < usedBases.length) usedBases[i] = false;
     }
 }
@@ -0,0 +1,170 @@
+package com.winlator.xserver;
+
+import com.winlator.core.Callback;
+
+import java.util.Arrays;
+
+/**
+ * Resources keyed by X resource id. A client's ids are its base (see ResourceIDs) plus an index it counts
+ * up, so the table keeps one slot per client base and, inside it, pages of PAGE_SIZE entries addressed by
+ * the index: get, put and remove are a few array reads, and everything a client left behind is detached at
+ * once when it disconnects. Ids the server hands out itself (IDGenerator) fall in slot 0.
+ *
+ * Pages that empty out are recycled, so a client that keeps creating and freeing resources with ever
+ * growing ids only holds pages for the ids still alive. Like the SparseArrays it replaces, the table is
+ * guarded by the lock of the manager that owns it.
+ */
+public class ResourceTable<T> {
+    private static final int PAGE_BITS = 8;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    private static final int MAX_FREE_PAGES = 64;
+    private final int indexBits;
+    private final int indexMask;
+    private Slot[] slots = new Slot[2];
+    private final Object[][] freePages = new Object[MAX_FREE_PAGES][];
+    private int freePageCount = 0;
+    private int size = 0;
+
+    private static class Slot {
+        private Object[][] pages = new Object[1][];
+        private int[] pageCounts = new int[1];
+        private int count = 0;
+    }
+
+    public ResourceTable() {
+        this(ResourceIDs.indexBits(ResourceIDs.MAX_CLIENTS));
+    }
+
+    public ResourceTable(int indexBits) {
+        this.indexBits = indexBits;
+        this.indexMask = (1 << indexBits) - 1;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get(int id) {
+        int slotIndex = id >>> indexBits;
+        if (slotIndex >= slots.length) return null;
+        Slot slot = slots[slotIndex];
+        if (slot == null) return null;
+        int index = id & indexMask;
+        int pageIndex = index >>> PAGE_BITS;
+        if (pageIndex >= slot.pages.length) return null;
+        Object[] page = slot.pages[pageIndex];
+        return page != null ? (T)page[index & PAGE_MASK] : null;
+    }
+
+    public boolean contains(int id) {
+        return get(id) != null;
+    }
+
+    /** Stores the value under the id and returns the one it replaced, if any. */
+    @SuppressWarnings("unchecked")
+    public T put(int id, T value) {
+        if (value == null) return remove(id);
+        int slotIndex = id >>> indexBits;
+        if (slotIndex >= slots.length) slots = Arrays.copyOf(slots, Math.max(slotIndex + 1, slots.length * 2));
+        Slot slot = slots[slotIndex];
+        if (slot == null) slots[slotIndex] = slot = new Slot();
+
+        int index = id & indexMask;
+        int pageIndex = index >>> PAGE_BITS;
+        if (pageIndex >= slot.pages.length) {
+            int length = Math.max(pageIndex + 1, slot.pages.length * 2);
+            slot.pages = Arrays.copyOf(slot.pages, length);
+            slot.pageCounts = Arrays.copyOf(slot.pageCounts, length);
+        }
+        Object[] page = slot.pages[pageIndex];
+        if (page == null) slot.pages[pageIndex] = page = takePage();
+
+        T oldValue = (T)page[index & PAGE_MASK];
+        page[index & PAGE_MASK] = value;
+        if (oldValue == null) {
+            slot.pageCounts[pageIndex]++;
+            slot.count++;
+            size++;
+        }
+        return oldValue;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T remove(int id) {
+        int slotIndex = id >>> indexBits;
+        if (slotIndex >= slots.length) return null;
+        Slot slot = slots[slotIndex];
+        if (slot == null) return null;
+        int index = id & indexMask;
+        int pageIndex = index >>> PAGE_BITS;
+        if (pageIndex >= slot.pages.length) return null;
+        Object[] page = slot.pages[pageIndex];
+        if (page == null) return null;
+
+        T value = (T)page[index & PAGE_MASK];
+        if (value == null) return null;
+        page[index & PAGE_MASK] = null;
+        slot.count--;
+        size--;
+        if (--slot.pageCounts[pageIndex] == 0) {
+            slot.pages[pageIndex] = null;
+            recyclePage(page);
+        }
+        return value;
+    }
+
+    /**
+     * Detaches everything stored under the client's id base in one step, so none of it can be looked up
+     * any more, then passes each value to onRemoved (if not null) to be torn down. Returns how many there
+     * were.
+     */
+    @SuppressWarnings("unchecked")
+    public int removeClient(int idBase, Callback<T> onRemoved) {
+        int slotIndex = idBase >>> indexBits;
+        if (slotIndex >= slots.length || slots[slotIndex] == null) return 0;
+        Slot slot = slots[slotIndex];
+        slots[slotIndex] = null;
+        size -= slot.count;
+
+        for (int i = 0; i < slot.pages.length; i++) {
+            Object[] page = slot.pages[i];
+            if (page == null) continue;
+            if (onRemoved != null) {
+                for (int j = 0; j < PAGE_SIZE; j++) {
+                    if (page[j] != null) onRemoved.call((T)page[j]);
+                }
+            }
+            Arrays.fill(page, null);
+            recyclePage(page);
+        }
+        return slot.count;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** Visits every value in id order. The table must not be modified from the callback. */
+    @SuppressWarnings("unchecked")
+    public void forEach(Callback<T> callback) {
+        for (Slot slot : slots) {
+            if (slot == null || slot.count == 0) continue;
+            for (Object[] page : slot.pages) {
+                if (page == null) continue;
+                for (Object value : page) {
+                    if (value != null) callback.call((T)value);
+                }
+            }
+        }
+    }
+
+    private Object[] takePage() {
+        return freePageCount > 0 ? freePages[--freePageCount] : new Object[PAGE_SIZE];
+    }
+
+    private void recyclePage(Object[] page) {
+        if (freePageCount < MAX_FREE_PAGES) freePages[freePageCount++] = page;
+    }
+}
@@ -1,7 +1,5 @@
 package com.winlator.xserver;
 
-import android.util.SparseArray;
-
 import com.winlator.xconnector.XInputStream;
 import com.winlator.xserver.errors.BadIdChoice;
 import com.winlator.xserver.errors.BadMatch;
@@ -17,12 +15,14 @@ import com.winlator.xserver.events.ResizeRequest;
 import com.winlator.xserver.events.UnmapNotify;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 
 public class WindowManager extends XResourceManager {
     public enum FocusRevertTo {NONE, POINTER_ROOT, PARENT}
     public final Window rootWindow;
-    private final SparseArray<Window> windows = new SparseArray<>();
+    private final ResourceTable<Window> windows = new ResourceTable<>();
+    private final HashMap<Integer, ArrayList<Window>> windowsByProcessId = new HashMap<>();
     public final DrawableManager drawableManager;
     private Window focusedWindow;
     private FocusRevertTo focusRevertTo = FocusRevertTo.NONE;
@@ -57,14 +57,39 @@ public class WindowManager extends XResourceManager {
         return windows.get(id);
     }
 
+    /**
+     * The first window still carrying the given _NET_WM_PID. Windows are indexed when the property is set
+     * through ChangeProperty; entries whose property was since deleted or changed are dropped here.
+     */
     public Window findWindowWithProcessId(int processId) {
-        for (int i = 0; i < windows.size(); i++) {
-            Window window = windows.valueAt(i);
-            if (window != null && window.getProcessId() == processId) return window;
+        ArrayList<Window> processWindows = windowsByProcessId.get(processId);
+        if (processWindows == null) return null;
+        for (int i = 0; i < processWindows.size(); i++) {
+            Window window = processWindows.get(i);
+            if (window.getProcessId() == processId) return window;
+            processWindows.remove(i--);
         }
+        windowsByProcessId.remove(processId);
         return null;
     }
 
+    private void indexProcessId(Window window) {
+        int processId = window.getProcessId();
+        if (processId == 0) return;
+        ArrayList<Window> processWindows = windowsByProcessId.get(processId);
+        if (processWindows == null) windowsByProcessId.put(processId, (processWindows = new ArrayList<>(1)));
+        if (!processWindows.contains(window)) processWindows.add(window);
+    }
+
+    private void unindexProcessId(Window window) {
+        int processId = window.getProcessId();
+        if (processId == 0) return;
+        ArrayList<Window> processWindows = windowsByProcessId.get(processId);
+        if (processWindows != null && processWindows.remove(window) && processWindows.isEmpty()) {
+            windowsByProcessId.remove(processId);
+        }
+    }
+
     public void destroyWindow(int id) {
         Window window = getWindow(id);
         if (window != null && rootWindow.id != id) {
@@ -73,6 +98,16 @@ public class WindowManager extends XResourceManager {
         }
     }
 
+    /** Destroys every window the client with the given id base created, as when it disconnects. */
+    public void destroyClientWindows(int idBase) {
+        windows.removeClient(idBase, (window) -> {
+            // Subwindows of a window destroyed earlier in the sweep are already detached from their parent
+            if (window.getParent() == null) return;
+            unmapWindow(window);
+            removeAllSubwindowsAndWindow(window);
+        });
+    }
+
     private void removeAllSubwindowsAndWindow(Window window) {
         List<Window> children = new ArrayList<>(window.getChildren());
         for (Window child : children) removeAllSubwindowsAndWindow(child);
@@ -81,6 +116,7 @@ public class WindowManager extends XResourceManager {
         window.sendEvent(Event.STRUCTURE_NOTIFY, new DestroyNotify(window, window));
         parent.sendEvent(Event.SUBSTRUCTURE_NOTIFY, new DestroyNotify(parent, window));
         windows.remove(window.id);
+        unindexProcessId(window);
         if (window.isInputOutput()) drawableManager.removeDrawable(window.getContent().id);
         triggerOnFreeResourceListener(window);
         if (window == focusedWindow) revertFocus();
@@ -147,7 +183,7 @@ public class WindowManager extends XResourceManager {
     }
 
     public Window createWindow(int id, Window parent, short x, short y, short width, short height, WindowAttributes.WindowClass windowClass, Visual visual, byte depth, XClient client) throws XRequestError {
-        if (windows.indexOfKey(id) >= 0) throw new BadIdChoice(id);
+        if (windows.contains(id)) throw new BadIdChoice(id);
 
         boolean isInputOutput = false;
         switch (windowClass) {
@@ -340,6 +376,7 @@ public class WindowManager extends XResourceManager {
     }
 
     public void triggerOnModifyWindowProperty(Window window, Property property) {
+        if ("_NET_WM_PID".equals(Atom.getName(property.name))) indexProcessId(window);
         for (int i = onWindowModificationListeners.size()-1; i >= 0; i--) {
             onWindowModificationListeners.get(i).onModifyWindowProperty(window, property);
         }
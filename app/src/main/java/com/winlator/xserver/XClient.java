@@ -7,7 +7,6 @@ import com.winlator.xconnector.XOutputStream;
 import com.winlator.xserver.events.Event;
 
 import java.io.IOException;
-import java.util.ArrayList;
 
 public class XClient implements XResourceManager.OnResourceLifecycleListener {
     public final XServer xServer;
@@ -20,7 +19,6 @@ public class XClient implements XResourceManager.OnResourceLifecycleListener {
     private final XInputStream inputStream;
     private final XOutputStream outputStream;
     private final ArrayMap<Window, EventListener> eventListeners = new ArrayMap<>();
-    private final ArrayList<XResource> resources = new ArrayList<>();
 
     public XClient(XServer xServer, XInputStream inputStream, XOutputStream outputStream) {
         this.xServer = xServer;
@@ -34,10 +32,7 @@ public class XClient implements XResourceManager.OnResourceLifecycleListener {
             xServer.graphicsContextManager.addOnResourceLifecycleListener(this);
             xServer.cursorManager.addOnResourceLifecycleListener(this);
         }
-    }
-
-    public void registerAsOwnerOfResource(XResource resource) {
-        resources.add(resource);
+        xServer.metrics.addClient(this);
     }
 
     public void setEventListenerForWindow(Window window, Bitmask eventMask) {
@@ -52,6 +47,7 @@ public class XClient implements XResourceManager.OnResourceLifecycleListener {
     public void sendEvent(Event event) {
         try {
             event.send(sequenceNumber, outputStream);
+            if (xServer.metrics.isEnabled()) xServer.metrics.recordEvent(event.getCode());
         }
         catch (IOException e) {
             e.printStackTrace();
@@ -73,21 +69,11 @@ public class XClient implements XResourceManager.OnResourceLifecycleListener {
 
     public void freeResources() {
         try (XLock lock = xServer.lockAll()) {
-            while (!resources.isEmpty()) {
-                XResource resource = resources.remove(resources.size()-1);
-                if (resource instanceof Window) {
-                    xServer.windowManager.destroyWindow(resource.id);
-                }
-                else if (resource instanceof Pixmap) {
-                    xServer.pixmapManager.freePixmap(resource.id);
-                }
-                else if (resource instanceof GraphicsContext) {
-                    xServer.graphicsContextManager.freeGraphicsContext(resource.id);
-                }
-                else if (resource instanceof Cursor) {
-                    xServer.cursorManager.freeCursor(resource.id);
-                }
-            }
+            // Everything with an id in this client's range is its own, the managers drop it by id base
+            xServer.windowManager.destroyClientWindows(resourceIDBase);
+            xServer.graphicsContextManager.freeClientGraphicsContexts(resourceIDBase);
+            xServer.cursorManager.freeClientCursors(resourceIDBase);
+            xServer.pixmapManager.freeClientPixmaps(resourceIDBase);
 
             while (!eventListeners.isEmpty()) {
                 int i = eventListeners.size()-1;
@@ -100,6 +86,7 @@ public class XClient implements XResourceManager.OnResourceLifecycleListener {
             xServer.cursorManager.removeOnResourceLifecycleListener(this);
             xServer.resourceIDs.free(resourceIDBase);
         }
+        xServer.metrics.removeClient(this);
     }
 
     public void generateSequenceNumber() {
@@ -152,7 +139,6 @@ public class XClient implements XResourceManager.OnResourceLifecycleListener {
     @Override
     public void onFreeResource(XResource resource) {
         if (resource instanceof Window) eventListeners.remove(resource);
-        resources.remove(resource);
     }
 
     public boolean isValidResourceId(int id) {
@@ -167,6 +167,8 @@ public class XClientRequestHandler implements RequestHandler {
         client.generateSequenceNumber();
         client.setRequestData(requestData);
         client.setRequestLength(requestLength);
+        XServerMetrics metrics = client.xServer.metrics;
+        long startTime = metrics.isEnabled() ? System.nanoTime() : 0;
 
         try {
             switch (opcode) {
@@ -459,6 +461,7 @@ public class XClientRequestHandler implements RequestHandler {
             e.sendError(client, opcode);
         }
 
+        if (startTime != 0) metrics.recordRequest(opcode, requestData, System.nanoTime() - startTime);
         return true;
     }
 }
@@ -25,7 +25,7 @@ public class XServer {
     public final SparseArray<Extension> extensions = new SparseArray<>();
     public final ScreenInfo screenInfo;
     public final PixmapManager pixmapManager;
-    public final ResourceIDs resourceIDs = new ResourceIDs(128);
+    public final ResourceIDs resourceIDs = new ResourceIDs(ResourceIDs.MAX_CLIENTS);
     public final GraphicsContextManager graphicsContextManager = new GraphicsContextManager();
     public final SelectionManager selectionManager;
     public final DrawableManager drawableManager;
@@ -42,6 +42,7 @@ public class XServer {
     private GLRenderer renderer;
     private WinHandler winHandler;
     private final EnumMap<Lockable, ReentrantLock> locks = new EnumMap<>(Lockable.class);
+    public final XServerMetrics metrics = new XServerMetrics(this);
     private boolean relativeMouseMovement = false;
     private boolean simulateTouchScreen = false;
 
@@ -107,7 +108,7 @@ public class XServer {
 
         private SingleXLock(Lockable lockable) {
             this.lock = locks.get(lockable);
-            lock.lock();
+            acquire(lockable, lock);
         }
 
         @Override
@@ -121,7 +122,7 @@ public class XServer {
 
         private MultiXLock(Lockable[] lockables) {
             this.lockables = lockables;
-            for (Lockable lockable : lockables) locks.get(lockable).lock();
+            for (Lockable lockable : lockables) acquire(lockable, locks.get(lockable));
         }
 
         @Override
@@ -132,6 +133,20 @@ public class XServer {
         }
     }
 
+    private void acquire(Lockable lockable, ReentrantLock lock) {
+        if (!metrics.isEnabled()) {
+            lock.lock();
+        }
+        else if (lock.tryLock()) {
+            metrics.recordLockWait(lockable, 0, false);
+        }
+        else {
+            long startTime = System.nanoTime();
+            lock.lock();
+            metrics.recordLockWait(lockable, System.nanoTime() - startTime, true);
+        }
+    }
+
     public XLock lock(Lockable lockable) {
         return new SingleXLock(lockable);
     }
@@ -0,0 +1,278 @@
+package com.winlator.xserver;
+
+import com.winlator.xserver.extensions.Extension;
+
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Request, lock and event counters for an {@link XServer}. Recording is off until
+ * {@link #setEnabled(boolean)}; while off each hook costs one volatile read.
+ *
+ * Latencies go into log-linear histograms (four buckets per power of two, so percentiles are within
+ * about 20%) held in atomic arrays, so recording from several reactor threads never allocates except
+ * for the first request of each opcode. {@link #snapshot()} copies everything out for a HUD or a dump.
+ */
+public class XServerMetrics {
+    private static final int EXTENSION_MINOR_OPCODES = 32;
+    private static final int OPCODE_SLOTS = 128 + 128 * EXTENSION_MINOR_OPCODES;
+    private final XServer xServer;
+    private final AtomicReferenceArray<LatencyHistogram> requests = new AtomicReferenceArray<>(OPCODE_SLOTS);
+    private final LatencyHistogram[] lockWaits = new LatencyHistogram[XServer.Lockable.values().length];
+    private final AtomicLongArray lockContentions = new AtomicLongArray(XServer.Lockable.values().length);
+    private final AtomicLongArray eventsSent = new AtomicLongArray(128);
+    private final ArrayList<XClient> clients = new ArrayList<>();
+    private volatile boolean enabled = false;
+    private long startTime = System.nanoTime();
+
+    public static class LatencyHistogram {
+        private static final int SUB_BUCKETS = 4;
+        private static final int BUCKETS = 140;
+        private static final int COUNT = BUCKETS;
+        private static final int TOTAL = BUCKETS + 1;
+        private static final int MAX = BUCKETS + 2;
+        private final AtomicLongArray values = new AtomicLongArray(BUCKETS + 3);
+
+        public void record(long nanos) {
+            values.incrementAndGet(bucketOf(nanos));
+            values.incrementAndGet(COUNT);
+            values.addAndGet(TOTAL, nanos);
+            long max;
+            while (nanos > (max = values.get(MAX)) && !values.compareAndSet(MAX, max, nanos));
+        }
+
+        public long getCount() {
+            return values.get(COUNT);
+        }
+
+        public long getTotalNanos() {
+            return values.get(TOTAL);
+        }
+
+        public long getMaxNanos() {
+            return values.get(MAX);
+        }
+
+        /** Upper bound in nanoseconds of the bucket holding the given percentile (0-100). */
+        public long percentile(double percentile) {
+            long count = getCount();
+            if (count == 0) return 0;
+            long rank = (long)Math.ceil(count * percentile / 100.0);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += values.get(i);
+                if (seen >= rank) return Math.min(bucketLowerBound(i + 1) - 1, getMaxNanos());
+            }
+            return getMaxNanos();
+        }
+
+        private void clear() {
+            for (int i = 0; i < values.length(); i++) values.set(i, 0);
+        }
+
+        static int bucketOf(long nanos) {
+            if (nanos < SUB_BUCKETS) return (int)Math.max(nanos, 0);
+            int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+            int bucket = (exponent - 1) * SUB_BUCKETS + (int)((nanos >>> (exponent - 2)) & (SUB_BUCKETS - 1));
+            return Math.min(bucket, BUCKETS - 1);
+        }
+
+        static long bucketLowerBound(int bucket) {
+            if (bucket < SUB_BUCKETS) return bucket;
+            int exponent = bucket / SUB_BUCKETS + 1;
+            return (long)(SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - 2);
+        }
+    }
+
+    public static class RequestStats {
+        public final String name;
+        public final long count;
+        public final long totalNanos;
+        public final long p50Nanos;
+        public final long p99Nanos;
+        public final long maxNanos;
+
+        private RequestStats(String name, LatencyHistogram histogram) {
+            this.name = name;
+            this.count = histogram.getCount();
+            this.totalNanos = histogram.getTotalNanos();
+            this.p50Nanos = histogram.percentile(50);
+            this.p99Nanos = histogram.percentile(99);
+            this.maxNanos = histogram.getMaxNanos();
+        }
+    }
+
+    public static class LockStats {
+        public final XServer.Lockable lockable;
+        public final long acquisitions;
+        public final long contentions;
+        public final long totalWaitNanos;
+        public final long p99WaitNanos;
+        public final long maxWaitNanos;
+
+        private LockStats(XServer.Lockable lockable, LatencyHistogram waits, long contentions) {
+            this.lockable = lockable;
+            this.acquisitions = waits.getCount();
+            this.contentions = contentions;
+            this.totalWaitNanos = waits.getTotalNanos();
+            this.p99WaitNanos = waits.percentile(99);
+            this.maxWaitNanos = waits.getMaxNanos();
+        }
+    }
+
+    public static class ClientStats {
+        public final int resourceIDBase;
+        public final long bytesIn;
+        public final long bytesOut;
+
+        private ClientStats(int resourceIDBase, long bytesIn, long bytesOut) {
+            this.resourceIDBase = resourceIDBase;
+            this.bytesIn = bytesIn;
+            this.bytesOut = bytesOut;
+        }
+    }
+
+    public static class Snapshot {
+        public final long elapsedNanos;
+        /** Sorted by total time spent, most expensive first. */
+        public final ArrayList<RequestStats> requests;
+        public final ArrayList<LockStats> locks;
+        public final ArrayList<ClientStats> clients;
+        /** Events sent, indexed by event code. Generic events (Present notifies) share code 35. */
+        public final long[] eventsSent;
+
+        private Snapshot(long elapsedNanos, ArrayList<RequestStats> requests, ArrayList<LockStats> locks, ArrayList<ClientStats> clients, long[] eventsSent) {
+            this.elapsedNanos = elapsedNanos;
+            this.requests = requests;
+            this.locks = locks;
+            this.clients = clients;
+            this.eventsSent = eventsSent;
+        }
+
+        public RequestStats getRequestStats(String name) {
+            for (RequestStats stats : requests) {
+                if (stats.name.equals(name)) return stats;
+            }
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format(Locale.ENGLISH, "X server metrics over %.1f s", elapsedNanos / 1e9));
+            for (RequestStats stats : requests) {
+                sb.append(String.format(Locale.ENGLISH, "\n  %-28s %9d  total %9.2f ms  p50 %8.2f us  p99 %8.2f us  max %8.2f us",
+                    stats.name, stats.count, stats.totalNanos / 1e6, stats.p50Nanos / 1e3, stats.p99Nanos / 1e3, stats.maxNanos / 1e3));
+            }
+            for (LockStats stats : locks) {
+                sb.append(String.format(Locale.ENGLISH, "\n  lock %-23s %9d  contended %7d  waited %9.2f ms  p99 %8.2f us  max %8.2f us",
+                    stats.lockable, stats.acquisitions, stats.contentions, stats.totalWaitNanos / 1e6, stats.p99WaitNanos / 1e3, stats.maxWaitNanos / 1e3));
+            }
+            for (ClientStats stats : clients) {
+                sb.append(String.format(Locale.ENGLISH, "\n  client 0x%08x  in %d bytes  out %d bytes", stats.resourceIDBase, stats.bytesIn, stats.bytesOut));
+            }
+            for (int code = 0; code < eventsSent.length; code++) {
+                if (eventsSent[code] > 0) sb.append(String.format(Locale.ENGLISH, "\n  event %-3d %9d", code, eventsSent[code]));
+            }
+            return sb.toString();
+        }
+    }
+
+    public XServerMetrics(XServer xServer) {
+        this.xServer = xServer;
+        for (int i = 0; i < lockWaits.length; i++) lockWaits[i] = new LatencyHistogram();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /** Clears all counters and restarts the snapshot clock, for measuring one scene. */
+    public void reset() {
+        for (int i = 0; i < OPCODE_SLOTS; i++) {
+            LatencyHistogram histogram = requests.get(i);
+            if (histogram != null) histogram.clear();
+        }
+        for (int i = 0; i < lockWaits.length; i++) {
+            lockWaits[i].clear();
+            lockContentions.set(i, 0);
+        }
+        for (int i = 0; i < eventsSent.length(); i++) eventsSent.set(i, 0);
+        startTime = System.nanoTime();
+    }
+
+    public void recordRequest(byte opcode, byte minorOpcode, long nanos) {
+        int slot = opcodeSlot(opcode, minorOpcode);
+        LatencyHistogram histogram = requests.get(slot);
+        if (histogram == null) {
+            requests.compareAndSet(slot, null, new LatencyHistogram());
+            histogram = requests.get(slot);
+        }
+        histogram.record(nanos);
+    }
+
+    public void recordLockWait(XServer.Lockable lockable, long nanos, boolean contended) {
+        lockWaits[lockable.ordinal()].record(nanos);
+        if (contended) lockContentions.incrementAndGet(lockable.ordinal());
+    }
+
+    public void recordEvent(byte code) {
+        eventsSent.incrementAndGet(code & 0x7f);
+    }
+
+    void addClient(XClient client) {
+        synchronized (clients) {
+            clients.add(client);
+        }
+    }
+
+    void removeClient(XClient client) {
+        synchronized (clients) {
+            clients.remove(client);
+        }
+    }
+
+    public Snapshot snapshot() {
+        ArrayList<RequestStats> requestStats = new ArrayList<>();
+        for (int slot = 0; slot < OPCODE_SLOTS; slot++) {
+            LatencyHistogram histogram = requests.get(slot);
+            if (histogram != null && histogram.getCount() > 0) requestStats.add(new RequestStats(slotName(slot), histogram));
+        }
+        requestStats.sort((a, b) -> Long.compare(b.totalNanos, a.totalNanos));
+
+        ArrayList<LockStats> lockStats = new ArrayList<>();
+        for (XServer.Lockable lockable : XServer.Lockable.values()) {
+            lockStats.add(new LockStats(lockable, lockWaits[lockable.ordinal()], lockContentions.get(lockable.ordinal())));
+        }
+
+        ArrayList<ClientStats> clientStats = new ArrayList<>();
+        synchronized (clients) {
+            for (XClient client : clients) {
+                clientStats.add(new ClientStats(client.resourceIDBase, client.getInputStream().getTotalBytesRead(), client.getOutputStream().getTotalBytesWritten()));
+            }
+        }
+
+        long[] events = new long[eventsSent.length()];
+        for (int i = 0; i < events.length; i++) events[i] = eventsSent.get(i);
+        return new Snapshot(System.nanoTime() - startTime, requestStats, lockStats, clientStats, events);
+    }
+
+    private static int opcodeSlot(byte opcode, byte minorOpcode) {
+        if (opcode >= 0) return opcode;
+        return 128 + (opcode & 0x7f) * EXTENSION_MINOR_OPCODES + Math.min(minorOpcode & 0xff, EXTENSION_MINOR_OPCODES - 1);
+    }
+
+    private String slotName(int slot) {
+        if (slot < 128) return ClientOpcodes.getName((byte)slot);
+        int extensionSlot = slot - 128;
+        byte majorOpcode = (byte)(128 + extensionSlot / EXTENSION_MINOR_OPCODES);
+        Extension extension = xServer.extensions.get(majorOpcode);
+        return (extension != null ? extension.getName() : "Extension" + (majorOpcode & 0xff)) + ":" + (extensionSlot % EXTENSION_MINOR_OPCODES);
+    }
+}
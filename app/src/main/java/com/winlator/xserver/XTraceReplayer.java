@@ -0,0 +1,327 @@
+package com.winlator.xserver;
+
+import android.util.SparseArray;
+
+import com.winlator.xconnector.Client;
+import com.winlator.xconnector.ClientSocket;
+import com.winlator.xconnector.XConnector;
+import com.winlator.xconnector.XInputStream;
+import com.winlator.xconnector.XTraceReader;
+import com.winlator.xconnector.XTraceRecorder;
+import com.winlator.xserver.extensions.Extension;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+
+/**
+ * Feeds a trace recorded by {@link XTraceRecorder} through the real request handling of an in-process
+ * {@link XServer}, either as fast as possible or at the recorded pacing, and measures requests per
+ * second, per opcode latency and the bytes the server writes back.
+ *
+ * Everything runs on the calling thread. Replies and events are counted and dropped, and requests that
+ * relied on fds passed with the original traffic (MIT-SHM, DRI3) fail the way a client without them would.
+ */
+public class XTraceReplayer {
+    private static final int KEY_SETUP = -1;
+    private final XServer xServer;
+    private final ReplayConnector connector = new ReplayConnector();
+    private final XClientConnectionHandler connectionHandler;
+    private final XClientRequestHandler requestHandler = new XClientRequestHandler();
+    private final SparseArray<OpcodeStats> opcodeStats = new SparseArray<>();
+    private LongSupplier allocatedBytesCounter;
+    private long bytesWritten;
+
+    public static class OpcodeStats {
+        public final String name;
+        private long[] samples = new long[64];
+        private int count;
+        private long totalNanos;
+
+        private OpcodeStats(String name) {
+            this.name = name;
+        }
+
+        private void add(long nanos) {
+            if (count == samples.length) samples = Arrays.copyOf(samples, count * 2);
+            samples[count++] = nanos;
+            totalNanos += nanos;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        /** Latency in nanoseconds at the given percentile (0-100). */
+        public long percentile(int percentile) {
+            if (count == 0) return 0;
+            Arrays.sort(samples, 0, count);
+            return samples[Math.min(count - 1, count * percentile / 100)];
+        }
+    }
+
+    public static class Result {
+        public final int requests;
+        public final long elapsedNanos;
+        public final long bytesRead;
+        public final long bytesWritten;
+        /** Bytes allocated by the replaying thread, or -1 without an allocation counter. */
+        public final long allocatedBytes;
+        public final ArrayList<OpcodeStats> opcodes;
+
+        private Result(int requests, long elapsedNanos, long bytesRead, long bytesWritten, long allocatedBytes, ArrayList<OpcodeStats> opcodes) {
+            this.requests = requests;
+            this.elapsedNanos = elapsedNanos;
+            this.bytesRead = bytesRead;
+            this.bytesWritten = bytesWritten;
+            this.allocatedBytes = allocatedBytes;
+            this.opcodes = opcodes;
+        }
+
+        public double requestsPerSecond() {
+            return elapsedNanos > 0 ? requests * (double)TimeUnit.SECONDS.toNanos(1) / elapsedNanos : 0;
+        }
+
+        public OpcodeStats getOpcodeStats(String name) {
+            for (OpcodeStats stats : opcodes) {
+                if (stats.name.equals(name)) return stats;
+            }
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format(Locale.ENGLISH, "%d requests in %.1f ms (%.0f requests/s), %d bytes read, %d bytes written",
+                requests, elapsedNanos / 1e6, requestsPerSecond(), bytesRead, bytesWritten));
+            if (allocatedBytes >= 0) sb.append(String.format(Locale.ENGLISH, ", %d bytes allocated", allocatedBytes));
+            for (OpcodeStats stats : opcodes) {
+                sb.append(String.format(Locale.ENGLISH, "\n  %-28s %8d  p50 %8.2f us  p99 %8.2f us",
+                    stats.name, stats.count, stats.percentile(50) / 1e3, stats.percentile(99) / 1e3));
+            }
+            return sb.toString();
+        }
+    }
+
+    private class ReplaySocket extends ClientSocket {
+        private ByteBuffer pending = ByteBuffer.allocate(0);
+
+        private ReplaySocket(int fd) {
+            super(fd);
+        }
+
+        private void append(byte[] data, int length) {
+            if (pending.capacity() - pending.limit() < length) {
+                if (pending.remaining() + length <= pending.capacity()) {
+                    pending.compact();
+                }
+                else {
+                    ByteBuffer newPending = ByteBuffer.allocate(Math.max(pending.remaining() + length, pending.capacity() * 2));
+                    newPending.put(pending);
+                    pending = newPending;
+                }
+                pending.flip();
+            }
+            int position = pending.position();
+            pending.position(pending.limit()).limit(pending.limit() + length);
+            pending.put(data, 0, length);
+            pending.position(position);
+        }
+
+        private boolean hasPending() {
+            return pending.hasRemaining();
+        }
+
+        @Override
+        public int read(ByteBuffer data) {
+            int length = Math.min(data.remaining(), pending.remaining());
+            if (length == 0) return 0;
+            int limit = pending.limit();
+            pending.limit(pending.position() + length);
+            data.put(pending);
+            pending.limit(limit);
+            if (!pending.hasRemaining()) {
+                pending.clear();
+                pending.limit(0);
+            }
+            return length;
+        }
+
+        @Override
+        public void write(ByteBuffer data) {
+            bytesWritten += data.remaining();
+            data.position(data.limit());
+        }
+
+        @Override
+        public int recvAncillaryMsg(ByteBuffer data) {
+            return read(data);
+        }
+
+        @Override
+        public void sendAncillaryMsg(ByteBuffer data, int ancillaryFd) {
+            write(data);
+        }
+    }
+
+    private class ReplayConnector implements XConnector {
+        private final SparseArray<Client> clients = new SparseArray<>();
+
+        @Override
+        public void start() {}
+
+        @Override
+        public void stop() {
+            while (clients.size() > 0) killConnection(clients.valueAt(0));
+        }
+
+        @Override
+        public Client getClient(int fd) {
+            return clients.get(fd);
+        }
+
+        @Override
+        public void killConnection(Client client) {
+            if (clients.get(client.clientSocket.fd) != client) return;
+            clients.remove(client.clientSocket.fd);
+            connectionHandler.handleConnectionShutdown(client);
+        }
+
+        @Override
+        public int getInitialInputBufferCapacity() {
+            return 262144;
+        }
+
+        @Override
+        public int getInitialOutputBufferCapacity() {
+            return 128;
+        }
+    }
+
+    public XTraceReplayer(XServer xServer) {
+        this.xServer = xServer;
+        this.connectionHandler = new XClientConnectionHandler(xServer);
+    }
+
+    /**
+     * Reports the bytes allocated by the replaying thread, for example through
+     * com.sun.management.ThreadMXBean on a desktop JVM.
+     */
+    public void setAllocatedBytesCounter(LongSupplier allocatedBytesCounter) {
+        this.allocatedBytesCounter = allocatedBytesCounter;
+    }
+
+    public Result replay(InputStream inputStream, boolean originalPacing) throws IOException {
+        opcodeStats.clear();
+        bytesWritten = 0;
+        long bytesRead = 0;
+        int requests = 0;
+        long startAllocated = allocatedBytesCounter != null ? allocatedBytesCounter.getAsLong() : 0;
+        long startTime = System.nanoTime();
+
+        try (XTraceReader reader = new XTraceReader(inputStream)) {
+            while (reader.next()) {
+                if (originalPacing) {
+                    long delay = TimeUnit.MICROSECONDS.toNanos(reader.timeMicros) - (System.nanoTime() - startTime);
+                    if (delay > 0) LockSupport.parkNanos(delay);
+                }
+
+                switch (reader.type) {
+                    case XTraceRecorder.RECORD_CONNECT: {
+                        Client client = new Client(connector, new ReplaySocket(reader.clientId));
+                        connectionHandler.handleNewConnection(client);
+                        connector.clients.put(reader.clientId, client);
+                        break;
+                    }
+                    case XTraceRecorder.RECORD_DATA: {
+                        Client client = connector.getClient(reader.clientId);
+                        if (client == null) break;
+                        ((ReplaySocket)client.clientSocket).append(reader.data, reader.dataLength);
+                        bytesRead += reader.dataLength;
+                        requests += handleData(client);
+                        break;
+                    }
+                    case XTraceRecorder.RECORD_DISCONNECT: {
+                        Client client = connector.getClient(reader.clientId);
+                        if (client != null) connector.killConnection(client);
+                        break;
+                    }
+                }
+            }
+        }
+        finally {
+            connector.stop();
+        }
+
+        long elapsedNanos = System.nanoTime() - startTime;
+        long allocatedBytes = allocatedBytesCounter != null ? allocatedBytesCounter.getAsLong() - startAllocated : -1;
+
+        ArrayList<OpcodeStats> opcodes = new ArrayList<>();
+        for (int i = 0; i < opcodeStats.size(); i++) opcodes.add(opcodeStats.valueAt(i));
+        opcodes.sort((a, b) -> Integer.compare(b.count, a.count));
+        return new Result(requests, elapsedNanos, bytesRead, bytesWritten, allocatedBytes, opcodes);
+    }
+
+    // Same request loop as XConnectorEpoll.handleExistingConnection, timing each request
+    private int handleData(Client client) {
+        ReplaySocket socket = (ReplaySocket)client.clientSocket;
+        XClient xClient = (XClient)client.getTag();
+        XInputStream inputStream = client.getInputStream();
+        int requests = 0;
+
+        try {
+            while (socket.hasPending()) {
+                if (inputStream.readMoreData(false) <= 0) break;
+                int activePosition = 0;
+                while (true) {
+                    int key = requestKey(xClient, inputStream);
+                    long start = System.nanoTime();
+                    if (!requestHandler.handleRequest(client)) break;
+                    long nanos = System.nanoTime() - start;
+                    getOpcodeStats(key).add(nanos);
+                    activePosition = inputStream.getActivePosition();
+                    requests++;
+                }
+                inputStream.setActivePosition(activePosition);
+            }
+        }
+        catch (IOException e) {
+            connector.killConnection(client);
+        }
+        return requests;
+    }
+
+    private static int requestKey(XClient xClient, XInputStream inputStream) {
+        if (!xClient.isAuthenticated()) return KEY_SETUP;
+        if (inputStream.available() < 2) return 0;
+        int opcode = inputStream.peekUnsignedByte(0);
+        return opcode < 128 ? opcode : (opcode << 8) | inputStream.peekUnsignedByte(1);
+    }
+
+    private OpcodeStats getOpcodeStats(int key) {
+        OpcodeStats stats = opcodeStats.get(key);
+        if (stats == null) {
+            stats = new OpcodeStats(opcodeName(key));
+            opcodeStats.put(key, stats);
+        }
+        return stats;
+    }
+
+    private String opcodeName(int key) {
+        if (key == KEY_SETUP) return "Setup";
+        if (key < 128) return ClientOpcodes.getName((byte)key);
+        int majorOpcode = key >> 8;
+        Extension extension = xServer.extensions.get((byte)majorOpcode);
+        return (extension != null ? extension.getName() : "Extension" + majorOpcode) + ":" + (key & 0xff);
+    }
+}
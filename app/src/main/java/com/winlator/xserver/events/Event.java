@@ -36,5 +36,9 @@ public abstract class Event {
         this.code = (byte)code;
     }
 
+    public byte getCode() {
+        return code;
+    }
+
     public abstract void send(short sequenceNumber, XOutputStream outputStream) throws IOException;
 }
\ No newline at end of file
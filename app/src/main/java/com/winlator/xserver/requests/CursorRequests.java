@@ -46,7 +46,6 @@ public abstract class CursorRequests {
         Cursor cursor = client.xServer.cursorManager.createCursor(cursorId, x, y, sourcePixmap, maskPixmap);
         if (cursor == null) throw new BadIdChoice(cursorId);
         client.xServer.cursorManager.recolorCursor(cursor, foreRed, foreGreen, foreBlue, backRed, backGreen, backBlue);
-        client.registerAsOwnerOfResource(cursor);
     }
 
     public static void freeCursor(XClient client, XInputStream inputStream, XOutputStream outputStream) throws XRequestError {
@@ -6,6 +6,7 @@ import com.winlator.xconnector.XInputStream;
 import com.winlator.xconnector.XOutputStream;
 import com.winlator.xconnector.XStreamLock;
 import com.winlator.xserver.Drawable;
+import com.winlator.xserver.DrawableBufferPool;
 import com.winlator.xserver.GraphicsContext;
 import com.winlator.xserver.XClient;
 import com.winlator.xserver.errors.BadDrawable;
@@ -78,7 +79,8 @@ public abstract class DrawRequests {
         Drawable drawable =  client.xServer.drawableManager.getDrawable(drawableId);
         if (drawable == null) throw new BadDrawable(drawableId);
         int visualId = client.xServer.pixmapManager.getPixmap(drawableId) == null ? drawable.visual.id : 0;
-        ByteBuffer data = drawable.getImage(x, y, width, height);
+        DrawableBufferPool bufferPool = client.xServer.drawableManager.bufferPool;
+        ByteBuffer data = drawable.getImage(x, y, width, height, bufferPool);
         int length = data.limit();
 
         try (XStreamLock lock = outputStream.lock()) {
@@ -91,6 +93,9 @@ public abstract class DrawRequests {
             outputStream.write(data);
             if ((-length & 3) > 0) outputStream.writePad(-length & 3);
         }
+        finally {
+            bufferPool.release(data);
+        }
     }
 
     public static void copyArea(XClient client, XInputStream inputStream, XOutputStream outputStream) throws XRequestError {
@@ -128,17 +133,10 @@ public abstract class DrawRequests {
         GraphicsContext graphicsContext = client.xServer.graphicsContextManager.getGraphicsContext(gcId);
         if (graphicsContext == null) throw new BadGraphicsContext(gcId);
         int length = client.getRemainingRequestLength();
-
-        short[] points = new short[length / 2];
-        int i = 0;
-        while (length != 0) {
-            points[i++] = inputStream.readShort();
-            points[i++] = inputStream.readShort();
-            length -= 4;
-        }
+        ByteBuffer points = inputStream.readByteBuffer(length);
 
         if (coordinateMode == CoordinateMode.ORIGIN && graphicsContext.getLineWidth() > 0) {
-            drawable.drawLines(graphicsContext.getForeground(), graphicsContext.getLineWidth(), points);
+            drawable.drawLines(points, length / 4, graphicsContext.getForeground(), graphicsContext.getLineWidth());
         }
     }
 
@@ -151,14 +149,8 @@ public abstract class DrawRequests {
         GraphicsContext graphicsContext = client.xServer.graphicsContextManager.getGraphicsContext(gcId);
         if (graphicsContext == null) throw new BadGraphicsContext(gcId);
         int length = client.getRemainingRequestLength();
+        ByteBuffer rects = inputStream.readByteBuffer(length);
 
-        while (length != 0) {
-            short x = inputStream.readShort();
-            short y = inputStream.readShort();
-            short width = inputStream.readShort();
-            short height = inputStream.readShort();
-            drawable.fillRect(x, y, width, height, graphicsContext.getBackground());
-            length -= 8;
-        }
+        drawable.fillRects(rects, length / 8, graphicsContext.getBackground(), graphicsContext.getFunction());
     }
 }
\ No newline at end of file
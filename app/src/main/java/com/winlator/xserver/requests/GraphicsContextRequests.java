@@ -24,7 +24,6 @@ public abstract class GraphicsContextRequests {
         GraphicsContext graphicsContext = client.xServer.graphicsContextManager.createGraphicsContext(gcId, drawable);
         if (graphicsContext == null) throw new BadIdChoice(gcId);
 
-        client.registerAsOwnerOfResource(graphicsContext);
         if (!valueMask.isEmpty()) client.xServer.graphicsContextManager.updateGraphicsContext(graphicsContext, valueMask, inputStream);
     }
 
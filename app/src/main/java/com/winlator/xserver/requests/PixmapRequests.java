@@ -26,7 +26,6 @@ public abstract class PixmapRequests {
         if (backingStore == null) throw new BadIdChoice(pixmapId);
         Pixmap pixmap = client.xServer.pixmapManager.createPixmap(backingStore);
         if (pixmap == null) throw new BadIdChoice(pixmapId);
-        client.registerAsOwnerOfResource(pixmap);
     }
 
     public static void freePixmap(XClient client, XInputStream inputStream, XOutputStream outputStream) throws XRequestError {
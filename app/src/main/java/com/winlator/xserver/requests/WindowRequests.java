@@ -52,7 +52,6 @@ public abstract class WindowRequests {
         window.setBorderWidth(borderWidth);
         if (!valueMask.isEmpty()) window.attributes.update(valueMask, inputStream, client);
         client.setEventListenerForWindow(window, window.attributes.getEventMask());
-        client.registerAsOwnerOfResource(window);
         parent.sendEvent(Event.SUBSTRUCTURE_NOTIFY, new CreateNotify(parent, window));
     }
 
@@ -0,0 +1,339 @@
+/*
+ * Host tests for winlator/pixel_kernels.c: every kernel set is compared pixel for pixel against the
+ * loops drawable.c used before the kernels existed, then timed against them.
+ *
+ *   cmake -S app/src/test/cpp -B build/pixel_kernels_test && cmake --build build/pixel_kernels_test
+ *   ./build/pixel_kernels_test/pixel_kernels_test [--bench]
+ */
+#include <stdbool.h>
+#include <stdint.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <time.h>
+#include "pixel_kernels.h"
+
+#define WHITE 0xffffff
+#define BLACK 0x000000
+
+enum GCFunction {GCF_CLEAR, GCF_AND, GCF_AND_REVERSE, GCF_COPY, GCF_AND_INVERTED, GCF_NO_OP, GCF_XOR, GCF_OR, GCF_NOR, GCF_EQUIV, GCF_INVERT, GCF_OR_REVERSE, GCF_COPY_INVERTED, GCF_OR_INVERTED, GCF_NAND, GCF_SET};
+
+static int failures = 0;
+
+/* Reference implementations, copied from drawable.c */
+
+static int setPixelOp(int srcColor, int dstColor, enum GCFunction gcFunction) {
+    switch (gcFunction) {
+        case GCF_CLEAR :
+            return BLACK;
+        case GCF_AND :
+            return srcColor & dstColor;
+        case GCF_AND_REVERSE :
+            return srcColor & ~dstColor;
+        case GCF_COPY :
+            return srcColor;
+        case GCF_AND_INVERTED :
+            return ~srcColor & dstColor;
+        case GCF_XOR :
+            return srcColor ^ dstColor;
+        case GCF_OR :
+            return srcColor | dstColor;
+        case GCF_NOR :
+            return ~srcColor & ~dstColor;
+        case GCF_EQUIV :
+            return ~srcColor ^ dstColor;
+        case GCF_INVERT :
+            return ~dstColor;
+        case GCF_OR_REVERSE :
+            return srcColor | ~dstColor;
+        case GCF_COPY_INVERTED :
+            return ~srcColor;
+        case GCF_OR_INVERTED :
+            return ~srcColor | dstColor;
+        case GCF_NAND :
+            return ~srcColor | ~dstColor;
+        case GCF_SET :
+            return WHITE;
+        case GCF_NO_OP :
+        default:
+            return dstColor;
+    }
+}
+
+static void referenceCopyAreaOp(int srcX, int srcY, int dstX, int dstY, int width, int height, int srcStride, int dstStride,
+                                uint8_t *srcDataAddr, uint8_t *dstDataAddr, int gcFunction) {
+    for (int16_t y = 0; y < height; y++) {
+        for (int16_t x = 0; x < width; x++) {
+            int i = (x + srcX + (y + srcY) * srcStride) * 4;
+            int j = (x + dstX + (y + dstY) * dstStride) * 4;
+            int srcColor = (srcDataAddr[i+0] << 16) | (srcDataAddr[i+1] << 8) | srcDataAddr[i+2];
+            int dstColor = (dstDataAddr[j+0] << 16) | (dstDataAddr[j+1] << 8) | dstDataAddr[j+2];
+
+            dstColor = setPixelOp(srcColor, dstColor, gcFunction);
+
+            dstDataAddr[j+0] = (dstColor >> 16) & 0xff;
+            dstDataAddr[j+1] = (dstColor >> 8) & 0xff;
+            dstDataAddr[j+2] = dstColor & 0xff;
+        }
+    }
+}
+
+static int8_t getBit(uint8_t *line, int x) {
+    uint8_t mask = (1 << (x & 7));
+    line += (x >> 3);
+    return (*line & mask) ? 1 : 0;
+}
+
+static void referenceDrawBitmap(int width, int height, uint8_t *srcDataAddr, int *dstDataAddr) {
+    int stride = ((width + 32 - 1) >> 5) << 2;
+    for (int16_t y = 0, x; y < height; y++) {
+        for (x = 0; x < width; x++) *dstDataAddr++ = getBit(srcDataAddr, x) ? WHITE : BLACK;
+        srcDataAddr += stride;
+    }
+}
+
+static void referenceAlphaMask(int *srcDataAddr, int *maskDataAddr, int *dstDataAddr, int dstLength, int foreColor, int backColor) {
+    for (int i = 0; i < dstLength; i++) {
+        dstDataAddr[i] = maskDataAddr[i] == WHITE ? (srcDataAddr[i] == WHITE ? foreColor : backColor) | 0xff000000 : 0x00000000;
+    }
+}
+
+static void referenceToBitmap(char *colorDataAddr, char *maskDataAddr, uint8_t *pixels, int count) {
+    for (int i = 0, size = count * 4; i < size; i += 4) {
+        pixels[i+2] = colorDataAddr[i+0];
+        pixels[i+1] = colorDataAddr[i+1];
+        pixels[i+0] = colorDataAddr[i+2];
+        pixels[i+3] = maskDataAddr ? maskDataAddr[i+0] : colorDataAddr[i+3];
+    }
+}
+
+/* Helpers */
+
+static uint32_t seed = 12345;
+
+static uint32_t nextRandom(void) {
+    seed ^= seed << 13;
+    seed ^= seed >> 17;
+    seed ^= seed << 5;
+    return seed;
+}
+
+static void randomize(void *data, size_t bytes) {
+    uint8_t *p = data;
+    for (size_t i = 0; i < bytes; i++) p[i] = nextRandom();
+}
+
+/* Sprinkles exact white/black pixels in so the compare kernels take both branches */
+static void randomizeMaskPixels(uint32_t *data, int count) {
+    for (int i = 0; i < count; i++) {
+        uint32_t r = nextRandom();
+        data[i] = (r & 3) == 0 ? WHITE : ((r & 3) == 1 ? BLACK : nextRandom());
+    }
+}
+
+static void expectEqual(const char *test, const char *kernels, const void *expected, const void *actual, size_t bytes) {
+    if (memcmp(expected, actual, bytes) != 0) {
+        const uint8_t *e = expected, *a = actual;
+        size_t i = 0;
+        while (e[i] == a[i]) i++;
+        printf("FAIL %s [%s]: first difference at byte %zu (expected %02x, got %02x)\n", test, kernels, i, e[i], a[i]);
+        failures++;
+    }
+}
+
+/* Scenarios */
+
+static void testCopyAreaOp(const PixelKernels *kernels) {
+    static const int widths[] = {1, 3, 4, 5, 7, 8, 15, 17, 33, 64, 127};
+    const int stride = 160, height = 6;
+    uint32_t *src = malloc(stride * 8 * 4);
+    uint32_t *expected = malloc(stride * 8 * 4);
+    uint32_t *actual = malloc(stride * 8 * 4);
+
+    for (int gcFunction = 0; gcFunction < PIXEL_KERNELS_GC_FUNCTIONS; gcFunction++) {
+        for (int w = 0; w < (int)(sizeof(widths) / sizeof(widths[0])); w++) {
+            for (int offset = 0; offset < 4; offset++) {
+                int width = widths[w];
+                randomize(src, stride * 8 * 4);
+                randomize(expected, stride * 8 * 4);
+                memcpy(actual, expected, stride * 8 * 4);
+
+                int srcX = offset, srcY = 1, dstX = 3 - offset + 7, dstY = 2;
+                referenceCopyAreaOp(srcX, srcY, dstX, dstY, width, height, stride, stride, (uint8_t*)src, (uint8_t*)expected, gcFunction);
+                for (int y = 0; y < height; y++) {
+                    kernels->rop[gcFunction](src + srcX + (y + srcY) * stride, actual + dstX + (y + dstY) * stride, width);
+                }
+
+                char name[64];
+                snprintf(name, sizeof(name), "copyAreaOp gc=%d width=%d offset=%d", gcFunction, width, offset);
+                expectEqual(name, kernels->name, expected, actual, stride * 8 * 4);
+            }
+        }
+    }
+
+    free(src);
+    free(expected);
+    free(actual);
+}
+
+static void testFill(const PixelKernels *kernels) {
+    uint32_t expected[80], actual[80];
+    for (int width = 0; width <= 67; width++) {
+        randomize(expected, sizeof(expected));
+        memcpy(actual, expected, sizeof(expected));
+        for (int x = 0; x < width; x++) expected[x + 5] = 0xff123456;
+        kernels->fill(actual + 5, 0xff123456, width);
+        expectEqual("fill", kernels->name, expected, actual, sizeof(expected));
+    }
+}
+
+static void testExpandBits(const PixelKernels *kernels) {
+    uint8_t bits[8 * 12];
+    int expected[64 * 12], actual[64 * 12];
+    for (int width = 1; width <= 64; width++) {
+        int stride = ((width + 32 - 1) >> 5) << 2;
+        randomize(bits, sizeof(bits));
+        referenceDrawBitmap(width, 12, bits, expected);
+        for (int y = 0; y < 12; y++) kernels->expandBits(bits + y * stride, (uint32_t*)actual + y * width, width, WHITE, BLACK);
+
+        char name[32];
+        snprintf(name, sizeof(name), "expandBits width=%d", width);
+        expectEqual(name, kernels->name, expected, actual, width * 12 * 4);
+    }
+}
+
+static void testAlphaMask(const PixelKernels *kernels) {
+    uint32_t src[259], mask[259], expected[259], actual[259];
+    const int foreColor = 0x102030, backColor = 0xa0b0c0;
+    for (int count = 0; count <= 259; count += 37) {
+        randomizeMaskPixels(src, 259);
+        randomizeMaskPixels(mask, 259);
+        randomize(expected, sizeof(expected));
+        memcpy(actual, expected, sizeof(expected));
+        referenceAlphaMask((int*)src, (int*)mask, (int*)expected, count, foreColor, backColor);
+        kernels->alphaMask(src, mask, actual, count, 0xff000000 | foreColor, 0xff000000 | backColor);
+        expectEqual("alphaMask", kernels->name, expected, actual, sizeof(expected));
+    }
+}
+
+static void testSwizzle(const PixelKernels *kernels) {
+    uint8_t color[133 * 4], mask[133 * 4], expected[133 * 4], actual[133 * 4];
+    for (int count = 1; count <= 133; count += 11) {
+        for (int withMask = 0; withMask <= 1; withMask++) {
+            randomize(color, sizeof(color));
+            randomize(mask, sizeof(mask));
+            randomize(expected, sizeof(expected));
+            memcpy(actual, expected, sizeof(expected));
+            referenceToBitmap((char*)color, withMask ? (char*)mask : NULL, expected, count);
+            kernels->swizzle(color, withMask ? mask : NULL, actual, count);
+            expectEqual(withMask ? "swizzle with mask" : "swizzle", kernels->name, expected, actual, sizeof(expected));
+        }
+    }
+}
+
+/* Overlapping copies within one drawable must match the reference when run through the scalar set */
+static void testOverlappingCopy(void) {
+    const PixelKernels *scalar = pixelKernelsForLevel(PK_LEVEL_SCALAR);
+    const int stride = 64;
+    uint32_t expected[64 * 8], actual[64 * 8];
+    for (int gcFunction = 0; gcFunction < PIXEL_KERNELS_GC_FUNCTIONS; gcFunction++) {
+        randomize(expected, sizeof(expected));
+        memcpy(actual, expected, sizeof(expected));
+        referenceCopyAreaOp(2, 1, 5, 2, 40, 5, stride, stride, (uint8_t*)expected, (uint8_t*)expected, gcFunction);
+        for (int y = 0; y < 5; y++) scalar->rop[gcFunction](actual + 2 + (y + 1) * stride, actual + 5 + (y + 2) * stride, 40);
+        expectEqual("overlapping copyAreaOp", scalar->name, expected, actual, sizeof(expected));
+    }
+}
+
+/* Benchmark */
+
+static double now(void) {
+    struct timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return ts.tv_sec + ts.tv_nsec / 1e9;
+}
+
+static void benchmark(const PixelKernels *kernels) {
+    const int width = 1920, height = 1080, iterations = 20;
+    const int pixels = width * height;
+    uint32_t *src = malloc(pixels * 4), *dst = malloc(pixels * 4), *mask = malloc(pixels * 4);
+    uint8_t *bits = malloc((width / 8) * height);
+    randomize(src, pixels * 4);
+    randomize(dst, pixels * 4);
+    randomizeMaskPixels(mask, pixels);
+    randomize(bits, (width / 8) * height);
+
+    double start = now();
+    for (int i = 0; i < iterations; i++) referenceCopyAreaOp(0, 0, 0, 0, width, height, width, width, (uint8_t*)src, (uint8_t*)dst, GCF_XOR);
+    double referenceRop = (now() - start) / iterations;
+    start = now();
+    for (int i = 0; i < iterations; i++) {
+        for (int y = 0; y < height; y++) kernels->rop[GCF_XOR](src + y * width, dst + y * width, width);
+    }
+    double rop = (now() - start) / iterations;
+
+    start = now();
+    for (int i = 0; i < iterations; i++) referenceDrawBitmap(width, height, bits, (int*)dst);
+    double referenceExpand = (now() - start) / iterations;
+    start = now();
+    for (int i = 0; i < iterations; i++) {
+        for (int y = 0; y < height; y++) kernels->expandBits(bits + y * (width / 8), dst + y * width, width, WHITE, BLACK);
+    }
+    double expand = (now() - start) / iterations;
+
+    start = now();
+    for (int i = 0; i < iterations; i++) referenceAlphaMask((int*)src, (int*)mask, (int*)dst, pixels, 0x102030, 0xa0b0c0);
+    double referenceAlpha = (now() - start) / iterations;
+    start = now();
+    for (int i = 0; i < iterations; i++) kernels->alphaMask(src, mask, dst, pixels, 0xff102030, 0xffa0b0c0);
+    double alpha = (now() - start) / iterations;
+
+    start = now();
+    for (int i = 0; i < iterations; i++) referenceToBitmap((char*)src, (char*)mask, (uint8_t*)dst, pixels);
+    double referenceSwizzle = (now() - start) / iterations;
+    start = now();
+    for (int i = 0; i < iterations; i++) kernels->swizzle((uint8_t*)src, (uint8_t*)mask, (uint8_t*)dst, pixels);
+    double swizzle = (now() - start) / iterations;
+
+    printf("%-6s 1920x1080  rop xor %6.2f ms (reference %6.2f)  expandBits %6.2f ms (%6.2f)  alphaMask %6.2f ms (%6.2f)  swizzle %6.2f ms (%6.2f)\n",
+           kernels->name, rop * 1e3, referenceRop * 1e3, expand * 1e3, referenceExpand * 1e3, alpha * 1e3, referenceAlpha * 1e3,
+           swizzle * 1e3, referenceSwizzle * 1e3);
+
+    free(src);
+    free(dst);
+    free(mask);
+    free(bits);
+}
+
+int main(int argc, char **argv) {
+    bool bench = argc > 1 && strcmp(argv[1], "--bench") == 0;
+    static const enum PixelKernelsLevel levels[] = {PK_LEVEL_SCALAR, PK_LEVEL_SSE2, PK_LEVEL_NEON};
+
+    printf("selected kernels: %s\n", pixelKernels()->name);
+    for (int i = 0; i < (int)(sizeof(levels) / sizeof(levels[0])); i++) {
+        const PixelKernels *kernels = pixelKernelsForLevel(levels[i]);
+        if (!kernels) continue;
+
+        testCopyAreaOp(kernels);
+        testFill(kernels);
+        testExpandBits(kernels);
+        testAlphaMask(kernels);
+        testSwizzle(kernels);
+        printf("tested %s kernels\n", kernels->name);
+    }
+    testOverlappingCopy();
+
+    if (bench) {
+        for (int i = 0; i < (int)(sizeof(levels) / sizeof(levels[0])); i++) {
+            const PixelKernels *kernels = pixelKernelsForLevel(levels[i]);
+            if (kernels) benchmark(kernels);
+        }
+    }
+
+    if (failures > 0) {
+        printf("%d failures\n", failures);
+        return 1;
+    }
+    printf("all tests passed\n");
+    return 0;
+}
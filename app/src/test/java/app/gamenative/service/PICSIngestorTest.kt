@@ -0,0 +1,184 @@
+package app.gamenative.service
+
+import android.content.Context
+import androidx.room.Room
+import androidx.test.core.app.ApplicationProvider
+import app.gamenative.data.SteamApp
+import app.gamenative.data.SteamLicense
+import app.gamenative.db.PluviaDatabase
+import `in`.dragonbra.javasteam.enums.ELicenseFlags
+import `in`.dragonbra.javasteam.enums.ELicenseType
+import `in`.dragonbra.javasteam.enums.EPaymentMethod
+import `in`.dragonbra.javasteam.types.KeyValue
+import java.util.Date
+import java.util.EnumSet
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class PICSIngestorTest {
+
+    private lateinit var db: PluviaDatabase
+    private lateinit var ingestor: PICSIngestor
+
+    @Before
+    fun setUp() {
+        val context = ApplicationProvider.getApplicationContext<Context>()
+        db = Room.inMemoryDatabaseBuilder(context, PluviaDatabase::class.java)
+            .allowMainThreadQueries()
+            .build()
+        ingestor = PICSIngestor(db)
+    }
+
+    @After
+    fun tearDown() {
+        db.close()
+    }
+
+    private fun license(packageId: Int, changeNumber: Int = 1, owners: List<Int> = listOf(42)) = SteamLicense(
+        packageId = packageId,
+        lastChangeNumber = changeNumber,
+        timeCreated = Date(0),
+        timeNextProcess = Date(0),
+        minuteLimit = 0,
+        minutesUsed = 0,
+        paymentMethod = EPaymentMethod.from(0),
+        licenseFlags = EnumSet.of(ELicenseFlags.Borrowed),
+        purchaseCode = "",
+        licenseType = ELicenseType.from(1),
+        territoryCode = 0,
+        accessToken = 0L,
+        ownerAccountId = owners,
+        masterPackageID = 0,
+    )
+
+    /** The subset of an appinfo payload that generateSteamApp reads without falling back to defaults. */
+    private fun appProduct(id: Int, changeNumber: Int, name: String = "App $id") = PICSIngestor.AppProduct(
+        id = id,
+        changeNumber = changeNumber,
+        keyValues = KeyValue("appinfo").apply {
+            children.add(KeyValue("appid", id.toString()))
+            children.add(
+                KeyValue("common").apply {
+                    children.add(KeyValue("name", name))
+                    children.add(KeyValue("type", "Game"))
+                },
+            )
+        },
+    )
+
+    @Test
+    fun ingestApps_writesChangedAppsWithTheirLicense() = runBlocking {
+        db.steamLicenseDao().insertAll(listOf(license(packageId = 7, owners = listOf(42, 43))))
+        db.steamAppDao().insertAll(listOf(SteamApp(id = 10, packageId = 7)))
+
+        val written = ingestor.ingestApps(listOf(appProduct(10, 5), appProduct(11, 5)))
+
+        assertEquals(2, written)
+        val app = db.steamAppDao().findApp(10)!!
+        assertEquals("App 10", app.name)
+        assertEquals(7, app.packageId)
+        assertEquals(listOf(42, 43), app.ownerAccountId)
+        assertEquals(EnumSet.of(ELicenseFlags.Borrowed), app.licenseFlags)
+        assertTrue(app.receivedPICS)
+        assertEquals(5, app.lastChangeNumber)
+
+        // An app without a row yet has no package to take ownership from
+        val unknown = db.steamAppDao().findApp(11)!!
+        assertEquals(SteamService.INVALID_PKG_ID, unknown.packageId)
+        assertTrue(unknown.ownerAccountId.isEmpty())
+    }
+
+    @Test
+    fun ingestApps_skipsUnchangedChangeNumbers() = runBlocking {
+        ingestor.ingestApps(listOf(appProduct(10, 5, name = "Before")))
+
+        val written = ingestor.ingestApps(listOf(appProduct(10, 5, name = "After")))
+
+        assertEquals(0, written)
+        assertEquals("Before", db.steamAppDao().findApp(10)!!.name)
+    }
+
+    @Test
+    fun ingestPackages_updatesLicensesAndInsertsStubs() = runBlocking {
+        db.steamLicenseDao().insertAll(listOf(license(7), license(8)))
+        db.steamAppDao().insertAll(listOf(SteamApp(id = 10, packageId = 1, name = "Kept")))
+
+        val queued = ingestor.ingestPackages(
+            listOf(
+                PICSIngestor.PackageProduct(id = 7, appIds = listOf(10, 11), depotIds = listOf(101)),
+                PICSIngestor.PackageProduct(id = 8, appIds = listOf(11, 12), depotIds = listOf(111, 121)),
+            ),
+        )
+
+        assertEquals(listOf(10, 11, 12), queued)
+        val license = db.steamLicenseDao().findLicense(7)!!
+        assertEquals(listOf(10, 11), license.appIds)
+        assertEquals(listOf(101), license.depotIds)
+        assertEquals(listOf(111, 121), db.steamLicenseDao().findLicense(8)!!.depotIds)
+
+        // Existing rows only get their package moved, stubs take the last package listing them
+        val existing = db.steamAppDao().findApp(10)!!
+        assertEquals(7, existing.packageId)
+        assertEquals("Kept", existing.name)
+        assertEquals(8, db.steamAppDao().findApp(11)!!.packageId)
+        val stub = db.steamAppDao().findApp(12)!!
+        assertEquals(8, stub.packageId)
+        assertFalse(stub.receivedPICS)
+    }
+
+    @Test
+    fun ingestPackages_handlesMoreAppsThanSqliteVariables() = runBlocking {
+        db.steamLicenseDao().insertAll(listOf(license(7)))
+        val appIds = (1..2500).toList()
+        db.steamAppDao().insertAll(appIds.filter { it % 2 == 0 }.map { SteamApp(id = it) })
+
+        val queued = ingestor.ingestPackages(listOf(PICSIngestor.PackageProduct(7, appIds, emptyList())))
+
+        assertEquals(appIds, queued)
+        val rows = db.steamAppDao().findChangeInfo(appIds)
+        assertEquals(2500, rows.size)
+        assertTrue(rows.all { it.packageId == 7 })
+    }
+
+    @Test
+    fun changedApps_onlyReturnsKnownAppsWithNewChangeNumbers() = runBlocking {
+        db.steamAppDao().insertAll(
+            listOf(
+                SteamApp(id = 10, lastChangeNumber = 5),
+                SteamApp(id = 11, lastChangeNumber = 5),
+            ),
+        )
+        db.steamLicenseDao().insertAll(listOf(license(7, changeNumber = 3), license(8, changeNumber = 3)))
+
+        assertEquals(listOf(11), ingestor.changedApps(mapOf(10 to 5, 11 to 6, 12 to 1)))
+        assertEquals(listOf(8), ingestor.changedPackages(mapOf(7 to 3, 8 to 4, 9 to 1)))
+        assertTrue(ingestor.changedApps(emptyMap()).isEmpty())
+    }
+
+    @Test
+    fun metrics_countBatchesAndWrites() = runBlocking {
+        ingestor.metrics.appQueueDepth.incrementAndGet()
+        ingestor.ingestApps(listOf(appProduct(10, 1), appProduct(11, 1)))
+        ingestor.ingestApps(listOf(appProduct(10, 1)))
+
+        val metrics = ingestor.metrics
+        assertEquals(2, metrics.batches.get())
+        assertEquals(3, metrics.appsReceived.get())
+        assertEquals(2, metrics.appsWritten.get())
+        assertTrue(metrics.busyNanos.get() > 0)
+        assertTrue(metrics.throughput > 0)
+        val summary = metrics.summary()
+        assertNotNull(summary)
+        assertTrue(summary, summary.contains("1 app / 0 package batch(es)"))
+        assertTrue(summary, summary.contains("2/3 app(s) written"))
+    }
+}
@@ -0,0 +1,143 @@
+package app.gamenative.service.epic
+
+import app.gamenative.service.epic.manifest.EpicManifest
+import java.io.File
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.util.concurrent.ConcurrentHashMap
+import java.util.zip.InflaterInputStream
+import kotlin.random.Random
+import kotlinx.coroutines.runBlocking
+import okhttp3.mockwebserver.Dispatcher
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.RecordedRequest
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.mockito.Mockito.mock
+
+class EpicCloudSaveUploadTest {
+    private lateinit var server: MockWebServer
+    private lateinit var tempDir: File
+    private lateinit var saveDir: File
+
+    // Uploaded path -> body, standing in for the cloud storage bucket
+    private val uploads = ConcurrentHashMap<String, ByteArray>()
+
+    @Before
+    fun setUp() {
+        server = MockWebServer()
+        server.dispatcher = object : Dispatcher() {
+            override fun dispatch(request: RecordedRequest): MockResponse {
+                uploads[request.path!!.removePrefix("/")] = request.body.readByteArray()
+                return MockResponse().setResponseCode(200)
+            }
+        }
+        server.start()
+        tempDir = createTempDir("epicsaves")
+        saveDir = File(tempDir, "saves").apply { mkdirs() }
+    }
+
+    @After
+    fun tearDown() {
+        server.shutdown()
+        tempDir.deleteRecursively()
+    }
+
+    private fun writeSave(name: String, size: Int, seed: Int): File =
+        File(saveDir, name).apply {
+            parentFile?.mkdirs()
+            writeBytes(Random(seed).nextBytes(size))
+        }
+
+    private fun packageSaves(workDir: String, previous: EpicManifest? = null, remote: Set<String>? = null) =
+        EpicSavePackager(File(tempDir, workDir)).packageFiles(
+            saveDir = saveDir,
+            files = saveDir.walkTopDown().filter { it.isFile }.sortedBy { it.name }.toList(),
+            previous = previous,
+            remoteChunkPaths = remote,
+            manifestAppName = "TestAppaccount",
+            saveFolder = "{AppData}/Test",
+        )
+
+    private fun upload(packaged: EpicSavePackager.PackagedSave): Long {
+        uploads.clear()
+        val names = packaged.newChunks.keys + packaged.manifestName
+        val writeLinks = names.associateWith { server.url("/$it").toString() }
+        assertTrue(runBlocking { EpicCloudSavesManager.uploadPackagedSave(packaged, writeLinks, parallelism = 2) })
+        return uploads.values.sumOf { it.size.toLong() }
+    }
+
+    private fun inflateChunk(chunk: ByteArray): ByteArray {
+        val headerSize = ByteBuffer.wrap(chunk).order(ByteOrder.LITTLE_ENDIAN).getInt(8)
+        return InflaterInputStream(chunk.inputStream(headerSize, chunk.size - headerSize)).use { it.readBytes() }
+    }
+
+    @Test
+    fun uploadsOnlyTheChunkOfAChangedFile() {
+        writeSave("a_profile.sav", 300_000, 1)
+        writeSave("b_world.sav", 1_500_000, 2)
+        writeSave("c_settings.ini", 10_000, 3)
+
+        val first = packageSaves("v1")
+        // The 1.5 MB file spans two chunks and the settings file shares the tail of the second one
+        assertEquals(3, first.newChunks.size)
+        val firstBytes = upload(first)
+        assertEquals(first.newChunks.values.sumOf { it.length() } + first.manifestData.size, firstBytes)
+        val bucket = HashMap(uploads)
+
+        // Rewrite the small settings file in place
+        writeSave("c_settings.ini", 10_000, 4)
+        val second = packageSaves("v2", EpicManifest.readAll(first.manifestData), first.newChunks.keys)
+
+        assertEquals(1, second.newChunks.size)
+        assertEquals(2, second.reusedChunks)
+        val secondBytes = upload(second)
+        assertEquals(setOf(second.newChunks.keys.single(), second.manifestName), uploads.keys)
+        assertEquals(second.newChunks.values.single().length() + second.manifestData.size, secondBytes)
+        assertTrue("uploaded $secondBytes of $firstBytes bytes", secondBytes < firstBytes / 2)
+
+        // The new manifest reassembles every file from old and new chunks
+        bucket.putAll(uploads)
+        val manifest = EpicManifest.readAll(second.manifestData)
+        val chunks = manifest.chunkDataList!!.elements.associate { it.guidStr to inflateChunk(bucket.getValue(it.getPath())) }
+        manifest.fileManifestList!!.elements.forEach { fileManifest ->
+            val restored = ByteArray(fileManifest.fileSize.toInt())
+            fileManifest.chunkParts.forEach { part ->
+                chunks.getValue(part.guidStr).copyInto(restored, part.fileOffset.toInt(), part.offset, part.offset + part.size)
+            }
+            assertArrayEquals(fileManifest.filename, File(saveDir, fileManifest.filename).readBytes(), restored)
+        }
+    }
+
+    @Test
+    fun chunksReadBackThroughTheDownloadParser() {
+        val save = writeSave("a_profile.sav", 200_000, 1)
+        val packaged = packageSaves("v1")
+        val chunk = packaged.newChunks.values.single().readBytes()
+
+        val header = ByteBuffer.wrap(chunk).order(ByteOrder.LITTLE_ENDIAN)
+        assertEquals(3, header.getInt(4))
+        assertEquals(66, header.getInt(8))
+        assertEquals(EpicSavePackager.CHUNK_SIZE, header.getInt(62))
+
+        val data = EpicDownloadManager(mock(EpicManager::class.java)).readEpicChunk(chunk)
+        assertEquals(EpicSavePackager.CHUNK_SIZE, data.size)
+        assertArrayEquals(save.readBytes(), data.copyOf(200_000))
+    }
+
+    @Test
+    fun chunksMissingFromTheCloudAreUploadedAgain() {
+        writeSave("a_profile.sav", 200_000, 1)
+        val first = packageSaves("v1")
+
+        val second = packageSaves("v2", EpicManifest.readAll(first.manifestData), emptySet())
+
+        assertEquals(1, second.newChunks.size)
+        assertEquals(0, second.reusedChunks)
+    }
+}
@@ -0,0 +1,224 @@
+package app.gamenative.service.epic.manifest
+
+import java.io.ByteArrayOutputStream
+import java.lang.management.ManagementFactory
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.security.MessageDigest
+import java.util.concurrent.TimeUnit
+import java.util.zip.DeflaterOutputStream
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+
+class CompactManifestTest {
+
+    private class Synthetic(val bytes: ByteArray, val installSize: Long, val downloadSize: Long)
+
+    private fun putFString(buffer: ByteBuffer, value: String) {
+        if (value.isEmpty()) {
+            buffer.putInt(0)
+        } else if (value.all { it.code < 128 }) {
+            buffer.putInt(value.length + 1)
+            buffer.put(value.toByteArray(Charsets.US_ASCII))
+            buffer.put(0)
+        } else {
+            buffer.putInt(-(value.length + 1))
+            buffer.put(value.toByteArray(Charsets.UTF_16LE))
+            buffer.putShort(0)
+        }
+    }
+
+    private fun guid(chunk: Int) = intArrayOf(chunk + 1, 0x5EED, chunk * 7, -chunk)
+
+    private fun fileName(i: Int) = when {
+        i % 250 == 3 -> "Content/Données/é$i.txt"
+        i % 400 == 7 -> "Binaries/Win64/Tool_$i.EXE"
+        else -> "Content/Paks/dir${i / 100}/asset_$i.uasset"
+    }
+
+    /**
+     * Binary manifest in the same layout Epic serves: files have one or two 4 KB parts spread over all
+     * but the last 10 chunks, every fifth file has an install tag and every 97th references a chunk that
+     * is missing from the chunk list.
+     */
+    private fun syntheticManifest(fileCount: Int, chunkCount: Int): Synthetic {
+        val body = ByteBuffer.allocate(fileCount * 256 + chunkCount * 64 + 64 * 1024).order(ByteOrder.LITTLE_ENDIAN)
+        ManifestMeta(dataVersion = 2, featureLevel = 18, appName = "Synthetic", buildVersion = "1.0.0", buildId = "build").write(body)
+
+        val usedChunks = chunkCount - 10
+        val cdlStart = body.position()
+        body.putInt(0)
+        body.put(0)
+        body.putInt(chunkCount)
+        for (c in 0 until chunkCount) guid(c).forEach { body.putInt(it) }
+        for (c in 0 until chunkCount) body.putLong(c * -0x61c8864680b583ebL)
+        for (c in 0 until chunkCount) repeat(20) { body.put((c + it).toByte()) }
+        for (c in 0 until chunkCount) body.put((c % 100).toByte())
+        for (c in 0 until chunkCount) body.putInt(1 shl 20)
+        for (c in 0 until chunkCount) body.putLong(500_000L + c % 1000)
+        body.putInt(cdlStart, body.position() - cdlStart)
+
+        val fmlStart = body.position()
+        body.putInt(0)
+        body.put(2)
+        body.putInt(fileCount)
+        for (i in 0 until fileCount) putFString(body, fileName(i))
+        for (i in 0 until fileCount) putFString(body, "")
+        for (i in 0 until fileCount) repeat(20) { body.put((i * 31 + it).toByte()) }
+        for (i in 0 until fileCount) body.put((i % 8).toByte())
+        for (i in 0 until fileCount) {
+            if (i % 5 == 0) {
+                body.putInt(1)
+                putFString(body, "lang_de")
+            } else {
+                body.putInt(0)
+            }
+        }
+        var installSize = 0L
+        for (i in 0 until fileCount) {
+            val partCount = 1 + i % 2
+            body.putInt(partCount)
+            repeat(partCount) { k ->
+                body.putInt(28)
+                val partGuid = if (i % 97 == 0) intArrayOf(-1, -1, i, k) else guid((i + k) % usedChunks)
+                partGuid.forEach { body.putInt(it) }
+                body.putInt((i % 256) * 4096)
+                body.putInt(4096)
+                installSize += 4096
+            }
+        }
+        for (i in 0 until fileCount) {
+            body.putInt(i % 2)
+            if (i % 2 == 1) repeat(16) { body.put((i + it).toByte()) }
+        }
+        for (i in 0 until fileCount) putFString(body, if (i % 10 == 0) "application/octet-stream" else "")
+        for (i in 0 until fileCount) repeat(32) { body.put((i xor it).toByte()) }
+        body.putInt(fmlStart, body.position() - fmlStart)
+
+        CustomFields().apply { this["BuildLabel"] = "Synthetic" }.write(body)
+
+        val uncompressed = body.array().copyOf(body.position())
+        val compressed = ByteArrayOutputStream().also { out -> DeflaterOutputStream(out).use { it.write(uncompressed) } }.toByteArray()
+        val header = ByteBuffer.allocate(41).order(ByteOrder.LITTLE_ENDIAN)
+            .putInt(EpicManifest.HEADER_MAGIC.toInt())
+            .putInt(41)
+            .putInt(uncompressed.size)
+            .putInt(compressed.size)
+            .put(MessageDigest.getInstance("SHA-1").digest(uncompressed))
+            .put(1)
+            .putInt(21)
+
+        val downloadSize = (0 until usedChunks).sumOf { 500_000L + it % 1000 }
+        return Synthetic(header.array() + compressed, installSize, downloadSize)
+    }
+
+    @Test
+    fun matchesTheObjectModel() {
+        val synthetic = syntheticManifest(fileCount = 1_000, chunkCount = 120)
+        val legacy = EpicManifest.readAll(synthetic.bytes)
+        val compact = CompactManifest.read(synthetic.bytes)
+
+        val chunks = legacy.chunkDataList!!.elements
+        assertEquals(chunks.size, compact.chunkCount)
+        chunks.forEachIndexed { i, expected ->
+            val actual = compact.chunkInfo(i)
+            assertArrayEquals(expected.guid, actual.guid)
+            assertEquals(expected.hash, actual.hash)
+            assertArrayEquals(expected.shaHash, actual.shaHash)
+            assertEquals(expected.groupNum, actual.groupNum)
+            assertEquals(expected.windowSize, actual.windowSize)
+            assertEquals(expected.fileSize, actual.fileSize)
+            assertEquals(expected.getPath(), actual.getPath())
+            assertEquals(i, compact.indexOfChunk(expected.guidStr))
+        }
+
+        val files = legacy.fileManifestList!!.elements
+        assertEquals(files.size, compact.fileCount)
+        files.forEachIndexed { i, expected ->
+            val actual = compact.fileManifest(i)
+            assertEquals(expected.filename, actual.filename)
+            assertEquals(expected.symlinkTarget, actual.symlinkTarget)
+            assertArrayEquals(expected.hash, actual.hash)
+            assertEquals(expected.flags, actual.flags)
+            assertEquals(expected.installTags, actual.installTags)
+            assertEquals(expected.fileSize, actual.fileSize)
+            assertArrayEquals(expected.hashMd5, actual.hashMd5)
+            assertEquals(expected.mimeType, actual.mimeType)
+            assertArrayEquals(expected.hashSha256, actual.hashSha256)
+            assertEquals(expected.chunkParts.size, actual.chunkParts.size)
+            expected.chunkParts.zip(actual.chunkParts).forEach { (e, a) ->
+                assertArrayEquals(e.guid, a.guid)
+                assertEquals(e.offset, a.offset)
+                assertEquals(e.size, a.size)
+                assertEquals(e.fileOffset, a.fileOffset)
+            }
+        }
+
+        assertEquals(fileName(503), compact.getFileByPath(fileName(503))!!.filename)
+        assertNull(compact.getFileByPath("missing.bin"))
+        assertNull(compact.getChunkByGuid("ffffffff-ffffffff-00000000-00000000"))
+        assertEquals("Synthetic", compact.customFields!!["BuildLabel"])
+        assertEquals(legacy.meta!!.buildId, compact.meta!!.buildId)
+
+        val sizes = CompactManifest.readSizes(synthetic.bytes)
+        assertEquals(synthetic.installSize, ManifestUtils.getTotalInstalledSize(legacy))
+        assertEquals(synthetic.downloadSize, ManifestUtils.getTotalDownloadSize(legacy))
+        assertEquals(synthetic.installSize, compact.installSize)
+        assertEquals(synthetic.downloadSize, compact.downloadSize)
+        assertEquals(synthetic.installSize, sizes.installSize)
+        assertEquals(synthetic.downloadSize, sizes.downloadSize)
+        assertEquals(1_000, sizes.fileCount)
+        assertEquals(120, sizes.chunkCount)
+        assertEquals(listOf(fileName(7), fileName(407), fileName(807)), sizes.executables)
+    }
+
+    @Test
+    fun rejectsCorruptBody() {
+        val bytes = syntheticManifest(fileCount = 50, chunkCount = 20).bytes
+        bytes[16] = (bytes[16] + 1).toByte() // first byte of the header SHA-1
+
+        val error = runCatching { CompactManifest.readSizes(bytes) }.exceptionOrNull()
+
+        assertTrue("got $error", error is IllegalStateException)
+    }
+
+    @Test
+    fun largeManifestAllocationBenchmark() {
+        val threadBean = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean
+        assumeTrue(threadBean != null && threadBean.isThreadAllocatedMemorySupported)
+        val synthetic = syntheticManifest(fileCount = 200_000, chunkCount = 20_000)
+        val threadId = Thread.currentThread().id
+
+        fun <T> measure(label: String, block: () -> T): Pair<T, Long> {
+            val before = threadBean!!.getThreadAllocatedBytes(threadId)
+            val start = System.nanoTime()
+            val result = block()
+            val elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+            val allocated = threadBean.getThreadAllocatedBytes(threadId) - before
+            println("$label: ${elapsedMs}ms, ${allocated / (1024 * 1024)}MB allocated")
+            return result to allocated
+        }
+
+        val (legacySizes, legacyBytes) = measure("EpicManifest.readAll") {
+            val manifest = EpicManifest.readAll(synthetic.bytes)
+            ManifestUtils.getTotalInstalledSize(manifest) to ManifestUtils.getTotalDownloadSize(manifest)
+        }
+        val (compact, compactBytes) = measure("CompactManifest.read") { CompactManifest.read(synthetic.bytes) }
+        val (sizes, sizesBytes) = measure("CompactManifest.readSizes") { CompactManifest.readSizes(synthetic.bytes) }
+
+        assertEquals(synthetic.installSize to synthetic.downloadSize, legacySizes)
+        assertEquals(synthetic.installSize, compact.installSize)
+        assertEquals(synthetic.downloadSize, compact.downloadSize)
+        assertEquals(synthetic.installSize, sizes.installSize)
+        assertEquals(synthetic.downloadSize, sizes.downloadSize)
+        assertEquals(200_000, compact.fileCount)
+        assertEquals(300_000, compact.partCount)
+
+        assertTrue("compact $compactBytes vs legacy $legacyBytes bytes", compactBytes < legacyBytes / 2)
+        assertTrue("sizes-only $sizesBytes vs legacy $legacyBytes bytes", sizesBytes < legacyBytes / 20)
+    }
+}
@@ -0,0 +1,186 @@
+package app.gamenative.service.gog
+
+import android.content.Context
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.security.MessageDigest
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.zip.GZIPInputStream
+import java.util.zip.GZIPOutputStream
+import kotlin.random.Random
+import kotlinx.coroutines.runBlocking
+import okhttp3.mockwebserver.Dispatcher
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.RecordedRequest
+import okio.Buffer
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.BeforeClass
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.Mock
+import org.mockito.Mockito.`when`
+import org.mockito.MockitoAnnotations
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import timber.log.Timber
+
+@RunWith(RobolectricTestRunner::class)
+@Config(
+    manifest = Config.NONE,
+    application = android.app.Application::class
+)
+class GOGCloudSavesManagerTest {
+    @Mock
+    private lateinit var context: Context
+
+    private lateinit var mockWebServer: MockWebServer
+    private lateinit var closeable: AutoCloseable
+    private lateinit var tempDir: File
+    private lateinit var saveDir: File
+
+    companion object {
+        @JvmStatic
+        @BeforeClass
+        fun setUpClass() {
+            Timber.uprootAll()
+        }
+    }
+
+    @Before
+    fun setUp() {
+        closeable = MockitoAnnotations.openMocks(this)
+        mockWebServer = MockWebServer()
+        mockWebServer.start()
+        tempDir = createTempDir("gogsaves")
+        saveDir = File(tempDir, "saves").apply { mkdirs() }
+        `when`(context.filesDir).thenReturn(tempDir)
+    }
+
+    @After
+    fun tearDown() {
+        mockWebServer.shutdown()
+        closeable.close()
+        tempDir.deleteRecursively()
+    }
+
+    private fun manager() = GOGCloudSavesManager(context, mockWebServer.url("/").toString().trimEnd('/'))
+
+    private fun writeSave(name: String, data: ByteArray): File =
+        File(saveDir, name).apply {
+            parentFile?.mkdirs()
+            writeBytes(data)
+        }
+
+    // The previous implementation: gzip into memory, then hash
+    private fun legacyMd5(file: File): String {
+        val buffer = ByteArrayOutputStream()
+        GZIPOutputStream(buffer).use { gzipOut ->
+            file.inputStream().use { it.copyTo(gzipOut, 8192) }
+        }
+        return MessageDigest.getInstance("MD5").digest(buffer.toByteArray()).joinToString("") { "%02x".format(it) }
+    }
+
+    private fun md5(bytes: ByteArray) = MessageDigest.getInstance("MD5").digest(bytes).joinToString("") { "%02x".format(it) }
+
+    @Test
+    fun streamingDigestMatchesInMemoryDigest() {
+        val files = listOf(
+            writeSave("empty.sav", ByteArray(0)),
+            writeSave("small.sav", "slot=1\nlevel=4\n".toByteArray()),
+            writeSave("random.sav", Random(1).nextBytes(3 * 1024 * 1024 + 17)),
+            writeSave("text/profile.ini", ByteArray(2 * 1024 * 1024) { (it % 61).toByte() }),
+        )
+
+        files.forEach { file ->
+            assertEquals(file.name, legacyMd5(file), GOGCloudSavesManager.gzipMd5(file))
+        }
+    }
+
+    @Test
+    fun unchangedFilesReuseCachedDigest() = runBlocking {
+        val file = writeSave("slot1.sav", Random(2).nextBytes(100_000))
+        file.setLastModified(1_700_000_000_000)
+        val first = manager().scanLocalFiles(saveDir).single()
+        assertEquals(legacyMd5(file), first.md5Hash)
+
+        // Same size and mtime: a fresh manager trusts the persisted digest instead of compressing again
+        file.writeBytes(Random(3).nextBytes(100_000))
+        file.setLastModified(1_700_000_000_000)
+        assertEquals(first.md5Hash, manager().scanLocalFiles(saveDir).single().md5Hash)
+
+        file.setLastModified(1_700_000_100_000)
+        val rescanned = manager().scanLocalFiles(saveDir).single()
+        assertNotEquals(first.md5Hash, rescanned.md5Hash)
+        assertEquals(legacyMd5(file), rescanned.md5Hash)
+    }
+
+    @Test
+    fun uploadsStreamGzipWithMatchingEtagInParallel() = runBlocking {
+        val contents = (0 until 8).associate { "dir/save$it.sav" to Random(it).nextBytes(50_000 + it * 10_000) }
+        contents.forEach { (name, data) -> writeSave(name, data) }
+
+        val received = ConcurrentHashMap<String, RecordedRequest>()
+        val bodies = ConcurrentHashMap<String, ByteArray>()
+        val inFlight = AtomicInteger()
+        val maxInFlight = AtomicInteger()
+        mockWebServer.dispatcher = object : Dispatcher() {
+            override fun dispatch(request: RecordedRequest): MockResponse {
+                maxInFlight.accumulateAndGet(inFlight.incrementAndGet()) { a, b -> maxOf(a, b) }
+                Thread.sleep(100)
+                val path = request.path!!.removePrefix("/v1/user/client/saves/")
+                received[path] = request
+                bodies[path] = request.body.readByteArray()
+                inFlight.decrementAndGet()
+                return MockResponse().setResponseCode(201)
+            }
+        }
+
+        val manager = manager()
+        val files = manager.scanLocalFiles(saveDir)
+        manager.uploadFiles("user", "client", "saves", files, "token")
+
+        assertEquals(contents.keys, received.keys)
+        files.forEach { file ->
+            val request = received.getValue(file.relativePath)
+            val body = bodies.getValue(file.relativePath)
+            assertEquals("gzip", request.getHeader("Content-Encoding"))
+            assertEquals("Bearer token", request.getHeader("Authorization"))
+            assertEquals(file.md5Hash, request.getHeader("Etag"))
+            assertEquals(file.md5Hash, md5(body))
+            assertArrayEquals(contents.getValue(file.relativePath), GZIPInputStream(body.inputStream()).readBytes())
+        }
+        assertTrue("max in flight ${maxInFlight.get()}", maxInFlight.get() in 2..4)
+    }
+
+    @Test
+    fun downloadsStreamToDiskAndKeepCloudTimestamp() = runBlocking {
+        val contents = (0 until 6).associate { "nested/save$it.sav" to Random(10 + it).nextBytes(200_000) }
+        mockWebServer.dispatcher = object : Dispatcher() {
+            override fun dispatch(request: RecordedRequest): MockResponse {
+                val data = contents[request.path!!.removePrefix("/v1/user/client/saves/")]
+                    ?: return MockResponse().setResponseCode(404)
+                return MockResponse().setResponseCode(200).setBody(Buffer().write(data))
+            }
+        }
+
+        val cloudFiles = contents.keys.map { GOGCloudSavesManager.CloudFile(it, "hash", null, 1_700_000_000) } +
+            GOGCloudSavesManager.CloudFile("missing.sav", "hash", null, null)
+        manager().downloadFiles("user", "client", "saves", cloudFiles, saveDir, "token")
+
+        contents.forEach { (name, data) ->
+            val file = File(saveDir, name)
+            assertArrayEquals(name, data, file.readBytes())
+            assertEquals(1_700_000_000_000, file.lastModified())
+        }
+        assertFalse(File(saveDir, "missing.sav").exists())
+        assertTrue(saveDir.walkTopDown().none { it.name.endsWith(".part") })
+    }
+}
@@ -0,0 +1,147 @@
+package app.gamenative.utils
+
+import java.util.Collections
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.random.Random
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withContext
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.mockwebserver.Dispatcher
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.RecordedRequest
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+
+class CatalogHydratorTest {
+    private lateinit var server: MockWebServer
+    private val client = OkHttpClient.Builder()
+        .readTimeout(10, TimeUnit.SECONDS)
+        .build()
+
+    private val inFlight = AtomicInteger()
+    private val maxInFlight = AtomicInteger()
+    private val requestCount = AtomicInteger()
+
+    @Before
+    fun setUp() {
+        server = MockWebServer()
+        server.start()
+    }
+
+    @After
+    fun tearDown() {
+        server.shutdown()
+    }
+
+    private fun serve(latencyMs: Long, respond: (RecordedRequest, Int) -> MockResponse = { request, _ ->
+        MockResponse().setBody(request.path!!.substringAfterLast('/'))
+    }) {
+        server.dispatcher = object : Dispatcher() {
+            override fun dispatch(request: RecordedRequest): MockResponse {
+                val count = requestCount.incrementAndGet()
+                maxInFlight.accumulateAndGet(inFlight.incrementAndGet()) { a, b -> maxOf(a, b) }
+                try {
+                    Thread.sleep(latencyMs)
+                    return respond(request, count)
+                } finally {
+                    inFlight.decrementAndGet()
+                }
+            }
+        }
+    }
+
+    private suspend fun fetch(id: Int): Result<String?> = withContext(Dispatchers.IO) {
+        runCatching {
+            client.newCall(Request.Builder().url(server.url("/items/$id")).build()).execute().use { response ->
+                if (!response.isSuccessful) throw HttpStatusException.from(response)
+                response.body!!.string()
+            }
+        }
+    }
+
+    private fun hydrate(hydrator: CatalogHydrator, count: Int, batches: MutableList<List<String>>) = runBlocking {
+        hydrator.hydrate("test-host", (0 until count).toList(), ::fetch) { items -> batches.add(items) }
+    }
+
+    @Test
+    fun boundsConcurrencyAndBeatsSerialWallTime() {
+        serve(latencyMs = 100)
+        val batches = Collections.synchronizedList(mutableListOf<List<String>>())
+        val hydrator = CatalogHydrator(maxConcurrency = 4, requestsPerSecond = 1000.0, burst = 100, batchSize = 10)
+
+        val start = System.nanoTime()
+        val stats = hydrate(hydrator, 40, batches)
+        val elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+
+        assertEquals(40, stats.hydrated)
+        assertEquals(0, stats.failed)
+        assertEquals((0 until 40).map { it.toString() }.toSet(), batches.flatten().toSet())
+        assertTrue("batch sizes ${batches.map { it.size }}", batches.all { it.size in 1..10 })
+        assertTrue("max in flight ${maxInFlight.get()}", maxInFlight.get() in 2..4)
+        // 40 requests of 100 ms take 4 s serially and ~1 s with four workers
+        assertTrue("took ${elapsedMs}ms", elapsedMs < 2_500)
+    }
+
+    @Test
+    fun tokenBucketLimitsRequestRate() {
+        serve(latencyMs = 0)
+        val hydrator = CatalogHydrator(maxConcurrency = 8, requestsPerSecond = 20.0, burst = 1)
+
+        val start = System.nanoTime()
+        val stats = hydrate(hydrator, 21, mutableListOf())
+        val elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+
+        assertEquals(21, stats.hydrated)
+        // One token up front, then 20 more at 20/s
+        assertTrue("took ${elapsedMs}ms", elapsedMs >= 900)
+    }
+
+    @Test
+    fun backsOffOn429AndRetries() {
+        serve(latencyMs = 0) { request, count ->
+            if (count <= 2) {
+                MockResponse().setResponseCode(429).setHeader("Retry-After", "1")
+            } else {
+                MockResponse().setBody(request.path!!.substringAfterLast('/'))
+            }
+        }
+        val hydrator = CatalogHydrator(maxConcurrency = 2, requestsPerSecond = 1000.0, burst = 10, baseBackoffMs = 10, random = Random(0))
+
+        val start = System.nanoTime()
+        val stats = hydrate(hydrator, 6, mutableListOf())
+        val elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+
+        assertEquals(6, stats.hydrated)
+        assertEquals(2, stats.retries)
+        assertEquals(8, requestCount.get())
+        // The host is paused for the Retry-After before anything else is sent
+        assertTrue("took ${elapsedMs}ms", elapsedMs >= 1_000)
+    }
+
+    @Test
+    fun permanentFailuresAreNotRetried() {
+        serve(latencyMs = 0) { request, _ ->
+            if (request.path!!.endsWith("/3")) {
+                MockResponse().setResponseCode(404)
+            } else {
+                MockResponse().setBody(request.path!!.substringAfterLast('/'))
+            }
+        }
+        val batches = mutableListOf<List<String>>()
+
+        val stats = hydrate(CatalogHydrator(requestsPerSecond = 1000.0, burst = 10), 5, batches)
+
+        assertEquals(4, stats.hydrated)
+        assertEquals(1, stats.failed)
+        assertEquals(0, stats.retries)
+        assertEquals(5, requestCount.get())
+        assertEquals(setOf("0", "1", "2", "4"), batches.flatten().toSet())
+    }
+}
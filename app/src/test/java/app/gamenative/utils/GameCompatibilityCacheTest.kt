@@ -0,0 +1,200 @@
+package app.gamenative.utils
+
+import android.content.Context
+import androidx.room.Room
+import androidx.test.core.app.ApplicationProvider
+import app.gamenative.PrefManager
+import app.gamenative.data.CachedGameCompatibility
+import app.gamenative.db.PluviaDatabase
+import kotlinx.coroutines.runBlocking
+import kotlinx.serialization.decodeFromString
+import kotlinx.serialization.encodeToString
+import kotlinx.serialization.json.Json
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class GameCompatibilityCacheTest {
+
+    private lateinit var db: PluviaDatabase
+    private var now = 1_000_000_000L
+    private val gpu = "Adreno (TM) 740"
+    private val hours = 60 * 60 * 1000L
+
+    @Before
+    fun setUp() = runBlocking {
+        val context = ApplicationProvider.getApplicationContext<Context>()
+        PrefManager.init(context)
+        db = Room.inMemoryDatabaseBuilder(context, PluviaDatabase::class.java)
+            .allowMainThreadQueries()
+            .build()
+        GameCompatibilityCache.clock = { now }
+        GameCompatibilityCache.init(db.gameCompatibilityDao())
+        GameCompatibilityCache.clear()
+    }
+
+    @After
+    fun tearDown() = runBlocking {
+        GameCompatibilityCache.clear()
+        GameCompatibilityCache.clock = System::currentTimeMillis
+        db.close()
+    }
+
+    private fun response(gameName: String, rating: Float = 4f) = GameCompatibilityService.GameCompatibilityResponse(
+        gameName = gameName,
+        totalPlayableCount = 3,
+        gpuPlayableCount = 1,
+        avgRating = rating,
+        hasBeenTried = true,
+        isNotWorking = false,
+    )
+
+    @Test
+    fun cacheAll_isReadableBeforeAndAfterFlush() = runBlocking {
+        GameCompatibilityCache.cacheAll(mapOf("Hades" to response("Hades"), "Celeste" to response("Celeste")), gpu)
+        assertEquals(4f, GameCompatibilityCache.getCached("Hades", gpu)!!.avgRating)
+
+        GameCompatibilityCache.flush()
+
+        val dao = db.gameCompatibilityDao()
+        assertEquals(2, dao.count())
+        val row = dao.find("Celeste", gpu, now)!!
+        assertEquals(now + 6 * hours, row.expiresAt)
+    }
+
+    @Test
+    fun entriesAreKeyedByGpu() = runBlocking {
+        GameCompatibilityCache.cache("Hades", gpu, response("Hades"))
+
+        assertNotNull(GameCompatibilityCache.getCached("Hades", gpu))
+        assertNull(GameCompatibilityCache.getCached("Hades", "Mali-G57 MC2"))
+    }
+
+    @Test
+    fun getCachedAll_readsMissesFromTheDatabaseInOneQuery() = runBlocking {
+        db.gameCompatibilityDao().insertAll(
+            (0 until 1500).map {
+                CachedGameCompatibility(
+                    gameName = "Game $it",
+                    gpuName = gpu,
+                    totalPlayableCount = it,
+                    gpuPlayableCount = 0,
+                    avgRating = 0f,
+                    hasBeenTried = false,
+                    isNotWorking = false,
+                    expiresAt = now + hours,
+                )
+            },
+        )
+        GameCompatibilityCache.cache("Game 0", gpu, response("Game 0", rating = 5f))
+
+        val names = (0 until 1600).map { "Game $it" }
+        val results = GameCompatibilityCache.getCachedAll(names, gpu)
+
+        assertEquals(1500, results.size)
+        // The in-memory entry wins over the older row
+        assertEquals(5f, results["Game 0"]!!.avgRating)
+        assertEquals(1499, results["Game 1499"]!!.totalPlayableCount)
+    }
+
+    @Test
+    fun expiredEntriesAreSkippedAndPrunedInSql() = runBlocking {
+        GameCompatibilityCache.cache("Old", gpu, response("Old"))
+        GameCompatibilityCache.flush()
+
+        now += 7 * hours
+        assertNull(GameCompatibilityCache.getCached("Old", gpu))
+
+        GameCompatibilityCache.cache("New", gpu, response("New"))
+        GameCompatibilityCache.flush()
+        val dao = db.gameCompatibilityDao()
+        assertEquals(1, dao.count())
+        assertNotNull(dao.find("New", gpu, now))
+    }
+
+    @Test
+    fun legacyPreferenceBlobIsMigrated() = runBlocking {
+        val legacy = mapOf(
+            "Hades" to GameCompatibilityCache.CachedCompatibilityResponse(
+                GameCompatibilityCache.GameCompatibilityResponseData("Hades", 9, 2, 4.5f, true, false),
+                timestamp = now - hours,
+            ),
+            "Stale" to GameCompatibilityCache.CachedCompatibilityResponse(
+                GameCompatibilityCache.GameCompatibilityResponseData("Stale", 1, 0, 1f, true, true),
+                timestamp = now - 10 * hours,
+            ),
+        )
+        PrefManager.gameCompatibilityCache = Json.encodeToString(legacy)
+
+        val migrated = GameCompatibilityCache.getCached("Hades", gpu)
+
+        assertEquals(9, migrated!!.totalPlayableCount)
+        assertEquals(now + 5 * hours, db.gameCompatibilityDao().find("Hades", gpu, now)!!.expiresAt)
+        assertNull(GameCompatibilityCache.getCached("Stale", gpu))
+        assertEquals("{}", PrefManager.gameCompatibilityCache)
+    }
+
+    /**
+     * 5k entries: the old cache decoded the whole JSON blob at startup and re-encoded and stored it on
+     * every update; the table reads one page with an indexed query and writes only the changed rows.
+     */
+    @Test
+    fun benchmark_loadAndUpdate5kEntries() = runBlocking {
+        val entries = 5000
+        val page = (0 until 50).map { "Game $it" }
+        val pageResults = page.associateWith { response(it, rating = 3f) }
+        val iterations = 20
+
+        // Before: the whole map round trips through one preference string
+        val legacyMap = (0 until entries).associate {
+            "Game $it" to GameCompatibilityCache.CachedCompatibilityResponse(
+                GameCompatibilityCache.GameCompatibilityResponseData("Game $it", it, 0, 4f, true, false),
+                now,
+            )
+        }
+        PrefManager.gameCompatibilityCache = Json.encodeToString(legacyMap)
+        var start = System.nanoTime()
+        repeat(iterations) {
+            Json.decodeFromString<Map<String, GameCompatibilityCache.CachedCompatibilityResponse>>(PrefManager.gameCompatibilityCache)
+        }
+        val legacyLoadNanos = (System.nanoTime() - start) / iterations
+        start = System.nanoTime()
+        repeat(iterations) {
+            val updated = legacyMap.toMutableMap()
+            page.forEach { name -> updated[name] = legacyMap.getValue(name).copy(timestamp = now + 1) }
+            PrefManager.gameCompatibilityCache = Json.encodeToString(updated)
+        }
+        val legacyUpdateNanos = (System.nanoTime() - start) / iterations
+        PrefManager.gameCompatibilityCache = "{}"
+
+        // After: rows in the table, a page read and a page written per visit
+        GameCompatibilityCache.cacheAll((0 until entries).associate { "Game $it" to response("Game $it") }, gpu)
+        GameCompatibilityCache.flush()
+        start = System.nanoTime()
+        repeat(iterations) {
+            assertEquals(page.size, db.gameCompatibilityDao().findAll(gpu, page, now).size)
+        }
+        val roomLoadNanos = (System.nanoTime() - start) / iterations
+        start = System.nanoTime()
+        repeat(iterations) {
+            GameCompatibilityCache.cacheAll(pageResults, gpu)
+            GameCompatibilityCache.flush()
+        }
+        val roomUpdateNanos = (System.nanoTime() - start) / iterations
+
+        println(
+            "5k entries, per library page: " +
+                "legacy load ${legacyLoadNanos / 1000} us, update ${legacyUpdateNanos / 1000} us; " +
+                "room page load ${roomLoadNanos / 1000} us, update ${roomUpdateNanos / 1000} us",
+        )
+        assertEquals(entries, db.gameCompatibilityDao().count())
+        assertTrue(roomLoadNanos > 0 && legacyLoadNanos > 0)
+    }
+}
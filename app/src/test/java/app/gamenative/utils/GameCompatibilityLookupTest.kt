@@ -0,0 +1,160 @@
+package app.gamenative.utils
+
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.TimeUnit
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.runBlocking
+import okhttp3.mockwebserver.Dispatcher
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.RecordedRequest
+import org.json.JSONObject
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+
+class GameCompatibilityLookupTest {
+
+    private lateinit var server: MockWebServer
+    private val requestedBatches = CopyOnWriteArrayList<List<String>>()
+    @Volatile private var failRequests = false
+    @Volatile private var responseDelayMs = 0L
+    private var now = 0L
+    private val gpu = "Adreno (TM) 740"
+
+    @Before
+    fun setUp() {
+        server = MockWebServer()
+        server.dispatcher = object : Dispatcher() {
+            override fun dispatch(request: RecordedRequest): MockResponse {
+                val body = JSONObject(request.body.readUtf8())
+                val names = body.getJSONArray("gameNames").let { array -> List(array.length()) { array.getString(it) } }
+                requestedBatches.add(names)
+                if (failRequests) return MockResponse().setResponseCode(500)
+
+                val response = JSONObject()
+                // The API leaves out games nobody has tried
+                names.filterNot { it.startsWith("Unknown") }.forEachIndexed { index, name ->
+                    response.put(name, JSONObject().put("totalPlayableCount", index + 1).put("hasBeenTried", true))
+                }
+                return MockResponse()
+                    .setResponseCode(200)
+                    .setBody(response.toString())
+                    .setBodyDelay(responseDelayMs, TimeUnit.MILLISECONDS)
+            }
+        }
+        server.start()
+    }
+
+    @After
+    fun tearDown() {
+        server.shutdown()
+    }
+
+    private fun lookup(maxBatchSize: Int = 25) = GameCompatibilityLookup(
+        fetch = { names, gpuName -> GameCompatibilityService.fetchCompatibility(names, gpuName, server.url("/api/game-runs").toString()) },
+        useCache = false,
+        coalesceWindowMs = 50,
+        maxBatchSize = maxBatchSize,
+        baseBackoffMs = 1_000,
+        clock = { now },
+    )
+
+    private fun names(range: IntRange) = range.map { "Game $it" }
+
+    @Test
+    fun overlappingConcurrentCallersShareRequests() = runBlocking {
+        val lookup = lookup()
+
+        val results = listOf(names(0..29), names(10..39), names(5..14))
+            .map { async { lookup.lookup(it, gpu) } }
+            .awaitAll()
+
+        // 40 distinct names coalesce into one full batch and one partial batch
+        assertEquals(2, server.requestCount)
+        assertEquals(40, requestedBatches.flatten().toSet().size)
+        assertEquals(40, requestedBatches.sumOf { it.size })
+        assertEquals(30, results[0].size)
+        assertEquals(30, results[1].size)
+        assertEquals(10, results[2].size)
+    }
+
+    @Test
+    fun callersJoinBatchesAlreadyInFlight() = runBlocking {
+        responseDelayMs = 300
+        val lookup = lookup()
+
+        val first = async { lookup.lookup(names(0..4), gpu) }
+        delay(150) // the first batch has been sent and is waiting on the server
+        val second = async { lookup.lookup(names(0..4), gpu) }
+
+        assertEquals(5, first.await().size)
+        assertEquals(5, second.await().size)
+        assertEquals(1, server.requestCount)
+    }
+
+    @Test
+    fun missesAreSplitIntoBoundedBatches() = runBlocking {
+        val lookup = lookup(maxBatchSize = 10)
+        val fanOut = CopyOnWriteArrayList<Int>()
+
+        val results = lookup.lookup(names(0..44), gpu) { fanOut.add(it.size) }
+
+        assertEquals(45, results.size)
+        assertEquals(listOf(10, 10, 10, 10, 5), requestedBatches.map { it.size }.sorted().reversed())
+        // Every batch reaches the caller on its own
+        assertEquals(5, fanOut.size)
+    }
+
+    @Test
+    fun gamesUnknownToTheApiAreLeftOut() = runBlocking {
+        val results = lookup().lookup(listOf("Game 1", "Unknown 1"), gpu)
+
+        assertEquals(setOf("Game 1"), results.keys)
+        assertEquals(1, server.requestCount)
+    }
+
+    @Test
+    fun failuresAreNegativelyCachedWithBackoff() = runBlocking {
+        failRequests = true
+        val lookup = lookup()
+
+        assertTrue(lookup.lookup(names(0..2), gpu).isEmpty())
+        assertEquals(1, server.requestCount)
+
+        // Still backing off: nothing goes out
+        now += 500
+        assertTrue(lookup.lookup(names(0..2), gpu).isEmpty())
+        assertEquals(1, server.requestCount)
+
+        // The first backoff is over, the second failure doubles it
+        now += 600
+        lookup.lookup(names(0..2), gpu)
+        assertEquals(2, server.requestCount)
+        now += 1_500
+        lookup.lookup(names(0..2), gpu)
+        assertEquals(2, server.requestCount)
+
+        failRequests = false
+        now += 600
+        assertEquals(3, lookup.lookup(names(0..2), gpu).size)
+        assertEquals(3, server.requestCount)
+    }
+
+    @Test
+    fun clearFailuresRetriesRightAway() = runBlocking {
+        failRequests = true
+        val lookup = lookup()
+        lookup.lookup(names(0..2), gpu)
+
+        failRequests = false
+        lookup.clearFailures()
+
+        assertEquals(3, lookup.lookup(names(0..2), gpu).size)
+        assertEquals(2, server.requestCount)
+    }
+}
@@ -0,0 +1,139 @@
+package app.gamenative.utils
+
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Assert.fail
+import org.junit.Test
+
+class LaunchPrepPipelineTest {
+    private class MapStore : LaunchPrepPipeline.FingerprintStore {
+        val values = mutableMapOf<String, String>()
+        override fun get(key: String): String? = values[key]
+        override fun put(key: String, value: String) {
+            values[key] = value
+        }
+    }
+
+    @Test
+    fun stagesWithDisjointResourcesRunConcurrently() {
+        val bothStarted = CountDownLatch(2)
+        val pipeline = LaunchPrepPipeline(parallelism = 2)
+        for (name in listOf("a", "b")) {
+            pipeline.stage(name) {
+                writes(name)
+                run {
+                    bothStarted.countDown()
+                    assertTrue("stages did not overlap", bothStarted.await(5, TimeUnit.SECONDS))
+                }
+            }
+        }
+
+        pipeline.run()
+
+        assertEquals(2, LaunchPrepPipeline.lastTrace!!.ranStages.size)
+    }
+
+    @Test
+    fun conflictingStagesKeepDeclarationOrder() {
+        val order = Collections.synchronizedList(mutableListOf<String>())
+        val pipeline = LaunchPrepPipeline(parallelism = 4)
+        pipeline.stage("patches") {
+            writes("prefix")
+            run {
+                Thread.sleep(20)
+                order.add("patches")
+            }
+        }
+        pipeline.stage("dlls") {
+            reads("prefix")
+            writes("system32")
+            run {
+                Thread.sleep(20)
+                order.add("dlls")
+            }
+        }
+        pipeline.stage("components") {
+            reads("prefix")
+            writes("system32", "registry")
+            run { order.add("components") }
+        }
+        pipeline.stage("services") {
+            reads("prefix")
+            writes("registry")
+            run { order.add("services") }
+        }
+
+        pipeline.run()
+
+        assertEquals(listOf("patches", "dlls", "components", "services"), order)
+    }
+
+    @Test
+    fun unchangedFingerprintSkipsStageAndChangedOneIsCommitted() {
+        val store = MapStore()
+        store.values["theme"] = "light"
+        var themeRuns = 0
+        var componentRuns = 0
+
+        fun buildPipeline(theme: String) = LaunchPrepPipeline(store).apply {
+            stage("theme") {
+                writes("user.reg")
+                fingerprint("theme") { theme }
+                run { themeRuns++ }
+            }
+            stage("components") {
+                writes("system.reg")
+                fingerprint("components") { "direct3d=1" }
+                run { componentRuns++ }
+            }
+        }
+
+        assertTrue(buildPipeline("light").run())
+        assertEquals(0, themeRuns)
+        assertEquals(1, componentRuns)
+        assertEquals("direct3d=1", store.values["components"])
+
+        assertFalse(buildPipeline("light").run())
+        assertEquals(0, themeRuns)
+        assertEquals(1, componentRuns)
+        assertTrue(LaunchPrepPipeline.lastTrace!!.stages.all { it.skipped })
+
+        assertTrue(buildPipeline("dark").run())
+        assertEquals(1, themeRuns)
+        assertEquals("dark", store.values["theme"])
+    }
+
+    @Test
+    fun failureStopsDependentsAndSkipsCommits() {
+        val store = MapStore()
+        var dependentRan = false
+        var committed = false
+        val pipeline = LaunchPrepPipeline(store)
+        pipeline.stage("patches") {
+            writes("prefix")
+            run { throw IllegalStateException("boom") }
+            commit { committed = true }
+        }
+        pipeline.stage("dlls") {
+            reads("prefix")
+            fingerprint("dlls") { "1" }
+            run { dependentRan = true }
+        }
+
+        try {
+            pipeline.run()
+            fail("expected the stage failure to propagate")
+        } catch (e: IllegalStateException) {
+            assertEquals("boom", e.message)
+        }
+
+        assertFalse(dependentRan)
+        assertFalse(committed)
+        assertTrue(store.values.isEmpty())
+        assertTrue(LaunchPrepPipeline.lastTrace!!.stages.single().failed)
+    }
+}
@@ -0,0 +1,186 @@
+package app.gamenative.utils
+
+import java.io.File
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import kotlinx.coroutines.runBlocking
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.mockwebserver.Dispatcher
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.RecordedRequest
+import okio.Buffer
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.BeforeClass
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import timber.log.Timber
+
+@RunWith(RobolectricTestRunner::class)
+@Config(
+    manifest = Config.NONE,
+    application = android.app.Application::class
+)
+class ManifestCacheTest {
+    private lateinit var server: MockWebServer
+    private lateinit var tempDir: File
+    private val client = OkHttpClient()
+
+    // Fake clock in whole seconds so file timestamps round-trip on any filesystem
+    private var now = 1_700_000_000_000L
+
+    @Volatile
+    private var liveHash = "a".repeat(40)
+
+    @Volatile
+    private var offline = false
+    private val metadataRequests = AtomicInteger()
+    private val manifestRequests = AtomicInteger()
+
+    companion object {
+        @JvmStatic
+        @BeforeClass
+        fun setUpClass() {
+            Timber.uprootAll()
+        }
+
+        private val MAX_AGE = TimeUnit.HOURS.toMillis(6)
+    }
+
+    @Before
+    fun setUp() {
+        tempDir = createTempDir("manifestcache")
+        server = MockWebServer()
+        server.dispatcher = object : Dispatcher() {
+            override fun dispatch(request: RecordedRequest): MockResponse {
+                if (offline) return MockResponse().setResponseCode(503)
+                return when (request.path) {
+                    "/metadata" -> {
+                        metadataRequests.incrementAndGet()
+                        MockResponse().setBody(liveHash)
+                    }
+                    "/manifest/$liveHash" -> {
+                        manifestRequests.incrementAndGet()
+                        MockResponse().setBody(Buffer().write(ByteArray(if (liveHash.startsWith("a")) 1_000 else 2_000)))
+                    }
+                    else -> MockResponse().setResponseCode(404)
+                }
+            }
+        }
+        server.start()
+    }
+
+    @After
+    fun tearDown() {
+        server.shutdown()
+        tempDir.deleteRecursively()
+    }
+
+    private fun cache(maxBytes: Long = ManifestCache.DEFAULT_MAX_BYTES) =
+        ManifestCache(File(tempDir, "blobs"), File(tempDir, "summaries.json"), maxBytes) { now }
+
+    private fun get(path: String): ByteArray =
+        client.newCall(Request.Builder().url(server.url(path)).build()).execute().use { response ->
+            if (!response.isSuccessful) throw HttpStatusException.from(response)
+            response.body!!.bytes()
+        }
+
+    private fun resolve(cache: ManifestCache) = runBlocking {
+        cache.resolveSummary(
+            store = ManifestCache.STORE_EPIC,
+            key = "Game",
+            maxAgeMs = MAX_AGE,
+            currentHash = { String(get("/metadata")) },
+            build = { hash ->
+                val manifest = get("/manifest/$hash")
+                ManifestCache.Summary(hash, "1.0", manifest.size * 10L, manifest.size.toLong(), 3, listOf("Game.exe"), 0)
+            },
+        )
+    }
+
+    @Test
+    fun evictsLeastRecentlyUsedBlobsAcrossRestarts() {
+        val cache = cache(maxBytes = 300)
+        for ((i, key) in listOf("a", "b", "c").withIndex()) {
+            now += 1_000
+            cache.putBlob(ManifestCache.STORE_GOG, key, ByteArray(100) { i.toByte() })
+        }
+        now += 1_000
+        assertArrayEquals(ByteArray(100), cache.getBlob(ManifestCache.STORE_GOG, "a"))
+
+        now += 1_000
+        cache.putBlob(ManifestCache.STORE_GOG, "d", ByteArray(100))
+
+        assertNull(cache.getBlob(ManifestCache.STORE_GOG, "b"))
+        assertEquals(300, cache.blobBytes)
+
+        // A fresh instance rebuilds the access order from disk, so "c" is now the oldest
+        val reopened = cache(maxBytes = 300)
+        now += 1_000
+        reopened.putBlob(ManifestCache.STORE_GOG, "e", ByteArray(100))
+
+        assertNull(reopened.getBlob(ManifestCache.STORE_GOG, "c"))
+        listOf("a", "d", "e").forEach { assertTrue(it, reopened.getBlob(ManifestCache.STORE_GOG, it) != null) }
+    }
+
+    @Test
+    fun blobsLargerThanTheCacheAreNotStored() {
+        val cache = cache(maxBytes = 100)
+        cache.putBlob(ManifestCache.STORE_EPIC, "big", ByteArray(101))
+
+        assertNull(cache.getBlob(ManifestCache.STORE_EPIC, "big"))
+        assertEquals(0, cache.blobBytes)
+    }
+
+    @Test
+    fun summariesRevalidateByHashAndSurviveOffline() {
+        val cache = cache()
+        assertEquals(10_000, resolve(cache).installSize)
+        assertEquals(1 to 1, metadataRequests.get() to manifestRequests.get())
+
+        // Fresh: no network at all
+        now += TimeUnit.HOURS.toMillis(1)
+        resolve(cache)
+        assertEquals(1 to 1, metadataRequests.get() to manifestRequests.get())
+
+        // Stale but the build did not change: only the metadata request
+        now += TimeUnit.HOURS.toMillis(6)
+        assertEquals(10_000, resolve(cache).installSize)
+        assertEquals(2 to 1, metadataRequests.get() to manifestRequests.get())
+        now += TimeUnit.HOURS.toMillis(1)
+        resolve(cache)
+        assertEquals(2 to 1, metadataRequests.get() to manifestRequests.get())
+
+        // New build: the manifest is downloaded again
+        liveHash = "b".repeat(40)
+        now += TimeUnit.HOURS.toMillis(6)
+        val updated = resolve(cache)
+        assertEquals(20_000, updated.installSize)
+        assertEquals(liveHash, updated.manifestHash)
+        assertEquals(3 to 2, metadataRequests.get() to manifestRequests.get())
+
+        // Offline after a restart: the persisted summary is still served
+        offline = true
+        now += TimeUnit.HOURS.toMillis(12)
+        val offlineSummary = resolve(cache())
+        assertEquals(20_000, offlineSummary.installSize)
+        assertEquals(listOf("Game.exe"), offlineSummary.executables)
+    }
+
+    @Test
+    fun offlineWithoutSummaryFails() {
+        offline = true
+
+        val error = runCatching { resolve(cache()) }.exceptionOrNull()
+
+        assertTrue("got $error", error is HttpStatusException)
+    }
+}
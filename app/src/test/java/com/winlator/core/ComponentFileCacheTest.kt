@@ -0,0 +1,152 @@
+package com.winlator.core
+
+import java.io.File
+import java.nio.file.Files
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [28])
+class ComponentFileCacheTest {
+    private lateinit var root: File
+    private lateinit var cache: ComponentFileCache
+    private lateinit var windowsDir: File
+    private var extractions = 0
+
+    @Before
+    fun setUp() {
+        root = Files.createTempDirectory("component-cache").toFile()
+        cache = ComponentFileCache(File(root, "cache"), 1300)
+        windowsDir = File(root, "windows")
+        extractions = 0
+    }
+
+    private fun extractor(version: String, size: Int = 64) = ComponentFileCache.Extractor { dir ->
+        extractions++
+        for (name in listOf("system32/d3d11.dll", "syswow64/d3d11.dll", "system32/dxgi.dll")) {
+            val file = File(dir, name)
+            file.parentFile!!.mkdirs()
+            file.writeBytes(ByteArray(size) { version.hashCode().toByte() })
+        }
+        true
+    }
+
+    @Test
+    fun extractsOnceAndCopiesIntoDestination() {
+        assertTrue(cache.activate("dxwrapper", "dxvk-2.4.1", "1", extractor("dxvk-2.4.1"), windowsDir, null))
+        assertTrue(cache.activate("dxwrapper", "dxvk-2.4.1", "1", extractor("dxvk-2.4.1"), windowsDir, null))
+
+        assertEquals(1, extractions)
+        val cached = File(cache.getEntryDir("dxwrapper", "dxvk-2.4.1"), "system32/d3d11.dll")
+        val target = File(windowsDir, "system32/d3d11.dll")
+        assertFalse(Files.isSameFile(cached.toPath(), target.toPath()))
+        assertTrue(cached.readBytes().contentEquals(target.readBytes()))
+        assertEquals(cached.lastModified(), target.lastModified())
+        assertTrue(cache.verify("dxwrapper", "dxvk-2.4.1", "1"))
+    }
+
+    @Test
+    fun guestWritesStayInTheirContainer() {
+        val otherWindowsDir = File(root, "other/windows")
+        cache.activate("dxwrapper", "dxvk-2.4.1", "1", extractor("dxvk-2.4.1"), windowsDir, null)
+        cache.activate("dxwrapper", "dxvk-2.4.1", "1", extractor("dxvk-2.4.1"), otherWindowsDir, null)
+
+        File(windowsDir, "system32/d3d11.dll").writeBytes(byteArrayOf(1, 2, 3))
+
+        assertEquals(64L, File(otherWindowsDir, "system32/d3d11.dll").length())
+        assertTrue(cache.verify("dxwrapper", "dxvk-2.4.1", "1"))
+        cache.activate("dxwrapper", "dxvk-2.4.1", "1", extractor("dxvk-2.4.1"), windowsDir, null)
+        assertEquals(1, extractions)
+        assertEquals(64L, File(windowsDir, "system32/d3d11.dll").length())
+    }
+
+    @Test
+    fun switchingVersionsReusesBothEntries() {
+        cache.activate("dxwrapper", "dxvk-2.4.1", "1", extractor("dxvk-2.4.1"), windowsDir, null)
+        cache.activate("dxwrapper", "dxvk-1.10.3", "1", extractor("dxvk-1.10.3"), windowsDir, null)
+        cache.activate("dxwrapper", "dxvk-2.4.1", "1", extractor("dxvk-2.4.1"), windowsDir, null)
+
+        assertEquals(2, extractions)
+        val cached = File(cache.getEntryDir("dxwrapper", "dxvk-2.4.1"), "system32/dxgi.dll")
+        assertTrue(cached.readBytes().contentEquals(File(windowsDir, "system32/dxgi.dll").readBytes()))
+    }
+
+    @Test
+    fun tamperedOrStaleEntriesAreReextracted() {
+        cache.activate("dxwrapper", "dxvk-2.4.1", "1", extractor("dxvk-2.4.1"), windowsDir, null)
+        File(cache.getEntryDir("dxwrapper", "dxvk-2.4.1"), "system32/d3d11.dll").appendBytes(byteArrayOf(1, 2, 3))
+
+        cache.activate("dxwrapper", "dxvk-2.4.1", "1", extractor("dxvk-2.4.1"), windowsDir, null)
+        assertEquals(2, extractions)
+        assertEquals(64L, File(windowsDir, "system32/d3d11.dll").length())
+
+        cache.activate("dxwrapper", "dxvk-2.4.1", "2", extractor("dxvk-2.4.1"), windowsDir, null)
+        assertEquals(3, extractions)
+    }
+
+    @Test
+    fun extractListenerRemapsTargets() {
+        val wow64Listener = OnExtractFileListener { destination, _ ->
+            if (destination.path.contains("system32/")) null else File(destination.path.replace("syswow64/", "system32/"))
+        }
+
+        cache.activate("dxwrapper", "dxvk-2.4.1", "1", extractor("dxvk-2.4.1"), windowsDir, wow64Listener)
+
+        assertTrue(File(windowsDir, "system32/d3d11.dll").isFile)
+        assertFalse(File(windowsDir, "system32/dxgi.dll").exists())
+        assertFalse(File(windowsDir, "syswow64/d3d11.dll").exists())
+    }
+
+    @Test
+    fun localArchivesAreExtractedOnceRepairedAndUpgraded() {
+        fun archive(version: String): File {
+            val staging = File(root, "staging-$version/usr/bin")
+            staging.mkdirs()
+            File(staging, "box64").writeText("box64 $version")
+            val archive = File(root, "box64-$version.tzst")
+            TarCompressorUtils.compress(TarCompressorUtils.Type.ZSTD, staging.parentFile!!, archive)
+            return archive
+        }
+        fun activate(version: String, archive: File) = cache.activate("box86_64", "box64-$version", "1", { dir ->
+            extractions++
+            TarCompressorUtils.extract(TarCompressorUtils.Type.ZSTD, archive, dir)
+        }, root, null)
+        val box64 = File(root, "usr/bin/box64")
+
+        val v1 = archive("0.3.4")
+        assertTrue(activate("0.3.4", v1))
+        assertTrue(activate("0.3.4", v1))
+        assertEquals(1, extractions)
+        assertEquals("box64 0.3.4", box64.readText())
+
+        // A missing target is copied again without touching the archive
+        box64.delete()
+        assertTrue(activate("0.3.4", v1))
+        assertEquals(1, extractions)
+        assertEquals("box64 0.3.4", box64.readText())
+
+        val v2 = archive("0.3.6")
+        assertTrue(activate("0.3.6", v2))
+        assertEquals(2, extractions)
+        assertEquals("box64 0.3.6", box64.readText())
+    }
+
+    @Test
+    fun leastRecentlyActivatedEntriesAreEvictedOverBudget() {
+        cache.activate("dxwrapper", "a", "1", extractor("a", 200), windowsDir, null)
+        File(cache.getEntryDir("dxwrapper", "a"), ".manifest").setLastModified(1000)
+        cache.activate("dxwrapper", "b", "1", extractor("b", 200), windowsDir, null)
+        File(cache.getEntryDir("dxwrapper", "b"), ".manifest").setLastModified(2000)
+        cache.activate("dxwrapper", "c", "1", extractor("c", 200), windowsDir, null)
+
+        assertFalse(cache.getEntryDir("dxwrapper", "a").exists())
+        assertTrue(cache.getEntryDir("dxwrapper", "b").exists())
+        assertTrue(cache.getEntryDir("dxwrapper", "c").exists())
+    }
+}
@@ -0,0 +1,90 @@
+package com.winlator.core
+
+import java.io.File
+import java.nio.file.Files
+import org.json.JSONObject
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [28])
+class FileCatalogTest {
+    private lateinit var dir: File
+    private lateinit var indexFile: File
+
+    @Before
+    fun setUp() {
+        val root = Files.createTempDirectory("file-catalog").toFile()
+        dir = File(root, "home").apply { mkdirs() }
+        indexFile = File(root, "home.catalog")
+    }
+
+    private fun writeConfig(name: String, content: String): File =
+        File(dir, name).apply { writeText(content) }
+
+    @Test
+    fun fieldsSurviveReloadWhileFileIsUnchanged() {
+        val config = writeConfig("a.json", """{"name":"Game A"}""")
+        val catalog = FileCatalog.load(indexFile)
+        catalog.put("a", config, JSONObject().put("name", "Game A"))
+        catalog.setListingCurrent(dir)
+        catalog.save()
+
+        val reloaded = FileCatalog.load(indexFile)
+        assertTrue(reloaded.isListingCurrent(dir))
+        assertTrue(reloaded.contains("a"))
+        assertEquals("Game A", reloaded.getFieldsIfCurrent("a", config)!!.getString("name"))
+    }
+
+    @Test
+    fun modifiedFileIsNoLongerCurrent() {
+        val config = writeConfig("a.json", """{"name":"Game A"}""")
+        val catalog = FileCatalog.load(indexFile)
+        catalog.put("a", config, JSONObject().put("name", "Game A"))
+
+        config.writeText("""{"name":"Renamed game"}""")
+
+        assertNull(catalog.getFieldsIfCurrent("a", config))
+        assertEquals("Game A", catalog.getFields("a")!!.getString("name"))
+    }
+
+    @Test
+    fun addingFilesInvalidatesListing() {
+        val catalog = FileCatalog.load(indexFile)
+        catalog.setListingCurrent(dir)
+        assertTrue(catalog.isListingCurrent(dir))
+
+        writeConfig("b.json", "{}")
+        dir.setLastModified(dir.lastModified() + 5_000)
+
+        assertFalse(catalog.isListingCurrent(dir))
+    }
+
+    @Test
+    fun retainAllDropsRemovedEntries() {
+        val catalog = FileCatalog.load(indexFile)
+        catalog.put("a", writeConfig("a.json", "{}"), JSONObject())
+        catalog.put("b", writeConfig("b.json", "{}"), JSONObject())
+        catalog.retainAll(setOf("b"))
+        catalog.save()
+
+        assertEquals(setOf("b"), FileCatalog.load(indexFile).keys())
+    }
+
+    @Test
+    fun unreadableIndexStartsEmpty() {
+        indexFile.writeText("not json")
+
+        val catalog = FileCatalog.load(indexFile)
+
+        assertTrue(catalog.keys().isEmpty())
+        assertFalse(catalog.isListingCurrent(dir))
+    }
+}
@@ -0,0 +1,106 @@
+package com.winlator.core
+
+import java.io.File
+import java.nio.file.Files
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [28])
+class FileStampTest {
+    private lateinit var installDir: File
+    private lateinit var stampDir: File
+    private lateinit var system32: File
+
+    @Before
+    fun setUp() {
+        val root = Files.createTempDirectory("file-stamp").toFile()
+        installDir = File(root, "contents/fexcore")
+        stampDir = File(root, "contents/.stamps")
+        system32 = File(root, "system32")
+    }
+
+    private fun install(version: String, vararg names: String): Map<String, File> {
+        val sources = LinkedHashMap<String, File>()
+        for (name in names) {
+            val file = File(installDir, "$version/$name")
+            file.parentFile!!.mkdirs()
+            file.writeText("$name $version")
+            sources[name] = file
+        }
+        return sources
+    }
+
+    private fun materialize(version: String, sources: Map<String, File>) =
+        FileStamp.materialize(stampDir, system32, "fexcore", "fexcore-$version-0", sources, 0)
+
+    @Test
+    fun unchangedTargetsAreSkipped() {
+        val sources = install("2508", "libwow64fex.dll", "libarm64ecfex.dll")
+        assertEquals(2, materialize("2508", sources))
+        assertEquals(0, materialize("2508", sources))
+        val dll = File(system32, "libwow64fex.dll")
+        val inode = Files.getAttribute(dll.toPath(), "unix:ino")
+
+        // A copied container changes mtimes but not contents: nothing is rewritten
+        dll.setLastModified(1_000_000)
+        assertEquals(0, materialize("2508", sources))
+        assertEquals(0, materialize("2508", sources))
+        assertEquals(inode, Files.getAttribute(dll.toPath(), "unix:ino"))
+        assertEquals("libwow64fex.dll 2508", dll.readText())
+    }
+
+    @Test
+    fun missingOrTamperedTargetsAreRepaired() {
+        val sources = install("2508", "libwow64fex.dll", "libarm64ecfex.dll")
+        materialize("2508", sources)
+        File(system32, "libwow64fex.dll").delete()
+        File(system32, "libarm64ecfex.dll").writeText("patched by a game")
+
+        assertEquals(2, materialize("2508", sources))
+        assertEquals("libwow64fex.dll 2508", File(system32, "libwow64fex.dll").readText())
+        assertEquals("libarm64ecfex.dll 2508", File(system32, "libarm64ecfex.dll").readText())
+        assertEquals(0, materialize("2508", sources))
+    }
+
+    @Test
+    fun upgradesReplaceFilesAndDropOnesTheNewVersionLacks() {
+        materialize("2508", install("2508", "libwow64fex.dll", "libarm64ecfex.dll"))
+        // Something else owns this file now, so the upgrade must not delete it
+        File(system32, "other.dll").writeText("other")
+
+        val sources = install("2601", "libwow64fex.dll")
+        assertEquals(1, materialize("2601", sources))
+        assertEquals("libwow64fex.dll 2601", File(system32, "libwow64fex.dll").readText())
+        assertFalse(File(system32, "libarm64ecfex.dll").exists())
+        assertTrue(File(system32, "other.dll").exists())
+        assertFalse(File(system32, "libwow64fex.dll.stamp-tmp").exists())
+    }
+
+    @Test
+    fun stampsStayOutOfTheTargetDirectory() {
+        system32.mkdirs()
+
+        assertEquals(1, materialize("2508", install("2508", "libwow64fex.dll")))
+        assertEquals(listOf("libwow64fex.dll"), system32.list()!!.toList())
+        assertTrue(File(stampDir, system32.canonicalPath + "/fexcore").isFile)
+    }
+
+    @Test
+    fun hardlinkedTargetsAreReplacedNotWrittenThrough() {
+        val linked = File(installDir, "cache/libwow64fex.dll")
+        linked.parentFile!!.mkdirs()
+        linked.writeText("cached")
+        system32.mkdirs()
+        Files.createLink(File(system32, "libwow64fex.dll").toPath(), linked.toPath())
+
+        assertEquals(1, materialize("2508", install("2508", "libwow64fex.dll")))
+        assertEquals("cached", linked.readText())
+    }
+}
@@ -0,0 +1,101 @@
+package com.winlator.core
+
+import kotlin.math.abs
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class FrameTimeRecorderTest {
+    private val recorder = FrameTimeRecorder()
+    private var now = 1_000_000_000L
+
+    private fun frames(count: Int, frameMs: Double) {
+        repeat(count) {
+            now += (frameMs * 1_000_000).toLong()
+            recorder.recordFrame(now)
+        }
+    }
+
+    private fun stats() = FrameTimeRecorder.Stats().also { recorder.snapshot(it) }
+
+    private fun assertClose(expected: Double, actual: Float, tolerance: Double = 0.035) {
+        assertTrue("expected $expected, got $actual", abs(actual - expected) <= expected * tolerance)
+    }
+
+    @Test
+    fun bucketsKeepValuesWithinThreePercent() {
+        var previous = -1
+        for (micros in 1L..2_000_000L step 7) {
+            val index = FrameTimeRecorder.bucketIndex(micros)
+            assertTrue(index >= previous)
+            assertTrue("$micros", abs(FrameTimeRecorder.bucketValue(index) - micros) <= micros / 32 + 1)
+            previous = index
+        }
+    }
+
+    @Test
+    fun steadyFrameRateHasNoStutters() {
+        recorder.recordFrame(now)
+        frames(600, 1000.0 / 60)
+
+        val stats = stats()
+        assertEquals(600, stats.frames)
+        assertClose(10.0, stats.seconds)
+        assertClose(60.0, stats.avgFPS)
+        assertClose(60.0, stats.recentFPS)
+        assertClose(16.67, stats.p50Ms)
+        assertClose(16.67, stats.p999Ms)
+        assertClose(60.0, stats.low1FPS)
+        assertEquals(0, stats.stutters)
+    }
+
+    @Test
+    fun spikesShowUpInTheTailAndAsStutters() {
+        recorder.recordFrame(now)
+        repeat(10) {
+            frames(99, 1000.0 / 60)
+            frames(1, 50.0)
+        }
+
+        val stats = stats()
+        assertEquals(1000, stats.frames)
+        assertClose(16.67, stats.p50Ms)
+        assertClose(16.67, stats.p99Ms)
+        assertClose(50.0, stats.p999Ms)
+        assertClose(50.0, stats.maxMs)
+        // The slowest 1% are exactly the spikes
+        assertClose(20.0, stats.low1FPS)
+        assertClose(20.0, stats.low01FPS)
+        assertEquals(10, stats.stutters)
+        assertClose(500.0, stats.stutterMs)
+    }
+
+    @Test
+    fun gradualSlowdownIsNotAStutter() {
+        recorder.recordFrame(now)
+        for (fps in 60 downTo 25) frames(10, 1000.0 / fps)
+
+        val stats = stats()
+        assertEquals(0, stats.stutters)
+        assertClose(25.0, stats.recentFPS)
+        assertClose(25.0, stats.low1FPS)
+    }
+
+    @Test
+    fun pausesAreNotRecorded() {
+        recorder.recordFrame(now)
+        frames(100, 1000.0 / 30)
+        now += 30_000_000_000L
+        recorder.recordFrame(now)
+        frames(100, 1000.0 / 30)
+
+        val stats = stats()
+        assertEquals(200, stats.frames)
+        assertClose(33.33, stats.maxMs)
+        assertEquals(0, stats.stutters)
+
+        recorder.reset()
+        assertEquals(0, stats().frames)
+        assertEquals(0f, stats().recentFPS)
+    }
+}
@@ -0,0 +1,97 @@
+package com.winlator.winhandler
+
+import com.winlator.inputcontrols.GamepadState
+import java.io.RandomAccessFile
+import java.lang.management.ManagementFactory
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.file.Files
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+
+class GamepadSharedMemoryTest {
+    private fun stateWithAxes(value: Float) = GamepadState().apply {
+        thumbLX = value
+        thumbLY = value
+        thumbRX = value
+        thumbRY = value
+    }
+
+    @Test
+    fun writesTheLayoutEvshimReads() {
+        val buffer = ByteBuffer.allocateDirect(GamepadSharedMemory.SIZE).order(ByteOrder.LITTLE_ENDIAN)
+        val memory = GamepadSharedMemory(buffer)
+        val state = stateWithAxes(0.5f).apply {
+            triggerR = 1f
+            setPressed(0, true) // A
+            setPressed(4, true) // Left Bumper
+            dpad[1] = true // Right
+        }
+
+        memory.writeState(state)
+
+        assertEquals(16383.toShort(), buffer.getShort(0))
+        assertEquals((-32767).toShort(), buffer.getShort(8))
+        assertEquals(32767.toShort(), buffer.getShort(10))
+        val pressed = (0 until GamepadSharedMemory.NUM_BUTTONS).filter { buffer.get(GamepadSharedMemory.BUTTONS_OFFSET + it).toInt() == 1 }
+        assertEquals(listOf(0, 9, 14), pressed)
+
+        state.setPressed(0, false)
+        memory.writeState(state)
+        assertEquals(0, buffer.get(GamepadSharedMemory.BUTTONS_OFFSET).toInt())
+    }
+
+    @Test
+    fun rumbleIsReadAsOneWordThroughEveryMapping() {
+        val file = Files.createTempFile("gamepad", ".mem").toFile()
+        val memory = GamepadSharedMemory.map(file)
+        memory.writeState(stateWithAxes(0f))
+
+        // The guest stores both rumble values with a single 4-byte pwrite
+        RandomAccessFile(file, "rw").use { raf ->
+            raf.seek(GamepadSharedMemory.RUMBLE_OFFSET.toLong())
+            raf.write(byteArrayOf(0x34, 0x12, 0xff.toByte(), 0x7f))
+        }
+
+        assertEquals(0x1234, memory.rumble and 0xffff)
+        assertEquals(0x7fff, memory.rumble ushr 16)
+    }
+
+    @Test
+    fun keepsTheLayoutOfThePrebuiltEvshim() {
+        // The shipped libevshim.so reads a 36-byte struct with four bytes of padding after the state,
+        // and writes the rumble values as two uint16 at offset 32
+        assertEquals(28, GamepadSharedMemory.STATE_SIZE)
+        assertEquals(32, GamepadSharedMemory.RUMBLE_OFFSET)
+        assertTrue(GamepadSharedMemory.SIZE >= 36)
+
+        val buffer = ByteBuffer.allocateDirect(GamepadSharedMemory.SIZE).order(ByteOrder.LITTLE_ENDIAN)
+        val memory = GamepadSharedMemory(buffer)
+        buffer.putShort(32, 0x1234)
+        buffer.putShort(34, 0x7fff)
+        memory.writeState(stateWithAxes(1f))
+
+        assertEquals(0x1234, memory.rumble and 0xffff)
+        assertEquals(0x7fff, memory.rumble ushr 16)
+        assertEquals(32767.toShort(), buffer.getShort(0))
+        assertEquals(0, buffer.getInt(28))
+    }
+
+    @Test
+    fun updatesDoNotAllocate() {
+        val threadBean = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean
+        assumeTrue(threadBean != null && threadBean.isThreadAllocatedMemorySupported)
+        val memory = GamepadSharedMemory(ByteBuffer.allocateDirect(GamepadSharedMemory.SIZE))
+        val state = stateWithAxes(0.25f).apply { setPressed(3, true) }
+        repeat(20_000) { memory.writeState(state) }
+
+        val threadId = Thread.currentThread().id
+        val before = threadBean!!.getThreadAllocatedBytes(threadId)
+        for (i in 0 until 10_000) memory.writeState(state)
+        val allocated = threadBean.getThreadAllocatedBytes(threadId) - before
+
+        assertTrue("writeState allocated $allocated bytes", allocated < 1024)
+    }
+}
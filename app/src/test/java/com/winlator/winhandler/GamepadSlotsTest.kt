@@ -0,0 +1,93 @@
+package com.winlator.winhandler
+
+import com.winlator.inputcontrols.GamepadState
+import java.nio.ByteBuffer
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class GamepadSlotsTest {
+    private fun snapshot(memory: GamepadSharedMemory) =
+        ByteArray(GamepadSharedMemory.STATE_SIZE).also { memory.readState(it) }
+
+    @Test
+    fun firstUpdatePublishesEverythingAndRepeatsPublishNothing() {
+        val slots = GamepadSlots(4)
+        val state = GamepadState()
+
+        assertEquals(GamepadSlots.ALL_FIELDS, slots.update(0, state))
+        assertEquals(0, slots.update(0, state))
+
+        slots.invalidate(0)
+        assertEquals(GamepadSlots.ALL_FIELDS, slots.update(0, state))
+    }
+
+    @Test
+    fun onlyChangedFieldsAreReported() {
+        val slots = GamepadSlots(2)
+        val state = GamepadState()
+        slots.update(1, state)
+
+        state.thumbRX = 0.5f
+        assertEquals(GamepadSlots.FIELD_RX, slots.update(1, state))
+
+        state.dpad[0] = true
+        state.triggerL = 1f
+        assertEquals(GamepadSlots.FIELD_BUTTONS or GamepadSlots.FIELD_LT, slots.update(1, state))
+        assertEquals(1 shl 11, slots.getButtons(1))
+
+        // Digital trigger bits have no SDL button but still count as a change for UDP clients
+        state.setPressed(10, true)
+        assertEquals(GamepadSlots.FIELD_BUTTONS, slots.update(1, state))
+    }
+
+    @Test
+    fun slotsAreIndependent() {
+        val slots = GamepadSlots(4)
+        val players = Array(4) { GamepadState() }
+        for (i in 0 until 4) slots.update(i, players[i])
+
+        players[2].thumbLX = -1f
+        players[2].setPressed(0, true)
+
+        for (i in 0 until 4) {
+            val expected = if (i == 2) GamepadSlots.FIELD_LX or GamepadSlots.FIELD_BUTTONS else 0
+            assertEquals(expected, slots.update(i, players[i]))
+        }
+        assertEquals((-32767).toShort(), slots.getAxis(2, 0))
+        assertEquals(0.toShort(), slots.getAxis(1, 0))
+    }
+
+    @Test
+    fun devicesAreRoutedToTheirSlot() {
+        val slots = GamepadSlots(4)
+        slots.setDeviceId(1, 7)
+        slots.setDeviceId(3, 12)
+
+        assertEquals(1, slots.findSlot(7))
+        assertEquals(3, slots.findSlot(12))
+        assertEquals(-1, slots.findSlot(5))
+        assertEquals(-1, slots.findSlot(-1))
+    }
+
+    @Test
+    fun deltaWritesMatchFullWrites() {
+        val slots = GamepadSlots(1)
+        val delta = GamepadSharedMemory(ByteBuffer.allocateDirect(GamepadSharedMemory.SIZE))
+        val full = GamepadSharedMemory(ByteBuffer.allocateDirect(GamepadSharedMemory.SIZE))
+        val state = GamepadState()
+
+        val steps = listOf<GamepadState.() -> Unit>(
+            { thumbLX = 0.25f },
+            { setPressed(3, true); dpad[3] = true },
+            { triggerR = 0.6f; thumbLY = -0.75f },
+            { setPressed(3, false); thumbLX = 0f },
+        )
+        for (step in steps) {
+            state.step()
+            delta.writeSlot(slots, 0, slots.update(0, state))
+            full.writeState(state)
+            assertArrayEquals(snapshot(full), snapshot(delta))
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.winlator.winhandler
+
+import java.lang.management.ManagementFactory
+import java.util.concurrent.atomic.AtomicBoolean
+import kotlin.random.Random
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+
+class MouseEventAccumulatorTest {
+    private fun drain(events: MouseEventAccumulator): List<List<Int>> {
+        val out = IntArray(MouseEventAccumulator.EVENT_SIZE)
+        val drained = mutableListOf<List<Int>>()
+        while (events.poll(out)) drained.add(out.toList())
+        return drained
+    }
+
+    @Test
+    fun mergesMovesAndWheelButKeepsButtonOrder() {
+        val events = MouseEventAccumulator(4)
+        assertTrue(events.add(MouseEventFlags.MOVE, 1, 1, 0))
+        assertFalse(events.add(MouseEventFlags.MOVE, 2, 3, 0))
+        assertFalse(events.add(MouseEventFlags.LEFTDOWN, 0, 0, 0))
+        assertFalse(events.add(MouseEventFlags.MOVE, 5, 0, 0))
+        assertFalse(events.add(MouseEventFlags.MOVE, -1, 0, 0))
+        assertFalse(events.add(MouseEventFlags.LEFTUP, 0, 0, 0))
+        assertFalse(events.add(MouseEventFlags.WHEEL, 0, 0, 120))
+        assertFalse(events.add(MouseEventFlags.WHEEL, 0, 0, 120))
+
+        assertEquals(
+            listOf(
+                listOf(MouseEventFlags.MOVE, 3, 4, 0),
+                listOf(MouseEventFlags.LEFTDOWN, 0, 0, 0),
+                listOf(MouseEventFlags.MOVE, 4, 0, 0),
+                listOf(MouseEventFlags.LEFTUP, 0, 0, 0),
+                listOf(MouseEventFlags.WHEEL, 0, 0, 240),
+            ),
+            drain(events),
+        )
+        // Drained queue is idle again, so the next event asks for a new drain
+        assertTrue(events.add(MouseEventFlags.MOVE, 1, 0, 0))
+    }
+
+    @Test
+    fun deltasThatWouldOverflowTheWireFormatStartANewEvent() {
+        val events = MouseEventAccumulator(4)
+        events.add(MouseEventFlags.MOVE, 30_000, 0, 0)
+        events.add(MouseEventFlags.MOVE, 30_000, -5, 0)
+
+        assertEquals(listOf(listOf(MouseEventFlags.MOVE, 30_000, 0, 0), listOf(MouseEventFlags.MOVE, 30_000, -5, 0)), drain(events))
+    }
+
+    @Test
+    fun growsWhenButtonEventsBackUp() {
+        val events = MouseEventAccumulator(4)
+        repeat(50) {
+            events.add(MouseEventFlags.LEFTDOWN, 0, 0, 0)
+            events.add(MouseEventFlags.MOVE, it, 0, 0)
+        }
+
+        val drained = drain(events)
+        assertEquals(100, drained.size)
+        assertEquals((0 until 50).toList(), drained.filter { it[0] == MouseEventFlags.MOVE }.map { it[1] })
+    }
+
+    @Test
+    fun oneEventPerInputTick() {
+        val events = MouseEventAccumulator(64)
+        val random = Random(7)
+        var packets = 0
+        var drains = 0
+        var totalX = 0L
+        var totalY = 0L
+        var sentX = 0L
+        var sentY = 0L
+        val out = IntArray(MouseEventAccumulator.EVENT_SIZE)
+
+        // 10k samples over 100 ticks, with the send thread draining once per tick
+        repeat(100) {
+            repeat(100) {
+                val dx = random.nextInt(-8, 9)
+                val dy = random.nextInt(-8, 9)
+                totalX += dx
+                totalY += dy
+                if (events.add(MouseEventFlags.MOVE, dx, dy, 0)) drains++
+            }
+            while (events.poll(out)) {
+                packets++
+                sentX += out[MouseEventAccumulator.DX]
+                sentY += out[MouseEventAccumulator.DY]
+            }
+        }
+
+        assertEquals(100, drains)
+        assertEquals(100, packets)
+        assertEquals(totalX to totalY, sentX to sentY)
+    }
+
+    @Test
+    fun concurrentSenderCoalescesTenThousandMoves() {
+        val events = MouseEventAccumulator(64)
+        val drainRequested = Object()
+        var pendingDrains = 0
+        val done = AtomicBoolean(false)
+        var packets = 0
+        var sentX = 0L
+        var sentY = 0L
+
+        // Stand-in for the WinHandler send thread, where each datagram takes a while to go out
+        val sender = Thread {
+            val out = IntArray(MouseEventAccumulator.EVENT_SIZE)
+            while (true) {
+                synchronized(drainRequested) {
+                    while (pendingDrains == 0 && !done.get()) drainRequested.wait()
+                    if (pendingDrains == 0) return@Thread
+                    pendingDrains--
+                }
+                while (events.poll(out)) {
+                    packets++
+                    sentX += out[MouseEventAccumulator.DX]
+                    sentY += out[MouseEventAccumulator.DY]
+                    Thread.sleep(1)
+                }
+            }
+        }
+        sender.start()
+
+        val random = Random(11)
+        var totalX = 0L
+        var totalY = 0L
+        repeat(10_000) {
+            val dx = random.nextInt(-8, 9)
+            val dy = random.nextInt(-8, 9)
+            totalX += dx
+            totalY += dy
+            if (events.add(MouseEventFlags.MOVE, dx, dy, 0)) {
+                synchronized(drainRequested) {
+                    pendingDrains++
+                    drainRequested.notify()
+                }
+            }
+        }
+        synchronized(drainRequested) {
+            done.set(true)
+            drainRequested.notify()
+        }
+        sender.join()
+
+        assertEquals(0, events.size())
+        assertEquals(totalX to totalY, sentX to sentY)
+        assertTrue("sent $packets packets for 10000 moves", packets < 1_000)
+    }
+
+    @Test
+    fun drainingDoesNotAllocate() {
+        val threadBean = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean
+        assumeTrue(threadBean != null && threadBean.isThreadAllocatedMemorySupported)
+        val events = MouseEventAccumulator(64)
+        val out = IntArray(MouseEventAccumulator.EVENT_SIZE)
+        fun cycle() {
+            events.add(MouseEventFlags.MOVE, 1, 1, 0)
+            events.add(MouseEventFlags.LEFTDOWN, 0, 0, 0)
+            events.add(MouseEventFlags.WHEEL, 0, 0, 120)
+            while (events.poll(out)) Unit
+        }
+        repeat(20_000) { cycle() }
+
+        val threadId = Thread.currentThread().id
+        val before = threadBean!!.getThreadAllocatedBytes(threadId)
+        repeat(10_000) { cycle() }
+        val allocated = threadBean.getThreadAllocatedBytes(threadId) - before
+
+        assertTrue("allocated $allocated bytes", allocated < 1024)
+    }
+}
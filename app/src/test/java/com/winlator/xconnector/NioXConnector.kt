@@ -0,0 +1,166 @@
+package com.winlator.xconnector
+
+import java.io.IOException
+import java.net.ProtocolFamily
+import java.net.SocketAddress
+import java.net.StandardProtocolFamily
+import java.nio.ByteBuffer
+import java.nio.channels.SelectionKey
+import java.nio.channels.Selector
+import java.nio.channels.ServerSocketChannel
+import java.nio.channels.SocketChannel
+import java.nio.file.Files
+import java.nio.file.Path
+
+/**
+ * Unix domain socket channels are JDK 16 API that android.jar does not declare, so tests reach them
+ * reflectively. Unit tests run on a desktop JVM, where they exist.
+ */
+object UnixDomainSockets {
+    private val UNIX: ProtocolFamily = StandardProtocolFamily.valueOf("UNIX")
+    private val addressOf = Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", String::class.java)
+
+    fun address(path: Path): SocketAddress = addressOf.invoke(null, path.toString()) as SocketAddress
+
+    fun openServer(): ServerSocketChannel =
+        ServerSocketChannel::class.java.getMethod("open", ProtocolFamily::class.java).invoke(null, UNIX) as ServerSocketChannel
+
+    fun connect(path: Path): SocketChannel =
+        (SocketChannel::class.java.getMethod("open", ProtocolFamily::class.java).invoke(null, UNIX) as SocketChannel)
+            .apply { connect(address(path)) }
+}
+
+/**
+ * [XConnector] on java.nio Unix domain sockets and a [Selector], so the X server stack can be driven by
+ * real clients on a plain JVM. Mirrors [XConnectorEpoll] with a single loop: every client is read and
+ * handled on the selector thread in arrival order.
+ *
+ * File descriptors cannot cross a nio channel. Received messages never carry ancillary fds and fds the
+ * server sends are dropped, so MIT-SHM and DRI3 clients have to fall back to plain requests.
+ */
+class NioXConnector(
+    val path: Path,
+    private val connectionHandler: ConnectionHandler,
+    private val requestHandler: RequestHandler,
+    private val initialInputBufferCapacity: Int = 128,
+    private val initialOutputBufferCapacity: Int = 128,
+) : XConnector {
+    private class NioClientSocket(id: Int, val channel: SocketChannel) : ClientSocket(id) {
+        override fun read(data: ByteBuffer): Int {
+            val bytesRead = channel.read(data)
+            return if (bytesRead < 0) -1 else bytesRead
+        }
+
+        override fun write(data: ByteBuffer) {
+            // The channel is non-blocking for the selector, so wait out a full socket buffer here
+            while (data.hasRemaining()) {
+                if (channel.write(data) == 0) Thread.yield()
+            }
+        }
+
+        override fun recvAncillaryMsg(data: ByteBuffer): Int = read(data)
+
+        override fun sendAncillaryMsg(data: ByteBuffer, ancillaryFd: Int) = write(data)
+    }
+
+    private val selector = Selector.open()
+    private val serverChannel = UnixDomainSockets.openServer()
+    private val clients = HashMap<Int, Client>()
+    private var nextId = 1
+    private var thread: Thread? = null
+
+    @Volatile
+    private var running = false
+
+    init {
+        Files.deleteIfExists(path)
+        serverChannel.bind(UnixDomainSockets.address(path))
+        serverChannel.configureBlocking(false)
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT)
+    }
+
+    @Synchronized
+    override fun start() {
+        if (running) return
+        running = true
+        thread = Thread(::run, "NioXConnector").also { it.start() }
+    }
+
+    @Synchronized
+    override fun stop() {
+        if (!running) return
+        running = false
+        selector.wakeup()
+        thread?.join()
+        thread = null
+        synchronized(clients) { clients.values.toList() }.forEach(::killConnection)
+        selector.close()
+        serverChannel.close()
+        Files.deleteIfExists(path)
+    }
+
+    override fun getClient(fd: Int): Client? = synchronized(clients) { clients[fd] }
+
+    override fun killConnection(client: Client) {
+        synchronized(clients) {
+            if (clients.remove(client.clientSocket.fd) !== client) return
+        }
+        connectionHandler.handleConnectionShutdown(client)
+        try {
+            (client.clientSocket as NioClientSocket).channel.close()
+        } catch (e: IOException) {
+        }
+    }
+
+    override fun getInitialInputBufferCapacity(): Int = initialInputBufferCapacity
+
+    override fun getInitialOutputBufferCapacity(): Int = initialOutputBufferCapacity
+
+    private fun run() {
+        while (running) {
+            selector.select()
+            val keys = selector.selectedKeys().iterator()
+            while (keys.hasNext()) {
+                val key = keys.next()
+                keys.remove()
+                if (!key.isValid) continue
+                if (key.isAcceptable) {
+                    handleNewConnection()
+                } else if (key.isReadable) {
+                    handleExistingConnection(key.attachment() as Client)
+                }
+            }
+        }
+    }
+
+    private fun handleNewConnection() {
+        val channel = serverChannel.accept() ?: return
+        channel.configureBlocking(false)
+        val client = Client(this, NioClientSocket(nextId++, channel))
+        connectionHandler.handleNewConnection(client)
+        synchronized(clients) { clients[client.clientSocket.fd] = client }
+        channel.register(selector, SelectionKey.OP_READ, client)
+    }
+
+    // Same request loop as XConnectorEpoll.handleExistingConnection
+    private fun handleExistingConnection(client: Client) {
+        val inputStream = client.inputStream
+        try {
+            if (inputStream == null) {
+                requestHandler.handleRequest(client)
+                return
+            }
+            if (inputStream.readMoreData(false) <= 0) {
+                killConnection(client)
+                return
+            }
+            var activePosition = 0
+            while (running && requestHandler.handleRequest(client)) {
+                activePosition = inputStream.activePosition
+            }
+            inputStream.activePosition = activePosition
+        } catch (e: IOException) {
+            killConnection(client)
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.winlator.xenvironment.components
+
+import com.winlator.renderer.Texture
+import com.winlator.xconnector.Client
+import com.winlator.xconnector.ClientSocket
+import com.winlator.xserver.ScreenInfo
+import com.winlator.xserver.XServer
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+@RunWith(RobolectricTestRunner::class)
+@Config(
+    manifest = Config.NONE,
+    application = android.app.Application::class
+)
+class VirGLRendererComponentTest {
+    private val refresh = 16_666_667L
+
+    /** Stands in for virglrenderer: every flushEvery-th request ends with a frontbuffer flush. */
+    private class FakeBackend(private val flushEvery: Int, private val drawableId: Int) : VirGLRendererComponent.Backend {
+        lateinit var component: VirGLRendererComponent
+        private val flushFrontbuffer = VirGLRendererComponent::class.java
+            .getDeclaredMethod("flushFrontbuffer", Int::class.java, Int::class.java)
+            .apply { isAccessible = true }
+        var requests = 0
+        var copies = 0
+
+        override fun handleNewConnection(fd: Int) = 1L
+
+        override fun handleRequest(clientPtr: Long) {
+            if (++requests % flushEvery == 0) flushFrontbuffer.invoke(component, drawableId, 1)
+        }
+
+        override fun getCurrentEGLContextPtr() = 0L
+
+        override fun destroyClient(clientPtr: Long) {}
+
+        override fun copyFramebuffer(texture: Texture, framebuffer: Int, width: Short, height: Short) {
+            copies++
+        }
+    }
+
+    @Test
+    fun flushesAtOrBelowTheRefreshRateArePublishedImmediately() {
+        val coalescer = FlushCoalescer(refresh)
+        var now = 0L
+        repeat(120) {
+            now += refresh + (it % 3 - 1) * 1_000_000L
+            assertTrue(coalescer.onFlush(7, now))
+        }
+        assertEquals(-1, coalescer.nextDeadline())
+    }
+
+    @Test
+    fun fasterFlushesPublishOnlyTheLatestFramePerRefresh() {
+        val coalescer = FlushCoalescer(refresh)
+        val ids = IntArray(4)
+        assertTrue(coalescer.onFlush(7, 0))
+
+        // 1000 fps: the next 9 flushes fall inside the interval and only leave the drawable pending
+        for (i in 1..9) assertFalse(coalescer.onFlush(7, i * 1_000_000L))
+        assertEquals(refresh * 3 / 4, coalescer.nextDeadline())
+        assertEquals(0, coalescer.drainPending(9_000_000L, ids))
+        assertEquals(1, coalescer.drainPending(13_000_000L, ids))
+        assertEquals(7, ids[0])
+        assertEquals(-1, coalescer.nextDeadline())
+
+        // Other drawables are limited on their own
+        assertTrue(coalescer.onFlush(8, 14_000_000L))
+        assertFalse(coalescer.onFlush(7, 14_000_000L))
+        coalescer.remove(7)
+        assertEquals(-1, coalescer.nextDeadline())
+    }
+
+    @Test
+    fun requestsRunWithoutLoggingOrWaitingAndFlushesAreCoalesced() {
+        val xServer = XServer(ScreenInfo(800, 600))
+        val drawable = xServer.drawableManager.createDrawable(0x200001, 800, 600, 24.toByte())
+        var publishes = 0
+        drawable.setOnDrawListener { publishes++ }
+
+        val backend = FakeBackend(flushEvery = 200, drawableId = drawable.id)
+        val component = VirGLRendererComponent(xServer, null, backend)
+        backend.component = component
+        val client = Client(null, ClientSocket(-1))
+        component.handleNewConnection(client)
+
+        repeat(10_000) { component.handleRequest(client) }
+
+        assertEquals(50, backend.copies)
+        // Flushes this close together are published once, the rest wait for the next refresh
+        assertTrue("$publishes publishes", publishes in 1..2)
+    }
+
+    /** Request overhead on top of the backend: a fake that does nothing but flush every 500th request. */
+    @Test
+    fun benchmark_requestOverhead() {
+        val xServer = XServer(ScreenInfo(800, 600))
+        val drawable = xServer.drawableManager.createDrawable(0x200001, 800, 600, 24.toByte())
+        val backend = FakeBackend(flushEvery = 500, drawableId = drawable.id)
+        val component = VirGLRendererComponent(xServer, null, backend)
+        backend.component = component
+        val client = Client(null, ClientSocket(-1))
+        component.handleNewConnection(client)
+
+        val requests = 1_000_000
+        repeat(requests / 10) { component.handleRequest(client) }
+        val start = System.nanoTime()
+        repeat(requests) { component.handleRequest(client) }
+        val nanosPerRequest = (System.nanoTime() - start).toDouble() / requests
+
+        println("VirGL request overhead: %.1f ns per request, %d frames copied".format(nanosPerRequest, backend.copies))
+        assertEquals(requests / 10 + requests, backend.requests)
+    }
+}
@@ -0,0 +1,147 @@
+package com.winlator.xserver
+
+import java.io.ByteArrayInputStream
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.BeforeClass
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import timber.log.Timber
+
+@RunWith(RobolectricTestRunner::class)
+@Config(
+    manifest = Config.NONE,
+    application = android.app.Application::class
+)
+class DrawableBufferPoolTest {
+    companion object {
+        @JvmStatic
+        @BeforeClass
+        fun setUpClass() {
+            Timber.uprootAll()
+        }
+    }
+
+    @Test
+    fun sizeClassesWasteAtMostAQuarter() {
+        var previous = -1
+        for (size in 1..(1 shl 20) step 61) {
+            val index = DrawableBufferPool.classIndex(size)
+            val bytes = DrawableBufferPool.classBytes(index)
+            assertTrue("$size", bytes >= size)
+            assertTrue("$size", size <= 1024 || bytes <= size + size / 4 + 1)
+            assertTrue("$size", index >= previous)
+            assertEquals(index, DrawableBufferPool.classIndex(bytes))
+            previous = index
+        }
+    }
+
+    @Test
+    fun releasedBuffersAreReusedWithTheExactCapacity() {
+        val pool = DrawableBufferPool()
+        val first = pool.acquire(100 * 100 * 4, true)
+        assertEquals(40_000, first.capacity())
+        assertEquals(ByteOrder.LITTLE_ENDIAN, first.order())
+        assertTrue(first.isDirect)
+        pool.release(first)
+
+        // A slightly smaller request falls in the same class
+        val second = pool.acquire(99 * 100 * 4, true)
+        assertEquals(39_600, second.capacity())
+        assertEquals(1, pool.hits)
+        assertEquals(1, pool.misses)
+        assertEquals(0, pool.pooledBytes)
+    }
+
+    @Test
+    fun recycledBuffersAreZeroedOnlyWhenAsked() {
+        val pool = DrawableBufferPool()
+        val dirty = pool.acquire(4096, true)
+        while (dirty.hasRemaining()) dirty.put(0x7f)
+        pool.release(dirty)
+
+        val zeroed = pool.acquire(4096, true)
+        for (i in 0 until zeroed.capacity()) assertEquals(0.toByte(), zeroed.get(i))
+        zeroed.put(0, 0x7f)
+        pool.release(zeroed)
+
+        // The caller overwrites everything, so nothing is cleared
+        assertEquals(0x7f.toByte(), pool.acquire(4096, false).get(0))
+    }
+
+    @Test
+    fun poolSizeIsCappedAndTrimmed() {
+        val pool = DrawableBufferPool(64 * 1024)
+        val buffers = List(4) { pool.acquire(32 * 1024, true) }
+        buffers.forEach(pool::release)
+        // Only two fit under the cap, the rest are left to the GC
+        assertEquals(64 * 1024L, pool.pooledBytes)
+        assertEquals(0, pool.leasedBytes)
+
+        pool.onTrimMemory(android.content.ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW)
+        assertEquals(32 * 1024L, pool.pooledBytes)
+        pool.onTrimMemory(android.content.ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN)
+        assertEquals(0, pool.pooledBytes)
+
+        // Buffers the pool did not hand out are ignored
+        pool.release(ByteBuffer.allocateDirect(1024))
+        assertEquals(0, pool.pooledBytes)
+    }
+
+    @Test
+    fun cursorsKeepFreedPixmapStorageAlive() {
+        val xServer = XServer(ScreenInfo(800, 600))
+        val pool = xServer.drawableManager.bufferPool
+        val source = xServer.pixmapManager.createPixmap(xServer.drawableManager.createDrawable(0x200001, 16, 16, 1.toByte()))
+        val mask = xServer.pixmapManager.createPixmap(xServer.drawableManager.createDrawable(0x200002, 16, 16, 1.toByte()))
+        assertNull("depth 1 pixmaps have no texture", source.drawable.texture)
+
+        val cursor = xServer.cursorManager.createCursor(0x200003, 0, 0, source, mask)
+        xServer.pixmapManager.freePixmap(source.id)
+        xServer.pixmapManager.freePixmap(mask.id)
+        assertNotNull(cursor.sourceImage.data)
+        assertTrue(pool.leasedBytes > 0)
+
+        xServer.cursorManager.freeCursor(cursor.id)
+        assertNull(cursor.sourceImage.data)
+        assertEquals(0, pool.leasedBytes)
+    }
+
+    @Test
+    fun pixmapChurnRecyclesStorage() {
+        val xServer = XServer(ScreenInfo(800, 600))
+        val trace = SyntheticTraces.pixmapChurn(xServer.windowManager.rootWindow.id, xServer.resourceIDs.idMask + 1, rounds = 200)
+        val result = XTraceReplayer(xServer).replay(ByteArrayInputStream(trace), false)
+        val pool = xServer.drawableManager.bufferPool
+
+        assertEquals(200 * 4, result.getOpcodeStats("CREATE_PIXMAP")!!.count)
+        assertEquals(200, result.getOpcodeStats("GET_IMAGE")!!.count)
+        assertEquals(0, pool.leasedBytes)
+        // Pixmap sizes vary round to round, but most requests land in a class freed the round before
+        assertTrue("${pool.hits} hits, ${pool.misses} misses", pool.hits > pool.misses * 4)
+    }
+
+    /** The same trace with recycling switched off is what every pixmap paid before the pool. */
+    @Test
+    fun benchmark_pixmapChurn() {
+        fun replay(pooled: Boolean): XTraceReplayer.Result {
+            val xServer = XServer(ScreenInfo(800, 600))
+            if (!pooled) xServer.drawableManager.bufferPool.maxPooledBytes = 0
+            val trace = SyntheticTraces.pixmapChurn(xServer.windowManager.rootWindow.id, xServer.resourceIDs.idMask + 1, rounds = 2000)
+            return XTraceReplayer(xServer).replay(ByteArrayInputStream(trace), false)
+        }
+
+        // Warm up both paths before measuring
+        repeat(2) { replay(false); replay(true) }
+        val unpooled = (1..3).maxOf { replay(false).requestsPerSecond() }
+        val pooled = (1..3).maxOf { replay(true).requestsPerSecond() }
+        println("Pixmap churn: unpooled ${unpooled.toLong()} requests/s, pooled ${pooled.toLong()} requests/s")
+        assertTrue(unpooled > 0 && pooled > 0)
+    }
+}
@@ -0,0 +1,135 @@
+package com.winlator.xserver
+
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import kotlin.random.Random
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+@RunWith(RobolectricTestRunner::class)
+@Config(
+    manifest = Config.NONE,
+    application = android.app.Application::class
+)
+class DrawableRasterTest {
+    private var draws = 0
+
+    private fun drawable(width: Int = 64, height: Int = 48) = Drawable(1, width, height, null).also {
+        it.setOnDrawListener { draws++ }
+    }
+
+    private fun pixel(drawable: Drawable, x: Int, y: Int) = drawable.data.getInt((x + y * drawable.width) * 4)
+
+    private fun shorts(vararg values: Int, order: ByteOrder = ByteOrder.LITTLE_ENDIAN): ByteBuffer {
+        val buffer = ByteBuffer.allocateDirect(values.size * 2).order(order)
+        values.forEach { buffer.putShort(it.toShort()) }
+        return buffer.rewind() as ByteBuffer
+    }
+
+    @Test
+    fun fillRectsDrawsOnceAndReturnsTheUnionDamage() {
+        val drawable = drawable()
+
+        val damage = drawable.fillRects(shorts(2, 3, 4, 5, 10, 20, 6, 2), 2, 0x123456, GraphicsContext.Function.COPY)
+
+        assertEquals(1, draws)
+        assertEquals(0xff123456.toInt(), pixel(drawable, 2, 3))
+        assertEquals(0xff123456.toInt(), pixel(drawable, 15, 21))
+        assertEquals(0, pixel(drawable, 6, 3))
+        assertEquals(Drawable.packDamage(2, 3, 14, 19), damage)
+    }
+
+    @Test
+    fun fillRectsClipsToTheDrawable() {
+        val drawable = drawable()
+
+        val damage = drawable.fillRects(shorts(-4, -4, 6, 6, 60, 40, 100, 100), 2, 0xffffff, GraphicsContext.Function.COPY)
+
+        assertEquals(-1, pixel(drawable, 1, 1))
+        assertEquals(0, pixel(drawable, 2, 2))
+        assertEquals(-1, pixel(drawable, 63, 47))
+        assertEquals(0, Drawable.damageX(damage).toInt())
+        assertEquals(64, Drawable.damageWidth(damage).toInt())
+        assertEquals(48, Drawable.damageHeight(damage).toInt())
+
+        // Nothing on screen, nothing to redraw
+        assertEquals(0L, drawable.fillRects(shorts(100, 100, 5, 5), 1, 0xffffff, GraphicsContext.Function.COPY))
+        assertEquals(1, draws)
+    }
+
+    @Test
+    fun fillRectsAppliesTheGcFunctionInClientByteOrder() {
+        val drawable = drawable()
+        drawable.fillColor(0xff00ff)
+        draws = 0
+
+        drawable.fillRects(shorts(0, 0, 2, 2, order = ByteOrder.BIG_ENDIAN), 1, 0x00ff00, GraphicsContext.Function.XOR)
+
+        assertEquals(-1, pixel(drawable, 1, 1))
+        assertEquals(0xffff00ff.toInt(), pixel(drawable, 2, 0))
+        assertEquals(0L, drawable.fillRects(shorts(0, 0, 2, 2), 1, 0, GraphicsContext.Function.NO_OP))
+        assertEquals(1, draws)
+    }
+
+    @Test
+    fun drawLinesStampsEverySegmentWithOneRedraw() {
+        val drawable = drawable()
+
+        val damage = drawable.drawLines(shorts(0, 0, 10, 0, 10, 10), 3, 0xff0000, 2)
+
+        assertEquals(1, draws)
+        assertEquals(0xffff0000.toInt(), pixel(drawable, 5, 1))
+        assertEquals(0xffff0000.toInt(), pixel(drawable, 11, 11))
+        assertEquals(0, pixel(drawable, 5, 2))
+        assertEquals(Drawable.packDamage(0, 0, 12, 12), damage)
+    }
+
+    /** A redraw heavy request: 10k small rectangles, one call each against one batch. */
+    @Test
+    fun benchmark_10kRectangles() {
+        val random = Random(7)
+        val count = 10_000
+        val values = IntArray(count * 4)
+        for (i in 0 until count) {
+            values[i * 4] = random.nextInt(640)
+            values[i * 4 + 1] = random.nextInt(480)
+            values[i * 4 + 2] = 1 + random.nextInt(16)
+            values[i * 4 + 3] = 1 + random.nextInt(16)
+        }
+        val rects = shorts(*values)
+        val drawable = drawable(640, 480)
+        val iterations = 10
+
+        fun perRectangle() {
+            for (i in 0 until count) drawable.fillRect(values[i * 4], values[i * 4 + 1], values[i * 4 + 2], values[i * 4 + 3], 0x123456)
+        }
+        fun batched() {
+            drawable.fillRects(rects, count, 0x123456, GraphicsContext.Function.COPY)
+        }
+
+        repeat(3) { perRectangle(); batched() }
+        draws = 0
+        var start = System.nanoTime()
+        repeat(iterations) { perRectangle() }
+        val perRectangleNanos = (System.nanoTime() - start) / iterations
+        val perRectangleDraws = draws / iterations
+
+        draws = 0
+        start = System.nanoTime()
+        repeat(iterations) { batched() }
+        val batchedNanos = (System.nanoTime() - start) / iterations
+        val batchedDraws = draws / iterations
+
+        println(
+            "10k rectangles: per rectangle ${perRectangleNanos / 1000} us with $perRectangleDraws redraws, " +
+                "batched ${batchedNanos / 1000} us with $batchedDraws redraw",
+        )
+        assertEquals(count, perRectangleDraws)
+        assertEquals(1, batchedDraws)
+        assertTrue(batchedNanos > 0)
+    }
+}
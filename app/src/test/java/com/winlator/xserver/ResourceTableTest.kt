@@ -0,0 +1,193 @@
+package com.winlator.xserver
+
+import android.util.SparseArray
+import com.winlator.xconnector.XInputStream
+import com.winlator.xconnector.XOutputStream
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.util.Random
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.BeforeClass
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import timber.log.Timber
+
+@RunWith(RobolectricTestRunner::class)
+@Config(
+    manifest = Config.NONE,
+    application = android.app.Application::class
+)
+class ResourceTableTest {
+    companion object {
+        @JvmStatic
+        @BeforeClass
+        fun setUpClass() {
+            Timber.uprootAll()
+        }
+
+        private val indexBits = ResourceIDs.indexBits(ResourceIDs.MAX_CLIENTS)
+        private val base1 = 1 shl indexBits
+        private val base2 = 2 shl indexBits
+    }
+
+    @Test
+    fun matchesAMapUnderRandomChurn() {
+        val table = ResourceTable<String>()
+        val reference = HashMap<Int, String>()
+        val random = Random(7)
+        repeat(200_000) {
+            val id = (random.nextInt(4) shl indexBits) + random.nextInt(5000)
+            when (random.nextInt(3)) {
+                0, 1 -> assertEquals(reference.put(id, "v$it"), table.put(id, "v$it"))
+                else -> assertEquals(reference.remove(id), table.remove(id))
+            }
+        }
+        assertEquals(reference.size, table.size())
+        for ((id, value) in reference) assertEquals(value, table.get(id))
+
+        var visited = 0
+        table.forEach { visited++ }
+        assertEquals(reference.size, visited)
+    }
+
+    @Test
+    fun removeClientDetachesOnlyThatClient() {
+        val table = ResourceTable<Int>()
+        for (i in 1..1000) {
+            table.put(base1 + i, i)
+            table.put(base2 + i * 300, i)
+        }
+        table.put(5, 5)
+
+        val removed = ArrayList<Int>()
+        assertEquals(1000, table.removeClient(base2) { removed.add(it) })
+        assertEquals(1000, removed.size)
+        assertEquals(1001, table.size())
+        assertNull(table.get(base2 + 300))
+        assertEquals(7, table.get(base1 + 7))
+        assertEquals(5, table.get(5))
+        assertEquals(0, table.removeClient(base2, null))
+
+        // The slot starts out empty when the base is handed to the next client
+        table.put(base2 + 1, 1)
+        assertEquals(1002, table.size())
+    }
+
+    @Test
+    fun disconnectFreesEverythingTheClientCreated() {
+        val xServer = XServer(ScreenInfo(800, 600))
+        val client = XClient(xServer, XInputStream(128), XOutputStream(128))
+        val other = XClient(xServer, XInputStream(128), XOutputStream(128))
+        val base = client.resourceIDBase
+        val root = xServer.windowManager.rootWindow
+        val drawables = xServer.drawableManager.all().size()
+
+        val window = xServer.windowManager.createWindow(base + 1, root, 0, 0, 100, 100, WindowAttributes.WindowClass.INPUT_OUTPUT, null, 0, client)
+        xServer.windowManager.createWindow(base + 2, window, 0, 0, 50, 50, WindowAttributes.WindowClass.INPUT_OUTPUT, null, 0, client)
+        val otherWindow = xServer.windowManager.createWindow(other.resourceIDBase + 1, root, 0, 0, 10, 10, WindowAttributes.WindowClass.INPUT_OUTPUT, null, 0, other)
+        // Another client's window inside one of this client's goes with it
+        xServer.windowManager.createWindow(other.resourceIDBase + 2, window, 0, 0, 10, 10, WindowAttributes.WindowClass.INPUT_OUTPUT, null, 0, other)
+        for (i in 10 until 1010) {
+            xServer.pixmapManager.createPixmap(xServer.drawableManager.createDrawable(base + i, 16, 16, 32.toByte()))
+        }
+        val pixmap = xServer.pixmapManager.getPixmap(base + 10)
+        xServer.graphicsContextManager.createGraphicsContext(base + 2000, pixmap.drawable)
+        xServer.cursorManager.createCursor(base + 2001, 0, 0, pixmap, null)
+
+        client.freeResources()
+
+        assertNull(xServer.windowManager.getWindow(base + 1))
+        assertNull(xServer.windowManager.getWindow(base + 2))
+        assertNull(xServer.windowManager.getWindow(other.resourceIDBase + 2))
+        assertSame(otherWindow, xServer.windowManager.getWindow(other.resourceIDBase + 1))
+        assertTrue(otherWindow in root.children && window !in root.children)
+        assertNull(xServer.pixmapManager.getPixmap(base + 10))
+        assertNull(xServer.graphicsContextManager.getGraphicsContext(base + 2000))
+        assertNull(xServer.cursorManager.getCursor(base + 2001))
+        assertEquals(drawables + 1, xServer.drawableManager.all().size())
+
+        // The base is free again and the next client gets a clean range
+        val next = XClient(xServer, XInputStream(128), XOutputStream(128))
+        assertEquals(base, next.resourceIDBase)
+        assertNotNull(xServer.windowManager.createWindow(base + 1, root, 0, 0, 10, 10, WindowAttributes.WindowClass.INPUT_OUTPUT, null, 0, next))
+    }
+
+    @Test
+    fun windowsAreFoundByProcessId() {
+        val xServer = XServer(ScreenInfo(800, 600))
+        val client = XClient(xServer, XInputStream(128), XOutputStream(128))
+        val windowManager = xServer.windowManager
+        val pidAtom = Atom.internAtom("_NET_WM_PID")
+        val cardinal = Atom.getId("CARDINAL")
+
+        fun setPid(window: Window, pid: Int) {
+            val data = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(pid).array()
+            val property = window.modifyProperty(pidAtom, cardinal, Property.Format.INT_ARRAY, Property.Mode.REPLACE, data)
+            windowManager.triggerOnModifyWindowProperty(window, property)
+        }
+
+        val windows = (1..1000).map {
+            windowManager.createWindow(client.resourceIDBase + it, windowManager.rootWindow, 0, 0, 10, 10, WindowAttributes.WindowClass.INPUT_OUTPUT, null, 0, client)
+        }
+        windows.forEachIndexed { i, window -> setPid(window, 100 + i / 2) }
+
+        assertSame(windows[0], windowManager.findWindowWithProcessId(100))
+        assertSame(windows[998], windowManager.findWindowWithProcessId(599))
+        assertNull(windowManager.findWindowWithProcessId(600))
+
+        windowManager.destroyWindow(windows[0].id)
+        assertSame(windows[1], windowManager.findWindowWithProcessId(100))
+        windows[1].removeProperty(pidAtom)
+        assertNull(windowManager.findWindowWithProcessId(100))
+        setPid(windows[2], 100)
+        assertSame(windows[2], windowManager.findWindowWithProcessId(100))
+        assertSame(windows[3], windowManager.findWindowWithProcessId(101))
+
+        client.freeResources()
+        assertNull(windowManager.findWindowWithProcessId(300))
+    }
+
+    /** 100k creates and frees with a sliding window of live ids, against the SparseArray the managers used to hold. */
+    @Test
+    fun benchmark_createFreeChurn() {
+        val operations = 100_000
+        val live = 2000
+        val values = Array(live) { Any() }
+
+        fun sparseArray(): Long {
+            val array = SparseArray<Any>()
+            val start = System.nanoTime()
+            for (i in 0 until operations) {
+                array.put(base1 + i, values[i % live])
+                if (i >= live) array.remove(base1 + i - live)
+                if (array.get(base1 + i - live / 2) == null && i >= live / 2) throw AssertionError()
+            }
+            for (i in operations - live until operations) array.remove(base1 + i)
+            return System.nanoTime() - start
+        }
+
+        fun resourceTable(): Long {
+            val table = ResourceTable<Any>()
+            val start = System.nanoTime()
+            for (i in 0 until operations) {
+                table.put(base1 + i, values[i % live])
+                if (i >= live) table.remove(base1 + i - live)
+                if (table.get(base1 + i - live / 2) == null && i >= live / 2) throw AssertionError()
+            }
+            table.removeClient(base1, null)
+            return System.nanoTime() - start
+        }
+
+        repeat(3) { sparseArray(); resourceTable() }
+        val sparse = (1..5).minOf { sparseArray() }
+        val table = (1..5).minOf { resourceTable() }
+        println("Create/free churn of %d ids: SparseArray %.1f ms, ResourceTable %.1f ms".format(operations, sparse / 1e6, table / 1e6))
+        assertTrue(sparse > 0 && table > 0)
+    }
+}
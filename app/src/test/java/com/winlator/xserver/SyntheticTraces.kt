@@ -0,0 +1,242 @@
+package com.winlator.xserver
+
+import com.winlator.xconnector.XTraceRecorder
+import java.io.ByteArrayOutputStream
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+/**
+ * Generates X client traffic in the [XTraceRecorder] format for replay benchmarks, shaped like the
+ * workloads Wine produces: a window manager style startup, a PutImage heavy 2D game and a DXVK
+ * swapchain presenting through Present and Sync fences.
+ *
+ * Resource ids have to fall inside the range the replaying server hands the first client, and windows
+ * are created on its root window, so both are passed in.
+ */
+object SyntheticTraces {
+    private const val CREATE_WINDOW: Byte = 1
+    private const val MAP_WINDOW: Byte = 8
+    private const val CONFIGURE_WINDOW: Byte = 12
+    private const val INTERN_ATOM: Byte = 16
+    private const val CHANGE_PROPERTY: Byte = 18
+    private const val GET_PROPERTY: Byte = 20
+    private const val CREATE_PIXMAP: Byte = 53
+    private const val FREE_PIXMAP: Byte = 54
+    private const val CREATE_GC: Byte = 55
+    private const val PUT_IMAGE: Byte = 72
+    private const val GET_IMAGE: Byte = 73
+    private const val PRESENT: Byte = -103
+    private const val PRESENT_PIXMAP: Byte = 1
+    private const val SYNC: Byte = -104
+    private const val SYNC_CREATE_FENCE: Byte = 14
+    private const val SYNC_RESET_FENCE: Byte = 16
+    private const val SYNC_AWAIT_FENCE: Byte = 19
+    private const val ATOM_STRING = 31
+    private const val ATOM_WM_NAME = 39
+    private const val ATOM_WM_CLASS = 67
+    private const val Z_PIXMAP: Byte = 2
+    private const val CLIENT_ID = 1
+
+    private class TraceClient(private val recorder: XTraceRecorder) {
+        private val out = ByteBuffer.allocate(1 shl 22).order(ByteOrder.LITTLE_ENDIAN)
+
+        init {
+            recorder.recordConnect(CLIENT_ID)
+            out.put(108).put(0).putShort(11).putShort(0).putShort(0).putShort(0).putShort(0)
+            flush()
+        }
+
+        fun header(opcode: Byte, data: Byte, length: Int) {
+            out.put(opcode).put(data).putShort(length.toShort())
+        }
+
+        fun createWindow(id: Int, parent: Int, width: Int, height: Int) {
+            header(CREATE_WINDOW, 0, 8)
+            out.putInt(id).putInt(parent).putShort(0).putShort(0).putShort(width.toShort()).putShort(height.toShort())
+            out.putShort(0).putShort(0).putInt(0).putInt(0)
+        }
+
+        fun mapWindow(id: Int) {
+            header(MAP_WINDOW, 0, 2)
+            out.putInt(id)
+        }
+
+        fun moveWindow(id: Int, x: Int, y: Int) {
+            header(CONFIGURE_WINDOW, 0, 5)
+            out.putInt(id).putShort(0x3).putShort(0).putInt(x).putInt(y)
+        }
+
+        fun internAtom(name: String) {
+            val padded = (name.length + 3) and 3.inv()
+            header(INTERN_ATOM, 0, 2 + padded / 4)
+            out.putShort(name.length.toShort()).putShort(0).put(name.toByteArray(Charsets.ISO_8859_1))
+            repeat(padded - name.length) { out.put(0) }
+        }
+
+        fun changeProperty(window: Int, property: Int, value: String) {
+            val padded = (value.length + 3) and 3.inv()
+            header(CHANGE_PROPERTY, 0, 6 + padded / 4)
+            out.putInt(window).putInt(property).putInt(ATOM_STRING).put(8).put(0).putShort(0).putInt(value.length)
+            out.put(value.toByteArray(Charsets.ISO_8859_1))
+            repeat(padded - value.length) { out.put(0) }
+        }
+
+        fun getProperty(window: Int, property: Int) {
+            header(GET_PROPERTY, 0, 6)
+            out.putInt(window).putInt(property).putInt(0).putInt(0).putInt(1024)
+        }
+
+        fun createGC(id: Int, drawable: Int) {
+            header(CREATE_GC, 0, 4)
+            out.putInt(id).putInt(drawable).putInt(0)
+        }
+
+        fun createPixmap(id: Int, drawable: Int, width: Int, height: Int, depth: Byte = 32) {
+            header(CREATE_PIXMAP, depth, 4)
+            out.putInt(id).putInt(drawable).putShort(width.toShort()).putShort(height.toShort())
+        }
+
+        fun freePixmap(id: Int) {
+            header(FREE_PIXMAP, 0, 2)
+            out.putInt(id)
+        }
+
+        fun putImage(drawable: Int, gc: Int, x: Int, y: Int, width: Int, height: Int, seed: Int) {
+            header(PUT_IMAGE, Z_PIXMAP, 6 + width * height)
+            out.putInt(drawable).putInt(gc).putShort(width.toShort()).putShort(height.toShort())
+            out.putShort(x.toShort()).putShort(y.toShort()).put(0).put(24).putShort(0)
+            for (i in 0 until width * height) out.putInt((seed + i) * 0x9E3779B1.toInt())
+        }
+
+        fun getImage(drawable: Int, x: Int, y: Int, width: Int, height: Int) {
+            header(GET_IMAGE, Z_PIXMAP, 5)
+            out.putInt(drawable).putShort(x.toShort()).putShort(y.toShort()).putShort(width.toShort()).putShort(height.toShort()).putInt(-1)
+        }
+
+        fun createFence(drawable: Int, fence: Int) {
+            header(SYNC, SYNC_CREATE_FENCE, 4)
+            out.putInt(drawable).putInt(fence).put(1).put(0).putShort(0)
+        }
+
+        fun awaitFence(fence: Int) {
+            header(SYNC, SYNC_AWAIT_FENCE, 2)
+            out.putInt(fence)
+        }
+
+        fun resetFence(fence: Int) {
+            header(SYNC, SYNC_RESET_FENCE, 2)
+            out.putInt(fence)
+        }
+
+        fun presentPixmap(window: Int, pixmap: Int, serial: Int, idleFence: Int) {
+            header(PRESENT, PRESENT_PIXMAP, 18)
+            out.putInt(window).putInt(pixmap).putInt(serial).putInt(0).putInt(0)
+            out.putShort(0).putShort(0).putInt(0).putInt(0).putInt(idleFence)
+            repeat(8) { out.putInt(0) }
+        }
+
+        /** Sends what was queued as one read, the way a client's XFlush reaches the socket. */
+        fun flush() {
+            out.flip()
+            recorder.recordData(CLIENT_ID, out)
+            out.clear()
+        }
+
+        fun disconnect() = recorder.recordDisconnect(CLIENT_ID)
+    }
+
+    private fun record(block: TraceClient.() -> Unit): ByteArray {
+        val bytes = ByteArrayOutputStream()
+        XTraceRecorder(bytes, "/tmp/.X11-unix/X0").use { recorder ->
+            TraceClient(recorder).apply {
+                block()
+                disconnect()
+            }
+        }
+        return bytes.toByteArray()
+    }
+
+    /** Top level windows mapped one after another with their names, classes and EWMH atoms. */
+    fun windowManagerStartup(rootWindow: Int, idBase: Int, windows: Int = 200): ByteArray = record {
+        listOf("_NET_WM_NAME", "_NET_WM_STATE", "_NET_WM_PID", "UTF8_STRING", "WM_PROTOCOLS", "WM_DELETE_WINDOW").forEach(::internAtom)
+        flush()
+        for (i in 0 until windows) {
+            val window = idBase + 1 + i
+            createWindow(window, rootWindow, 320, 240)
+            changeProperty(window, ATOM_WM_NAME, "Window $i")
+            changeProperty(window, ATOM_WM_CLASS, "explorer.exe\u0000Explorer.exe\u0000")
+            internAtom("_WINE_HWND_$i")
+            mapWindow(window)
+            moveWindow(window, i * 4, i * 3)
+            getProperty(window, ATOM_WM_NAME)
+            flush()
+        }
+    }
+
+    /** A single window repainted with PutImage tiles every frame. */
+    fun putImage2D(rootWindow: Int, idBase: Int, frames: Int = 60, tile: Int = 64, tilesPerFrame: Int = 12): ByteArray = record {
+        val window = idBase + 1
+        val gc = idBase + 2
+        createWindow(window, rootWindow, 640, 480)
+        mapWindow(window)
+        createGC(gc, window)
+        flush()
+        for (frame in 0 until frames) {
+            for (i in 0 until tilesPerFrame) {
+                putImage(window, gc, (i % 8) * tile, (i / 8) * tile, tile, tile, frame * tilesPerFrame + i)
+            }
+            flush()
+        }
+    }
+
+    /**
+     * A DXVK style swapchain: a ring of back buffer pixmaps, each with an idle fence the client waits on
+     * and resets before rendering into the buffer again.
+     */
+    fun presentLoop(rootWindow: Int, idBase: Int, frames: Int = 240, width: Int = 320, height: Int = 240, bufferCount: Int = 3): ByteArray = record {
+        val window = idBase + 1
+        val gc = idBase + 2
+        val pixmaps = IntArray(bufferCount) { idBase + 16 + it }
+        val fences = IntArray(bufferCount) { idBase + 32 + it }
+        createWindow(window, rootWindow, width, height)
+        mapWindow(window)
+        createGC(gc, window)
+        for (i in 0 until bufferCount) {
+            createPixmap(pixmaps[i], window, width, height)
+            createFence(window, fences[i])
+        }
+        flush()
+        for (frame in 0 until frames) {
+            val buffer = frame % bufferCount
+            awaitFence(fences[buffer])
+            resetFence(fences[buffer])
+            // The rendered frame lands in the pixmap as a stripe, the rest is left from earlier frames
+            putImage(pixmaps[buffer], gc, 0, (frame * 8) % height, width, 8, frame)
+            presentPixmap(window, pixmaps[buffer], frame + 1, fences[buffer])
+            flush()
+        }
+    }
+
+    /**
+     * GDI style temporary pixmaps: every round creates a depth 1 mask and a few colour pixmaps of mixed
+     * sizes, draws into one, reads one back with GetImage and frees them all again.
+     */
+    fun pixmapChurn(rootWindow: Int, idBase: Int, rounds: Int = 500): ByteArray = record {
+        val gc = idBase + 1
+        createGC(gc, rootWindow)
+        flush()
+        for (round in 0 until rounds) {
+            val mask = idBase + 16
+            val pixmaps = IntArray(3) { idBase + 17 + it }
+            createPixmap(mask, rootWindow, 32, 32, depth = 1)
+            createPixmap(pixmaps[0], rootWindow, 16 + round % 48, 16)
+            createPixmap(pixmaps[1], rootWindow, 64, 64)
+            createPixmap(pixmaps[2], rootWindow, 200 + round % 100, 120)
+            putImage(pixmaps[1], gc, 0, 0, 64, 16, round)
+            getImage(pixmaps[1], 0, 0, 64, 64)
+            freePixmap(mask)
+            pixmaps.forEach(::freePixmap)
+            flush()
+        }
+    }
+}
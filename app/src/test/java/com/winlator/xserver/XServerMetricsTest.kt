@@ -0,0 +1,130 @@
+package com.winlator.xserver
+
+import com.winlator.xconnector.XInputStream
+import com.winlator.xconnector.XOutputStream
+import java.io.ByteArrayInputStream
+import java.lang.management.ManagementFactory
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Assume.assumeTrue
+import org.junit.BeforeClass
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import timber.log.Timber
+
+@RunWith(RobolectricTestRunner::class)
+@Config(
+    manifest = Config.NONE,
+    application = android.app.Application::class
+)
+class XServerMetricsTest {
+    companion object {
+        @JvmStatic
+        @BeforeClass
+        fun setUpClass() {
+            Timber.uprootAll()
+        }
+
+        private const val SYNC: Byte = -104
+    }
+
+    @Test
+    fun histogramBucketsAreContiguous() {
+        var previous = 0
+        for (nanos in 0L..100_000L) {
+            val bucket = XServerMetrics.LatencyHistogram.bucketOf(nanos)
+            assertTrue("$nanos", bucket == previous || bucket == previous + 1)
+            assertTrue("$nanos", XServerMetrics.LatencyHistogram.bucketLowerBound(bucket) <= nanos)
+            assertTrue("$nanos", XServerMetrics.LatencyHistogram.bucketLowerBound(bucket + 1) > nanos)
+            previous = bucket
+        }
+    }
+
+    @Test
+    fun percentilesStayWithinABucket() {
+        val histogram = XServerMetrics.LatencyHistogram()
+        for (i in 1..1000) histogram.record(i * 1000L)
+        assertEquals(1000, histogram.count)
+        assertEquals(1_000_000L, histogram.maxNanos)
+        // Four buckets per power of two keep every percentile within 25% above the exact value
+        val p50 = histogram.percentile(50.0)
+        val p99 = histogram.percentile(99.0)
+        assertTrue("p50 $p50", p50 in 500_000L..625_000L)
+        assertTrue("p99 $p99", p99 in 990_000L..1_000_000L)
+    }
+
+    @Test
+    fun recordingDoesNotAllocate() {
+        val threadBean = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean
+        assumeTrue(threadBean != null && threadBean.isThreadAllocatedMemorySupported)
+        threadBean!!.isThreadAllocatedMemoryEnabled = true
+        val metrics = XServer(ScreenInfo(800, 600)).metrics
+        metrics.isEnabled = true
+
+        fun record(times: Int) {
+            for (i in 0 until times) {
+                metrics.recordRequest(ClientOpcodes.PUT_IMAGE, 0, i.toLong())
+                metrics.recordRequest(SYNC, 19, i.toLong())
+                metrics.recordLockWait(XServer.Lockable.WINDOW_MANAGER, i.toLong(), i % 8 == 0)
+                metrics.recordEvent(35)
+            }
+        }
+        // The first request of each opcode allocates its histogram
+        record(1000)
+        val threadId = Thread.currentThread().id
+        val before = threadBean.getThreadAllocatedBytes(threadId)
+        record(100_000)
+        val allocated = threadBean.getThreadAllocatedBytes(threadId) - before
+        assertTrue("$allocated bytes allocated", allocated < 1024)
+    }
+
+    @Test
+    fun replayIsAttributedToOpcodesLocksAndEvents() {
+        val xServer = XServer(ScreenInfo(800, 600))
+        xServer.metrics.isEnabled = true
+        val trace = SyntheticTraces.presentLoop(xServer.windowManager.rootWindow.id, xServer.resourceIDs.idMask + 1, frames = 120)
+        XTraceReplayer(xServer).replay(ByteArrayInputStream(trace), false)
+
+        val snapshot = xServer.metrics.snapshot()
+        println(snapshot)
+        assertEquals(120, snapshot.getRequestStats("PUT_IMAGE")!!.count)
+        assertEquals(120, snapshot.getRequestStats("Present:1")!!.count)
+        assertEquals(120, snapshot.getRequestStats("SYNC:19")!!.count)
+        val windowManagerLock = snapshot.locks.first { it.lockable == XServer.Lockable.WINDOW_MANAGER }
+        assertTrue(windowManagerLock.acquisitions >= 120)
+        assertEquals(0, windowManagerLock.contentions)
+
+        xServer.metrics.reset()
+        assertTrue(xServer.metrics.snapshot().requests.isEmpty())
+    }
+
+    @Test
+    fun clientsAreTrackedUntilFreed() {
+        val xServer = XServer(ScreenInfo(800, 600))
+        val client = XClient(xServer, XInputStream(128), XOutputStream(128))
+        val stats = xServer.metrics.snapshot().clients.single()
+        assertEquals(client.resourceIDBase, stats.resourceIDBase)
+        assertEquals(0, stats.bytesIn)
+        client.freeResources()
+        assertTrue(xServer.metrics.snapshot().clients.isEmpty())
+    }
+
+    @Test
+    fun disabledOverheadBenchmark() {
+        fun requestsPerSecond(enabled: Boolean): Double {
+            val xServer = XServer(ScreenInfo(800, 600))
+            xServer.metrics.isEnabled = enabled
+            val trace = SyntheticTraces.windowManagerStartup(xServer.windowManager.rootWindow.id, xServer.resourceIDs.idMask + 1, windows = 2000)
+            return XTraceReplayer(xServer).replay(ByteArrayInputStream(trace), false).requestsPerSecond()
+        }
+
+        // Warm up both paths before measuring
+        repeat(2) { requestsPerSecond(false); requestsPerSecond(true) }
+        val disabled = (1..3).maxOf { requestsPerSecond(false) }
+        val enabled = (1..3).maxOf { requestsPerSecond(true) }
+        println("Metrics disabled: ${disabled.toLong()} requests/s, enabled: ${enabled.toLong()} requests/s")
+        assertTrue(disabled > 0 && enabled > 0)
+    }
+}
@@ -0,0 +1,211 @@
+package com.winlator.xserver
+
+import com.winlator.xconnector.NioXConnector
+import com.winlator.xconnector.UnixDomainSockets
+import java.io.File
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.channels.SocketChannel
+import java.util.concurrent.TimeUnit
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.BeforeClass
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import timber.log.Timber
+
+/**
+ * Drives the real X server request handling over [NioXConnector] with a scripted little-endian client,
+ * and reports request throughput for a few round-trip heavy requests.
+ */
+@RunWith(RobolectricTestRunner::class)
+@Config(
+    manifest = Config.NONE,
+    application = android.app.Application::class
+)
+class XServerNioTest {
+    private lateinit var tempDir: File
+    private lateinit var xServer: XServer
+    private lateinit var connector: NioXConnector
+
+    companion object {
+        @JvmStatic
+        @BeforeClass
+        fun setUpClass() {
+            Timber.uprootAll()
+        }
+
+        private const val INTERN_ATOM: Byte = 16
+        private const val CHANGE_PROPERTY: Byte = 18
+        private const val GET_PROPERTY: Byte = 20
+        private const val ATOM_STRING = 31
+        private const val BATCH = 256
+    }
+
+    private class ScriptedClient(path: File) : AutoCloseable {
+        private val channel: SocketChannel = UnixDomainSockets.connect(path.toPath())
+        private val out = ByteBuffer.allocate(1 shl 20).order(ByteOrder.LITTLE_ENDIAN)
+        var sequence = 0
+            private set
+
+        fun handshake(): ByteBuffer {
+            val setup = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN).put(108).put(0).putShort(11).putShort(0).putShort(0).putShort(0).putShort(0)
+            setup.flip()
+            channel.write(setup)
+            val header = read(8)
+            assertEquals(1, header.get(0).toInt())
+            return read(header.getShort(6).toInt() * 4)
+        }
+
+        fun internAtom(name: String) {
+            val padded = (name.length + 3) and 3.inv()
+            out.put(INTERN_ATOM).put(0).putShort((2 + padded / 4).toShort()).putShort(name.length.toShort()).putShort(0)
+            out.put(name.toByteArray(Charsets.ISO_8859_1))
+            repeat(padded - name.length) { out.put(0) }
+            sequence++
+        }
+
+        fun changeProperty(window: Int, property: Int, value: ByteArray) {
+            val padded = (value.size + 3) and 3.inv()
+            out.put(CHANGE_PROPERTY).put(0).putShort((6 + padded / 4).toShort())
+            out.putInt(window).putInt(property).putInt(ATOM_STRING).put(8).put(0).putShort(0).putInt(value.size)
+            out.put(value)
+            repeat(padded - value.size) { out.put(0) }
+            sequence++
+        }
+
+        fun getProperty(window: Int, property: Int) {
+            out.put(GET_PROPERTY).put(0).putShort(6).putInt(window).putInt(property).putInt(0).putInt(0).putInt(1024)
+            sequence++
+        }
+
+        fun flush() {
+            out.flip()
+            while (out.hasRemaining()) channel.write(out)
+            out.clear()
+        }
+
+        /** Reads one reply: the 32-byte header followed by any extra reply data. */
+        fun readReply(): ByteBuffer {
+            val header = read(32)
+            assertEquals("error ${header.get(1)}", 1, header.get(0).toInt())
+            val extra = header.getInt(4) * 4
+            if (extra == 0) return header
+            val reply = ByteBuffer.allocate(32 + extra).order(ByteOrder.LITTLE_ENDIAN).put(header).put(read(extra))
+            reply.flip()
+            return reply
+        }
+
+        private fun read(length: Int): ByteBuffer {
+            val buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN)
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) throw IllegalStateException("X server closed the connection")
+            }
+            buffer.flip()
+            return buffer
+        }
+
+        override fun close() = channel.close()
+    }
+
+    @Before
+    fun setUp() {
+        tempDir = createTempDir("xserver")
+        xServer = XServer(ScreenInfo(800, 600))
+        connector = NioXConnector(
+            File(tempDir, "X0").toPath(),
+            XClientConnectionHandler(xServer),
+            XClientRequestHandler(),
+            initialInputBufferCapacity = 262144,
+        )
+        connector.start()
+    }
+
+    @After
+    fun tearDown() {
+        connector.stop()
+        tempDir.deleteRecursively()
+    }
+
+    private fun client() = ScriptedClient(File(tempDir, "X0")).also { it.handshake() }
+
+    private fun throughput(label: String, requests: Int, block: () -> Unit): Double {
+        val start = System.nanoTime()
+        block()
+        val seconds = (System.nanoTime() - start) / TimeUnit.SECONDS.toNanos(1).toDouble()
+        val perSecond = requests / seconds
+        println("$label: ${perSecond.toLong()} requests/s")
+        return perSecond
+    }
+
+    @Test
+    fun handshakeReportsTheScreen() {
+        ScriptedClient(File(tempDir, "X0")).use { client ->
+            val setup = client.handshake()
+            // resource-id-mask, then the root window of the only screen after vendor and pixmap formats
+            assertEquals(xServer.resourceIDs.idMask, setup.getInt(8))
+            val vendorLength = setup.getShort(16).toInt()
+            val formats = setup.get(21).toInt()
+            val screen = 32 + ((vendorLength + 3) and 3.inv()) + formats * 8
+            assertEquals(xServer.windowManager.rootWindow.id, setup.getInt(screen))
+            assertEquals(800, setup.getShort(screen + 20).toInt())
+            assertEquals(600, setup.getShort(screen + 22).toInt())
+        }
+    }
+
+    @Test
+    fun internAtomAndPropertiesRoundTrip() {
+        client().use { client ->
+            client.internAtom("WM_NAME")
+            client.internAtom("_NIO_TEST_ATOM")
+            client.flush()
+            assertEquals(Atom.getId("WM_NAME"), client.readReply().getInt(8))
+            val atom = client.readReply().getInt(8)
+            assertEquals("_NIO_TEST_ATOM", Atom.getName(atom))
+
+            val root = xServer.windowManager.rootWindow.id
+            client.changeProperty(root, atom, "hello x".toByteArray())
+            client.getProperty(root, atom)
+            client.flush()
+            val reply = client.readReply()
+            assertEquals(ATOM_STRING, reply.getInt(8))
+            assertEquals(7, reply.getInt(16))
+            val value = ByteArray(7).also { reply.position(32); reply.get(it) }
+            assertEquals("hello x", String(value))
+        }
+    }
+
+    @Test
+    fun requestThroughputBenchmark() {
+        client().use { client ->
+            val names = List(BATCH) { "_BENCH_ATOM_$it" }
+            val root = xServer.windowManager.rootWindow.id
+            val rounds = 40
+
+            // Pipelined in batches so neither side blocks on a full socket buffer
+            val internAtoms = throughput("InternAtom", rounds * BATCH) {
+                repeat(rounds) {
+                    names.forEach(client::internAtom)
+                    client.flush()
+                    repeat(BATCH) { client.readReply() }
+                }
+            }
+
+            val property = Atom.internAtom("_BENCH_PROPERTY")
+            client.changeProperty(root, property, ByteArray(256) { it.toByte() })
+            val getProperties = throughput("GetProperty", rounds * BATCH) {
+                repeat(rounds) {
+                    repeat(BATCH) { client.getProperty(root, property) }
+                    client.flush()
+                    repeat(BATCH) { assertEquals(64, client.readReply().getInt(4)) }
+                }
+            }
+
+            assertTrue(internAtoms > 0 && getProperties > 0)
+        }
+    }
+}
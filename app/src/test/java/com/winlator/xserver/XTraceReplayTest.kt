@@ -0,0 +1,124 @@
+package com.winlator.xserver
+
+import com.winlator.xconnector.XTraceReader
+import com.winlator.xconnector.XTraceRecorder
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.lang.management.ManagementFactory
+import java.nio.ByteBuffer
+import java.util.concurrent.TimeUnit
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertTrue
+import org.junit.BeforeClass
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import timber.log.Timber
+
+/**
+ * Replays [SyntheticTraces] against a fresh in-process X server and prints the per opcode report, so
+ * request handling changes can be compared on the same traffic.
+ */
+@RunWith(RobolectricTestRunner::class)
+@Config(
+    manifest = Config.NONE,
+    application = android.app.Application::class
+)
+class XTraceReplayTest {
+    companion object {
+        @JvmStatic
+        @BeforeClass
+        fun setUpClass() {
+            Timber.uprootAll()
+        }
+    }
+
+    private fun replayer(xServer: XServer) = XTraceReplayer(xServer).apply {
+        val threadBean = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean
+        if (threadBean != null && threadBean.isThreadAllocatedMemorySupported) {
+            threadBean.isThreadAllocatedMemoryEnabled = true
+            setAllocatedBytesCounter { threadBean.getThreadAllocatedBytes(Thread.currentThread().id) }
+        }
+    }
+
+    private fun replay(name: String, trace: (rootWindow: Int, idBase: Int) -> ByteArray): XTraceReplayer.Result {
+        val xServer = XServer(ScreenInfo(800, 600))
+        // The first client gets the lowest id base, which starts right above the id mask
+        val bytes = trace(xServer.windowManager.rootWindow.id, xServer.resourceIDs.idMask + 1)
+        val result = replayer(xServer).replay(ByteArrayInputStream(bytes), false)
+        println("$name (${bytes.size} byte trace): $result")
+        return result
+    }
+
+    @Test
+    fun recorderAndReaderRoundTrip() {
+        val bytes = ByteArrayOutputStream()
+        val payload = ByteArray(100_000) { it.toByte() }
+        XTraceRecorder(bytes, "/tmp/.X11-unix/X0").use { recorder ->
+            recorder.recordConnect(7)
+            val data = ByteBuffer.wrap(payload)
+            data.position(10)
+            recorder.recordData(7, data)
+            assertEquals(10, data.position())
+            recorder.recordDisconnect(7)
+        }
+
+        XTraceReader(ByteArrayInputStream(bytes.toByteArray())).use { reader ->
+            assertEquals("/tmp/.X11-unix/X0", reader.socketPath)
+            assertTrue(reader.next())
+            assertEquals(XTraceRecorder.RECORD_CONNECT, reader.type)
+            assertEquals(7, reader.clientId)
+            assertTrue(reader.next())
+            assertEquals(XTraceRecorder.RECORD_DATA, reader.type)
+            assertArrayEquals(payload.copyOfRange(10, payload.size), reader.data.copyOf(reader.dataLength))
+            assertTrue(reader.next())
+            assertEquals(XTraceRecorder.RECORD_DISCONNECT, reader.type)
+            assertFalse(reader.next())
+        }
+    }
+
+    @Test
+    fun windowManagerStartup() {
+        val result = replay("Window manager startup") { root, idBase -> SyntheticTraces.windowManagerStartup(root, idBase, windows = 200) }
+        assertEquals(1 + 6 + 200 * 7, result.requests)
+        assertEquals(200, result.getOpcodeStats("CREATE_WINDOW")!!.count)
+        assertEquals(400, result.getOpcodeStats("CHANGE_PROPERTY")!!.count)
+        // Setup, 206 InternAtom and 200 GetProperty replies; errors would add to this
+        assertTrue(result.bytesWritten >= 206 * 32L + 200 * 32L)
+    }
+
+    @Test
+    fun putImage2D() {
+        val result = replay("PutImage 2D") { root, idBase -> SyntheticTraces.putImage2D(root, idBase, frames = 60) }
+        assertEquals(60 * 12, result.getOpcodeStats("PUT_IMAGE")!!.count)
+        assertTrue(result.bytesRead > 60 * 12 * 64 * 64 * 4L)
+        // Only the setup reply goes back: any error would be another 32 bytes
+        assertTrue("${result.bytesWritten} bytes written", result.bytesWritten < 1024)
+    }
+
+    @Test
+    fun presentLoop() {
+        val result = replay("Present loop") { root, idBase -> SyntheticTraces.presentLoop(root, idBase, frames = 240) }
+        val present = result.getOpcodeStats("Present:1")
+        assertNotNull(present)
+        assertEquals(240, present!!.count)
+        assertEquals(240, result.getOpcodeStats("SYNC:19")!!.count)
+        assertTrue("${result.bytesWritten} bytes written", result.bytesWritten < 1024)
+    }
+
+    @Test
+    fun originalPacingFollowsTheRecording() {
+        val bytes = ByteArrayOutputStream()
+        XTraceRecorder(bytes, "/tmp/.X11-unix/X0").use { recorder ->
+            recorder.recordConnect(1)
+            Thread.sleep(50)
+            recorder.recordDisconnect(1)
+        }
+        val result = replayer(XServer(ScreenInfo(800, 600))).replay(ByteArrayInputStream(bytes.toByteArray()), true)
+        assertTrue(result.elapsedNanos >= TimeUnit.MILLISECONDS.toNanos(45))
+    }
+}